@@ -0,0 +1,116 @@
+package org.vedantatree.comps.securitymanager.bench;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+
+/**
+ * A small harness to measure the throughput, average time and allocation rate of an operation.
+ *
+ * <p>
+ * Operation is first run for the warm up time, so that JIT compiles it, and then it is measured for the measurement
+ * time in batches. Allocation is measured with the allocated bytes counter of current thread, if JVM provides it.
+ * Results of operation are consumed, so that JIT can not remove the work as dead code.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public class MicroBenchmark
+{
+
+	private static final int	BATCH_SIZE	= 256;
+
+	private final long			warmupMillis;
+	private final long			measurementMillis;
+
+	/**
+	 * Sink for the results of operations
+	 */
+	private volatile int		sink;
+
+	/**
+	 * Work to measure
+	 */
+	public interface Operation
+	{
+
+		/**
+		 * @param iteration Number of the iteration, can be used to pick the input
+		 * @return Result of the work, it is consumed by harness
+		 */
+		Object run( int iteration ) throws Exception;
+	}
+
+	public MicroBenchmark( long warmupMillis, long measurementMillis )
+	{
+		this.warmupMillis = warmupMillis;
+		this.measurementMillis = measurementMillis;
+	}
+
+	/**
+	 * It runs the operation and prints one line of result. Failure of operation is printed instead of result.
+	 *
+	 * @param name Name of the benchmark
+	 * @param operation Work to measure
+	 */
+	public void run( String name, Operation operation )
+	{
+		try
+		{
+			measure( operation, warmupMillis );
+			long allocatedBefore = allocatedBytes();
+			long startNanos = System.nanoTime();
+			long operations = measure( operation, measurementMillis );
+			long elapsedNanos = System.nanoTime() - startNanos;
+			long allocatedAfter = allocatedBytes();
+
+			double nanosPerOperation = (double) elapsedNanos / operations;
+			double operationsPerSecond = operations * 1e9 / elapsedNanos;
+			String bytesPerOperation = allocatedBefore < 0 ? "n/a"
+					: String.format( Locale.ENGLISH, "%.1f", (double) ( allocatedAfter - allocatedBefore ) / operations );
+			System.out.println( String.format( Locale.ENGLISH, "%-50s %15.1f ops/s %12.1f ns/op %12s B/op", name,
+					operationsPerSecond, nanosPerOperation, bytesPerOperation ) );
+		}
+		catch( Exception e )
+		{
+			System.out.println( String.format( Locale.ENGLISH, "%-50s failed: %s", name, e ) );
+		}
+	}
+
+	private long measure( Operation operation, long millis ) throws Exception
+	{
+		long endNanos = System.nanoTime() + millis * 1000000L;
+		long operations = 0;
+		int iteration = 0;
+		int result = 0;
+		do
+		{
+			for( int i = 0; i < BATCH_SIZE; i++ )
+			{
+				Object value = operation.run( iteration++ );
+				result += value == null ? 0 : System.identityHashCode( value );
+			}
+			operations += BATCH_SIZE;
+		} while( System.nanoTime() < endNanos );
+		sink += result;
+		return operations;
+	}
+
+	/**
+	 * @return Bytes allocated by current thread so far, -1 if JVM does not support it
+	 */
+	private static long allocatedBytes()
+	{
+		ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if( threadBean instanceof com.sun.management.ThreadMXBean )
+		{
+			com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+			if( allocationBean.isThreadAllocatedMemorySupported() && allocationBean.isThreadAllocatedMemoryEnabled() )
+			{
+				return allocationBean.getThreadAllocatedBytes( Thread.currentThread().getId() );
+			}
+		}
+		return -1;
+	}
+
+}
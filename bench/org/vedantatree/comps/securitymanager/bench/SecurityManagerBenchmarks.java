@@ -0,0 +1,191 @@
+package org.vedantatree.comps.securitymanager.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+import org.vedantatree.comps.securitymanager.AppSecurityManager;
+import org.vedantatree.comps.securitymanager.model.Menu;
+import org.vedantatree.comps.securitymanager.model.MenuCatalog;
+import org.vedantatree.comps.securitymanager.model.User;
+
+
+/**
+ * Benchmarks for the hot paths of security manager.
+ *
+ * <p>
+ * It runs on a synthetic catalog, whose size can be configured with system properties:
+ * <ul>
+ * <li>bench.menus - number of menus, default 200</li>
+ * <li>bench.items - number of menu items per menu, default 50</li>
+ * <li>bench.depth - depth of menu item hierarchy, default 3</li>
+ * <li>bench.roles - number of roles, default 10</li>
+ * <li>bench.users - number of users to validate the requests for, default 100</li>
+ * <li>bench.warmupMillis - warm up time of each benchmark, default 2000</li>
+ * <li>bench.measurementMillis - measurement time of each benchmark, default 5000</li>
+ * <li>bench.filter - only benchmarks whose name contains this text are run</li>
+ * </ul>
+ *
+ * Logging should be configured at WARN level or above, otherwise log4j defaults to DEBUG and the log statements of
+ * security manager dominate the measurements.
+ *
+ * Example: java -Dlog4j.configuration=file:bench/log4j-warn.properties -Dbench.menus=1000 -Dbench.filter=validate -cp bin:lib/* org.vedantatree.comps.securitymanager.bench.SecurityManagerBenchmarks
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public class SecurityManagerBenchmarks
+{
+
+	private final SyntheticCatalog		syntheticCatalog;
+	private final MicroBenchmark		microBenchmark;
+	private final String				filter;
+	private final int					userCount;
+	private final AppSecurityManager	securityManager;
+
+	public SecurityManagerBenchmarks()
+	{
+		syntheticCatalog = new SyntheticCatalog( Integer.getInteger( "bench.menus", 200 ),
+				Integer.getInteger( "bench.items", 50 ), Integer.getInteger( "bench.depth", 3 ),
+				Integer.getInteger( "bench.roles", 10 ) );
+		microBenchmark = new MicroBenchmark( Long.getLong( "bench.warmupMillis", 2000 ),
+				Long.getLong( "bench.measurementMillis", 5000 ) );
+		filter = System.getProperty( "bench.filter", "" );
+		userCount = Integer.getInteger( "bench.users", 100 );
+		securityManager = new BenchmarkSecurityManager();
+	}
+
+	public static void main( String[] args ) throws Exception
+	{
+		new SecurityManagerBenchmarks().runAll();
+	}
+
+	public void runAll() throws Exception
+	{
+		System.out.println( syntheticCatalog + " users[" + userCount + "]" );
+
+		final String[] completeURIs = new String[syntheticCatalog.getItemsPerMenu()];
+		final HttpServletRequest[] requests = new HttpServletRequest[completeURIs.length];
+		for( int i = 0; i < completeURIs.length; i++ )
+		{
+			completeURIs[i] = "/context/" + SyntheticCatalog.menuItemURL( 0, i ) + "&menu=y&page=" + i;
+			requests[i] = newRequest( "/context/menuItem.do", "item-id=" + i + "&menu=y&page=" + i );
+		}
+		run( "getProcessedRequestURI(String)",
+				iteration -> securityManager.getProcessedRequestURI( completeURIs[iteration % completeURIs.length] ) );
+		run( "getProcessedRequestURI(HttpServletRequest)",
+				iteration -> securityManager.getProcessedRequestURI( requests[iteration % requests.length] ) );
+
+		MenuCatalog catalog = syntheticCatalog.buildCatalog();
+		securityManager.setMenuCatalog( catalog );
+		final User[] catalogUsers = new User[userCount];
+		final User[] ownMenuUsers = new User[Math.min( userCount, 10 )];
+		for( int i = 0; i < catalogUsers.length; i++ )
+		{
+			catalogUsers[i] = syntheticCatalog.buildUser( i, catalog );
+		}
+		for( int i = 0; i < ownMenuUsers.length; i++ )
+		{
+			ownMenuUsers[i] = syntheticCatalog.buildUser( i, null );
+		}
+		final String[] menuURLs = new String[syntheticCatalog.getMenuCount()];
+		for( int i = 0; i < menuURLs.length; i++ )
+		{
+			menuURLs[i] = SyntheticCatalog.menuURL( i );
+		}
+
+		run( "validateRequestForMenu (catalog users)",
+				iteration -> securityManager.tryValidateRequestForMenu( catalogUsers[iteration % catalogUsers.length],
+						menuURLs[iteration % menuURLs.length] ) );
+		run( "validateRequestForMenu (own menus)",
+				iteration -> securityManager.tryValidateRequestForMenu( ownMenuUsers[iteration % ownMenuUsers.length],
+						menuURLs[iteration % menuURLs.length] ) );
+		run( "validateRequestForMenu throwing (catalog users)", iteration -> {
+			try
+			{
+				return securityManager.validateRequestForMenu( catalogUsers[iteration % catalogUsers.length],
+						menuURLs[iteration % menuURLs.length] );
+			}
+			catch( Exception e )
+			{
+				return e;
+			}
+		} );
+
+		final Menu catalogMenu = catalog.getMenuForURL( menuURLs[0] );
+		final Menu ownMenu = ownMenuUsers[0].getMenuForURL( menuURLs[0] );
+		final String[] menuItemURLs = new String[syntheticCatalog.getItemsPerMenu()];
+		for( int i = 0; i < menuItemURLs.length; i++ )
+		{
+			menuItemURLs[i] = SyntheticCatalog.menuItemURL( 0, i );
+		}
+		run( "validateRequestForMenuItem (catalog users)",
+				iteration -> securityManager.tryValidateRequestForMenuItem(
+						catalogUsers[iteration % catalogUsers.length], catalogMenu,
+						menuItemURLs[iteration % menuItemURLs.length] ) );
+		run( "validateRequestForMenuItem (own menus)",
+				iteration -> securityManager.tryValidateRequestForMenuItem(
+						ownMenuUsers[iteration % ownMenuUsers.length], ownMenu,
+						menuItemURLs[iteration % menuItemURLs.length] ) );
+
+		final List<Menu> menus = syntheticCatalog.buildMenus();
+		run( "User.addMenu (" + menus.size() + " menus per op)", iteration -> {
+			User user = new User();
+			for( Menu menu : menus )
+			{
+				user.addMenu( menu );
+			}
+			return user;
+		} );
+		run( "Menu.addMenuItem/MenuItem.addSubMenuItem (" + syntheticCatalog.getItemsPerMenu() + " items per op)",
+				iteration -> syntheticCatalog.buildMenu( iteration ) );
+
+		final Menu menuToClone = syntheticCatalog.buildMenu( 0 );
+		run( "Menu.clone (" + syntheticCatalog.getItemsPerMenu() + " items)", iteration -> menuToClone.clone() );
+	}
+
+	private void run( String name, MicroBenchmark.Operation operation )
+	{
+		if( name.contains( filter ) )
+		{
+			microBenchmark.run( name, operation );
+		}
+	}
+
+	/**
+	 * @return Request returning the given URI and query string. All other methods are not supported.
+	 */
+	private static HttpServletRequest newRequest( final String requestURI, final String queryString )
+	{
+		InvocationHandler unsupported = ( proxy, method, args ) -> {
+			throw new UnsupportedOperationException( method.getName() );
+		};
+		HttpServletRequest request = (HttpServletRequest) Proxy.newProxyInstance(
+				SecurityManagerBenchmarks.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class }, unsupported );
+		return new HttpServletRequestWrapper( request )
+		{
+
+			@Override
+			public String getRequestURI()
+			{
+				return requestURI;
+			}
+
+			@Override
+			public String getQueryString()
+			{
+				return queryString;
+			}
+		};
+	}
+
+	/**
+	 * Security manager created directly, instead of through configuration
+	 */
+	private static final class BenchmarkSecurityManager extends AppSecurityManager
+	{
+	}
+
+}
@@ -0,0 +1,222 @@
+package org.vedantatree.comps.securitymanager.bench;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.vedantatree.comps.securitymanager.model.Menu;
+import org.vedantatree.comps.securitymanager.model.MenuCatalog;
+import org.vedantatree.comps.securitymanager.model.MenuItem;
+import org.vedantatree.comps.securitymanager.model.User;
+import org.vedantatree.comps.securitymanager.model.UserRole;
+
+
+/**
+ * Generator of synthetic menus, menu items and roles for benchmarks.
+ *
+ * <p>
+ * Every menu gets the configured number of menu items, spread over the configured depth. An item at depth n is added
+ * as sub item of the last item created at depth n-1. Every fifth item is a left navigation item, others are page,
+ * list and list header actions. Each menu is assigned to two roles, so that users with different role combinations
+ * see different menus.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public class SyntheticCatalog
+{
+
+	public static final String	APPLICATION_NAME	= "benchmark";
+
+	private final int			menuCount;
+	private final int			itemsPerMenu;
+	private final int			depth;
+	private final int			roleCount;
+
+	public SyntheticCatalog( int menuCount, int itemsPerMenu, int depth, int roleCount )
+	{
+		this.menuCount = menuCount;
+		this.itemsPerMenu = itemsPerMenu;
+		this.depth = Math.max( 1, depth );
+		this.roleCount = Math.max( 1, roleCount );
+	}
+
+	public int getMenuCount()
+	{
+		return menuCount;
+	}
+
+	public int getItemsPerMenu()
+	{
+		return itemsPerMenu;
+	}
+
+	public int getDepth()
+	{
+		return depth;
+	}
+
+	public int getRoleCount()
+	{
+		return roleCount;
+	}
+
+	public static String menuURL( int menu )
+	{
+		return "menu" + menu + ".do?menu-id=" + menu;
+	}
+
+	public static String menuItemURL( int menu, int item )
+	{
+		return "menuItem.do?item-id=" + ( menu * 100000 + item );
+	}
+
+	public static String roleName( int role )
+	{
+		return "role" + role;
+	}
+
+	/**
+	 * @param menuNumber Number of the menu
+	 * @return A new menu with all of its items
+	 */
+	public Menu buildMenu( int menuNumber )
+	{
+		Menu menu = new Menu();
+		menu.setId( Long.valueOf( menuNumber ) );
+		menu.setIndex( menuNumber );
+		menu.setDisplayName( "Menu " + menuNumber );
+		menu.setUrl( menuURL( menuNumber ) );
+		menu.setEncryptedURL( "e" + Integer.toHexString( menuURL( menuNumber ).hashCode() ) + ".do" );
+		menu.setModuleName( menuNumber % 10 == 0 ? Menu.GLOBAL_MODULE_MENU : "module" + ( menuNumber % 7 ) );
+
+		MenuItem[] lastItemAtDepth = new MenuItem[depth];
+		for( int i = 0; i < itemsPerMenu; i++ )
+		{
+			int itemDepth = i % depth;
+			byte actionType = i % 5 == 0 ? Menu.LEFT_NAV_ACTION : (byte) ( Menu.PAGE_ACTION + i % 3 );
+			MenuItem menuItem = new MenuItem( i, "Item " + i, menuItemURL( menuNumber, i ), actionType );
+			menuItem.setId( Long.valueOf( menuNumber * 100000L + i ) );
+			if( itemDepth == 0 || lastItemAtDepth[itemDepth - 1] == null )
+			{
+				menu.addMenuItem( menuItem );
+				itemDepth = 0;
+			}
+			else
+			{
+				lastItemAtDepth[itemDepth - 1].addSubMenuItem( menuItem );
+			}
+			lastItemAtDepth[itemDepth] = menuItem;
+		}
+		return menu;
+	}
+
+	/**
+	 * @return New menus, with all items
+	 */
+	public List<Menu> buildMenus()
+	{
+		List<Menu> menus = new ArrayList<>( menuCount );
+		for( int i = 0; i < menuCount; i++ )
+		{
+			menus.add( buildMenu( i ) );
+		}
+		return menus;
+	}
+
+	/**
+	 * @return Frozen catalog of all menus, with role mapping
+	 */
+	public MenuCatalog buildCatalog()
+	{
+		MenuCatalog catalog = new MenuCatalog( APPLICATION_NAME );
+		List<Menu> menus = buildMenus();
+		for( int i = 0; i < menus.size(); i++ )
+		{
+			catalog.addRoleMenu( roleName( i % roleCount ), menus.get( i ) );
+			catalog.addRoleMenu( roleName( ( i * 7 + 3 ) % roleCount ), menus.get( i ) );
+		}
+		catalog.freeze();
+		return catalog;
+	}
+
+	/**
+	 * It sets the roles of user like the persistence layer does, as setter of domains is private to user
+	 * 
+	 * @param user User to set the roles for
+	 * @param domainRoles Map of domain name and set of UserRole for the domain
+	 */
+	static void setDomains( User user, Map<String, Object> domainRoles )
+	{
+		try
+		{
+			Method setDomains = User.class.getDeclaredMethod( "setDomains", Map.class );
+			setDomains.setAccessible( true );
+			setDomains.invoke( user, domainRoles );
+		}
+		catch( ReflectiveOperationException e )
+		{
+			throw new IllegalStateException( "Roles could not be set for user. user[" + user.getUserId() + "]", e );
+		}
+	}
+
+	/**
+	 * @param userNumber Number of the user, used to choose the roles
+	 * @return Roles of user, user gets one or two roles
+	 */
+	public Set<UserRole> buildRoles( int userNumber )
+	{
+		Set<UserRole> roles = new HashSet<>();
+		roles.add( newRole( userNumber % roleCount ) );
+		if( userNumber % 2 == 1 )
+		{
+			roles.add( newRole( ( userNumber / 2 ) % roleCount ) );
+		}
+		return roles;
+	}
+
+	/**
+	 * @param userNumber Number of the user, used to choose the roles
+	 * @param catalog Catalog to bind the user to, null to build own menus of user
+	 * @return New user
+	 */
+	public User buildUser( int userNumber, MenuCatalog catalog )
+	{
+		User user = new User();
+		user.setUserId( "user" + userNumber );
+		Map<String, Object> domainRoles = new HashMap<>();
+		domainRoles.put( user.getCurrentDomain(), buildRoles( userNumber ) );
+		setDomains( user, domainRoles );
+		if( catalog != null )
+		{
+			user.bindMenuCatalog( catalog );
+		}
+		else
+		{
+			for( Menu menu : buildMenus() )
+			{
+				user.addMenu( menu );
+			}
+		}
+		return user;
+	}
+
+	private static UserRole newRole( int role )
+	{
+		UserRole userRole = new UserRole();
+		userRole.setId( role );
+		userRole.setName( roleName( role ) );
+		return userRole;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "SyntheticCatalog: menus[" + menuCount + "] itemsPerMenu[" + itemsPerMenu + "] depth[" + depth
+				+ "] roles[" + roleCount + "]";
+	}
+
+}
@@ -1,15 +1,39 @@
 package org.vedantatree.comps.securitymanager;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.servlet.http.HttpServletRequest;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.vedantatree.comps.securitymanager.model.ApplicationDomain;
+import org.vedantatree.comps.securitymanager.model.MappedMenuCatalog;
 import org.vedantatree.comps.securitymanager.model.Menu;
+import org.vedantatree.comps.securitymanager.model.MenuCatalog;
+import org.vedantatree.comps.securitymanager.model.MenuCatalogChange;
+import org.vedantatree.comps.securitymanager.model.MenuCatalogSnapshot;
 import org.vedantatree.comps.securitymanager.model.MenuItem;
+import org.vedantatree.comps.securitymanager.model.PermissionProfile;
 import org.vedantatree.comps.securitymanager.model.User;
+import org.vedantatree.comps.securitymanager.model.UserRole;
 import org.vedantatree.utils.BeanUtils;
 import org.vedantatree.utils.StringUtils;
 import org.vedantatree.utils.Utilities;
@@ -35,52 +59,146 @@ public class AppSecurityManager
 
 	public static final String		SECURITY_MANAGER_CLASSNAME	= AppSecurityManager.class.getName() + "_CurrentSM";
 
-	private static AppSecurityManager	sharedInstance;
-	private ISecurityService		securityService;
+	/**
+	 * Property to specify the fully qualified class name of security service
+	 */
+	public static final String		SECURITY_SERVICE_CLASSNAME	= AppSecurityManager.class.getName()
+			+ "_SecurityService";
+
+	/**
+	 * Shared instance, volatile so that it is published safely and can be read without locking once created
+	 */
+	private static volatile AppSecurityManager	sharedInstance;
+
+	/**
+	 * Current security service. It can be replaced at runtime, requests in progress complete with the service they
+	 * have already read.
+	 */
+	private final AtomicReference<ISecurityService>	securityService	= new AtomicReference<>();
+
+	/**
+	 * Shared menu catalogs, keyed by application name
+	 */
+	private final Map<String, MenuCatalog>	menuCatalogs	= new ConcurrentHashMap<>();
+
+	/**
+	 * Normalizer used to process the request URIs. It interns the processed URIs, so repeated URIs create no garbage
+	 */
+	private final RequestURINormalizer		uriNormalizer		= new RequestURINormalizer();
+
+	/**
+	 * Messages of exceptions thrown for denied requests if cached exceptions are enabled, indexed by result code of
+	 * decision. Messages are shared, whereas every denial gets its own exception, as a thrown exception can be changed
+	 * by its catcher, like with addSuppressed or initCause.
+	 */
+	private static final String[]			CACHED_EXCEPTION_MESSAGES	= { null,
+			"No User found. User is either not authorized or not logged in", "No menu found for specified URL",
+			"No menu item found for current request. It seems like user is not authorized for menu item" };
+
+	private volatile boolean				useCachedExceptions;
+
+	/**
+	 * User loads in progress, keyed by user name and application name
+	 */
+	private final Map<String, UserLoad>		inFlightUserLoads	= new ConcurrentHashMap<>();
+
+	/**
+	 * Default time in milliseconds for which a request waits for the in flight load of same user
+	 */
+	public static final long				DEFAULT_USER_LOAD_TIMEOUT_MILLIS	= 30000;
+
+	private volatile long					userLoadTimeoutMillis				= DEFAULT_USER_LOAD_TIMEOUT_MILLIS;
+
+	/**
+	 * Cache of authorization decisions for users bound to menu catalog. Null means caching is disabled.
+	 */
+	private volatile AuthorizationCache		authorizationCache	= new AuthorizationCache(
+			AuthorizationCache.DEFAULT_MAXIMUM_SIZE );
+
+	/**
+	 * Cache of rendered navigation. Null means navigation is rendered on every request.
+	 */
+	private volatile NavigationFragmentCache	navigationFragmentCache	= new NavigationFragmentCache(
+			NavigationFragmentCache.DEFAULT_MAXIMUM_SIZE );
+
+	/**
+	 * Compiled visibility conditions of menu items
+	 */
+	private volatile VisibilityConditions		visibilityConditions	= new VisibilityConditions(
+			VisibilityConditions.DEFAULT_MAXIMUM_SIZE );
+
+	/**
+	 * Row level filters of users, built from the sql conditions of their rights
+	 */
+	private volatile RowFilters					rowFilters				= new RowFilters(
+			RowFilters.DEFAULT_MAXIMUM_SIZE );
+
+	/**
+	 * Metrics to record the latencies and decisions in. Null means nothing is recorded.
+	 */
+	private volatile SecurityMetrics			securityMetrics;
 
 	/**
 	 * It returns the shared security manager instance. Still it provides the facility to create the shared instance of
 	 * one of extended class of Security Manager. Developer can specify the fully qualified class name of extended
 	 * Security Manager in property file.
 	 * 
+	 * Shared instance is created only once, even if many threads ask for it at startup. Once created, it is returned
+	 * without any locking.
+	 * 
 	 * @return Shared instance of Security Manager
 	 */
 	public static AppSecurityManager getSharedInstance()
 	{
-		if( sharedInstance == null )
+		AppSecurityManager instance = sharedInstance;
+		if( instance == null )
 		{
-			String securityManagerClassName = ConfigurationManager.getSharedInstance()
-					.getPropertyValue( SECURITY_MANAGER_CLASSNAME );
-			Object newInstance;
-
-			if( securityManagerClassName.equals( "com.daffodil.comps.securitymanager.SecurityManager" ) )
-			{
-				sharedInstance = new AppSecurityManager();
-			}
-			else
+			synchronized( AppSecurityManager.class )
 			{
-				try
-				{
-					newInstance = BeanUtils.newInstance( securityManagerClassName, null, null );
-				}
-				catch( ApplicationException e )
+				instance = sharedInstance;
+				if( instance == null )
 				{
-					SystemException se = new SystemException( e.getErrorCode(), e.getMessage(), e );
-					LOGGER.error( se );
-					throw se;
+					instance = createSharedInstance();
+					sharedInstance = instance;
 				}
-				if( !( newInstance instanceof AppSecurityManager ) )
-				{
-					SystemException se = new SystemException( IErrorCodes.ILLEGAL_ARGUMENT_ERROR,
-							"Wrong security manager class specified. It is not of security manager type. specifiedClassName["
-									+ securityManagerClassName + "]" );
-					LOGGER.error( se );
-					throw se;
-				}
-				sharedInstance = (AppSecurityManager) newInstance;
 			}
 		}
-		return sharedInstance;
+		return instance;
+	}
+
+	private static AppSecurityManager createSharedInstance()
+	{
+		String securityManagerClassName = ConfigurationManager.getSharedInstance()
+				.getPropertyValue( SECURITY_MANAGER_CLASSNAME );
+		LOGGER.info( "creating shared security manager. className[" + securityManagerClassName + "]" );
+
+		if( !StringUtils.isQualifiedString( securityManagerClassName )
+				|| securityManagerClassName.equals( "com.daffodil.comps.securitymanager.SecurityManager" )
+				|| securityManagerClassName.equals( AppSecurityManager.class.getName() ) )
+		{
+			return new AppSecurityManager();
+		}
+
+		Object newInstance;
+		try
+		{
+			newInstance = BeanUtils.newInstance( securityManagerClassName, null, null );
+		}
+		catch( ApplicationException e )
+		{
+			SystemException se = new SystemException( e.getErrorCode(), e.getMessage(), e );
+			LOGGER.error( se );
+			throw se;
+		}
+		if( !( newInstance instanceof AppSecurityManager ) )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_ARGUMENT_ERROR,
+					"Wrong security manager class specified. It is not of security manager type. specifiedClassName["
+							+ securityManagerClassName + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+		return (AppSecurityManager) newInstance;
 	}
 
 	protected AppSecurityManager()
@@ -88,12 +206,94 @@ public class AppSecurityManager
 		// initial security service which implements ISecurityService interface, and can provide all security data
 		// objects
 		// data objects can come from any database, file or remote bean whatever
-		// this.securityService = initializeSecurityService();
+		this.securityService.set( initializeSecurityService() );
 	}
 
+	/**
+	 * It creates the security service specified in property file. Extended security managers can override it to
+	 * create the security service in some other way.
+	 * 
+	 * @return Security service, or null if it is not configured. In that case, it should be set using
+	 *         {@link #setSecurityService(ISecurityService)} before using the security manager.
+	 */
+	protected ISecurityService initializeSecurityService()
+	{
+		String securityServiceClassName = ConfigurationManager.getSharedInstance()
+				.getPropertyValue( SECURITY_SERVICE_CLASSNAME );
+		if( !StringUtils.isQualifiedString( securityServiceClassName ) )
+		{
+			LOGGER.info( "No security service configured. It should be set before using security manager. property["
+					+ SECURITY_SERVICE_CLASSNAME + "]" );
+			return null;
+		}
+
+		Object newInstance;
+		try
+		{
+			newInstance = BeanUtils.newInstance( securityServiceClassName, null, null );
+		}
+		catch( ApplicationException e )
+		{
+			SystemException se = new SystemException( e.getErrorCode(), e.getMessage(), e );
+			LOGGER.error( se );
+			throw se;
+		}
+		if( !( newInstance instanceof ISecurityService ) )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_ARGUMENT_ERROR,
+					"Wrong security service class specified. It is not of security service type. specifiedClassName["
+							+ securityServiceClassName + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+		LOGGER.info( "security service initialized. className[" + securityServiceClassName + "]" );
+		return (ISecurityService) newInstance;
+	}
+
+	/**
+	 * @return Current security service, null if none is configured yet
+	 */
 	public final ISecurityService getSecurityService()
 	{
-		return securityService;
+		return securityService.get();
+	}
+
+	/**
+	 * It replaces the security service atomically, like after reloading the configuration. Requests which have already
+	 * started continue with previous service, all new requests use the new service. Previous service is returned, so
+	 * that caller can release its resources once the requests in progress are complete.
+	 * 
+	 * Authorization cache is cleared, as the new service may provide different data.
+	 * 
+	 * @param newSecurityService Security service to use from now on
+	 * @return Previous security service, null if there was none
+	 */
+	public ISecurityService setSecurityService( ISecurityService newSecurityService )
+	{
+		Utilities.assertNotNullArgument( newSecurityService );
+		ISecurityService previousSecurityService = securityService.getAndSet( newSecurityService );
+		clearAuthorizationCache();
+		LOGGER.info( "security service replaced. previous[" + previousSecurityService + "] new[" + newSecurityService
+				+ "]" );
+		return previousSecurityService;
+	}
+
+	/**
+	 * @return Current security service
+	 * @throws SystemException If no security service is configured
+	 */
+	private ISecurityService requireSecurityService()
+	{
+		ISecurityService currentSecurityService = securityService.get();
+		if( currentSecurityService == null )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"No security service configured. Specify it in property[" + SECURITY_SERVICE_CLASSNAME
+							+ "] or set it using setSecurityService" );
+			LOGGER.error( se );
+			throw se;
+		}
+		return currentSecurityService;
 	}
 
 	/**
@@ -111,22 +311,476 @@ public class AppSecurityManager
 				+ ( password != null && password.trim().length() > 0 ) + "] appName[" + applicationName + "]" );
 		StringUtils.assertQualifiedArgument( userName );
 		StringUtils.assertQualifiedArgument( password );
-		User user = retrieveAndVerifyUser( userName, password, applicationName );
-		return user;
+		SecurityMetrics metrics = securityMetrics;
+		long start = metrics == null ? 0 : System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			User user = retrieveAndVerifyUser( userName, password, applicationName );
+			bindMenuCatalog( user, applicationName );
+			failed = false;
+			return user;
+		}
+		finally
+		{
+			if( metrics != null )
+			{
+				metrics.recordLatency( SecurityMetrics.AUTHENTICATE, System.nanoTime() - start );
+				if( failed )
+				{
+					metrics.increment( SecurityMetrics.AUTHENTICATE + SecurityMetrics.FAILED );
+				}
+			}
+		}
+	}
+
+	/**
+	 * It registers the shared menu catalog for an application. Users authenticated for this application afterwards
+	 * will be served the menus from this catalog, instead of building own copy of menus for every user.
+	 * 
+	 * @param menuCatalog Frozen menu catalog
+	 */
+	public void setMenuCatalog( MenuCatalog menuCatalog )
+	{
+		Utilities.assertNotNullArgument( menuCatalog );
+		if( !menuCatalog.isFrozen() )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Menu catalog must be frozen before registering it. catalog[" + menuCatalog + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+		menuCatalogs.put( menuCatalog.getApplicationName(), menuCatalog );
+		clearAuthorizationCache();
+	}
+
+	/**
+	 * @return Cache of authorization decisions, null if caching is disabled
+	 */
+	public AuthorizationCache getAuthorizationCache()
+	{
+		return authorizationCache;
+	}
+
+	/**
+	 * @param authorizationCache Cache to use for authorization decisions, null to disable the caching
+	 */
+	public void setAuthorizationCache( AuthorizationCache authorizationCache )
+	{
+		this.authorizationCache = authorizationCache;
+	}
+
+	/**
+	 * @return Cache of rendered navigation, null if caching is disabled
+	 */
+	public NavigationFragmentCache getNavigationFragmentCache()
+	{
+		return navigationFragmentCache;
+	}
+
+	/**
+	 * @param navigationFragmentCache Cache to use for rendered navigation, null to disable the caching
+	 */
+	public void setNavigationFragmentCache( NavigationFragmentCache navigationFragmentCache )
+	{
+		this.navigationFragmentCache = navigationFragmentCache;
+	}
+
+	/**
+	 * It returns the rendered navigation of user, i.e. top navigation menus, global menus and left navigation items of
+	 * current menu. Left navigation items whose visibility condition is false for user are not rendered. Navigation of
+	 * users bound to a menu catalog is rendered once for their roles, locale, current menu and visibility outcome, and
+	 * is rendered again only when the catalog changes.
+	 * 
+	 * @param user User to render the navigation for
+	 * @param locale Locale of user
+	 * @param currentMenu Menu of current page, null if there is none
+	 * @return Rendered navigation, it must not be modified
+	 */
+	public byte[] getNavigationFragment( User user, Locale locale, Menu currentMenu )
+	{
+		Utilities.assertNotNullArgument( user );
+		NavigationFragmentCache cache = navigationFragmentCache;
+		if( cache == null )
+		{
+			Set<String> hiddenConditions = currentMenu == null ? Collections.<String> emptySet()
+					: visibilityConditions.getHiddenConditions( currentMenu.getLeftNavigationMenuItems(),
+							new VisibilityContext( user ) );
+			return new JsonNavigationRenderer().render( user.getTopNavigationMenus(), user.getGlobalMenus(),
+					currentMenu, locale, hiddenConditions );
+		}
+		return cache.getFragment( user, locale, currentMenu, visibilityConditions );
+	}
+
+	/**
+	 * @return Compiled visibility conditions of menu items
+	 */
+	public VisibilityConditions getVisibilityConditions()
+	{
+		return visibilityConditions;
+	}
+
+	/**
+	 * @param visibilityConditions Compiled visibility conditions to use, must not be null
+	 */
+	public void setVisibilityConditions( VisibilityConditions visibilityConditions )
+	{
+		Utilities.assertNotNullArgument( visibilityConditions );
+		this.visibilityConditions = visibilityConditions;
 	}
 
+	/**
+	 * It returns the menu items in hierarchy of menu which are visible to user in current domain of user, evaluating
+	 * every distinct visibility condition once. A hidden menu item hides its sub menu items too.
+	 * 
+	 * @param user User to evaluate the visibility conditions for
+	 * @param menu Menu to filter the menu items of
+	 * @return Visible menu items, in the order of menu with every item followed by its visible sub menu items
+	 */
+	public List<MenuItem> getVisibleMenuItems( User user, Menu menu )
+	{
+		return visibilityConditions.getVisibleMenuItems( menu, new VisibilityContext( user ) );
+	}
+
+	/**
+	 * @return Row level filters of users
+	 */
+	public RowFilters getRowFilters()
+	{
+		return rowFilters;
+	}
+
+	/**
+	 * @param rowFilters Row level filters to use, must not be null
+	 */
+	public void setRowFilters( RowFilters rowFilters )
+	{
+		Utilities.assertNotNullArgument( rowFilters );
+		this.rowFilters = rowFilters;
+	}
+
+	/**
+	 * It returns the row level filter of user for an entity, i.e. sql conditions of rights of user merged into one
+	 * where clause with '?' for values of user. Values can be bound with
+	 * {@link RowFilter#bindParameters(java.sql.PreparedStatement, int, VisibilityContext)}.
+	 * 
+	 * @param user User to get the filter for
+	 * @param entityAlias Alias of the entity in the query, a plain sql identifier [A-Za-z_][A-Za-z0-9_]*
+	 * @return Filter of user, {@link RowFilter#NONE} if no right of user has a sql condition
+	 * @throws SystemException If alias is not a plain sql identifier
+	 */
+	public RowFilter getRowFilter( User user, String entityAlias )
+	{
+		return rowFilters.getRowFilter( user, entityAlias );
+	}
+
+	/**
+	 * @return Metrics recorded by security manager, null if nothing is recorded
+	 */
+	public SecurityMetrics getSecurityMetrics()
+	{
+		return securityMetrics;
+	}
+
+	/**
+	 * It starts recording the latencies of authentication, validation and URI processing, and the authorization
+	 * decisions, in given metrics. Caches of security manager are registered with the metrics for their hit rates.
+	 * Calls to security service are recorded if the service is wrapped in {@link MeteredSecurityService}.
+	 * 
+	 * @param securityMetrics Metrics to record in, null to stop recording
+	 */
+	public void setSecurityMetrics( SecurityMetrics securityMetrics )
+	{
+		if( securityMetrics != null )
+		{
+			securityMetrics.registerCache( "authorization", () -> {
+				AuthorizationCache cache = authorizationCache;
+				return cache == null ? 0 : cache.getHitCount();
+			}, () -> {
+				AuthorizationCache cache = authorizationCache;
+				return cache == null ? 0 : cache.getMissCount();
+			} );
+			securityMetrics.registerCache( "navigationFragment", () -> {
+				NavigationFragmentCache cache = navigationFragmentCache;
+				return cache == null ? 0 : cache.getHitCount();
+			}, () -> {
+				NavigationFragmentCache cache = navigationFragmentCache;
+				return cache == null ? 0 : cache.getMissCount();
+			} );
+			securityMetrics.registerCache( "visibilityCondition", () -> visibilityConditions.getHitCount(),
+					() -> visibilityConditions.getMissCount() );
+			securityMetrics.registerCache( "rowFilter", () -> rowFilters.getHitCount(),
+					() -> rowFilters.getMissCount() );
+		}
+		this.securityMetrics = securityMetrics;
+	}
+
+	/**
+	 * It removes all cached authorization decisions. It should be called if menus or role mapping change.
+	 */
+	public void clearAuthorizationCache()
+	{
+		AuthorizationCache cache = authorizationCache;
+		if( cache != null )
+		{
+			cache.clear();
+		}
+	}
+
+	/**
+	 * @param applicationName Name of the application
+	 * @return Shared menu catalog registered for the application, null if there is none
+	 */
+	public MenuCatalog getMenuCatalog( String applicationName )
+	{
+		return applicationName == null ? null : menuCatalogs.get( applicationName );
+	}
+
+	/**
+	 * It loads the menu catalog of application and registers it. Catalog is read from the snapshot file if security
+	 * service tracks the catalog version and snapshot is of current version. Otherwise catalog is built from the roles
+	 * of application and the snapshot is written again, so that next start of application can use it.
+	 * 
+	 * @param applicationName Name of the application
+	 * @param snapshotFile File to read the snapshot from and to write it to
+	 * @return Registered menu catalog
+	 * @throws AppSecurityException If catalog could not be built from security service
+	 */
+	public MenuCatalog loadMenuCatalog( String applicationName, Path snapshotFile ) throws AppSecurityException
+	{
+		StringUtils.assertQualifiedArgument( applicationName );
+		Utilities.assertNotNullArgument( snapshotFile );
+		ISecurityService service = requireSecurityService();
+		long catalogVersion = service.getMenuCatalogVersion( applicationName );
+		MenuCatalog menuCatalog = null;
+		if( catalogVersion >= 0 )
+		{
+			menuCatalog = MenuCatalogSnapshot.read( snapshotFile, catalogVersion );
+			if( menuCatalog != null && !applicationName.equals( menuCatalog.getApplicationName() ) )
+			{
+				LOGGER.warn( "Menu catalog snapshot is of other application, ignoring it. file[" + snapshotFile
+						+ "] application[" + menuCatalog.getApplicationName() + "]" );
+				menuCatalog = null;
+			}
+		}
+		if( menuCatalog == null )
+		{
+			menuCatalog = buildMenuCatalog( applicationName, service );
+			if( catalogVersion >= 0 )
+			{
+				try
+				{
+					MenuCatalogSnapshot.write( menuCatalog, catalogVersion, snapshotFile );
+				}
+				catch( SystemException e )
+				{
+					// catalog is usable even if snapshot could not be written, it will be built again on next start
+					LOGGER.warn( "Menu catalog snapshot could not be written. file[" + snapshotFile + "]", e );
+				}
+			}
+		}
+		setMenuCatalog( menuCatalog );
+		return menuCatalog;
+	}
+
+	/**
+	 * It loads the menu catalog of application from a memory mapped file and registers it. Menu items and localized
+	 * names stay in mapped file, and users bound to catalog read these from it. File is used if security service tracks
+	 * the catalog version and file is of current version. Otherwise catalog is built from the roles of application,
+	 * written to file and then mapped. Changes can not be applied to the registered catalog, mapped file must be loaded
+	 * again instead.
+	 * 
+	 * @param applicationName Name of the application
+	 * @param mappedFile File to map the catalog from and to write it to
+	 * @return Registered menu catalog, having the views of mapped catalog as its menus
+	 * @throws AppSecurityException If catalog could not be built from security service
+	 */
+	public MenuCatalog loadMappedMenuCatalog( String applicationName, Path mappedFile ) throws AppSecurityException
+	{
+		StringUtils.assertQualifiedArgument( applicationName );
+		Utilities.assertNotNullArgument( mappedFile );
+		ISecurityService service = requireSecurityService();
+		long catalogVersion = service.getMenuCatalogVersion( applicationName );
+		MappedMenuCatalog mappedMenuCatalog = null;
+		if( catalogVersion >= 0 && Files.isRegularFile( mappedFile ) )
+		{
+			try
+			{
+				mappedMenuCatalog = MappedMenuCatalog.open( mappedFile );
+			}
+			catch( SystemException e )
+			{
+				LOGGER.warn( "Mapped menu catalog could not be opened, building it again. file[" + mappedFile + "]", e );
+			}
+			if( mappedMenuCatalog != null && ( mappedMenuCatalog.getCatalogVersion() != catalogVersion
+					|| !applicationName.equals( mappedMenuCatalog.getApplicationName() ) ) )
+			{
+				LOGGER.info( "Mapped menu catalog is stale or of other application, building it again. catalog["
+						+ mappedMenuCatalog + "] expectedVersion[" + catalogVersion + "]" );
+				mappedMenuCatalog = null;
+			}
+		}
+		if( mappedMenuCatalog == null )
+		{
+			MappedMenuCatalog.write( buildMenuCatalog( applicationName, service ), catalogVersion, mappedFile );
+			mappedMenuCatalog = MappedMenuCatalog.open( mappedFile );
+		}
+		MenuCatalog menuCatalog = mappedMenuCatalog.toMenuCatalog();
+		setMenuCatalog( menuCatalog );
+		return menuCatalog;
+	}
+
+	private MenuCatalog buildMenuCatalog( String applicationName, ISecurityService service )
+			throws AppSecurityException
+	{
+		MenuCatalog menuCatalog = new MenuCatalog( applicationName );
+		Collection<UserRole> roles = service.getApplicationRoles();
+		if( roles != null )
+		{
+			for( UserRole role : roles )
+			{
+				menuCatalog.addRole( role );
+			}
+		}
+		menuCatalog.freeze();
+		return menuCatalog;
+	}
+
+	/**
+	 * It applies the changes in menus and role menu mapping to the catalog of application, so that logged in users see
+	 * these without logging in again. Only the users having the affected roles switch to new profiles, on their next
+	 * request. Authorization cache is cleared if menu items are changed, as cached decisions refer to shared menus.
+	 *
+	 * @param applicationName Name of the application
+	 * @param changes Changes to apply, in order
+	 * @return Number of permission profiles replaced
+	 */
+	public int applyMenuCatalogChanges( String applicationName, Collection<MenuCatalogChange> changes )
+	{
+		Utilities.assertNotNullArgument( changes );
+		MenuCatalog menuCatalog = getMenuCatalog( applicationName );
+		if( menuCatalog == null )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"No menu catalog registered for application. application[" + applicationName + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+		int replacedProfiles = menuCatalog.applyChanges( changes );
+		for( MenuCatalogChange change : changes )
+		{
+			if( change.isMenuItemChange() )
+			{
+				clearAuthorizationCache();
+				break;
+			}
+		}
+		return replacedProfiles;
+	}
+
+	/**
+	 * It binds the user to menu catalog of the application, if one is registered and user does not have its own menus
+	 * already populated by security service.
+	 */
+	protected void bindMenuCatalog( User user, String applicationName )
+	{
+		MenuCatalog menuCatalog = getMenuCatalog( applicationName );
+		if( user == null || menuCatalog == null || user.getMenuCatalog() != null || !user.getMenus().isEmpty()
+				|| !user.getGlobalMenus().isEmpty() )
+		{
+			return;
+		}
+		user.bindMenuCatalog( menuCatalog );
+		LOGGER.debug( "bound user to menu catalog. user[" + user + "] profile[" + user.getPermissionProfile() + "]" );
+	}
+
+	/**
+	 * It retrieves the user from security service, coalescing the concurrent requests for same user and application.
+	 * 
+	 * <p>
+	 * If a request for same user is already in progress, caller waits for its result instead of loading the user graph
+	 * again from security service. Password is still verified per caller. Result of in flight request is shared only
+	 * with the callers having exactly the same password, as security service has verified that password. Callers with
+	 * a different password load the user on their own. Loading caller gets the user it has loaded, and each waiting
+	 * caller gets its own copy of the user, see {@link User#clone()} for what the copies share. A caller which finds the
+	 * request already finished loads the user on its own. A waiting caller fails if the in flight request does not finish
+	 * within {@link #getUserLoadTimeoutMillis()}, so that a hung security service does not hold all of them.
+	 */
 	protected User retrieveAndVerifyUser( String userName, String userPassword, String applicationName )
 			throws AppSecurityException
 	{
 		LOGGER.trace( "retrieveAndVerifyUser: userName[ " + userName + " ]" );
 
+		String loginKey = userName + '\u0000' + ( applicationName == null ? "" : applicationName );
+		UserLoad userLoad = new UserLoad( userPassword );
+		UserLoad inFlightLoad = inFlightUserLoads.putIfAbsent( loginKey, userLoad );
+		if( inFlightLoad == null )
+		{
+			try
+			{
+				User user = loadUser( userName, userPassword, applicationName );
+				userLoad.complete( user );
+				return user;
+			}
+			catch( AppSecurityException | RuntimeException e )
+			{
+				userLoad.fail( e );
+				throw e;
+			}
+			finally
+			{
+				inFlightUserLoads.remove( loginKey, userLoad );
+			}
+		}
+		if( !inFlightLoad.hasSamePassword( userLoad ) )
+		{
+			LOGGER.debug( "in flight request has different password, loading user separately. userName[" + userName
+					+ "]" );
+			return loadUser( userName, userPassword, applicationName );
+		}
+		if( !inFlightLoad.join() )
+		{
+			LOGGER.debug( "in flight request is already finished, loading user separately. userName[" + userName
+					+ "]" );
+			return loadUser( userName, userPassword, applicationName );
+		}
+		LOGGER.debug( "waiting for in flight request of same user. userName[" + userName + "]" );
+		return inFlightLoad.await( userName, userLoadTimeoutMillis );
+	}
+
+	/**
+	 * @return Time in milliseconds for which a request waits for the in flight load of same user
+	 */
+	public long getUserLoadTimeoutMillis()
+	{
+		return userLoadTimeoutMillis;
+	}
+
+	/**
+	 * @param userLoadTimeoutMillis Time in milliseconds for which a request waits for the in flight load of same user,
+	 *        it must be greater than zero
+	 */
+	public void setUserLoadTimeoutMillis( long userLoadTimeoutMillis )
+	{
+		if( userLoadTimeoutMillis <= 0 )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_ARGUMENT_ERROR,
+					"User load timeout must be greater than zero. userLoadTimeoutMillis[" + userLoadTimeoutMillis + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+		this.userLoadTimeoutMillis = userLoadTimeoutMillis;
+	}
+
+	private User loadUser( String userName, String userPassword, String applicationName ) throws AppSecurityException
+	{
 		User user = null;
 		/**
 		 * Supervision Delegate is called for Supervision
 		 */
 		try
 		{
-			user = getSecurityService().getUser( userName, userPassword, applicationName );
+			user = requireSecurityService().getUser( userName, userPassword, applicationName );
 		}
 		catch( ApplicationException ae )
 		{
@@ -146,28 +800,98 @@ public class AppSecurityManager
 	 */
 	public Menu validateRequestForMenu( User user, String menuURL ) throws AppSecurityException
 	{
-		LOGGER.trace( "validateRequestForMenu: user[" + user + "] URL[" + menuURL + "]" );
+		if( LOGGER.isTraceEnabled() )
+		{
+			LOGGER.trace( "validateRequestForMenu: user[" + user + "] URL[" + menuURL + "]" );
+		}
 
 		StringUtils.assertQualifiedArgument( menuURL );
-		if( user == null )
+		AuthorizationDecision decision = tryValidateRequestForMenu( user, menuURL );
+		if( decision.isAllowed() )
 		{
-			AppSecurityException se = new AppSecurityException( IErrorCodes.AUTHENTICATION_FAILURE,
+			if( LOGGER.isDebugEnabled() )
+			{
+				LOGGER.debug( "retrieved menu[" + decision.getMenu() + "]" );
+			}
+			return decision.getMenu();
+		}
+
+		if( useCachedExceptions )
+		{
+			if( LOGGER.isInfoEnabled() )
+			{
+				LOGGER.info( "Request denied. resultCode[" + decision.getResultCode() + "] user[" + user + "] URL["
+						+ menuURL + "]" );
+			}
+			throw new StacklessAppSecurityException( decision.getErrorCode(),
+					CACHED_EXCEPTION_MESSAGES[decision.getResultCode()] );
+		}
+		if( decision.getResultCode() == AuthorizationDecision.RESULT_NOT_AUTHENTICATED )
+		{
+			AppSecurityException se = new AppSecurityException( decision.getErrorCode(),
 					"No User found. User is either not authorized or not logged in" );
 			ExceptionUtils.logException( LOGGER, null, se );
 			throw se;
 		}
+		AppSecurityException se = new AppSecurityException( decision.getErrorCode(),
+				"No menu found for specified URL[" + menuURL + "]" );
+		LOGGER.info( se.getMessage() );
+		throw se;
+	}
 
-		Menu menu = user.getMenuForURL( menuURL );
-		LOGGER.debug( "retrieved menu[" + menu + "]" );
-		if( menu != null )
+	/**
+	 * It checks the rights of user on specified url, same as {@link #validateRequestForMenu(User, String)}, but does
+	 * not throw any exception if user does not have the rights. Denied decisions are preallocated, so denying a request
+	 * creates nothing.
+	 * 
+	 * @param user User object for which we need to check the rights on given url
+	 * @param menuURL menu url to check for rights
+	 * @return Allowed decision with matched menu, or one of the denied decisions
+	 */
+	public AuthorizationDecision tryValidateRequestForMenu( User user, String menuURL )
+	{
+		SecurityMetrics metrics = securityMetrics;
+		if( metrics == null )
 		{
-			return menu;
+			return decideRequestForMenu( user, menuURL );
 		}
+		long start = System.nanoTime();
+		AuthorizationDecision decision = decideRequestForMenu( user, menuURL );
+		metrics.recordDecision( SecurityMetrics.VALIDATE_REQUEST_FOR_MENU, decision, System.nanoTime() - start );
+		return decision;
+	}
 
-		AppSecurityException se = new AppSecurityException( IErrorCodes.RESOURCE_NOT_FOUND,
-				"No menu found for specified URL[" + menuURL + "]" );
-		LOGGER.info( se.getMessage() );
-		throw se;
+	private AuthorizationDecision decideRequestForMenu( User user, String menuURL )
+	{
+		if( user == null )
+		{
+			return AuthorizationDecision.DENIED_NOT_AUTHENTICATED;
+		}
+		if( !StringUtils.isQualifiedString( menuURL ) )
+		{
+			return AuthorizationDecision.DENIED_MENU_NOT_FOUND;
+		}
+
+		// profile of current domain is the role fingerprint, user without it has own menus which are not cached
+		PermissionProfile profile = user.getPermissionProfile();
+		if( profile == null )
+		{
+			Menu menu = user.getMenuForURL( menuURL );
+			return menu != null ? AuthorizationDecision.allow( menu ) : AuthorizationDecision.DENIED_MENU_NOT_FOUND;
+		}
+
+		AuthorizationCache cache = authorizationCache;
+		AuthorizationDecision decision = cache == null ? null : cache.getDecision( profile, null, menuURL );
+		if( decision == null )
+		{
+			Menu menu = profile.getMenuForURL( menuURL );
+			decision = menu != null ? AuthorizationDecision.allow( menu ) : AuthorizationDecision.DENIED_MENU_NOT_FOUND;
+			if( cache != null )
+			{
+				cache.putDecision( profile, null, menuURL, decision );
+			}
+		}
+		return decision;
 	}
 
 	/**
@@ -182,10 +906,33 @@ public class AppSecurityManager
 	public MenuItem validateRequestForMenuItem( User user, Menu currentMenu, String menuItemURL )
 			throws AppSecurityException
 	{
-		LOGGER.trace( "validateRequestForMenuItem: user[" + user + "] currentMenu[" + currentMenu + "] menuItemURL["
-				+ menuItemURL + "]" );
+		if( LOGGER.isTraceEnabled() )
+		{
+			LOGGER.trace( "validateRequestForMenuItem: user[" + user + "] currentMenu[" + currentMenu
+					+ "] menuItemURL[" + menuItemURL + "]" );
+		}
+
+		if( user != null && currentMenu != null )
+		{
+			StringUtils.assertQualifiedArgument( menuItemURL );
+		}
+		AuthorizationDecision decision = tryValidateRequestForMenuItem( user, currentMenu, menuItemURL );
+		if( decision.isAllowed() )
+		{
+			return decision.getMenuItem();
+		}
 
-		if( user == null && currentMenu == null )
+		if( useCachedExceptions )
+		{
+			if( LOGGER.isInfoEnabled() )
+			{
+				LOGGER.info( "Request denied. resultCode[" + decision.getResultCode() + "] user[" + user
+						+ "] currentMenu[" + currentMenu + "] URL[" + menuItemURL + "]" );
+			}
+			throw new StacklessAppSecurityException( decision.getErrorCode(),
+					CACHED_EXCEPTION_MESSAGES[decision.getResultCode()] );
+		}
+		if( user == null || currentMenu == null )
 		{
 			AppSecurityException se = new AppSecurityException( IErrorCodes.AUTHENTICATION_FAILURE,
 					"User or Current Menu found null. It seems like user is not authorized or have no access on menu item. user["
@@ -193,24 +940,159 @@ public class AppSecurityManager
 			ExceptionUtils.logException( LOGGER, null, se );
 			throw se;
 		}
-		else
+		AppSecurityException se = new AppSecurityException( decision.getErrorCode(),
+				"No menu item found for current request. It seems like user is not authorized for menu item. user["
+						+ user + "] currentMenu[" + currentMenu + "] URL[" + menuItemURL + "]" );
+		LOGGER.info( se.getMessage() );
+		throw se;
+	}
+
+	/**
+	 * It checks the rights of user on specified menu item url, same as
+	 * {@link #validateRequestForMenuItem(User, Menu, String)}, but does not throw any exception if user does not have
+	 * the rights. Denied decisions are preallocated, so denying a request creates nothing.
+	 * 
+	 * @param user User for which we need to check the rights on specified menu item
+	 * @param currentMenu Current menu under which specified menu item exists
+	 * @param menuItemURL URL of menu item for which we need to check the rights of specified user
+	 * @return Allowed decision with matched menu item, or one of the denied decisions
+	 */
+	public AuthorizationDecision tryValidateRequestForMenuItem( User user, Menu currentMenu, String menuItemURL )
+	{
+		SecurityMetrics metrics = securityMetrics;
+		if( metrics == null )
+		{
+			return decideRequestForMenuItem( user, currentMenu, menuItemURL );
+		}
+		long start = System.nanoTime();
+		AuthorizationDecision decision = decideRequestForMenuItem( user, currentMenu, menuItemURL );
+		metrics.recordDecision( SecurityMetrics.VALIDATE_REQUEST_FOR_MENU_ITEM, decision, System.nanoTime() - start );
+		return decision;
+	}
+
+	private AuthorizationDecision decideRequestForMenuItem( User user, Menu currentMenu, String menuItemURL )
+	{
+		if( user == null )
+		{
+			return AuthorizationDecision.DENIED_NOT_AUTHENTICATED;
+		}
+		if( currentMenu == null || !StringUtils.isQualifiedString( menuItemURL ) )
+		{
+			return AuthorizationDecision.DENIED_MENU_ITEM_NOT_FOUND;
+		}
+
+		PermissionProfile profile = user.getPermissionProfile();
+		AuthorizationCache cache = authorizationCache;
+		AuthorizationDecision decision = profile == null || cache == null ? null
+				: cache.getDecision( profile, currentMenu, menuItemURL );
+		if( decision == null )
 		{
 			MenuItem menuItem = user.getMenuItemForURL( currentMenu, menuItemURL );
-			if( menuItem == null )
+			decision = menuItem != null ? AuthorizationDecision.allow( menuItem )
+					: AuthorizationDecision.DENIED_MENU_ITEM_NOT_FOUND;
+			if( profile != null && cache != null )
 			{
-				AppSecurityException se = new AppSecurityException( IErrorCodes.AUTHENTICATION_FAILURE,
-						"No menu item found for current request. It seems like user is not authorized for menu item. user["
-								+ user + "] currentMenu[" + currentMenu + "] URL[" + menuItemURL + "]" );
-				LOGGER.info( se.getMessage() );
-				throw se;
+				cache.putDecision( profile, currentMenu, menuItemURL, decision );
 			}
-			return menuItem;
 		}
+		return decision;
+	}
+
+	/**
+	 * @return true if throwing validation methods use exceptions without stack trace and with cached messages for
+	 *         denied requests
+	 */
+	public boolean isUseCachedExceptions()
+	{
+		return useCachedExceptions;
+	}
+
+	/**
+	 * It configures the throwing validation methods to use cached exceptions for denied requests. Cached exceptions do
+	 * not have stack trace and request specific message, which saves a lot of CPU when many requests are denied, like
+	 * for crawlers or broken links. Request details are still logged at info level. A new exception is thrown for
+	 * every denial, which costs only a small allocation without the stack trace. For the cheapest path, use the
+	 * tryValidate methods, which return a decision instead of throwing.
+	 * 
+	 * @param useCachedExceptions true to use cached exceptions
+	 */
+	public void setUseCachedExceptions( boolean useCachedExceptions )
+	{
+		this.useCachedExceptions = useCachedExceptions;
+	}
+
+	/**
+	 * It checks the rights of user for a batch of menu item URLs under the current menu, like all action URLs rendered
+	 * on a page. URLs are processed in the same way as {@link #getProcessedRequestURI(String)} before checking. No
+	 * exception is thrown or logged for denied URLs, rather these are reported as null in the result. URLs which can
+	 * not be processed or checked are also reported as denied, so that one malformed URL does not fail the whole page.
+	 * 
+	 * @param user User for which we need to check the rights
+	 * @param currentMenu Current menu under which the menu items exist
+	 * @param candidateURLs Complete URLs of the menu items, null, blank or malformed entries are reported as denied
+	 * @return Array of same length as candidateURLs, with the matched MenuItem for allowed URLs and null for denied
+	 *         ones. All entries are null if user or current menu is null.
+	 */
+	public MenuItem[] getAuthorizedMenuItems( User user, Menu currentMenu, String... candidateURLs )
+	{
+		Utilities.assertNotNullArgument( candidateURLs );
+		MenuItem[] authorizedMenuItems = new MenuItem[candidateURLs.length];
+		if( user == null || currentMenu == null )
+		{
+			LOGGER.debug( "user or current menu is null, denying all candidate urls. user[" + user + "] currentMenu["
+					+ currentMenu + "]" );
+			return authorizedMenuItems;
+		}
+		for( int i = 0; i < candidateURLs.length; i++ )
+		{
+			String candidateURL = candidateURLs[i];
+			if( !StringUtils.isQualifiedString( candidateURL ) )
+			{
+				continue;
+			}
+			try
+			{
+				String processedURI = uriNormalizer.normalize( candidateURL );
+				if( StringUtils.isQualifiedString( processedURI ) )
+				{
+					authorizedMenuItems[i] = tryValidateRequestForMenuItem( user, currentMenu, processedURI )
+							.getMenuItem();
+				}
+			}
+			catch( SystemException se )
+			{
+				LOGGER.debug( "candidate url could not be checked, denying it. candidateURL[" + candidateURL + "]", se );
+			}
+		}
+		return authorizedMenuItems;
+	}
+
+	/**
+	 * It checks the rights of user for a batch of menu item URLs, same as
+	 * {@link #getAuthorizedMenuItems(User, Menu, String...)}, and returns only the allowed positions
+	 * 
+	 * @param user User for which we need to check the rights
+	 * @param currentMenu Current menu under which the menu items exist
+	 * @param candidateURLs Complete URLs of the menu items
+	 * @return Bits set for the positions of allowed URLs
+	 */
+	public BitSet getAuthorizedMenuItemFlags( User user, Menu currentMenu, String... candidateURLs )
+	{
+		MenuItem[] authorizedMenuItems = getAuthorizedMenuItems( user, currentMenu, candidateURLs );
+		BitSet flags = new BitSet( authorizedMenuItems.length );
+		for( int i = 0; i < authorizedMenuItems.length; i++ )
+		{
+			if( authorizedMenuItems[i] != null )
+			{
+				flags.set( i );
+			}
+		}
+		return flags;
 	}
 
 	public Collection<ApplicationDomain> getApplicationDomains( User user ) throws AppSecurityException
 	{
-		return getSecurityService().getApplicationDomains( user );
+		return requireSecurityService().getApplicationDomains( user );
 	}
 
 	/**
@@ -235,23 +1117,23 @@ public class AppSecurityManager
 		// Request URL: http://localhost:8181/PBAccountPayable/menuItem.do
 		// Query String: item-id=3843
 
-		LOGGER.trace( "getProcessedRequestURI: requestURI[" + requestURI + "] queryString[" + queryString + "]" );
-
-		requestURI = requestURI.substring( requestURI.lastIndexOf( "/" ) + 1, requestURI.length() );
-		if( !StringUtils.isQualifiedString( queryString ) )
+		if( LOGGER.isTraceEnabled() )
 		{
-			LOGGER.debug( "Null query string found!" );
-			return requestURI;
+			LOGGER.trace( "getProcessedRequestURI: requestURI[" + requestURI + "] queryString[" + queryString + "]" );
 		}
 
-		if( queryString.contains( "&" ) )
+		SecurityMetrics metrics = securityMetrics;
+		long start = metrics == null ? 0 : System.nanoTime();
+		String processedURI = uriNormalizer.normalize( requestURI, queryString );
+		if( metrics != null )
 		{
-			queryString = queryString.substring( 0, queryString.indexOf( '&' ) );
+			metrics.recordLatency( SecurityMetrics.GET_PROCESSED_REQUEST_URI, System.nanoTime() - start );
 		}
-		requestURI = requestURI + "?" + queryString;
-		LOGGER.debug( "updated-requestURI-without-amp[ " + requestURI + " ] queryString[ " + queryString + " ]" );
-
-		return requestURI;
+		if( LOGGER.isDebugEnabled() )
+		{
+			LOGGER.debug( "updated-requestURI-without-amp[ " + processedURI + " ] queryString[ " + queryString + " ]" );
+		}
+		return processedURI;
 	}
 
 	/**
@@ -260,6 +1142,7 @@ public class AppSecurityManager
 	 * 
 	 * @param completeURI Complete URI
 	 * @return Processed URI. It will be the portion of URL after last slash, including first parameter if exists
+	 * @throws SystemException If URI has parameter separator '&amp;' before its last slash
 	 */
 	public String getProcessedRequestURI( String completeURI )
 	{
@@ -269,15 +1152,47 @@ public class AppSecurityManager
 		// Request URI: menuItem.do?item-id=6876
 		// OR : /PB/menuitem.do?item-id=9877&menu=y
 
-		LOGGER.trace( "getProcessedRequestURI: completeURI[" + completeURI + "]" );
-
-		int indexOfLastSlash = completeURI.lastIndexOf( "/" );
-		int indexOfFirstAmp = completeURI.indexOf( "&" );
-		String processedURI = completeURI.substring( indexOfLastSlash < 0 ? 0 : indexOfLastSlash + 1,
-				indexOfFirstAmp > 0 ? indexOfFirstAmp : completeURI.length() );
+		if( LOGGER.isTraceEnabled() )
+		{
+			LOGGER.trace( "getProcessedRequestURI: completeURI[" + completeURI + "]" );
+		}
 
-		LOGGER.debug( "updated-requestURI-with-firstparam[ " + processedURI + " ]" );
+		SecurityMetrics metrics = securityMetrics;
+		long start = metrics == null ? 0 : System.nanoTime();
+		String processedURI = uriNormalizer.normalize( completeURI );
+		if( metrics != null )
+		{
+			metrics.recordLatency( SecurityMetrics.GET_PROCESSED_REQUEST_URI, System.nanoTime() - start );
+		}
+		if( LOGGER.isDebugEnabled() )
+		{
+			LOGGER.debug( "updated-requestURI-with-firstparam[ " + processedURI + " ]" );
+		}
+		return processedURI;
+	}
 
+	/**
+	 * It processes the URI present in specified slice of given sequence, in the same way as
+	 * {@link #getProcessedRequestURI(String)}. It does not allocate anything for URIs processed before, so it is
+	 * suitable for callers which keep the URI in a reusable buffer.
+	 * 
+	 * @param uri Sequence containing the complete URI
+	 * @param start Start offset of URI, inclusive
+	 * @param end End offset of URI, exclusive
+	 * @return Processed URI. It will be the portion of URL after last slash, including first parameter if exists
+	 * @throws SystemException If URI has parameter separator '&amp;' before its last slash
+	 */
+	public String getProcessedRequestURI( CharSequence uri, int start, int end )
+	{
+		Utilities.assertNotNullArgument( uri );
+		SecurityMetrics metrics = securityMetrics;
+		if( metrics == null )
+		{
+			return uriNormalizer.normalize( uri, start, end );
+		}
+		long startNanos = System.nanoTime();
+		String processedURI = uriNormalizer.normalize( uri, start, end );
+		metrics.recordLatency( SecurityMetrics.GET_PROCESSED_REQUEST_URI, System.nanoTime() - startNanos );
 		return processedURI;
 	}
 
@@ -294,7 +1209,141 @@ public class AppSecurityManager
 		LOGGER.trace( "startPwdRecoverRequest: userName[" + userName + "] emailId[" + emailId + "]" );
 		StringUtils.assertQualifiedArgument( userName );
 		StringUtils.assertQualifiedArgument( emailId );
-		return getSecurityService().startPwdRecoverRequest( userName, emailId );
+		return requireSecurityService().startPwdRecoverRequest( userName, emailId );
+	}
+
+	/**
+	 * A user load in progress, on which concurrent requests for the same user wait
+	 */
+	private static final class UserLoad
+	{
+
+		private final byte[]					passwordDigest;
+
+		/**
+		 * Completed with a copy of loaded user, which is kept untouched so that waiting callers can make their own
+		 * copies from it. Loaded user is copied only if some caller has joined, so that an uncontended load does not
+		 * pay for the copy.
+		 */
+		private final CompletableFuture<User>	result	= new CompletableFuture<>();
+
+		/**
+		 * True once at least one caller has joined to wait for the result, guarded by the load
+		 */
+		private boolean							joined;
+
+		/**
+		 * True once the load is completed or failed, guarded by the load. Callers can not join after it.
+		 */
+		private boolean							finished;
+
+		UserLoad( String password )
+		{
+			this.passwordDigest = digest( password );
+		}
+
+		boolean hasSamePassword( UserLoad other )
+		{
+			return MessageDigest.isEqual( passwordDigest, other.passwordDigest );
+		}
+
+		/**
+		 * @return true if caller has joined and can await the result, false if load is already finished and so the
+		 *         loaded user may already be in use by the loading caller
+		 */
+		synchronized boolean join()
+		{
+			if( finished )
+			{
+				return false;
+			}
+			joined = true;
+			return true;
+		}
+
+		/**
+		 * It completes the load. Loading caller keeps the loaded user, and a copy is kept for the joined callers only
+		 * if there is any.
+		 */
+		synchronized void complete( User user )
+		{
+			finished = true;
+			if( !joined )
+			{
+				return;
+			}
+			try
+			{
+				result.complete( user == null ? null : (User) user.clone() );
+			}
+			catch( CloneNotSupportedException e )
+			{
+				SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR, "User could not be copied",
+						e );
+				result.completeExceptionally( se );
+				throw se;
+			}
+		}
+
+		synchronized void fail( Exception e )
+		{
+			finished = true;
+			result.completeExceptionally( e );
+		}
+
+		User await( String userName, long timeoutMillis ) throws AppSecurityException
+		{
+			User user;
+			try
+			{
+				user = result.get( timeoutMillis, TimeUnit.MILLISECONDS );
+			}
+			catch( TimeoutException e )
+			{
+				AppSecurityException ase = new AppSecurityException( IErrorCodes.AUTHENTICATION_FAILURE,
+						"Timed out waiting for in flight request of same user. userName[" + userName + "] timeout["
+								+ timeoutMillis + "ms]", e );
+				LOGGER.error( ase );
+				throw ase;
+			}
+			catch( InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+						"Interrupted while waiting for in flight request of same user. userName[" + userName + "]", e );
+			}
+			catch( ExecutionException | CancellationException e )
+			{
+				Throwable cause = e.getCause() != null ? e.getCause() : e;
+				if( cause instanceof AppSecurityException )
+				{
+					AppSecurityException ase = (AppSecurityException) cause;
+					throw new AppSecurityException( ase.getErrorCode(), ase.getMessage(), ase );
+				}
+				throw new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR, cause.getMessage(), cause );
+			}
+			try
+			{
+				return user == null ? null : (User) user.clone();
+			}
+			catch( CloneNotSupportedException e )
+			{
+				throw new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR, "User could not be copied", e );
+			}
+		}
+
+		private static byte[] digest( String password )
+		{
+			try
+			{
+				return MessageDigest.getInstance( "SHA-256" ).digest(
+						password == null ? new byte[0] : password.getBytes( StandardCharsets.UTF_8 ) );
+			}
+			catch( NoSuchAlgorithmException e )
+			{
+				throw new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR, "SHA-256 is not available", e );
+			}
+		}
 	}
 
 	public static void main( String[] args )
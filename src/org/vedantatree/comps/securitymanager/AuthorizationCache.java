@@ -0,0 +1,137 @@
+package org.vedantatree.comps.securitymanager;
+
+import org.vedantatree.comps.securitymanager.model.Menu;
+import org.vedantatree.comps.securitymanager.model.PermissionProfile;
+
+
+/**
+ * Cache of authorization decisions taken by {@link AppSecurityManager}.
+ *
+ * <p>
+ * Decisions are keyed by the fingerprint of effective roles of user and the processed URI, along with the current menu
+ * for menu item decisions. The fingerprint used is the {@link PermissionProfile} of the current domain snapshot of
+ * user, which is interned by menu catalog for every distinct role set, so comparing it is a reference check. A profile
+ * replaced by catalog changes is a new key, so decisions of old role mapping are never returned.
+ *
+ * <p>
+ * It is used only for users bound to a shared menu catalog, as for these users the roles alone decide the visible
+ * menus. Menus of other users are populated per user by security service, so users having same roles may still have
+ * different menus, and their decisions are not cached. Both allowed and denied {@link AuthorizationDecision}s are
+ * cached.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public class AuthorizationCache
+{
+
+	/**
+	 * Default maximum number of decisions to cache
+	 */
+	public static final int										DEFAULT_MAXIMUM_SIZE	= 10000;
+
+	private final BoundedCache<DecisionKey, AuthorizationDecision>	decisions;
+
+	public AuthorizationCache( int maximumSize )
+	{
+		decisions = new BoundedCache<>( "authorization-decisions", maximumSize );
+	}
+
+	/**
+	 * @param profile Permission profile for effective roles of user
+	 * @param menu Current menu for menu item decisions, null for menu decisions
+	 * @param uri Processed request URI
+	 * @return Cached decision, null if decision is not cached
+	 */
+	public AuthorizationDecision getDecision( PermissionProfile profile, Menu menu, String uri )
+	{
+		return decisions.get( new DecisionKey( profile, menu, uri ) );
+	}
+
+	/**
+	 * @param profile Permission profile for effective roles of user
+	 * @param menu Current menu for menu item decisions, null for menu decisions
+	 * @param uri Processed request URI
+	 * @param decision Decision to cache
+	 */
+	public void putDecision( PermissionProfile profile, Menu menu, String uri, AuthorizationDecision decision )
+	{
+		decisions.put( new DecisionKey( profile, menu, uri ), decision );
+	}
+
+	/**
+	 * It removes all decisions. It must be called whenever the menus or role mapping change.
+	 */
+	public void clear()
+	{
+		decisions.clear();
+	}
+
+	public int size()
+	{
+		return decisions.size();
+	}
+
+	public long getHitCount()
+	{
+		return decisions.getHitCount();
+	}
+
+	public long getMissCount()
+	{
+		return decisions.getMissCount();
+	}
+
+	public long getEvictionCount()
+	{
+		return decisions.getEvictionCount();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "AuthorizationCache@" + hashCode() + ": " + decisions;
+	}
+
+	/**
+	 * Key of a decision. Profile and menu are compared by identity, as both are shared and unique within a catalog.
+	 */
+	private static final class DecisionKey
+	{
+
+		private final PermissionProfile	profile;
+		private final Menu				menu;
+		private final String			uri;
+		private final int				hash;
+
+		DecisionKey( PermissionProfile profile, Menu menu, String uri )
+		{
+			this.profile = profile;
+			this.menu = menu;
+			this.uri = uri;
+			this.hash = ( 31 * System.identityHashCode( profile ) + System.identityHashCode( menu ) ) * 31
+					+ uri.hashCode();
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals( Object obj )
+		{
+			if( this == obj )
+			{
+				return true;
+			}
+			if( !( obj instanceof DecisionKey ) )
+			{
+				return false;
+			}
+			DecisionKey other = (DecisionKey) obj;
+			return hash == other.hash && profile == other.profile && menu == other.menu && uri.equals( other.uri );
+		}
+	}
+
+}
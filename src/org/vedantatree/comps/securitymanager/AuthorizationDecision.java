@@ -0,0 +1,134 @@
+package org.vedantatree.comps.securitymanager;
+
+import org.vedantatree.comps.securitymanager.model.Menu;
+import org.vedantatree.comps.securitymanager.model.MenuItem;
+import org.vedantatree.utils.Utilities;
+import org.vedantatree.utils.exceptions.IErrorCodes;
+
+
+/**
+ * Outcome of an authorization check done by {@link AppSecurityManager}.
+ *
+ * <p>
+ * It is returned by the non throwing validation methods. Denied outcomes are preallocated constants, so denying a
+ * request does not create anything. Allowed outcomes carry the matched menu or menu item, and are cached along with
+ * the decision for users bound to a menu catalog.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class AuthorizationDecision
+{
+
+	/**
+	 * User has the right on requested URL
+	 */
+	public static final int						RESULT_ALLOWED						= 0;
+
+	/**
+	 * User is not logged in or is not authorized
+	 */
+	public static final int						RESULT_NOT_AUTHENTICATED			= 1;
+
+	/**
+	 * No menu is found for the URL among the menus of user
+	 */
+	public static final int						RESULT_MENU_NOT_FOUND				= 2;
+
+	/**
+	 * No menu item is found for the URL under the current menu
+	 */
+	public static final int						RESULT_MENU_ITEM_NOT_FOUND			= 3;
+
+	public static final AuthorizationDecision	DENIED_NOT_AUTHENTICATED			= new AuthorizationDecision(
+			RESULT_NOT_AUTHENTICATED, null, null );
+
+	public static final AuthorizationDecision	DENIED_MENU_NOT_FOUND				= new AuthorizationDecision(
+			RESULT_MENU_NOT_FOUND, null, null );
+
+	public static final AuthorizationDecision	DENIED_MENU_ITEM_NOT_FOUND			= new AuthorizationDecision(
+			RESULT_MENU_ITEM_NOT_FOUND, null, null );
+
+	private final int							resultCode;
+	private final Menu							menu;
+	private final MenuItem						menuItem;
+
+	private AuthorizationDecision( int resultCode, Menu menu, MenuItem menuItem )
+	{
+		this.resultCode = resultCode;
+		this.menu = menu;
+		this.menuItem = menuItem;
+	}
+
+	/**
+	 * @param menu Menu on which user has right
+	 * @return Allowed decision for the menu
+	 */
+	public static AuthorizationDecision allow( Menu menu )
+	{
+		Utilities.assertNotNullArgument( menu );
+		return new AuthorizationDecision( RESULT_ALLOWED, menu, null );
+	}
+
+	/**
+	 * @param menuItem Menu item on which user has right
+	 * @return Allowed decision for the menu item
+	 */
+	public static AuthorizationDecision allow( MenuItem menuItem )
+	{
+		Utilities.assertNotNullArgument( menuItem );
+		return new AuthorizationDecision( RESULT_ALLOWED, null, menuItem );
+	}
+
+	public boolean isAllowed()
+	{
+		return resultCode == RESULT_ALLOWED;
+	}
+
+	/**
+	 * @return One of the RESULT_ constants of this class
+	 */
+	public int getResultCode()
+	{
+		return resultCode;
+	}
+
+	/**
+	 * @return Error code which the throwing validation methods use for this outcome, 0 if it is allowed
+	 */
+	public int getErrorCode()
+	{
+		switch( resultCode )
+		{
+			case RESULT_ALLOWED:
+				return 0;
+			case RESULT_MENU_NOT_FOUND:
+				return IErrorCodes.RESOURCE_NOT_FOUND;
+			default:
+				return IErrorCodes.AUTHENTICATION_FAILURE;
+		}
+	}
+
+	/**
+	 * @return Matched menu for allowed menu decisions, null otherwise
+	 */
+	public Menu getMenu()
+	{
+		return menu;
+	}
+
+	/**
+	 * @return Matched menu item for allowed menu item decisions, null otherwise
+	 */
+	public MenuItem getMenuItem()
+	{
+		return menuItem;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "AuthorizationDecision@" + hashCode() + ": resultCode[" + resultCode + "] menu[" + menu + "] menuItem["
+				+ menuItem + "]";
+	}
+
+}
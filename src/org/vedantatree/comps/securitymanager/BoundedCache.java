@@ -0,0 +1,293 @@
+package org.vedantatree.comps.securitymanager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.vedantatree.utils.Utilities;
+import org.vedantatree.utils.exceptions.IErrorCodes;
+import org.vedantatree.utils.exceptions.SystemException;
+
+
+/**
+ * A concurrent cache with bounded size and least recently used eviction.
+ *
+ * <p>
+ * Entries are distributed over a fixed number of segments, each one is an access ordered map guarded by its own lock.
+ * So threads working on different keys rarely contend with each other. Each segment evicts its least recently used
+ * entry once it reaches its share of maximum size. Optionally, entries may also expire after a time to live. It keeps
+ * the hit, miss, eviction and expiration counters.
+ *
+ * <p>
+ * Null values are not supported.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public class BoundedCache<K, V>
+{
+
+	private static final int	SEGMENT_COUNT	= 16;
+
+	private final String		name;
+	private final int			maximumSize;
+	private final long			timeToLiveNanos;
+	private final Segment<K>[]	segments;
+
+	private final LongAdder		hitCount		= new LongAdder();
+	private final LongAdder		missCount		= new LongAdder();
+	private final LongAdder		evictionCount	= new LongAdder();
+	private final LongAdder		expirationCount	= new LongAdder();
+
+	/**
+	 * @param name Name of the cache, used for logging and statistics
+	 * @param maximumSize Maximum number of entries to keep in cache
+	 */
+	public BoundedCache( String name, int maximumSize )
+	{
+		this( name, maximumSize, 0 );
+	}
+
+	/**
+	 * @param name Name of the cache, used for logging and statistics
+	 * @param maximumSize Maximum number of entries to keep in cache
+	 * @param timeToLiveMillis Time after which an entry expires, 0 if entries should never expire
+	 */
+	public BoundedCache( String name, int maximumSize, long timeToLiveMillis )
+	{
+		if( maximumSize <= 0 || timeToLiveMillis < 0 )
+		{
+			throw new SystemException( IErrorCodes.ILLEGAL_ARGUMENT_ERROR,
+					"Maximum size of cache must be greater than zero and time to live must not be negative. cache["
+							+ name + "] maximumSize[" + maximumSize + "] timeToLiveMillis[" + timeToLiveMillis + "]" );
+		}
+		this.name = name;
+		this.maximumSize = maximumSize;
+		this.timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos( timeToLiveMillis );
+		int segmentCount = maximumSize < SEGMENT_COUNT ? 1 : SEGMENT_COUNT;
+		int segmentSize = ( maximumSize + segmentCount - 1 ) / segmentCount;
+		segments = newSegments( segmentCount );
+		for( int i = 0; i < segmentCount; i++ )
+		{
+			segments[i] = new Segment<>( segmentSize, evictionCount );
+		}
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public int getMaximumSize()
+	{
+		return maximumSize;
+	}
+
+	public long getTimeToLiveMillis()
+	{
+		return TimeUnit.NANOSECONDS.toMillis( timeToLiveNanos );
+	}
+
+	/**
+	 * @param key Key to search
+	 * @return Cached value for the key, null if it is not cached
+	 */
+	@SuppressWarnings( "unchecked" )
+	public V get( K key )
+	{
+		Utilities.assertNotNullArgument( key );
+		Segment<K> segment = segmentFor( key );
+		Object value;
+		synchronized( segment )
+		{
+			value = segment.get( key );
+			if( value instanceof TimedValue )
+			{
+				TimedValue timedValue = (TimedValue) value;
+				if( System.nanoTime() - timedValue.expiresAt >= 0 )
+				{
+					segment.remove( key );
+					expirationCount.increment();
+					value = null;
+				}
+				else
+				{
+					value = timedValue.value;
+				}
+			}
+		}
+		if( value == null )
+		{
+			missCount.increment();
+		}
+		else
+		{
+			hitCount.increment();
+		}
+		return (V) value;
+	}
+
+	/**
+	 * It puts the value in cache, evicting least recently used entry of segment if it is full
+	 *
+	 * @param key Key for the value
+	 * @param value Value to cache, must not be null
+	 * @return Previous value for the key, if any
+	 */
+	public V put( K key, V value )
+	{
+		Utilities.assertNotNullArgument( key );
+		Utilities.assertNotNullArgument( value );
+		Object storedValue = timeToLiveNanos == 0 ? value : new TimedValue( value, System.nanoTime() + timeToLiveNanos );
+		Segment<K> segment = segmentFor( key );
+		synchronized( segment )
+		{
+			return unwrap( segment.put( key, storedValue ) );
+		}
+	}
+
+	/**
+	 * @param key Key to remove from cache
+	 * @return Removed value, null if key was not cached
+	 */
+	public V remove( K key )
+	{
+		Utilities.assertNotNullArgument( key );
+		Segment<K> segment = segmentFor( key );
+		synchronized( segment )
+		{
+			return unwrap( segment.remove( key ) );
+		}
+	}
+
+	/**
+	 * It removes all entries from cache. Statistics are not reset.
+	 */
+	public void clear()
+	{
+		for( Segment<K> segment : segments )
+		{
+			synchronized( segment )
+			{
+				segment.clear();
+			}
+		}
+	}
+
+	/**
+	 * @return Current number of entries in cache
+	 */
+	public int size()
+	{
+		int size = 0;
+		for( Segment<K> segment : segments )
+		{
+			synchronized( segment )
+			{
+				size += segment.size();
+			}
+		}
+		return size;
+	}
+
+	public long getHitCount()
+	{
+		return hitCount.sum();
+	}
+
+	public long getMissCount()
+	{
+		return missCount.sum();
+	}
+
+	public long getEvictionCount()
+	{
+		return evictionCount.sum();
+	}
+
+	public long getExpirationCount()
+	{
+		return expirationCount.sum();
+	}
+
+	/**
+	 * @return Ratio of hits to total lookups, 0 if there is no lookup yet
+	 */
+	public double getHitRatio()
+	{
+		long hits = hitCount.sum();
+		long total = hits + missCount.sum();
+		return total == 0 ? 0 : (double) hits / total;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private V unwrap( Object value )
+	{
+		return (V) ( value instanceof TimedValue ? ( (TimedValue) value ).value : value );
+	}
+
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private static <K> Segment<K>[] newSegments( int segmentCount )
+	{
+		return new Segment[segmentCount];
+	}
+
+	private Segment<K> segmentFor( Object key )
+	{
+		int hash = key.hashCode();
+		hash ^= ( hash >>> 16 );
+		return segments[hash & ( segments.length - 1 )];
+	}
+
+	@Override
+	public String toString()
+	{
+		return "BoundedCache@" + hashCode() + ": name[" + name + "] maximumSize[" + maximumSize + "] size[" + size()
+				+ "] hits[" + getHitCount() + "] misses[" + getMissCount() + "] evictions[" + getEvictionCount()
+				+ "] expirations[" + getExpirationCount() + "]";
+	}
+
+	/**
+	 * Value stored along with its expiry time, used only if cache has a time to live
+	 */
+	private static final class TimedValue
+	{
+
+		private final Object	value;
+		private final long		expiresAt;
+
+		TimedValue( Object value, long expiresAt )
+		{
+			this.value = value;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	private static final class Segment<K> extends LinkedHashMap<K, Object>
+	{
+
+		private static final long	serialVersionUID	= 2026101801L;
+
+		private final int			capacity;
+		private final LongAdder		evictionCount;
+
+		Segment( int capacity, LongAdder evictionCount )
+		{
+			super( 16, 0.75f, true );
+			this.capacity = capacity;
+			this.evictionCount = evictionCount;
+		}
+
+		@Override
+		protected boolean removeEldestEntry( Map.Entry<K, Object> eldest )
+		{
+			if( size() > capacity )
+			{
+				evictionCount.increment();
+				return true;
+			}
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,399 @@
+package org.vedantatree.comps.securitymanager;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.vedantatree.comps.securitymanager.model.Application;
+import org.vedantatree.comps.securitymanager.model.ApplicationDomain;
+import org.vedantatree.comps.securitymanager.model.Menu;
+import org.vedantatree.comps.securitymanager.model.MenuItem;
+import org.vedantatree.comps.securitymanager.model.User;
+import org.vedantatree.comps.securitymanager.model.UserRole;
+import org.vedantatree.utils.Utilities;
+import org.vedantatree.utils.exceptions.ApplicationException;
+
+
+/**
+ * Security service which caches the results of read methods of another security service.
+ *
+ * <p>
+ * Every read method has its own cache, configured by a {@link CachePolicy} with its maximum number of entries and time
+ * to live. Methods without a policy are not cached and are always delegated. User specific results are cached by user
+ * id, menu items by menu id (or url if id is not available). {@link #getUser(String, String, String)},
+ * {@link #getMenuCatalogVersion(String)} and {@link #startPwdRecoverRequest(String, String)} are never cached.
+ *
+ * <p>
+ * Cached collections are shared by all callers, so these are returned as unmodifiable collections. Menus and menu
+ * items are frozen before caching, like the menus of a menu catalog, so cache hits return the same objects without
+ * copying these and nobody can add menu items to them. Callers which need to change a menu or menu item, like to add
+ * the menu items to a menu, use its clone, which is not frozen. Whenever the data changes in backing store, the
+ * corresponding invalidate method should be called.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public class CachingSecurityService implements ISecurityService
+{
+
+	private static Log							LOGGER					= LogFactory.getLog( CachingSecurityService.class );
+
+	// ====== Names of cached methods, used to specify the cache policies
+	public static final String					GET_MENUS				= "getMenus";
+	public static final String					GET_MENU_ITEMS			= "getMenuItems";
+	public static final String					GET_ALL_APPLICATIONS	= "getAllApplications";
+	public static final String					GET_APPLICATIONS		= "getApplications";
+	public static final String					GET_APPLICATION_DOMAINS	= "getApplicationDomains";
+	public static final String					GET_USER_ROLES			= "getUserRoles";
+	public static final String					GET_APPLICATION_ROLES	= "getApplicationRoles";
+
+	/**
+	 * Key used for methods which do not have any argument
+	 */
+	private static final String					ALL						= "all";
+
+	private final ISecurityService				securityService;
+
+	/**
+	 * Cache for each method which has a policy, keyed by method name
+	 */
+	private final Map<String, BoundedCache<Object, Collection<?>>>	caches;
+
+	/**
+	 * It creates the caching service with default policies. Nearly static data, i.e. all applications and application
+	 * roles, is cached for one hour. User and menu specific data is cached for five minutes.
+	 *
+	 * @param securityService Security service to delegate the calls
+	 */
+	public CachingSecurityService( ISecurityService securityService )
+	{
+		this( securityService, getDefaultPolicies() );
+	}
+
+	/**
+	 * @param securityService Security service to delegate the calls
+	 * @param policies Cache policy for each method, keyed by the method name constants of this class. Methods without
+	 *            a policy are not cached.
+	 */
+	public CachingSecurityService( ISecurityService securityService, Map<String, CachePolicy> policies )
+	{
+		Utilities.assertNotNullArgument( securityService );
+		Utilities.assertNotNullArgument( policies );
+		this.securityService = securityService;
+		caches = new HashMap<>();
+		for( Map.Entry<String, CachePolicy> policy : policies.entrySet() )
+		{
+			caches.put( policy.getKey(), new BoundedCache<>( policy.getKey(), policy.getValue().getMaximumSize(),
+					policy.getValue().getTimeToLiveMillis() ) );
+		}
+		LOGGER.info( "created caching security service. delegate[" + securityService + "] policies[" + policies + "]" );
+	}
+
+	/**
+	 * @return Default cache policies, which can be modified and passed to constructor
+	 */
+	public static Map<String, CachePolicy> getDefaultPolicies()
+	{
+		Map<String, CachePolicy> policies = new HashMap<>();
+		CachePolicy staticDataPolicy = new CachePolicy( 16, 60 * 60 * 1000L );
+		CachePolicy userDataPolicy = new CachePolicy( 10000, 5 * 60 * 1000L );
+		policies.put( GET_ALL_APPLICATIONS, staticDataPolicy );
+		policies.put( GET_APPLICATION_ROLES, staticDataPolicy );
+		policies.put( GET_MENUS, userDataPolicy );
+		policies.put( GET_MENU_ITEMS, userDataPolicy );
+		policies.put( GET_APPLICATIONS, userDataPolicy );
+		policies.put( GET_APPLICATION_DOMAINS, userDataPolicy );
+		policies.put( GET_USER_ROLES, userDataPolicy );
+		return policies;
+	}
+
+	public ISecurityService getSecurityService()
+	{
+		return securityService;
+	}
+
+	/**
+	 * @param methodName One of the method name constants of this class
+	 * @return Cache used for the method, null if method is not cached. It can be used to read the statistics.
+	 */
+	public BoundedCache<Object, Collection<?>> getCache( String methodName )
+	{
+		return caches.get( methodName );
+	}
+
+	@Override
+	public User getUser( String userName, String password, String applicationName ) throws ApplicationException,
+			AppSecurityException
+	{
+		return securityService.getUser( userName, password, applicationName );
+	}
+
+	@Override
+	public Collection<Menu> getMenus( User user ) throws AppSecurityException
+	{
+		Object key = userKey( user );
+		Collection<Menu> menus = getCached( GET_MENUS, key );
+		if( menus == null )
+		{
+			menus = securityService.getMenus( user );
+			if( menus != null && isCached( GET_MENUS, key ) )
+			{
+				for( Menu menu : menus )
+				{
+					menu.freeze();
+				}
+			}
+			menus = putCached( GET_MENUS, key, menus );
+		}
+		return menus;
+	}
+
+	@Override
+	public Collection<MenuItem> getMenuItems( Menu menu ) throws AppSecurityException
+	{
+		Object key = menuKey( menu );
+		Collection<MenuItem> menuItems = getCached( GET_MENU_ITEMS, key );
+		if( menuItems == null )
+		{
+			menuItems = securityService.getMenuItems( menu );
+			if( menuItems != null && isCached( GET_MENU_ITEMS, key ) )
+			{
+				for( MenuItem menuItem : menuItems )
+				{
+					menuItem.freeze();
+				}
+			}
+			menuItems = putCached( GET_MENU_ITEMS, key, menuItems );
+		}
+		return menuItems;
+	}
+
+	@Override
+	public Collection<Application> getAllApplications() throws AppSecurityException
+	{
+		Collection<Application> applications = getCached( GET_ALL_APPLICATIONS, ALL );
+		if( applications == null )
+		{
+			applications = putCached( GET_ALL_APPLICATIONS, ALL, securityService.getAllApplications() );
+		}
+		return applications;
+	}
+
+	@Override
+	public Collection<Application> getApplications( User user )
+	{
+		Collection<Application> applications = getCached( GET_APPLICATIONS, userKey( user ) );
+		if( applications == null )
+		{
+			applications = putCached( GET_APPLICATIONS, userKey( user ), securityService.getApplications( user ) );
+		}
+		return applications;
+	}
+
+	@Override
+	public Collection<ApplicationDomain> getApplicationDomains( User user ) throws AppSecurityException
+	{
+		Collection<ApplicationDomain> domains = getCached( GET_APPLICATION_DOMAINS, userKey( user ) );
+		if( domains == null )
+		{
+			domains = putCached( GET_APPLICATION_DOMAINS, userKey( user ),
+					securityService.getApplicationDomains( user ) );
+		}
+		return domains;
+	}
+
+	@Override
+	public Collection<UserRole> getUserRoles( User user ) throws AppSecurityException
+	{
+		Collection<UserRole> roles = getCached( GET_USER_ROLES, userKey( user ) );
+		if( roles == null )
+		{
+			roles = putCached( GET_USER_ROLES, userKey( user ), securityService.getUserRoles( user ) );
+		}
+		return roles;
+	}
+
+	@Override
+	public Collection<UserRole> getApplicationRoles() throws AppSecurityException
+	{
+		Collection<UserRole> roles = getCached( GET_APPLICATION_ROLES, ALL );
+		if( roles == null )
+		{
+			roles = putCached( GET_APPLICATION_ROLES, ALL, securityService.getApplicationRoles() );
+		}
+		return roles;
+	}
+
+	@Override
+	public boolean startPwdRecoverRequest( String userName, String emailId ) throws ApplicationException
+	{
+		return securityService.startPwdRecoverRequest( userName, emailId );
+	}
+
+	@Override
+	public long getMenuCatalogVersion( String applicationName ) throws AppSecurityException
+	{
+		// version is used to detect the changes, so it is never cached
+		return securityService.getMenuCatalogVersion( applicationName );
+	}
+
+	/**
+	 * It removes all cached data of specified user, i.e. menus, applications, domains and roles
+	 *
+	 * @param userId Id of the user
+	 */
+	public void invalidateUser( String userId )
+	{
+		Utilities.assertNotNullArgument( userId );
+		invalidate( GET_MENUS, userId );
+		invalidate( GET_APPLICATIONS, userId );
+		invalidate( GET_APPLICATION_DOMAINS, userId );
+		invalidate( GET_USER_ROLES, userId );
+	}
+
+	/**
+	 * It removes the cached menu items of specified menu
+	 *
+	 * @param menu Menu whose items are changed
+	 */
+	public void invalidateMenu( Menu menu )
+	{
+		Object key = menuKey( menu );
+		if( key != null )
+		{
+			invalidate( GET_MENU_ITEMS, key );
+		}
+	}
+
+	/**
+	 * It removes the cached applications and application roles
+	 */
+	public void invalidateApplicationData()
+	{
+		invalidate( GET_ALL_APPLICATIONS, ALL );
+		invalidate( GET_APPLICATION_ROLES, ALL );
+	}
+
+	/**
+	 * @param methodName One of the method name constants of this class
+	 */
+	public void invalidateAll( String methodName )
+	{
+		BoundedCache<Object, Collection<?>> cache = caches.get( methodName );
+		if( cache != null )
+		{
+			cache.clear();
+		}
+	}
+
+	/**
+	 * It removes all cached data
+	 */
+	public void invalidateAll()
+	{
+		for( BoundedCache<Object, Collection<?>> cache : caches.values() )
+		{
+			cache.clear();
+		}
+	}
+
+	private void invalidate( String methodName, Object key )
+	{
+		BoundedCache<Object, Collection<?>> cache = caches.get( methodName );
+		if( cache != null )
+		{
+			cache.remove( key );
+		}
+	}
+
+	/**
+	 * @return true if results of the method are cached for given key
+	 */
+	private boolean isCached( String methodName, Object key )
+	{
+		return key != null && caches.get( methodName ) != null;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private <T> Collection<T> getCached( String methodName, Object key )
+	{
+		BoundedCache<Object, Collection<?>> cache = caches.get( methodName );
+		if( cache == null || key == null )
+		{
+			return null;
+		}
+		return (Collection<T>) cache.get( key );
+	}
+
+	private <T> Collection<T> putCached( String methodName, Object key, Collection<T> value )
+	{
+		BoundedCache<Object, Collection<?>> cache = caches.get( methodName );
+		if( cache == null || key == null || value == null )
+		{
+			return value;
+		}
+		Collection<T> sharedValue = Collections.unmodifiableCollection( value );
+		cache.put( key, sharedValue );
+		return sharedValue;
+	}
+
+	private static Object userKey( User user )
+	{
+		return user == null ? null : user.getUserId();
+	}
+
+	private static Object menuKey( Menu menu )
+	{
+		if( menu == null )
+		{
+			return null;
+		}
+		return menu.getId() != null ? menu.getId() : menu.getUrl();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "CachingSecurityService@" + hashCode() + ": delegate[" + securityService + "] caches["
+				+ caches.values() + "]";
+	}
+
+	/**
+	 * Caching policy for a method of security service
+	 */
+	public static final class CachePolicy
+	{
+
+		private final int	maximumSize;
+		private final long	timeToLiveMillis;
+
+		/**
+		 * @param maximumSize Maximum number of results to cache
+		 * @param timeToLiveMillis Time after which a cached result expires, 0 if it should never expire
+		 */
+		public CachePolicy( int maximumSize, long timeToLiveMillis )
+		{
+			this.maximumSize = maximumSize;
+			this.timeToLiveMillis = timeToLiveMillis;
+		}
+
+		public int getMaximumSize()
+		{
+			return maximumSize;
+		}
+
+		public long getTimeToLiveMillis()
+		{
+			return timeToLiveMillis;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "CachePolicy: maximumSize[" + maximumSize + "] timeToLiveMillis[" + timeToLiveMillis + "]";
+		}
+	}
+
+}
@@ -106,4 +106,17 @@ public interface ISecurityService
 	 * @throws AppSecurityException If any problem exists.
 	 */
 	public boolean startPwdRecoverRequest( String userName, String emailId ) throws ApplicationException;
+
+	/**
+	 * It returns the version of menus, menu items and role menu mapping of the application. Version must change
+	 * whenever any of these is changed, so that a persisted menu catalog can be validated before using it.
+	 * 
+	 * @param applicationName Name of the application
+	 * @return Version of menu catalog, or -1 if service does not track the versions
+	 * @throws AppSecurityException If there is any problem
+	 */
+	default long getMenuCatalogVersion( String applicationName ) throws AppSecurityException
+	{
+		return -1;
+	}
 }
@@ -0,0 +1,165 @@
+package org.vedantatree.comps.securitymanager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Set;
+
+import org.vedantatree.comps.securitymanager.model.Menu;
+import org.vedantatree.comps.securitymanager.model.MenuItem;
+import org.vedantatree.utils.StringUtils;
+
+
+/**
+ * It renders the navigation as UTF-8 JSON, like
+ *
+ * <pre>
+ * {"topNavigation":[{"url":"...","name":"...","current":true}],
+ *  "globalMenus":[...],
+ *  "leftNavigation":[{"url":"...","name":"...","actionType":1,"items":[...]}]}
+ * </pre>
+ *
+ * Names are resolved with {@link Menu#getDisplayName(Locale)}, i.e. localized name for the locale, then for its
+ * language, and then display name. Visibility conditions are not rendered, as these are server side rules. Menu items
+ * whose condition is hidden are skipped along with their sub menu items.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public class JsonNavigationRenderer implements NavigationRenderer
+{
+
+	@Override
+	public byte[] render( Collection<Menu> topNavigationMenus, Collection<Menu> globalMenus, Menu currentMenu,
+			Locale locale, Set<String> hiddenConditions )
+	{
+		StringBuilder json = new StringBuilder( 1024 );
+		json.append( "{\"topNavigation\":" );
+		appendMenus( json, topNavigationMenus, currentMenu, locale );
+		json.append( ",\"globalMenus\":" );
+		appendMenus( json, globalMenus, currentMenu, locale );
+		json.append( ",\"leftNavigation\":" );
+		if( currentMenu != null )
+		{
+			appendMenuItems( json, currentMenu.getLeftNavigationMenuItems(), locale, hiddenConditions );
+		}
+		else
+		{
+			json.append( "[]" );
+		}
+		json.append( '}' );
+		return json.toString().getBytes( StandardCharsets.UTF_8 );
+	}
+
+	private void appendMenus( StringBuilder json, Collection<Menu> menus, Menu currentMenu, Locale locale )
+	{
+		json.append( '[' );
+		boolean first = true;
+		for( Menu menu : menus )
+		{
+			if( !first )
+			{
+				json.append( ',' );
+			}
+			first = false;
+			json.append( '{' );
+			appendProperty( json, "url", menu.getUrl() );
+			appendProperty( json, "encryptedUrl", menu.getEncryptedURL() );
+			appendProperty( json, "name", menu.getDisplayName( locale ) );
+			appendProperty( json, "shortCutKey", menu.getShortCutKey() );
+			appendProperty( json, "hotKey", menu.getHotKey() );
+			json.append( "\"current\":" ).append( isCurrentMenu( menu, currentMenu ) ).append( '}' );
+		}
+		json.append( ']' );
+	}
+
+	private void appendMenuItems( StringBuilder json, Collection<MenuItem> menuItems, Locale locale,
+			Set<String> hiddenConditions )
+	{
+		json.append( '[' );
+		boolean first = true;
+		for( MenuItem menuItem : menuItems )
+		{
+			if( isHidden( menuItem, hiddenConditions ) )
+			{
+				continue;
+			}
+			if( !first )
+			{
+				json.append( ',' );
+			}
+			first = false;
+			json.append( '{' );
+			appendProperty( json, "url", menuItem.getUrl() );
+			appendProperty( json, "encryptedUrl", menuItem.getEncryptedURL() );
+			appendProperty( json, "name", menuItem.getDisplayName( locale ) );
+			appendProperty( json, "shortCutKey", menuItem.getShortCutKey() );
+			appendProperty( json, "hotKey", menuItem.getHotKey() );
+			json.append( "\"actionType\":" ).append( menuItem.getActionType() ).append( ",\"items\":" );
+			appendMenuItems( json, menuItem.getSubMenuItems(), locale, hiddenConditions );
+			json.append( '}' );
+		}
+		json.append( ']' );
+	}
+
+	private static boolean isHidden( MenuItem menuItem, Set<String> hiddenConditions )
+	{
+		String condition = menuItem.getVisibilityCondition();
+		return hiddenConditions != null && !hiddenConditions.isEmpty() && StringUtils.isQualifiedString( condition )
+				&& hiddenConditions.contains( condition );
+	}
+
+	private static boolean isCurrentMenu( Menu menu, Menu currentMenu )
+	{
+		return currentMenu != null
+				&& ( menu == currentMenu || menu.getUrl() != null && menu.getUrl().equals( currentMenu.getUrl() ) );
+	}
+
+	/**
+	 * It appends the property followed by a comma, property is skipped if value is null or empty
+	 */
+	private static void appendProperty( StringBuilder json, String name, String value )
+	{
+		if( !StringUtils.isQualifiedString( value ) )
+		{
+			return;
+		}
+		json.append( '"' ).append( name ).append( "\":\"" );
+		for( int i = 0; i < value.length(); i++ )
+		{
+			char c = value.charAt( i );
+			switch( c )
+			{
+				case '"':
+					json.append( "\\\"" );
+					break;
+				case '\\':
+					json.append( "\\\\" );
+					break;
+				case '\n':
+					json.append( "\\n" );
+					break;
+				case '\r':
+					json.append( "\\r" );
+					break;
+				case '\t':
+					json.append( "\\t" );
+					break;
+				case '<':
+					// so that fragment can be embedded in a script tag
+					json.append( "\\u003c" );
+					break;
+				default:
+					if( c < ' ' )
+					{
+						json.append( String.format( "\\u%04x", (int) c ) );
+					}
+					else
+					{
+						json.append( c );
+					}
+			}
+		}
+		json.append( "\"," );
+	}
+
+}
@@ -0,0 +1,231 @@
+package org.vedantatree.comps.securitymanager;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Histogram of latencies in nanoseconds, with log linear buckets like HdrHistogram.
+ *
+ * <p>
+ * Every power of two range is divided in {@value #SUB_BUCKET_COUNT} buckets, so a recorded value is off by at most
+ * 1/{@value #SUB_BUCKET_COUNT} of itself. Values up to {@value #SUB_BUCKET_COUNT} nanoseconds are exact, and values
+ * above about a minute are counted in the last bucket. Recording is striped by thread, every stripe has its own
+ * counters, so threads recording at same time rarely touch the same counter. Stripes are merged only when a
+ * {@link Snapshot} is taken.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class LatencyHistogram
+{
+
+	private static final int				SUB_BUCKET_BITS		= 4;
+
+	private static final int				SUB_BUCKET_COUNT	= 1 << SUB_BUCKET_BITS;
+
+	/**
+	 * Highest power of two tracked, 2^36 nanoseconds is about 68 seconds
+	 */
+	private static final int				MAXIMUM_MAGNITUDE	= 36;
+
+	private static final int				BUCKET_COUNT		= SUB_BUCKET_COUNT
+			+ ( MAXIMUM_MAGNITUDE - SUB_BUCKET_BITS + 1 ) * SUB_BUCKET_COUNT;
+
+	/**
+	 * Slots after the buckets in every stripe
+	 */
+	private static final int				TOTAL_SLOT			= BUCKET_COUNT;
+	private static final int				MAXIMUM_SLOT		= BUCKET_COUNT + 1;
+	private static final int				STRIPE_LENGTH		= BUCKET_COUNT + 2;
+
+	private static final int				STRIPE_COUNT		= Integer
+			.highestOneBit( Math.min( 16, Math.max( 1, Runtime.getRuntime().availableProcessors() ) ) * 2 - 1 );
+
+	private final String					name;
+
+	private final AtomicLongArray[]			stripes;
+
+	public LatencyHistogram( String name )
+	{
+		this.name = name;
+		stripes = new AtomicLongArray[STRIPE_COUNT];
+		for( int i = 0; i < stripes.length; i++ )
+		{
+			stripes[i] = new AtomicLongArray( STRIPE_LENGTH );
+		}
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @param nanos Latency to record, negative values are recorded as 0
+	 */
+	public void record( long nanos )
+	{
+		long value = Math.max( 0, nanos );
+		AtomicLongArray stripe = stripes[(int) Thread.currentThread().getId() & ( STRIPE_COUNT - 1 )];
+		stripe.incrementAndGet( getBucket( value ) );
+		stripe.addAndGet( TOTAL_SLOT, value );
+		long maximum = stripe.get( MAXIMUM_SLOT );
+		while( value > maximum && !stripe.compareAndSet( MAXIMUM_SLOT, maximum, value ) )
+		{
+			maximum = stripe.get( MAXIMUM_SLOT );
+		}
+	}
+
+	/**
+	 * @return Merged counts of all stripes
+	 */
+	public Snapshot getSnapshot()
+	{
+		long[] counts = new long[BUCKET_COUNT];
+		long count = 0;
+		long total = 0;
+		long maximum = 0;
+		for( AtomicLongArray stripe : stripes )
+		{
+			for( int bucket = 0; bucket < BUCKET_COUNT; bucket++ )
+			{
+				long bucketCount = stripe.get( bucket );
+				counts[bucket] += bucketCount;
+				count += bucketCount;
+			}
+			total += stripe.get( TOTAL_SLOT );
+			maximum = Math.max( maximum, stripe.get( MAXIMUM_SLOT ) );
+		}
+		return new Snapshot( name, counts, count, total, maximum );
+	}
+
+	/**
+	 * It removes all recorded values. Values recorded while resetting may be partly kept.
+	 */
+	public void reset()
+	{
+		for( AtomicLongArray stripe : stripes )
+		{
+			for( int slot = 0; slot < STRIPE_LENGTH; slot++ )
+			{
+				stripe.set( slot, 0 );
+			}
+		}
+	}
+
+	private static int getBucket( long value )
+	{
+		if( value < SUB_BUCKET_COUNT )
+		{
+			return (int) value;
+		}
+		int magnitude = 63 - Long.numberOfLeadingZeros( value );
+		if( magnitude > MAXIMUM_MAGNITUDE )
+		{
+			return BUCKET_COUNT - 1;
+		}
+		int subBucket = (int) ( value >>> ( magnitude - SUB_BUCKET_BITS ) ) - SUB_BUCKET_COUNT;
+		return SUB_BUCKET_COUNT + ( magnitude - SUB_BUCKET_BITS ) * SUB_BUCKET_COUNT + subBucket;
+	}
+
+	/**
+	 * @return Highest value which is counted in the bucket
+	 */
+	private static long getBucketLimit( int bucket )
+	{
+		if( bucket < SUB_BUCKET_COUNT )
+		{
+			return bucket;
+		}
+		int magnitude = ( bucket - SUB_BUCKET_COUNT ) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS;
+		int subBucket = ( bucket - SUB_BUCKET_COUNT ) % SUB_BUCKET_COUNT;
+		int shift = magnitude - SUB_BUCKET_BITS;
+		return ( ( (long) ( SUB_BUCKET_COUNT + subBucket + 1 ) ) << shift ) - 1;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "LatencyHistogram@" + hashCode() + ": name[" + name + "] stripes[" + stripes.length + "]";
+	}
+
+	/**
+	 * Merged state of a histogram at a point of time
+	 */
+	public static final class Snapshot
+	{
+
+		private final String	name;
+		private final long[]	counts;
+		private final long		count;
+		private final long		totalNanos;
+		private final long		maximumNanos;
+
+		Snapshot( String name, long[] counts, long count, long totalNanos, long maximumNanos )
+		{
+			this.name = name;
+			this.counts = counts;
+			this.count = count;
+			this.totalNanos = totalNanos;
+			this.maximumNanos = maximumNanos;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+
+		public long getCount()
+		{
+			return count;
+		}
+
+		public long getTotalNanos()
+		{
+			return totalNanos;
+		}
+
+		public long getMaximumNanos()
+		{
+			return maximumNanos;
+		}
+
+		public double getMeanNanos()
+		{
+			return count == 0 ? 0 : (double) totalNanos / count;
+		}
+
+		/**
+		 * @param percentile Percentile, from 0 to 100
+		 * @return Highest value of the bucket in which the percentile falls, not more than the maximum recorded value
+		 */
+		public long getPercentileNanos( double percentile )
+		{
+			if( count == 0 )
+			{
+				return 0;
+			}
+			long rank = Math.max( 1, (long) Math.ceil( count * Math.min( 100, Math.max( 0, percentile ) ) / 100 ) );
+			long seen = 0;
+			for( int bucket = 0; bucket < counts.length; bucket++ )
+			{
+				seen += counts[bucket];
+				if( seen >= rank )
+				{
+					// last bucket has all values above the tracked range
+					return bucket == counts.length - 1 ? maximumNanos
+							: Math.min( getBucketLimit( bucket ), maximumNanos );
+				}
+			}
+			return maximumNanos;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "LatencyHistogram.Snapshot: name[" + name + "] count[" + count + "] mean[" + (long) getMeanNanos()
+					+ "ns] p50[" + getPercentileNanos( 50 ) + "ns] p99[" + getPercentileNanos( 99 ) + "ns] max["
+					+ maximumNanos + "ns]";
+		}
+	}
+
+}
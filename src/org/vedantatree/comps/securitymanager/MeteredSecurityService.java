@@ -0,0 +1,279 @@
+package org.vedantatree.comps.securitymanager;
+
+import java.util.Collection;
+
+import org.vedantatree.comps.securitymanager.model.Application;
+import org.vedantatree.comps.securitymanager.model.ApplicationDomain;
+import org.vedantatree.comps.securitymanager.model.Menu;
+import org.vedantatree.comps.securitymanager.model.MenuItem;
+import org.vedantatree.comps.securitymanager.model.User;
+import org.vedantatree.comps.securitymanager.model.UserRole;
+import org.vedantatree.utils.Utilities;
+import org.vedantatree.utils.exceptions.ApplicationException;
+
+
+/**
+ * Security service which records the latency of every call to another security service in {@link SecurityMetrics}.
+ * Latency of a call is recorded as operation "securityService.&lt;method name&gt;", and failed calls are counted
+ * with suffix {@link SecurityMetrics#FAILED}.
+ *
+ * <p>
+ * If the other service is a {@link CachingSecurityService}, it can be wrapped to measure the calls including the
+ * cache, and its caches are registered with metrics for the hit rates. It can also be wrapped by the caching service
+ * to measure only the calls which miss the cache.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public class MeteredSecurityService implements ISecurityService
+{
+
+	private static final String		GET_USER					= SecurityMetrics.SECURITY_SERVICE + "getUser";
+	private static final String		GET_MENUS					= SecurityMetrics.SECURITY_SERVICE + "getMenus";
+	private static final String		GET_MENU_ITEMS				= SecurityMetrics.SECURITY_SERVICE + "getMenuItems";
+	private static final String		GET_ALL_APPLICATIONS		= SecurityMetrics.SECURITY_SERVICE
+			+ "getAllApplications";
+	private static final String		GET_APPLICATIONS			= SecurityMetrics.SECURITY_SERVICE + "getApplications";
+	private static final String		GET_APPLICATION_DOMAINS		= SecurityMetrics.SECURITY_SERVICE
+			+ "getApplicationDomains";
+	private static final String		GET_USER_ROLES				= SecurityMetrics.SECURITY_SERVICE + "getUserRoles";
+	private static final String		GET_APPLICATION_ROLES		= SecurityMetrics.SECURITY_SERVICE
+			+ "getApplicationRoles";
+	private static final String		START_PWD_RECOVER_REQUEST	= SecurityMetrics.SECURITY_SERVICE
+			+ "startPwdRecoverRequest";
+	private static final String		GET_MENU_CATALOG_VERSION	= SecurityMetrics.SECURITY_SERVICE
+			+ "getMenuCatalogVersion";
+
+	private final ISecurityService	securityService;
+
+	private final SecurityMetrics	metrics;
+
+	/**
+	 * @param securityService Security service to delegate the calls
+	 * @param metrics Metrics to record the calls in
+	 */
+	public MeteredSecurityService( ISecurityService securityService, SecurityMetrics metrics )
+	{
+		Utilities.assertNotNullArgument( securityService );
+		Utilities.assertNotNullArgument( metrics );
+		this.securityService = securityService;
+		this.metrics = metrics;
+		if( securityService instanceof CachingSecurityService )
+		{
+			registerCaches( (CachingSecurityService) securityService );
+		}
+	}
+
+	private void registerCaches( CachingSecurityService cachingService )
+	{
+		String[] methodNames = { CachingSecurityService.GET_MENUS, CachingSecurityService.GET_MENU_ITEMS,
+				CachingSecurityService.GET_ALL_APPLICATIONS, CachingSecurityService.GET_APPLICATIONS,
+				CachingSecurityService.GET_APPLICATION_DOMAINS, CachingSecurityService.GET_USER_ROLES,
+				CachingSecurityService.GET_APPLICATION_ROLES };
+		for( String methodName : methodNames )
+		{
+			BoundedCache<Object, Collection<?>> cache = cachingService.getCache( methodName );
+			if( cache != null )
+			{
+				metrics.registerCache( SecurityMetrics.SECURITY_SERVICE + methodName, cache::getHitCount,
+						cache::getMissCount );
+			}
+		}
+	}
+
+	public ISecurityService getSecurityService()
+	{
+		return securityService;
+	}
+
+	public SecurityMetrics getMetrics()
+	{
+		return metrics;
+	}
+
+	@Override
+	public User getUser( String userName, String password, String applicationName ) throws ApplicationException,
+			AppSecurityException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			User user = securityService.getUser( userName, password, applicationName );
+			failed = false;
+			return user;
+		}
+		finally
+		{
+			record( GET_USER, start, failed );
+		}
+	}
+
+	@Override
+	public Collection<Menu> getMenus( User user ) throws AppSecurityException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			Collection<Menu> menus = securityService.getMenus( user );
+			failed = false;
+			return menus;
+		}
+		finally
+		{
+			record( GET_MENUS, start, failed );
+		}
+	}
+
+	@Override
+	public Collection<MenuItem> getMenuItems( Menu menu ) throws AppSecurityException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			Collection<MenuItem> menuItems = securityService.getMenuItems( menu );
+			failed = false;
+			return menuItems;
+		}
+		finally
+		{
+			record( GET_MENU_ITEMS, start, failed );
+		}
+	}
+
+	@Override
+	public Collection<Application> getAllApplications() throws AppSecurityException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			Collection<Application> applications = securityService.getAllApplications();
+			failed = false;
+			return applications;
+		}
+		finally
+		{
+			record( GET_ALL_APPLICATIONS, start, failed );
+		}
+	}
+
+	@Override
+	public Collection<Application> getApplications( User user )
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			Collection<Application> applications = securityService.getApplications( user );
+			failed = false;
+			return applications;
+		}
+		finally
+		{
+			record( GET_APPLICATIONS, start, failed );
+		}
+	}
+
+	@Override
+	public Collection<ApplicationDomain> getApplicationDomains( User user ) throws AppSecurityException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			Collection<ApplicationDomain> domains = securityService.getApplicationDomains( user );
+			failed = false;
+			return domains;
+		}
+		finally
+		{
+			record( GET_APPLICATION_DOMAINS, start, failed );
+		}
+	}
+
+	@Override
+	public Collection<UserRole> getUserRoles( User user ) throws AppSecurityException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			Collection<UserRole> roles = securityService.getUserRoles( user );
+			failed = false;
+			return roles;
+		}
+		finally
+		{
+			record( GET_USER_ROLES, start, failed );
+		}
+	}
+
+	@Override
+	public Collection<UserRole> getApplicationRoles() throws AppSecurityException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			Collection<UserRole> roles = securityService.getApplicationRoles();
+			failed = false;
+			return roles;
+		}
+		finally
+		{
+			record( GET_APPLICATION_ROLES, start, failed );
+		}
+	}
+
+	@Override
+	public boolean startPwdRecoverRequest( String userName, String emailId ) throws ApplicationException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			boolean started = securityService.startPwdRecoverRequest( userName, emailId );
+			failed = false;
+			return started;
+		}
+		finally
+		{
+			record( START_PWD_RECOVER_REQUEST, start, failed );
+		}
+	}
+
+	@Override
+	public long getMenuCatalogVersion( String applicationName ) throws AppSecurityException
+	{
+		long start = System.nanoTime();
+		boolean failed = true;
+		try
+		{
+			long version = securityService.getMenuCatalogVersion( applicationName );
+			failed = false;
+			return version;
+		}
+		finally
+		{
+			record( GET_MENU_CATALOG_VERSION, start, failed );
+		}
+	}
+
+	private void record( String operation, long start, boolean failed )
+	{
+		metrics.recordLatency( operation, System.nanoTime() - start );
+		if( failed )
+		{
+			metrics.increment( operation + SecurityMetrics.FAILED );
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "MeteredSecurityService@" + hashCode() + ": delegate[" + securityService + "]";
+	}
+
+}
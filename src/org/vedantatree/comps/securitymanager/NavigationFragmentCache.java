@@ -0,0 +1,280 @@
+package org.vedantatree.comps.securitymanager;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.vedantatree.comps.securitymanager.model.Menu;
+import org.vedantatree.comps.securitymanager.model.MenuItem;
+import org.vedantatree.comps.securitymanager.model.PermissionProfile;
+import org.vedantatree.comps.securitymanager.model.User;
+import org.vedantatree.utils.StringUtils;
+import org.vedantatree.utils.Utilities;
+
+
+/**
+ * Cache of rendered navigation fragments.
+ *
+ * <p>
+ * For users bound to a shared menu catalog, menus depend only on the roles, so fragments are kept for a
+ * {@link PermissionProfile}, locale and current menu, and are shared by all users having the same roles. Left
+ * navigation items may also have visibility conditions, which depend on the user. So the distinct conditions of left
+ * navigation of current menu are collected once, evaluated for every user, and a fragment is kept for each outcome,
+ * i.e. for each set of hidden conditions. Users with the same roles and same outcome share the fragment. At most
+ * {@link #MAXIMUM_OUTCOMES} outcomes are kept for a profile, locale and menu, others are rendered on every call.
+ *
+ * <p>
+ * Fragments remember the version of catalog these were rendered from, and are rendered again once the catalog is
+ * changed. Profiles replaced by catalog changes are not asked for again, so their fragments are evicted with time.
+ * Navigation of users having their own menus is rendered on every call.
+ *
+ * <p>
+ * Returned fragments are shared, so these must not be modified.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public class NavigationFragmentCache
+{
+
+	/**
+	 * Default maximum number of fragments to cache
+	 */
+	public static final int									DEFAULT_MAXIMUM_SIZE	= 2000;
+
+	/**
+	 * Maximum number of visibility outcomes for which fragments are kept, for a profile, locale and menu
+	 */
+	public static final int									MAXIMUM_OUTCOMES		= 64;
+
+	private final BoundedCache<FragmentKey, Fragments>	fragments;
+
+	private final NavigationRenderer						renderer;
+
+	/**
+	 * It creates the cache which renders the navigation as JSON
+	 */
+	public NavigationFragmentCache( int maximumSize )
+	{
+		this( maximumSize, new JsonNavigationRenderer() );
+	}
+
+	public NavigationFragmentCache( int maximumSize, NavigationRenderer renderer )
+	{
+		Utilities.assertNotNullArgument( renderer );
+		this.fragments = new BoundedCache<>( "navigation-fragments", maximumSize );
+		this.renderer = renderer;
+	}
+
+	public NavigationRenderer getRenderer()
+	{
+		return renderer;
+	}
+
+	/**
+	 * @param user User to render the navigation for
+	 * @param locale Locale of user
+	 * @param currentMenu Menu of current page, null if there is none
+	 * @param visibilityConditions Compiled conditions, to evaluate the visibility conditions of left navigation items
+	 * @return Rendered navigation
+	 */
+	public byte[] getFragment( User user, Locale locale, Menu currentMenu, VisibilityConditions visibilityConditions )
+	{
+		Utilities.assertNotNullArgument( user );
+		Utilities.assertNotNullArgument( visibilityConditions );
+		PermissionProfile profile = user.getPermissionProfile();
+		if( profile == null )
+		{
+			Set<String> hiddenConditions = currentMenu == null ? Collections.<String> emptySet()
+					: visibilityConditions.getHiddenConditions( currentMenu.getLeftNavigationMenuItems(),
+							new VisibilityContext( user ) );
+			return renderer.render( user.getTopNavigationMenus(), user.getGlobalMenus(), currentMenu, locale,
+					hiddenConditions );
+		}
+		profile = profile.getLatest();
+		// version is read before rendering, so a change during rendering makes the fragment stale
+		long catalogVersion = profile.getMenuCatalog().getVersion();
+		FragmentKey key = new FragmentKey( profile, locale, currentMenu );
+		Fragments profileFragments = fragments.get( key );
+		if( profileFragments == null || profileFragments.catalogVersion != catalogVersion )
+		{
+			profileFragments = new Fragments( catalogVersion, collectConditions( currentMenu ) );
+			fragments.put( key, profileFragments );
+		}
+		BitSet outcome = profileFragments.evaluate( user, visibilityConditions );
+		byte[] content = profileFragments.contents.get( outcome );
+		if( content == null )
+		{
+			content = renderer.render( profile.getTopNavigationMenus(), profile.getGlobalMenus(), currentMenu, locale,
+					profileFragments.getHiddenConditions( outcome ) );
+			if( profileFragments.contents.size() < MAXIMUM_OUTCOMES )
+			{
+				profileFragments.contents.put( outcome, content );
+			}
+		}
+		return content;
+	}
+
+	/**
+	 * @return Distinct visibility conditions of left navigation items of menu, in hierarchy
+	 */
+	private static String[] collectConditions( Menu menu )
+	{
+		if( menu == null )
+		{
+			return Fragments.NO_CONDITIONS;
+		}
+		Set<String> conditions = new LinkedHashSet<>();
+		collectConditions( menu.getLeftNavigationMenuItems(), conditions );
+		return conditions.isEmpty() ? Fragments.NO_CONDITIONS : conditions.toArray( new String[conditions.size()] );
+	}
+
+	private static void collectConditions( Collection<MenuItem> menuItems, Set<String> conditions )
+	{
+		for( MenuItem menuItem : menuItems )
+		{
+			if( StringUtils.isQualifiedString( menuItem.getVisibilityCondition() ) )
+			{
+				conditions.add( menuItem.getVisibilityCondition() );
+			}
+			collectConditions( menuItem.getSubMenuItems(), conditions );
+		}
+	}
+
+	/**
+	 * It removes all fragments
+	 */
+	public void clear()
+	{
+		fragments.clear();
+	}
+
+	public int size()
+	{
+		return fragments.size();
+	}
+
+	public long getHitCount()
+	{
+		return fragments.getHitCount();
+	}
+
+	public long getMissCount()
+	{
+		return fragments.getMissCount();
+	}
+
+	public long getEvictionCount()
+	{
+		return fragments.getEvictionCount();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "NavigationFragmentCache@" + hashCode() + ": renderer[" + renderer + "] " + fragments;
+	}
+
+	/**
+	 * Fragments of a profile, locale and menu, keyed by visibility outcome. Bit n of outcome is set if n-th condition is
+	 * false for the user.
+	 */
+	private static final class Fragments
+	{
+
+		private static final String[]		NO_CONDITIONS	= new String[0];
+
+		private static final BitSet			ALL_VISIBLE		= new BitSet();
+
+		private final long					catalogVersion;
+		private final String[]				conditions;
+		private final Map<BitSet, byte[]>	contents		= new ConcurrentHashMap<>();
+
+		Fragments( long catalogVersion, String[] conditions )
+		{
+			this.catalogVersion = catalogVersion;
+			this.conditions = conditions;
+		}
+
+		BitSet evaluate( User user, VisibilityConditions visibilityConditions )
+		{
+			if( conditions.length == 0 )
+			{
+				return ALL_VISIBLE;
+			}
+			VisibilityContext context = new VisibilityContext( user );
+			BitSet outcome = new BitSet( conditions.length );
+			for( int i = 0; i < conditions.length; i++ )
+			{
+				if( !visibilityConditions.isSatisfied( conditions[i], context ) )
+				{
+					outcome.set( i );
+				}
+			}
+			return outcome;
+		}
+
+		Set<String> getHiddenConditions( BitSet outcome )
+		{
+			if( outcome.isEmpty() )
+			{
+				return Collections.emptySet();
+			}
+			Set<String> hiddenConditions = new HashSet<>();
+			for( int i = outcome.nextSetBit( 0 ); i >= 0; i = outcome.nextSetBit( i + 1 ) )
+			{
+				hiddenConditions.add( conditions[i] );
+			}
+			return hiddenConditions;
+		}
+	}
+
+	/**
+	 * Key of a fragment. Profile and menu are compared by identity, as both are shared and unique within a catalog.
+	 */
+	private static final class FragmentKey
+	{
+
+		private final PermissionProfile	profile;
+		private final Locale			locale;
+		private final Menu				menu;
+		private final int				hash;
+
+		FragmentKey( PermissionProfile profile, Locale locale, Menu menu )
+		{
+			this.profile = profile;
+			this.locale = locale;
+			this.menu = menu;
+			this.hash = ( 31 * System.identityHashCode( profile ) + System.identityHashCode( menu ) ) * 31
+					+ ( locale != null ? locale.hashCode() : 0 );
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals( Object obj )
+		{
+			if( this == obj )
+			{
+				return true;
+			}
+			if( !( obj instanceof FragmentKey ) )
+			{
+				return false;
+			}
+			FragmentKey other = (FragmentKey) obj;
+			return hash == other.hash && profile == other.profile && menu == other.menu
+					&& ( locale == null ? other.locale == null : locale.equals( other.locale ) );
+		}
+	}
+
+}
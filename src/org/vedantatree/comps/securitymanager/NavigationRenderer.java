@@ -0,0 +1,34 @@
+package org.vedantatree.comps.securitymanager;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Set;
+
+import org.vedantatree.comps.securitymanager.model.Menu;
+
+
+/**
+ * It renders the navigation of a user, i.e. top navigation menus, global menus and left navigation menu items of
+ * current menu, to a fragment which can be written to response as it is. Renderer must produce the same fragment for
+ * the same menus, locale, current menu and hidden conditions, as fragments are cached by
+ * {@link NavigationFragmentCache}. Visibility conditions are evaluated on server, so renderer must not write these to
+ * the fragment.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public interface NavigationRenderer
+{
+
+	/**
+	 * @param topNavigationMenus Top navigation menus of user
+	 * @param globalMenus Global menus of user
+	 * @param currentMenu Menu of current page, null if there is none
+	 * @param locale Locale to render the names for
+	 * @param hiddenConditions Visibility conditions which are false for user. Menu items having any of these are not
+	 *            rendered, along with their sub menu items.
+	 * @return Rendered fragment
+	 */
+	byte[] render( Collection<Menu> topNavigationMenus, Collection<Menu> globalMenus, Menu currentMenu, Locale locale,
+			Set<String> hiddenConditions );
+
+}
@@ -0,0 +1,84 @@
+package org.vedantatree.comps.securitymanager;
+
+import java.beans.ConstructorProperties;
+
+
+/**
+ * Latency statistics of an operation in microseconds, as exposed by {@link SecurityMetricsMXBean}
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class OperationStatistics
+{
+
+	private final String	name;
+	private final long		count;
+	private final double	meanMicros;
+	private final double	p50Micros;
+	private final double	p99Micros;
+	private final double	p999Micros;
+	private final double	maximumMicros;
+
+	@ConstructorProperties( { "name", "count", "meanMicros", "p50Micros", "p99Micros", "p999Micros", "maximumMicros" } )
+	public OperationStatistics( String name, long count, double meanMicros, double p50Micros, double p99Micros,
+			double p999Micros, double maximumMicros )
+	{
+		this.name = name;
+		this.count = count;
+		this.meanMicros = meanMicros;
+		this.p50Micros = p50Micros;
+		this.p99Micros = p99Micros;
+		this.p999Micros = p999Micros;
+		this.maximumMicros = maximumMicros;
+	}
+
+	static OperationStatistics of( LatencyHistogram.Snapshot snapshot )
+	{
+		return new OperationStatistics( snapshot.getName(), snapshot.getCount(), snapshot.getMeanNanos() / 1000,
+				snapshot.getPercentileNanos( 50 ) / 1000d, snapshot.getPercentileNanos( 99 ) / 1000d,
+				snapshot.getPercentileNanos( 99.9 ) / 1000d, snapshot.getMaximumNanos() / 1000d );
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public long getCount()
+	{
+		return count;
+	}
+
+	public double getMeanMicros()
+	{
+		return meanMicros;
+	}
+
+	public double getP50Micros()
+	{
+		return p50Micros;
+	}
+
+	public double getP99Micros()
+	{
+		return p99Micros;
+	}
+
+	public double getP999Micros()
+	{
+		return p999Micros;
+	}
+
+	public double getMaximumMicros()
+	{
+		return maximumMicros;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "OperationStatistics: name[" + name + "] count[" + count + "] mean[" + meanMicros + "us] p50["
+				+ p50Micros + "us] p99[" + p99Micros + "us] p999[" + p999Micros + "us] max[" + maximumMicros + "us]";
+	}
+
+}
@@ -0,0 +1,262 @@
+package org.vedantatree.comps.securitymanager;
+
+import org.vedantatree.utils.Utilities;
+import org.vedantatree.utils.exceptions.IErrorCodes;
+import org.vedantatree.utils.exceptions.SystemException;
+
+
+/**
+ * It processes the request URIs for security validation, without creating garbage for the URIs seen before.
+ *
+ * <p>
+ * Processed URI is the portion of URI after last slash, including the first parameter if exists. Normalizer works on
+ * the offsets of given character sequence and computes the processed URI in place. Then it looks for an equal string in
+ * its intern table, comparing characters directly with the source sequence. If found, the interned string is returned
+ * and nothing is allocated. Otherwise a new string is created and remembered in the first free slot of its probe
+ * sequence. Table is bounded, if all slots of probe sequence are used then the first slot is overwritten, so memory
+ * does not grow with random URIs. Slots do not keep any age, so a frequently used string may be overwritten.
+ *
+ * <p>
+ * Table is read and written without locks. It is safe, as strings are immutable and a lost update only means a string
+ * is created again on next request.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public class RequestURINormalizer
+{
+
+	/**
+	 * Default number of slots in intern table
+	 */
+	public static final int	DEFAULT_CAPACITY	= 4096;
+
+	private static final int	MAX_PROBES			= 8;
+
+	private final String[]		table;
+	private final int			mask;
+
+	public RequestURINormalizer()
+	{
+		this( DEFAULT_CAPACITY );
+	}
+
+	/**
+	 * @param capacity Number of slots in intern table, it is rounded up to power of two
+	 */
+	public RequestURINormalizer( int capacity )
+	{
+		if( capacity <= 0 )
+		{
+			throw new SystemException( IErrorCodes.ILLEGAL_ARGUMENT_ERROR,
+					"Capacity of normalizer must be greater than zero. capacity[" + capacity + "]" );
+		}
+		int size = Integer.highestOneBit( capacity );
+		if( size < capacity )
+		{
+			size <<= 1;
+		}
+		table = new String[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * It processes a complete URI, like the one used in application components such as Button Tag.
+	 *
+	 * Example: /PB/menuitem.do?item-id=9877&menu=y is processed to menuitem.do?item-id=9877
+	 *
+	 * @param completeURI Complete URI
+	 * @return Processed URI, portion of URI after last slash including first parameter if exists
+	 */
+	public String normalize( CharSequence completeURI )
+	{
+		Utilities.assertNotNullArgument( completeURI );
+		return normalize( completeURI, 0, completeURI.length() );
+	}
+
+	/**
+	 * It processes the URI present in specified slice of given sequence, same as {@link #normalize(CharSequence)}
+	 *
+	 * @param uri Sequence containing the URI
+	 * @param start Start offset of URI, inclusive
+	 * @param end End offset of URI, exclusive
+	 * @return Processed URI
+	 * @throws SystemException If URI has a parameter separator '&amp;' before its last slash, like in
+	 *         list.do?id=1&amp;return=/home, as such URI has no valid processed form
+	 */
+	public String normalize( CharSequence uri, int start, int end )
+	{
+		Utilities.assertNotNullArgument( uri );
+		int indexOfLastSlash = lastIndexOf( uri, '/', start, end );
+		int indexOfFirstAmp = indexOf( uri, '&', start, end );
+		int keyStart = indexOfLastSlash < 0 ? start : indexOfLastSlash + 1;
+		int keyEnd = indexOfFirstAmp > start ? indexOfFirstAmp : end;
+		if( keyStart > keyEnd )
+		{
+			throw new SystemException( IErrorCodes.ILLEGAL_ARGUMENT_ERROR,
+					"URI has parameter separator '&' before last slash, it can not be processed. uri["
+							+ uri.subSequence( start, end ) + "]" );
+		}
+		return intern( uri, keyStart, keyEnd, null, 0, 0 );
+	}
+
+	/**
+	 * It processes the URI and query string of a request, like these are received in Security Filters.
+	 *
+	 * Example: Request URI /PBAccountPayable/menuItem.do and query string item-id=3843&menu=y is processed to
+	 * menuItem.do?item-id=3843
+	 *
+	 * @param requestURI URI of request
+	 * @param queryString Query string of request, may be null
+	 * @return Processed URI
+	 */
+	public String normalize( CharSequence requestURI, CharSequence queryString )
+	{
+		Utilities.assertNotNullArgument( requestURI );
+		int uriEnd = requestURI.length();
+		int uriStart = lastIndexOf( requestURI, '/', 0, uriEnd ) + 1;
+		if( !isQualified( queryString ) )
+		{
+			return intern( requestURI, uriStart, uriEnd, null, 0, 0 );
+		}
+
+		int queryEnd = queryString.length();
+		int indexOfFirstAmp = indexOf( queryString, '&', 0, queryEnd );
+		if( indexOfFirstAmp >= 0 )
+		{
+			queryEnd = indexOfFirstAmp;
+		}
+		return intern( requestURI, uriStart, uriEnd, queryString, 0, queryEnd );
+	}
+
+	/**
+	 * It returns the interned string for first slice, followed by '?' and second slice if second sequence is not null.
+	 */
+	private String intern( CharSequence first, int firstStart, int firstEnd, CharSequence second, int secondStart,
+			int secondEnd )
+	{
+		int length = firstEnd - firstStart;
+		int hash = 0;
+		for( int i = firstStart; i < firstEnd; i++ )
+		{
+			hash = 31 * hash + first.charAt( i );
+		}
+		if( second != null )
+		{
+			length += 1 + secondEnd - secondStart;
+			hash = 31 * hash + '?';
+			for( int i = secondStart; i < secondEnd; i++ )
+			{
+				hash = 31 * hash + second.charAt( i );
+			}
+		}
+
+		int slot = spread( hash ) & mask;
+		int freeSlot = -1;
+		for( int probe = 0; probe < MAX_PROBES; probe++ )
+		{
+			int index = ( slot + probe ) & mask;
+			String candidate = table[index];
+			if( candidate == null )
+			{
+				if( freeSlot < 0 )
+				{
+					freeSlot = index;
+				}
+				continue;
+			}
+			if( candidate.length() == length && candidate.hashCode() == hash
+					&& matches( candidate, first, firstStart, firstEnd, second, secondStart, secondEnd ) )
+			{
+				return candidate;
+			}
+		}
+
+		StringBuilder key = new StringBuilder( length );
+		key.append( first, firstStart, firstEnd );
+		if( second != null )
+		{
+			key.append( '?' ).append( second, secondStart, secondEnd );
+		}
+		String processedURI = key.toString();
+		// no free slot in probe sequence, so first slot is overwritten
+		table[freeSlot >= 0 ? freeSlot : slot] = processedURI;
+		return processedURI;
+	}
+
+	private static boolean matches( String candidate, CharSequence first, int firstStart, int firstEnd,
+			CharSequence second, int secondStart, int secondEnd )
+	{
+		int position = 0;
+		for( int i = firstStart; i < firstEnd; i++ )
+		{
+			if( candidate.charAt( position++ ) != first.charAt( i ) )
+			{
+				return false;
+			}
+		}
+		if( second != null )
+		{
+			if( candidate.charAt( position++ ) != '?' )
+			{
+				return false;
+			}
+			for( int i = secondStart; i < secondEnd; i++ )
+			{
+				if( candidate.charAt( position++ ) != second.charAt( i ) )
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return true if sequence has at least one character other than white space, same as trimmed length check
+	 */
+	private static boolean isQualified( CharSequence sequence )
+	{
+		if( sequence == null )
+		{
+			return false;
+		}
+		for( int i = 0; i < sequence.length(); i++ )
+		{
+			if( sequence.charAt( i ) > ' ' )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static int indexOf( CharSequence sequence, char ch, int start, int end )
+	{
+		for( int i = start; i < end; i++ )
+		{
+			if( sequence.charAt( i ) == ch )
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int lastIndexOf( CharSequence sequence, char ch, int start, int end )
+	{
+		for( int i = end - 1; i >= start; i-- )
+		{
+			if( sequence.charAt( i ) == ch )
+			{
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static int spread( int hash )
+	{
+		return hash ^ ( hash >>> 16 );
+	}
+
+}
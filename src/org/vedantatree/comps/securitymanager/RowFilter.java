@@ -0,0 +1,103 @@
+package org.vedantatree.comps.securitymanager;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Row level filter of a user for an entity, i.e. the sql conditions of rights of user merged into one where clause.
+ *
+ * <p>
+ * Where clause has '?' for all values specific to user, so it is same for all users having the same conditions and
+ * can be used for a reusable prepared statement. Values are taken from a {@link VisibilityContext} while binding.
+ * Filter is immutable and shared by users, so it is cached by {@link RowFilters}.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class RowFilter
+{
+
+	/**
+	 * Filter of users whose rights have no sql condition. Its where clause is empty, and it is for the caller to decide
+	 * whether such users see all rows or none.
+	 */
+	public static final RowFilter		NONE	= new RowFilter( "", Collections.<SqlParameter> emptyList() );
+
+	private final String				whereClause;
+
+	private final List<SqlParameter>	parameters;
+
+	RowFilter( String whereClause, List<SqlParameter> parameters )
+	{
+		this.whereClause = whereClause;
+		this.parameters = parameters;
+	}
+
+	/**
+	 * @return Where clause without 'where', like "( e.owner_id = ? ) OR ( e.status = 'PUBLIC' )", empty if there is no
+	 *         condition
+	 */
+	public String getWhereClause()
+	{
+		return whereClause;
+	}
+
+	/**
+	 * @return true if there is no condition to filter with
+	 */
+	public boolean isEmpty()
+	{
+		return whereClause.isEmpty();
+	}
+
+	/**
+	 * @return Parameters in the order of '?' in where clause
+	 */
+	public List<SqlParameter> getParameters()
+	{
+		return parameters;
+	}
+
+	/**
+	 * @param context Context to take the values from
+	 * @return Values to bind, in the order of '?' in where clause
+	 */
+	public Object[] getParameterValues( VisibilityContext context )
+	{
+		Object[] values = new Object[parameters.size()];
+		for( int i = 0; i < values.length; i++ )
+		{
+			values[i] = parameters.get( i ).getValue( context );
+		}
+		return values;
+	}
+
+	/**
+	 * It binds the values of parameters to the statement
+	 *
+	 * @param statement Statement whose sql contains the where clause
+	 * @param firstIndex Index of the '?' of first parameter in the statement, starting from 1
+	 * @param context Context to take the values from
+	 * @return Index of the next '?' after the where clause
+	 * @throws SQLException If a value can not be bound
+	 */
+	public int bindParameters( PreparedStatement statement, int firstIndex, VisibilityContext context )
+			throws SQLException
+	{
+		int index = firstIndex;
+		for( SqlParameter parameter : parameters )
+		{
+			statement.setObject( index++, parameter.getValue( context ) );
+		}
+		return index;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "RowFilter@" + hashCode() + ": whereClause[" + whereClause + "] parameters" + parameters;
+	}
+
+}
@@ -0,0 +1,189 @@
+package org.vedantatree.comps.securitymanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.vedantatree.comps.securitymanager.model.User;
+import org.vedantatree.utils.StringUtils;
+import org.vedantatree.utils.Utilities;
+import org.vedantatree.utils.exceptions.SystemException;
+
+
+/**
+ * It creates and caches the row level filters of users, from the sql conditions of their rights.
+ *
+ * <p>
+ * Every sql condition is compiled once and cached by its text. Conditions of a user are merged with 'OR', as every
+ * right grants access to its rows, and the merged {@link RowFilter} is cached by the entity alias and the conditions.
+ * Filters are not cached by permission profile, as profile is about the roles, whereas conditions come with the rights
+ * of user. Users having the same conditions share the filter. A condition which can not be compiled is logged once and
+ * replaced with a condition which is never satisfied, so that its right grants no rows.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public class RowFilters
+{
+
+	private static Log										LOGGER					= LogFactory
+			.getLog( RowFilters.class );
+
+	/**
+	 * Default maximum number of merged filters to cache. Compiled conditions are cached up to the same number.
+	 */
+	public static final int									DEFAULT_MAXIMUM_SIZE	= 2000;
+
+	private final BoundedCache<String, SqlCondition>		conditions;
+
+	private final BoundedCache<FilterKey, RowFilter>		filters;
+
+	public RowFilters( int maximumSize )
+	{
+		conditions = new BoundedCache<>( "sql-conditions", maximumSize );
+		filters = new BoundedCache<>( "row-filters", maximumSize );
+	}
+
+	/**
+	 * @param user User to get the filter for
+	 * @param entityAlias Alias of the entity in the query, it replaces the entity placeholder of conditions. It must be
+	 *        a plain sql identifier, [A-Za-z_][A-Za-z0-9_]*.
+	 * @return Filter of user, {@link RowFilter#NONE} if no right of user has a sql condition
+	 * @throws SystemException If alias is not a plain sql identifier
+	 */
+	public RowFilter getRowFilter( User user, String entityAlias )
+	{
+		Utilities.assertNotNullArgument( user );
+		SqlCondition.assertValidEntityAlias( entityAlias );
+		List<String> sqlConditions = user.getSqlConditions();
+		if( sqlConditions.isEmpty() )
+		{
+			return RowFilter.NONE;
+		}
+		FilterKey key = new FilterKey( entityAlias, sqlConditions );
+		RowFilter filter = filters.get( key );
+		if( filter == null )
+		{
+			filter = createRowFilter( sqlConditions, entityAlias );
+			filters.put( key, filter );
+		}
+		return filter;
+	}
+
+	/**
+	 * @param expression Sql condition
+	 * @return Compiled condition, never satisfied condition if it could not be compiled
+	 */
+	public SqlCondition getCondition( String expression )
+	{
+		StringUtils.assertQualifiedArgument( expression );
+		SqlCondition condition = conditions.get( expression );
+		if( condition == null )
+		{
+			try
+			{
+				condition = SqlCondition.compile( expression );
+			}
+			catch( SystemException se )
+			{
+				LOGGER.error( se );
+				condition = SqlCondition.never( expression );
+			}
+			conditions.put( expression, condition );
+		}
+		return condition;
+	}
+
+	private RowFilter createRowFilter( List<String> sqlConditions, String entityAlias )
+	{
+		StringBuilder whereClause = new StringBuilder( 64 * sqlConditions.size() );
+		List<SqlParameter> parameters = new ArrayList<>();
+		for( String expression : sqlConditions )
+		{
+			SqlCondition condition = getCondition( expression );
+			if( whereClause.length() > 0 )
+			{
+				whereClause.append( " OR " );
+			}
+			whereClause.append( "( " );
+			condition.appendTo( whereClause, entityAlias );
+			whereClause.append( " )" );
+			parameters.addAll( condition.getParameters() );
+		}
+		return new RowFilter( whereClause.toString(), Collections.unmodifiableList( parameters ) );
+	}
+
+	/**
+	 * It removes all cached conditions and filters
+	 */
+	public void clear()
+	{
+		filters.clear();
+		conditions.clear();
+	}
+
+	public int size()
+	{
+		return filters.size();
+	}
+
+	public long getHitCount()
+	{
+		return filters.getHitCount();
+	}
+
+	public long getMissCount()
+	{
+		return filters.getMissCount();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "RowFilters@" + hashCode() + ": filters[" + filters + "] conditions[" + conditions + "]";
+	}
+
+	/**
+	 * Key of a merged filter. Condition lists of users are sorted and distinct, so equal sets give equal lists.
+	 */
+	private static final class FilterKey
+	{
+
+		private final String		entityAlias;
+
+		private final List<String>	sqlConditions;
+
+		private final int			hash;
+
+		FilterKey( String entityAlias, List<String> sqlConditions )
+		{
+			this.entityAlias = entityAlias;
+			this.sqlConditions = sqlConditions;
+			this.hash = 31 * entityAlias.hashCode() + sqlConditions.hashCode();
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		@Override
+		public boolean equals( Object obj )
+		{
+			if( this == obj )
+			{
+				return true;
+			}
+			if( !( obj instanceof FilterKey ) )
+			{
+				return false;
+			}
+			FilterKey other = (FilterKey) obj;
+			return hash == other.hash && entityAlias.equals( other.entityAlias )
+					&& sqlConditions.equals( other.sqlConditions );
+		}
+	}
+
+}
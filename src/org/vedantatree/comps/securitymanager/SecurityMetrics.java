@@ -0,0 +1,383 @@
+package org.vedantatree.comps.securitymanager;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.vedantatree.utils.StringUtils;
+import org.vedantatree.utils.Utilities;
+import org.vedantatree.utils.exceptions.IErrorCodes;
+import org.vedantatree.utils.exceptions.SystemException;
+
+
+/**
+ * Latencies and counters of security manager operations.
+ *
+ * <p>
+ * Latencies are kept in a {@link LatencyHistogram} per operation, and counts in {@link LongAdder}s, both of which are
+ * striped, so recording from many threads does not contend. Authorization decisions are counted as allowed, denied
+ * (user is not authenticated) and not found (no menu or menu item for URL). Hit and miss counts of caches are not
+ * copied, rather these are read from the registered caches when asked.
+ *
+ * <p>
+ * Metrics can be pulled with {@link #getSnapshot()}, or through JMX after {@link #registerMBean(String)}. Metrics are
+ * recorded by {@link AppSecurityManager} once set on it, and by {@link MeteredSecurityService} for security service
+ * calls.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public class SecurityMetrics implements SecurityMetricsMXBean
+{
+
+	private static Log									LOGGER						= LogFactory
+			.getLog( SecurityMetrics.class );
+
+	// ====== Names of operations
+	public static final String							AUTHENTICATE				= "authenticate";
+	public static final String							VALIDATE_REQUEST_FOR_MENU	= "validateRequestForMenu";
+	public static final String							VALIDATE_REQUEST_FOR_MENU_ITEM	= "validateRequestForMenuItem";
+	public static final String							GET_PROCESSED_REQUEST_URI	= "getProcessedRequestURI";
+
+	/**
+	 * Prefix of operations of security service, followed by the method name
+	 */
+	public static final String							SECURITY_SERVICE			= "securityService.";
+
+	// ====== Suffixes of counters, added to the operation name
+	public static final String							ALLOWED						= ".allowed";
+	public static final String							DENIED						= ".denied";
+	public static final String							NOT_FOUND					= ".notFound";
+	public static final String							FAILED						= ".failed";
+
+	/**
+	 * Prefix of cache counters, followed by the cache name and ".hits" or ".misses"
+	 */
+	public static final String							CACHE						= "cache.";
+
+	private static final String							DOMAIN						= "org.vedantatree.comps.securitymanager";
+
+	private final ConcurrentMap<String, LatencyHistogram>	histograms				= new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, LongAdder>		counters					= new ConcurrentHashMap<>();
+
+	/**
+	 * Counts of decisions of an operation, indexed by result code of decision
+	 */
+	private final ConcurrentMap<String, LongAdder[]>	decisionCounters			= new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, CacheCounts>	caches						= new ConcurrentHashMap<>();
+
+	private volatile ObjectName							objectName;
+
+	/**
+	 * @param operation Name of the operation
+	 * @return Histogram of the operation, created if not present
+	 */
+	public LatencyHistogram getHistogram( String operation )
+	{
+		LatencyHistogram histogram = histograms.get( operation );
+		return histogram != null ? histogram
+				: histograms.computeIfAbsent( operation, name -> new LatencyHistogram( name ) );
+	}
+
+	/**
+	 * @param name Name of the counter
+	 * @return Counter, created if not present
+	 */
+	public LongAdder getCounter( String name )
+	{
+		LongAdder counter = counters.get( name );
+		return counter != null ? counter : counters.computeIfAbsent( name, key -> new LongAdder() );
+	}
+
+	/**
+	 * @param operation Name of the operation
+	 * @param nanos Time taken by the operation
+	 */
+	public void recordLatency( String operation, long nanos )
+	{
+		getHistogram( operation ).record( nanos );
+	}
+
+	/**
+	 * @param name Name of the counter
+	 */
+	public void increment( String name )
+	{
+		getCounter( name ).increment();
+	}
+
+	/**
+	 * It records the latency of an authorization check and counts its decision
+	 *
+	 * @param operation Name of the operation
+	 * @param decision Decision of the check
+	 * @param nanos Time taken by the check
+	 */
+	public void recordDecision( String operation, AuthorizationDecision decision, long nanos )
+	{
+		getHistogram( operation ).record( nanos );
+		LongAdder[] decisionCounts = decisionCounters.get( operation );
+		if( decisionCounts == null )
+		{
+			decisionCounts = decisionCounters.computeIfAbsent( operation, name -> newDecisionCounters() );
+		}
+		decisionCounts[decision.getResultCode()].increment();
+	}
+
+	private static LongAdder[] newDecisionCounters()
+	{
+		LongAdder[] decisionCounts = new LongAdder[AuthorizationDecision.RESULT_MENU_ITEM_NOT_FOUND + 1];
+		for( int i = 0; i < decisionCounts.length; i++ )
+		{
+			decisionCounts[i] = new LongAdder();
+		}
+		return decisionCounts;
+	}
+
+	/**
+	 * It registers a cache whose hit rate is to be reported. Counts are read from the suppliers when asked, so these
+	 * can follow a cache which is replaced later.
+	 *
+	 * @param name Name of the cache
+	 * @param hitCount Supplier of the hit count of cache
+	 * @param missCount Supplier of the miss count of cache
+	 */
+	public void registerCache( String name, LongSupplier hitCount, LongSupplier missCount )
+	{
+		StringUtils.assertQualifiedArgument( name );
+		Utilities.assertNotNullArgument( hitCount );
+		Utilities.assertNotNullArgument( missCount );
+		caches.put( name, new CacheCounts( hitCount, missCount ) );
+	}
+
+	/**
+	 * @return Current state of all metrics
+	 */
+	public Snapshot getSnapshot()
+	{
+		Map<String, LatencyHistogram.Snapshot> latencies = new TreeMap<>();
+		for( LatencyHistogram histogram : histograms.values() )
+		{
+			latencies.put( histogram.getName(), histogram.getSnapshot() );
+		}
+		return new Snapshot( Collections.unmodifiableMap( latencies ), Collections.unmodifiableMap( getCounters() ),
+				Collections.unmodifiableMap( getCacheHitRates() ) );
+	}
+
+	@Override
+	public List<OperationStatistics> getOperations()
+	{
+		List<OperationStatistics> operations = new ArrayList<>();
+		for( LatencyHistogram.Snapshot latency : getSnapshot().getLatencies().values() )
+		{
+			operations.add( OperationStatistics.of( latency ) );
+		}
+		return operations;
+	}
+
+	@Override
+	public Map<String, Long> getCounters()
+	{
+		Map<String, Long> values = new TreeMap<>();
+		for( Map.Entry<String, LongAdder> counter : counters.entrySet() )
+		{
+			values.put( counter.getKey(), counter.getValue().sum() );
+		}
+		for( Map.Entry<String, LongAdder[]> decisionCounts : decisionCounters.entrySet() )
+		{
+			String operation = decisionCounts.getKey();
+			LongAdder[] counts = decisionCounts.getValue();
+			values.put( operation + ALLOWED, counts[AuthorizationDecision.RESULT_ALLOWED].sum() );
+			values.put( operation + DENIED, counts[AuthorizationDecision.RESULT_NOT_AUTHENTICATED].sum() );
+			values.put( operation + NOT_FOUND, counts[AuthorizationDecision.RESULT_MENU_NOT_FOUND].sum()
+					+ counts[AuthorizationDecision.RESULT_MENU_ITEM_NOT_FOUND].sum() );
+		}
+		for( Map.Entry<String, CacheCounts> cache : caches.entrySet() )
+		{
+			values.put( CACHE + cache.getKey() + ".hits", cache.getValue().hitCount.getAsLong() );
+			values.put( CACHE + cache.getKey() + ".misses", cache.getValue().missCount.getAsLong() );
+		}
+		return values;
+	}
+
+	@Override
+	public Map<String, Double> getCacheHitRates()
+	{
+		Map<String, Double> hitRates = new TreeMap<>();
+		for( Map.Entry<String, CacheCounts> cache : caches.entrySet() )
+		{
+			long hits = cache.getValue().hitCount.getAsLong();
+			long requests = hits + cache.getValue().missCount.getAsLong();
+			hitRates.put( cache.getKey(), requests == 0 ? 0d : (double) hits / requests );
+		}
+		return hitRates;
+	}
+
+	@Override
+	public void reset()
+	{
+		for( LatencyHistogram histogram : histograms.values() )
+		{
+			histogram.reset();
+		}
+		for( LongAdder counter : counters.values() )
+		{
+			counter.reset();
+		}
+		for( LongAdder[] decisionCounts : decisionCounters.values() )
+		{
+			for( LongAdder counter : decisionCounts )
+			{
+				counter.reset();
+			}
+		}
+	}
+
+	/**
+	 * It registers the metrics with platform MBean server, as
+	 * "org.vedantatree.comps.securitymanager:type=SecurityMetrics,name=&lt;name&gt;"
+	 *
+	 * @param name Name to distinguish the metrics, like the application name
+	 * @return Name of registered MBean
+	 */
+	public ObjectName registerMBean( String name )
+	{
+		StringUtils.assertQualifiedArgument( name );
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try
+		{
+			ObjectName newObjectName = new ObjectName(
+					DOMAIN + ":type=SecurityMetrics,name=" + ObjectName.quote( name ) );
+			server.registerMBean( this, newObjectName );
+			objectName = newObjectName;
+			LOGGER.info( "registered security metrics. objectName[" + newObjectName + "]" );
+			return newObjectName;
+		}
+		catch( JMException e )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Problem while registering security metrics. name[" + name + "]", e );
+			LOGGER.error( se );
+			throw se;
+		}
+	}
+
+	/**
+	 * It unregisters the MBean registered by {@link #registerMBean(String)}, if any
+	 */
+	public void unregisterMBean()
+	{
+		ObjectName registeredName = objectName;
+		if( registeredName == null )
+		{
+			return;
+		}
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean( registeredName );
+			objectName = null;
+		}
+		catch( JMException e )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Problem while unregistering security metrics. objectName[" + registeredName + "]", e );
+			LOGGER.error( se );
+			throw se;
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "SecurityMetrics@" + hashCode() + ": operations[" + histograms.size() + "] counters["
+				+ counters.size() + "] caches[" + caches.keySet() + "]";
+	}
+
+	private static final class CacheCounts
+	{
+
+		private final LongSupplier	hitCount;
+		private final LongSupplier	missCount;
+
+		CacheCounts( LongSupplier hitCount, LongSupplier missCount )
+		{
+			this.hitCount = hitCount;
+			this.missCount = missCount;
+		}
+	}
+
+	/**
+	 * State of all metrics at a point of time
+	 */
+	public static final class Snapshot
+	{
+
+		private final Map<String, LatencyHistogram.Snapshot>	latencies;
+		private final Map<String, Long>							counters;
+		private final Map<String, Double>						cacheHitRates;
+
+		Snapshot( Map<String, LatencyHistogram.Snapshot> latencies, Map<String, Long> counters,
+				Map<String, Double> cacheHitRates )
+		{
+			this.latencies = latencies;
+			this.counters = counters;
+			this.cacheHitRates = cacheHitRates;
+		}
+
+		/**
+		 * @return Latencies keyed by operation name
+		 */
+		public Map<String, LatencyHistogram.Snapshot> getLatencies()
+		{
+			return latencies;
+		}
+
+		/**
+		 * @return Counters keyed by counter name
+		 */
+		public Map<String, Long> getCounters()
+		{
+			return counters;
+		}
+
+		/**
+		 * @param name Name of the counter
+		 * @return Value of the counter, 0 if there is no such counter
+		 */
+		public long getCounter( String name )
+		{
+			Long value = counters.get( name );
+			return value != null ? value : 0;
+		}
+
+		/**
+		 * @return Hit rates from 0 to 1, keyed by cache name
+		 */
+		public Map<String, Double> getCacheHitRates()
+		{
+			return cacheHitRates;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "SecurityMetrics.Snapshot: latencies" + latencies.values() + " counters" + counters
+					+ " cacheHitRates" + cacheHitRates;
+		}
+	}
+
+}
@@ -0,0 +1,34 @@
+package org.vedantatree.comps.securitymanager;
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Management interface of {@link SecurityMetrics}, registered with {@link SecurityMetrics#registerMBean(String)}
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public interface SecurityMetricsMXBean
+{
+
+	/**
+	 * @return Latency statistics of all operations recorded so far
+	 */
+	List<OperationStatistics> getOperations();
+
+	/**
+	 * @return Counters, like allowed, denied and not found decisions, failures and cache hits and misses
+	 */
+	Map<String, Long> getCounters();
+
+	/**
+	 * @return Hit rate of every registered cache, from 0 to 1
+	 */
+	Map<String, Double> getCacheHitRates();
+
+	/**
+	 * It removes all recorded latencies and counts. Cache statistics are kept by the caches and are not reset.
+	 */
+	void reset();
+}
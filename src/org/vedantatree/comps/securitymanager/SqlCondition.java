@@ -0,0 +1,269 @@
+package org.vedantatree.comps.securitymanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.vedantatree.utils.StringUtils;
+import org.vedantatree.utils.exceptions.IErrorCodes;
+import org.vedantatree.utils.exceptions.SystemException;
+
+
+/**
+ * Compiled sql condition of a user right, i.e. a row level filter.
+ *
+ * <p>
+ * Condition is parsed once into parts of sql text, entity placeholders and named parameters. Values specific to user
+ * are written as named parameters, which are turned into '?' so that the statement remains same for all users and only
+ * the bound values differ. Condition is like
+ *
+ * <pre>
+ * {entity}.owner_id = :user.userId or ( {entity}.status = 'PUBLIC' and {entity}.tenant = :app.tenant )
+ * </pre>
+ *
+ * Here {entity} is replaced with the alias of the entity being queried. Parameters are :user.&lt;property&gt; for a
+ * profile property of user, same as in {@link VisibilityCondition}, :app.&lt;key&gt; for application specific
+ * information and :domain for the domain.
+ * Quoted literals, quoted identifiers and '::' casts are kept as these are. Plain '?' is not allowed, as its value
+ * could not be bound.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class SqlCondition
+{
+
+	/**
+	 * Placeholder of entity alias
+	 */
+	public static final String			ENTITY_PLACEHOLDER	= "{entity}";
+
+	private final String				expression;
+
+	/**
+	 * Sql text, entity placeholders and parameters, in order. Entity placeholder is kept as null.
+	 */
+	private final Object[]				parts;
+
+	private final List<SqlParameter>	parameters;
+
+	private SqlCondition( String expression, Object[] parts, List<SqlParameter> parameters )
+	{
+		this.expression = expression;
+		this.parts = parts;
+		this.parameters = parameters;
+	}
+
+	/**
+	 * It parses the condition
+	 *
+	 * @param expression Sql condition of a right
+	 * @return Compiled condition
+	 * @throws SystemException If condition is empty, refers to an unknown parameter, or has an unclosed quote
+	 */
+	public static SqlCondition compile( String expression )
+	{
+		StringUtils.assertQualifiedArgument( expression );
+		return new Parser( expression ).parse();
+	}
+
+	/**
+	 * @return Condition which is never satisfied, used in place of conditions which could not be compiled
+	 */
+	static SqlCondition never( String expression )
+	{
+		return new SqlCondition( expression, new Object[] { "1 = 0" }, Collections.<SqlParameter> emptyList() );
+	}
+
+	public String getExpression()
+	{
+		return expression;
+	}
+
+	/**
+	 * It checks that alias is a plain sql identifier, i.e. a letter or '_' followed by letters, digits or '_'. Alias is
+	 * written into the sql as it is, so anything else is rejected.
+	 *
+	 * @param entityAlias Alias of the entity in the query
+	 * @throws SystemException If alias is not a plain sql identifier
+	 */
+	static void assertValidEntityAlias( String entityAlias )
+	{
+		StringUtils.assertQualifiedArgument( entityAlias );
+		boolean valid = isIdentifierStart( entityAlias.charAt( 0 ) );
+		for( int i = 1; valid && i < entityAlias.length(); i++ )
+		{
+			char ch = entityAlias.charAt( i );
+			valid = isIdentifierStart( ch ) || ( ch >= '0' && ch <= '9' );
+		}
+		if( !valid )
+		{
+			throw new SystemException( IErrorCodes.ILLEGAL_ARGUMENT_ERROR,
+					"Entity alias must be a plain sql identifier, like [A-Za-z_][A-Za-z0-9_]*. entityAlias["
+							+ entityAlias + "]" );
+		}
+	}
+
+	private static boolean isIdentifierStart( char ch )
+	{
+		return ( ch >= 'a' && ch <= 'z' ) || ( ch >= 'A' && ch <= 'Z' ) || ch == '_';
+	}
+
+	/**
+	 * @return Parameters of condition, in the order of their '?'
+	 */
+	public List<SqlParameter> getParameters()
+	{
+		return parameters;
+	}
+
+	/**
+	 * It appends the condition with '?' in place of parameters
+	 *
+	 * @param sql Buffer to append to
+	 * @param entityAlias Alias to replace the entity placeholders with
+	 */
+	void appendTo( StringBuilder sql, String entityAlias )
+	{
+		for( Object part : parts )
+		{
+			if( part == null )
+			{
+				sql.append( entityAlias );
+			}
+			else if( part instanceof SqlParameter )
+			{
+				sql.append( '?' );
+			}
+			else
+			{
+				sql.append( (String) part );
+			}
+		}
+	}
+
+	@Override
+	public String toString()
+	{
+		return "SqlCondition@" + hashCode() + ": expression[" + expression + "] parameters[" + parameters.size() + "]";
+	}
+
+	/**
+	 * Parser of sql condition. It does not understand sql, it only finds the placeholders and parameters outside the
+	 * quotes.
+	 */
+	private static final class Parser
+	{
+
+		private final String				expression;
+		private final List<Object>			parts		= new ArrayList<>();
+		private final List<SqlParameter>	parameters	= new ArrayList<>();
+		private final StringBuilder			text		= new StringBuilder();
+		private int							position;
+
+		Parser( String expression )
+		{
+			this.expression = expression.trim();
+		}
+
+		SqlCondition parse()
+		{
+			while( position < expression.length() )
+			{
+				char c = expression.charAt( position );
+				if( c == '\'' || c == '"' )
+				{
+					copyQuoted( c );
+				}
+				else if( c == ':' && expression.startsWith( "::", position ) )
+				{
+					text.append( "::" );
+					position += 2;
+				}
+				else if( c == ':' )
+				{
+					position++;
+					SqlParameter parameter = SqlParameter.of( parseParameterName() );
+					if( parameter == null )
+					{
+						throw error( "Unknown parameter" );
+					}
+					addPart( parameter );
+					parameters.add( parameter );
+				}
+				else if( c == '{' && expression.startsWith( ENTITY_PLACEHOLDER, position ) )
+				{
+					addPart( null );
+					position += ENTITY_PLACEHOLDER.length();
+				}
+				else if( c == '?' )
+				{
+					throw error( "Unnamed parameter '?' is not allowed, named parameter like :user.userId is expected" );
+				}
+				else
+				{
+					text.append( c );
+					position++;
+				}
+			}
+			if( text.length() > 0 )
+			{
+				parts.add( text.toString() );
+			}
+			return new SqlCondition( expression, parts.toArray(), Collections.unmodifiableList( parameters ) );
+		}
+
+		private void addPart( Object part )
+		{
+			if( text.length() > 0 )
+			{
+				parts.add( text.toString() );
+				text.setLength( 0 );
+			}
+			parts.add( part );
+		}
+
+		private void copyQuoted( char quote )
+		{
+			int start = position++;
+			while( position < expression.length() )
+			{
+				if( expression.charAt( position++ ) == quote )
+				{
+					// doubled quote is an escaped quote
+					if( position < expression.length() && expression.charAt( position ) == quote )
+					{
+						position++;
+						continue;
+					}
+					text.append( expression, start, position );
+					return;
+				}
+			}
+			position = start;
+			throw error( "Quote is not closed" );
+		}
+
+		private String parseParameterName()
+		{
+			int start = position;
+			while( position < expression.length() && ( Character.isJavaIdentifierPart( expression.charAt( position ) )
+					|| expression.charAt( position ) == '.' && position + 1 < expression.length()
+							&& Character.isJavaIdentifierStart( expression.charAt( position + 1 ) ) ) )
+			{
+				position++;
+			}
+			if( start == position )
+			{
+				throw error( "Parameter name is expected" );
+			}
+			return expression.substring( start, position );
+		}
+
+		private SystemException error( String message )
+		{
+			return new SystemException( IErrorCodes.ILLEGAL_ARGUMENT_ERROR, "Invalid sql condition. " + message
+					+ " at position[" + position + "] condition[" + expression + "]" );
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package org.vedantatree.comps.securitymanager;
+
+/**
+ * Named parameter of a sql condition, whose value is taken from the user, domain or application specific information
+ * of a {@link VisibilityContext}
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class SqlParameter
+{
+
+	private static final String			USER_PREFIX	= "user.";
+
+	private static final String			APP_PREFIX	= "app.";
+
+	private static final String			DOMAIN		= "domain";
+
+	private final String				name;
+
+	/**
+	 * Reader of user property, null if parameter is not a user property
+	 */
+	private final UserPropertyReader	userProperty;
+
+	/**
+	 * Key of application specific information, null if parameter is not application specific information
+	 */
+	private final String				appKey;
+
+	private SqlParameter( String name, UserPropertyReader userProperty, String appKey )
+	{
+		this.name = name;
+		this.userProperty = userProperty;
+		this.appKey = appKey;
+	}
+
+	/**
+	 * @param name Name of parameter, like user.userId, app.tenant or domain
+	 * @return Parameter, null if name is not of a known parameter
+	 */
+	static SqlParameter of( String name )
+	{
+		if( DOMAIN.equals( name ) )
+		{
+			return new SqlParameter( name, null, null );
+		}
+		if( name.startsWith( USER_PREFIX ) )
+		{
+			UserPropertyReader userProperty = UserPropertyReader.of( name.substring( USER_PREFIX.length() ) );
+			return userProperty == null ? null : new SqlParameter( name, userProperty, null );
+		}
+		if( name.startsWith( APP_PREFIX ) && name.length() > APP_PREFIX.length() )
+		{
+			return new SqlParameter( name, null, name.substring( APP_PREFIX.length() ) );
+		}
+		return null;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @param context Context to take the value from
+	 * @return Value of parameter for the context, may be null
+	 */
+	public Object getValue( VisibilityContext context )
+	{
+		if( userProperty != null )
+		{
+			return userProperty.read( context.getUser() );
+		}
+		if( appKey != null )
+		{
+			return context.getAppSpecificInformation().get( appKey );
+		}
+		return context.getDomain();
+	}
+
+	@Override
+	public String toString()
+	{
+		return ":" + name;
+	}
+
+}
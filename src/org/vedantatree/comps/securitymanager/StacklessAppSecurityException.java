@@ -0,0 +1,27 @@
+package org.vedantatree.comps.securitymanager;
+
+/**
+ * Security exception without stack trace, thrown by {@link AppSecurityManager} when it is configured to use cached
+ * exceptions for denied requests. Its message is shared by all requests, so it does not contain any request specific
+ * information. A new instance is created for every denial and is never shared, as a catcher may change it with
+ * addSuppressed or initCause.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+final class StacklessAppSecurityException extends AppSecurityException
+{
+
+	private static final long	serialVersionUID	= 2026101801L;
+
+	StacklessAppSecurityException( int errorCode, String message )
+	{
+		super( errorCode, message );
+	}
+
+	@Override
+	public synchronized Throwable fillInStackTrace()
+	{
+		return this;
+	}
+
+}
@@ -0,0 +1,94 @@
+package org.vedantatree.comps.securitymanager;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.vedantatree.comps.securitymanager.model.User;
+import org.vedantatree.utils.exceptions.IErrorCodes;
+import org.vedantatree.utils.exceptions.SystemException;
+
+
+/**
+ * It reads a profile property of user with the method handle of its getter, which is looked up once. Only the
+ * properties in {@link #PROFILE_PROPERTIES} can be read, so that conditions can not expose other data of user, like
+ * its password.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+final class UserPropertyReader
+{
+
+	/**
+	 * Properties of user which can be used in conditions
+	 */
+	static final Set<String>	PROFILE_PROPERTIES	= Collections.unmodifiableSet( new HashSet<>( Arrays.asList(
+			"userId", "firstName", "middleName", "lastName", "displayName", "title", "email", "phone", "phoneCell",
+			"entity", "description", "currentDomain" ) ) );
+
+	private final String		property;
+
+	private final MethodHandle	getter;
+
+	private UserPropertyReader( String property, MethodHandle getter )
+	{
+		this.property = property;
+		this.getter = getter;
+	}
+
+	/**
+	 * @param property Name of the profile property of user
+	 * @return Reader of the property, null if it is not a profile property
+	 */
+	static UserPropertyReader of( String property )
+	{
+		if( !PROFILE_PROPERTIES.contains( property ) )
+		{
+			return null;
+		}
+		try
+		{
+			for( PropertyDescriptor descriptor : Introspector.getBeanInfo( User.class ).getPropertyDescriptors() )
+			{
+				if( descriptor.getName().equals( property ) && descriptor.getReadMethod() != null )
+				{
+					MethodHandle getter = MethodHandles.publicLookup().unreflect( descriptor.getReadMethod() )
+							.asType( MethodType.methodType( Object.class, User.class ) );
+					return new UserPropertyReader( property, getter );
+				}
+			}
+			return null;
+		}
+		catch( IntrospectionException | IllegalAccessException e )
+		{
+			return null;
+		}
+	}
+
+	String getProperty()
+	{
+		return property;
+	}
+
+	Object read( User user )
+	{
+		try
+		{
+			return (Object) getter.invokeExact( user );
+		}
+		catch( Throwable th )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Problem while reading user property. property[" + property + "]", th );
+			throw se;
+		}
+	}
+
+}
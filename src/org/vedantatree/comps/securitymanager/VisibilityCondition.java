@@ -0,0 +1,681 @@
+package org.vedantatree.comps.securitymanager;
+
+import org.vedantatree.comps.securitymanager.model.RoleRightRegistry;
+import org.vedantatree.comps.securitymanager.model.RoleRightSet;
+import org.vedantatree.comps.securitymanager.model.User;
+import org.vedantatree.utils.StringUtils;
+import org.vedantatree.utils.exceptions.IErrorCodes;
+import org.vedantatree.utils.exceptions.SystemException;
+
+
+/**
+ * Compiled visibility condition of a menu item.
+ *
+ * <p>
+ * Condition is parsed once into a tree of nodes, and evaluated against a {@link VisibilityContext}. Properties of user
+ * are bound to their getter method handles while compiling, so evaluating does not parse or look up anything. Syntax
+ * is
+ *
+ * <pre>
+ * condition  := or
+ * or         := and ( ( '||' | 'or' ) and )*
+ * and        := not ( ( '&amp;&amp;' | 'and' ) not )*
+ * not        := ( '!' | 'not' ) not | comparison
+ * comparison := operand ( ( '==' | '!=' | '&lt;' | '&lt;=' | '&gt;' | '&gt;=' ) operand )?
+ * operand    := '(' or ')' | 'string' | "string" | number | true | false | null
+ *             | user.&lt;property&gt; | domain | app.&lt;key&gt;
+ *             | hasRole( 'role' ) | hasRight( 'right' )
+ * </pre>
+ *
+ * Here user.&lt;property&gt; is one of the profile properties of user: userId, firstName, middleName, lastName,
+ * displayName, title, email, phone, phoneCell, entity, description and currentDomain. Other properties, like password,
+ * can not be used. app.&lt;key&gt; is the value of application specific information for the key, and domain is the
+ * domain of context. Roles are checked in domain of context. Values are compared as numbers if both are numbers,
+ * otherwise as strings. A value is true if it is Boolean true, a non zero number or the string "true". Parentheses and
+ * negations can be nested up to 64 levels.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class VisibilityCondition
+{
+
+	/**
+	 * Condition which is always true, used for empty conditions
+	 */
+	public static final VisibilityCondition	ALWAYS	= new VisibilityCondition( "", new Literal( Boolean.TRUE ) );
+
+	private final String					expression;
+
+	private final Node						root;
+
+	private VisibilityCondition( String expression, Node root )
+	{
+		this.expression = expression;
+		this.root = root;
+	}
+
+	/**
+	 * It parses the condition
+	 *
+	 * @param expression Condition text, empty or null condition is always true
+	 * @return Compiled condition
+	 * @throws SystemException If condition is not valid
+	 */
+	public static VisibilityCondition compile( String expression )
+	{
+		if( !StringUtils.isQualifiedString( expression ) )
+		{
+			return ALWAYS;
+		}
+		return new VisibilityCondition( expression, new Parser( expression ).parse() );
+	}
+
+	/**
+	 * @return Condition which is always false, used in place of conditions which could not be compiled
+	 */
+	static VisibilityCondition never( String expression )
+	{
+		return new VisibilityCondition( expression, new Literal( Boolean.FALSE ) );
+	}
+
+	public String getExpression()
+	{
+		return expression;
+	}
+
+	/**
+	 * @param context Context to evaluate the condition against
+	 * @return true if condition is satisfied
+	 */
+	public boolean test( VisibilityContext context )
+	{
+		return isTrue( root.evaluate( context ) );
+	}
+
+	@Override
+	public String toString()
+	{
+		return "VisibilityCondition@" + hashCode() + ": expression[" + expression + "]";
+	}
+
+	private static boolean isTrue( Object value )
+	{
+		if( value instanceof Boolean )
+		{
+			return (Boolean) value;
+		}
+		if( value instanceof Number )
+		{
+			return ( (Number) value ).doubleValue() != 0;
+		}
+		return value != null && "true".equalsIgnoreCase( value.toString() );
+	}
+
+	/**
+	 * @return Result of comparing the values, as numbers if both are numbers and as strings otherwise
+	 */
+	private static int compare( Object left, Object right )
+	{
+		if( left instanceof Number && right instanceof Number )
+		{
+			return Double.compare( ( (Number) left ).doubleValue(), ( (Number) right ).doubleValue() );
+		}
+		return String.valueOf( left ).compareTo( String.valueOf( right ) );
+	}
+
+	// ---------------------------------------------- Nodes --------------------------------------------------------------
+
+	private interface Node
+	{
+
+		Object evaluate( VisibilityContext context );
+	}
+
+	private static final class Literal implements Node
+	{
+
+		private final Object	value;
+
+		Literal( Object value )
+		{
+			this.value = value;
+		}
+
+		@Override
+		public Object evaluate( VisibilityContext context )
+		{
+			return value;
+		}
+	}
+
+	private static final class Or implements Node
+	{
+
+		private final Node	left;
+		private final Node	right;
+
+		Or( Node left, Node right )
+		{
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public Object evaluate( VisibilityContext context )
+		{
+			return isTrue( left.evaluate( context ) ) || isTrue( right.evaluate( context ) );
+		}
+	}
+
+	private static final class And implements Node
+	{
+
+		private final Node	left;
+		private final Node	right;
+
+		And( Node left, Node right )
+		{
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public Object evaluate( VisibilityContext context )
+		{
+			return isTrue( left.evaluate( context ) ) && isTrue( right.evaluate( context ) );
+		}
+	}
+
+	private static final class Not implements Node
+	{
+
+		private final Node	operand;
+
+		Not( Node operand )
+		{
+			this.operand = operand;
+		}
+
+		@Override
+		public Object evaluate( VisibilityContext context )
+		{
+			return !isTrue( operand.evaluate( context ) );
+		}
+	}
+
+	private static final class Comparison implements Node
+	{
+
+		private final String	operator;
+		private final Node		left;
+		private final Node		right;
+
+		Comparison( String operator, Node left, Node right )
+		{
+			this.operator = operator;
+			this.left = left;
+			this.right = right;
+		}
+
+		@Override
+		public Object evaluate( VisibilityContext context )
+		{
+			Object leftValue = left.evaluate( context );
+			Object rightValue = right.evaluate( context );
+			switch( operator )
+			{
+				case "==":
+					return leftValue == null ? rightValue == null
+							: rightValue != null && compare( leftValue, rightValue ) == 0;
+				case "!=":
+					return leftValue == null ? rightValue != null
+							: rightValue == null || compare( leftValue, rightValue ) != 0;
+				default:
+					if( leftValue == null || rightValue == null )
+					{
+						return false;
+					}
+					int result = compare( leftValue, rightValue );
+					switch( operator )
+					{
+						case "<":
+							return result < 0;
+						case "<=":
+							return result <= 0;
+						case ">":
+							return result > 0;
+						default:
+							return result >= 0;
+					}
+			}
+		}
+	}
+
+	private static final class UserProperty implements Node
+	{
+
+		private final UserPropertyReader	reader;
+
+		UserProperty( UserPropertyReader reader )
+		{
+			this.reader = reader;
+		}
+
+		@Override
+		public Object evaluate( VisibilityContext context )
+		{
+			return reader.read( context.getUser() );
+		}
+	}
+
+	private static final class Domain implements Node
+	{
+
+		@Override
+		public Object evaluate( VisibilityContext context )
+		{
+			return context.getDomain();
+		}
+	}
+
+	private static final class AppInformation implements Node
+	{
+
+		private final String	key;
+
+		AppInformation( String key )
+		{
+			this.key = key;
+		}
+
+		@Override
+		public Object evaluate( VisibilityContext context )
+		{
+			return context.getAppSpecificInformation().get( key );
+		}
+	}
+
+	private static final class HasRole implements Node
+	{
+
+		private final String		roleName;
+
+		/**
+		 * Id of the role in the registry seen last, so users of same menu catalog are checked by a bit test only
+		 */
+		private volatile ResolvedId	resolvedId;
+
+		HasRole( String roleName )
+		{
+			this.roleName = roleName;
+		}
+
+		@Override
+		public Object evaluate( VisibilityContext context )
+		{
+			User user = context.getUser();
+			String domain = context.getDomain();
+			RoleRightSet roleRights = domain == null || domain.equals( user.getCurrentDomain() ) ? user.getRoleRights()
+					: user.getRoleRights( domain );
+			RoleRightRegistry registry = roleRights.getRegistry();
+			ResolvedId resolved = resolvedId;
+			if( resolved == null || resolved.registry != registry )
+			{
+				int roleId = registry.getRoleId( roleName );
+				if( roleId < 0 )
+				{
+					// not kept, as role may be registered later
+					return false;
+				}
+				resolved = new ResolvedId( registry, roleId );
+				resolvedId = resolved;
+			}
+			return roleRights.hasRole( resolved.id );
+		}
+	}
+
+	private static final class HasRight implements Node
+	{
+
+		private final String		rightName;
+
+		/**
+		 * Id of the right in the registry seen last, like in {@link HasRole}
+		 */
+		private volatile ResolvedId	resolvedId;
+
+		HasRight( String rightName )
+		{
+			this.rightName = rightName;
+		}
+
+		@Override
+		public Object evaluate( VisibilityContext context )
+		{
+			RoleRightSet roleRights = context.getUser().getRoleRights();
+			RoleRightRegistry registry = roleRights.getRegistry();
+			ResolvedId resolved = resolvedId;
+			if( resolved == null || resolved.registry != registry )
+			{
+				int rightId = registry.getRightId( rightName );
+				if( rightId < 0 )
+				{
+					return false;
+				}
+				resolved = new ResolvedId( registry, rightId );
+				resolvedId = resolved;
+			}
+			return roleRights.hasRight( resolved.id );
+		}
+	}
+
+	/**
+	 * Id of a role or right name in a registry
+	 */
+	private static final class ResolvedId
+	{
+
+		private final RoleRightRegistry	registry;
+		private final int				id;
+
+		ResolvedId( RoleRightRegistry registry, int id )
+		{
+			this.registry = registry;
+			this.id = id;
+		}
+	}
+
+	// ---------------------------------------------- Parser -------------------------------------------------------------
+
+	/**
+	 * Recursive descent parser of the condition
+	 */
+	private static final class Parser
+	{
+
+		/**
+		 * Maximum nesting of parentheses and negations, so that a deeply nested condition is rejected rather than
+		 * overflowing the stack
+		 */
+		private static final int	MAXIMUM_NESTING	= 64;
+
+		private final String		expression;
+		private int					position;
+		private int					nesting;
+
+		Parser( String expression )
+		{
+			this.expression = expression;
+		}
+
+		Node parse()
+		{
+			Node node = parseOr();
+			skipSpaces();
+			if( position < expression.length() )
+			{
+				throw error( "Unexpected character '" + expression.charAt( position ) + "'" );
+			}
+			return node;
+		}
+
+		private Node parseOr()
+		{
+			Node node = parseAnd();
+			while( consumeSymbol( "||" ) || consumeWord( "or" ) )
+			{
+				node = new Or( node, parseAnd() );
+			}
+			return node;
+		}
+
+		private Node parseAnd()
+		{
+			Node node = parseNot();
+			while( consumeSymbol( "&&" ) || consumeWord( "and" ) )
+			{
+				node = new And( node, parseNot() );
+			}
+			return node;
+		}
+
+		private Node parseNot()
+		{
+			skipSpaces();
+			if( position < expression.length() && expression.charAt( position ) == '!'
+					&& !expression.startsWith( "!=", position ) )
+			{
+				position++;
+				return new Not( parseNestedNot() );
+			}
+			if( consumeWord( "not" ) )
+			{
+				return new Not( parseNestedNot() );
+			}
+			return parseComparison();
+		}
+
+		private Node parseNestedNot()
+		{
+			enterNesting();
+			Node node = parseNot();
+			nesting--;
+			return node;
+		}
+
+		private void enterNesting()
+		{
+			if( ++nesting > MAXIMUM_NESTING )
+			{
+				throw error( "Condition is nested more than " + MAXIMUM_NESTING + " levels" );
+			}
+		}
+
+		private Node parseComparison()
+		{
+			Node left = parseOperand();
+			for( String operator : new String[] { "==", "!=", "<=", ">=", "<", ">" } )
+			{
+				if( consumeSymbol( operator ) )
+				{
+					return new Comparison( operator, left, parseOperand() );
+				}
+			}
+			return left;
+		}
+
+		private Node parseOperand()
+		{
+			skipSpaces();
+			if( position >= expression.length() )
+			{
+				throw error( "Unexpected end of condition" );
+			}
+			char c = expression.charAt( position );
+			if( c == '(' )
+			{
+				position++;
+				enterNesting();
+				Node node = parseOr();
+				expect( ")" );
+				nesting--;
+				return node;
+			}
+			if( c == '\'' || c == '"' )
+			{
+				return new Literal( parseString() );
+			}
+			if( Character.isDigit( c ) || c == '-' )
+			{
+				return new Literal( parseNumber() );
+			}
+			if( Character.isJavaIdentifierStart( c ) )
+			{
+				return parseReference();
+			}
+			throw error( "Unexpected character '" + c + "'" );
+		}
+
+		private Node parseReference()
+		{
+			String name = parseIdentifier();
+			switch( name )
+			{
+				case "true":
+					return new Literal( Boolean.TRUE );
+				case "false":
+					return new Literal( Boolean.FALSE );
+				case "null":
+					return new Literal( null );
+				case "domain":
+					return new Domain();
+				case "user":
+					expect( "." );
+					return compileUserProperty( parseIdentifier() );
+				case "app":
+					expect( "." );
+					return new AppInformation( parseIdentifier() );
+				case "hasRole":
+					return new HasRole( parseStringArgument() );
+				case "hasRight":
+					return new HasRight( parseStringArgument() );
+				default:
+					throw error( "Unknown name '" + name + "'" );
+			}
+		}
+
+		private Node compileUserProperty( String property )
+		{
+			UserPropertyReader reader = UserPropertyReader.of( property );
+			if( reader == null )
+			{
+				throw error( "Unknown user property '" + property + "'" );
+			}
+			return new UserProperty( reader );
+		}
+
+		private String parseStringArgument()
+		{
+			expect( "(" );
+			skipSpaces();
+			if( position >= expression.length()
+					|| expression.charAt( position ) != '\'' && expression.charAt( position ) != '"' )
+			{
+				throw error( "String is expected" );
+			}
+			String argument = parseString();
+			expect( ")" );
+			return argument;
+		}
+
+		private String parseString()
+		{
+			char quote = expression.charAt( position++ );
+			StringBuilder string = new StringBuilder();
+			while( position < expression.length() )
+			{
+				char c = expression.charAt( position++ );
+				if( c == quote )
+				{
+					return string.toString();
+				}
+				if( c == '\\' && position < expression.length() )
+				{
+					c = expression.charAt( position++ );
+				}
+				string.append( c );
+			}
+			throw error( "String is not closed" );
+		}
+
+		private Number parseNumber()
+		{
+			int start = position;
+			if( expression.charAt( position ) == '-' )
+			{
+				position++;
+			}
+			while( position < expression.length()
+					&& ( Character.isDigit( expression.charAt( position ) ) || expression.charAt( position ) == '.' ) )
+			{
+				position++;
+			}
+			String number = expression.substring( start, position );
+			try
+			{
+				return number.indexOf( '.' ) >= 0 ? (Number) Double.valueOf( number ) : (Number) Long.valueOf( number );
+			}
+			catch( NumberFormatException e )
+			{
+				throw error( "Invalid number '" + number + "'" );
+			}
+		}
+
+		private String parseIdentifier()
+		{
+			skipSpaces();
+			int start = position;
+			if( position < expression.length() && Character.isJavaIdentifierStart( expression.charAt( position ) ) )
+			{
+				position++;
+				while( position < expression.length()
+						&& Character.isJavaIdentifierPart( expression.charAt( position ) ) )
+				{
+					position++;
+				}
+			}
+			if( start == position )
+			{
+				throw error( "Name is expected" );
+			}
+			return expression.substring( start, position );
+		}
+
+		private boolean consumeSymbol( String symbol )
+		{
+			skipSpaces();
+			if( expression.startsWith( symbol, position ) )
+			{
+				position += symbol.length();
+				return true;
+			}
+			return false;
+		}
+
+		private boolean consumeWord( String word )
+		{
+			skipSpaces();
+			int end = position + word.length();
+			if( expression.regionMatches( true, position, word, 0, word.length() )
+					&& ( end == expression.length() || !Character.isJavaIdentifierPart( expression.charAt( end ) ) ) )
+			{
+				position = end;
+				return true;
+			}
+			return false;
+		}
+
+		private void expect( String symbol )
+		{
+			if( !consumeSymbol( symbol ) )
+			{
+				throw error( "'" + symbol + "' is expected" );
+			}
+		}
+
+		private void skipSpaces()
+		{
+			while( position < expression.length() && Character.isWhitespace( expression.charAt( position ) ) )
+			{
+				position++;
+			}
+		}
+
+		private SystemException error( String message )
+		{
+			return new SystemException( IErrorCodes.ILLEGAL_ARGUMENT_ERROR, "Invalid visibility condition. " + message
+					+ " at position[" + position + "] condition[" + expression + "]" );
+		}
+	}
+
+}
@@ -0,0 +1,275 @@
+package org.vedantatree.comps.securitymanager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.vedantatree.comps.securitymanager.model.Menu;
+import org.vedantatree.comps.securitymanager.model.MenuItem;
+import org.vedantatree.utils.StringUtils;
+import org.vedantatree.utils.Utilities;
+import org.vedantatree.utils.exceptions.SystemException;
+
+
+/**
+ * It evaluates the visibility conditions of menu items.
+ *
+ * <p>
+ * Conditions are compiled once to {@link VisibilityCondition} and cached by their text, so a condition shared by many
+ * menu items is also compiled once. A condition which can not be compiled is logged once and treated as false, so the
+ * menu item is hidden rather than shown by mistake. Same way, a condition which fails while being evaluated, like when
+ * a property of user can not be read, is logged and treated as false for that evaluation only.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public class VisibilityConditions
+{
+
+	private static Log											LOGGER					= LogFactory
+			.getLog( VisibilityConditions.class );
+
+	/**
+	 * Default maximum number of compiled conditions to cache
+	 */
+	public static final int										DEFAULT_MAXIMUM_SIZE	= 5000;
+
+	private final BoundedCache<String, VisibilityCondition>	conditions;
+
+	public VisibilityConditions( int maximumSize )
+	{
+		conditions = new BoundedCache<>( "visibility-conditions", maximumSize );
+	}
+
+	/**
+	 * @param expression Condition text
+	 * @return Compiled condition, always false condition if it could not be compiled
+	 */
+	public VisibilityCondition getCondition( String expression )
+	{
+		if( !StringUtils.isQualifiedString( expression ) )
+		{
+			return VisibilityCondition.ALWAYS;
+		}
+		VisibilityCondition condition = conditions.get( expression );
+		if( condition == null )
+		{
+			try
+			{
+				condition = VisibilityCondition.compile( expression );
+			}
+			catch( SystemException se )
+			{
+				LOGGER.error( se );
+				condition = VisibilityCondition.never( expression );
+			}
+			conditions.put( expression, condition );
+		}
+		return condition;
+	}
+
+	/**
+	 * @param menuItem Menu item to check
+	 * @param context Context to evaluate the condition against
+	 * @return true if menu item has no visibility condition or its condition is satisfied
+	 */
+	public boolean isVisible( MenuItem menuItem, VisibilityContext context )
+	{
+		Utilities.assertNotNullArgument( menuItem );
+		Utilities.assertNotNullArgument( context );
+		return test( getCondition( menuItem.getVisibilityCondition() ), context );
+	}
+
+	/**
+	 * @param expression Condition text
+	 * @param context Context to evaluate the condition against
+	 * @return true if expression is empty or is satisfied, false if it is not or it fails while being evaluated
+	 */
+	public boolean isSatisfied( String expression, VisibilityContext context )
+	{
+		Utilities.assertNotNullArgument( context );
+		return test( getCondition( expression ), context );
+	}
+
+	/**
+	 * It returns the conditions of given menu items, and of their sub menu items in hierarchy, which are false for the
+	 * context. Every distinct condition is evaluated once.
+	 *
+	 * @param menuItems Menu items to check
+	 * @param context Context to evaluate the conditions against
+	 * @return Conditions which are false, empty set if there is none
+	 */
+	public Set<String> getHiddenConditions( Collection<MenuItem> menuItems, VisibilityContext context )
+	{
+		Utilities.assertNotNullArgument( menuItems );
+		Utilities.assertNotNullArgument( context );
+		Map<String, Boolean> results = new HashMap<>();
+		collectResults( menuItems, context, results );
+		Set<String> hiddenConditions = null;
+		for( Map.Entry<String, Boolean> result : results.entrySet() )
+		{
+			if( !result.getValue() )
+			{
+				if( hiddenConditions == null )
+				{
+					hiddenConditions = new HashSet<>();
+				}
+				hiddenConditions.add( result.getKey() );
+			}
+		}
+		return hiddenConditions == null ? Collections.<String> emptySet() : hiddenConditions;
+	}
+
+	private void collectResults( Collection<MenuItem> menuItems, VisibilityContext context,
+			Map<String, Boolean> results )
+	{
+		for( MenuItem menuItem : menuItems )
+		{
+			String expression = menuItem.getVisibilityCondition();
+			if( StringUtils.isQualifiedString( expression ) && !results.containsKey( expression ) )
+			{
+				results.put( expression, test( getCondition( expression ), context ) );
+			}
+			collectResults( menuItem.getSubMenuItems(), context, results );
+		}
+	}
+
+	/**
+	 * It returns the visible menu items in one pass. Every distinct condition is evaluated once, as context is same for
+	 * all menu items.
+	 *
+	 * @param menuItems Menu items to filter
+	 * @param context Context to evaluate the conditions against
+	 * @return Visible menu items, in the order of given items
+	 */
+	public List<MenuItem> getVisibleMenuItems( Collection<MenuItem> menuItems, VisibilityContext context )
+	{
+		Utilities.assertNotNullArgument( menuItems );
+		Utilities.assertNotNullArgument( context );
+		List<MenuItem> visibleMenuItems = new ArrayList<>( menuItems.size() );
+		Map<VisibilityCondition, Boolean> results = new IdentityHashMap<>();
+		for( MenuItem menuItem : menuItems )
+		{
+			if( isVisible( menuItem, context, results ) )
+			{
+				visibleMenuItems.add( menuItem );
+			}
+		}
+		return visibleMenuItems;
+	}
+
+	/**
+	 * @param results Results of the conditions evaluated so far, result of condition of menu item is added to it
+	 * @return true if menu item has no condition or its condition is satisfied
+	 */
+	private boolean isVisible( MenuItem menuItem, VisibilityContext context, Map<VisibilityCondition, Boolean> results )
+	{
+		String expression = menuItem.getVisibilityCondition();
+		if( !StringUtils.isQualifiedString( expression ) )
+		{
+			return true;
+		}
+		VisibilityCondition condition = getCondition( expression );
+		Boolean visible = results.get( condition );
+		if( visible == null )
+		{
+			visible = test( condition, context );
+			results.put( condition, visible );
+		}
+		return visible;
+	}
+
+	private void collectVisibleMenuItems( MenuItem menuItem, VisibilityContext context,
+			Map<VisibilityCondition, Boolean> results, List<MenuItem> visibleMenuItems )
+	{
+		// hidden item hides its whole sub tree, so its sub menu items are not even evaluated
+		if( isVisible( menuItem, context, results ) )
+		{
+			visibleMenuItems.add( menuItem );
+			for( MenuItem subMenuItem : menuItem.getSubMenuItems() )
+			{
+				collectVisibleMenuItems( subMenuItem, context, results, visibleMenuItems );
+			}
+		}
+	}
+
+	/**
+	 * @return Result of condition, false if it fails while being evaluated
+	 */
+	private static boolean test( VisibilityCondition condition, VisibilityContext context )
+	{
+		try
+		{
+			return condition.test( context );
+		}
+		catch( RuntimeException | StackOverflowError e )
+		{
+			LOGGER.error( "Visibility condition could not be evaluated, treating it as false. condition["
+					+ condition.getExpression() + "]", e );
+			return false;
+		}
+	}
+
+	/**
+	 * It returns the visible menu items in hierarchy of menu. A menu item is visible only if its own condition and the
+	 * conditions of all its parents are satisfied, so a hidden menu item hides its whole sub tree.
+	 *
+	 * @param menu Menu to filter the items of
+	 * @param context Context to evaluate the conditions against
+	 * @return Visible menu items in hierarchy of menu, in the order of menu with every item followed by its visible sub
+	 *         menu items
+	 */
+	public List<MenuItem> getVisibleMenuItems( Menu menu, VisibilityContext context )
+	{
+		Utilities.assertNotNullArgument( menu );
+		Utilities.assertNotNullArgument( context );
+		List<MenuItem> visibleMenuItems = new ArrayList<>();
+		Map<VisibilityCondition, Boolean> results = new IdentityHashMap<>();
+		for( MenuItem menuItem : menu.getMenuItems() )
+		{
+			// sub menu items are reached from their parents only
+			if( menuItem.getParentMenuItem() == null )
+			{
+				collectVisibleMenuItems( menuItem, context, results, visibleMenuItems );
+			}
+		}
+		return visibleMenuItems;
+	}
+
+	/**
+	 * It removes all compiled conditions
+	 */
+	public void clear()
+	{
+		conditions.clear();
+	}
+
+	public int size()
+	{
+		return conditions.size();
+	}
+
+	public long getHitCount()
+	{
+		return conditions.getHitCount();
+	}
+
+	public long getMissCount()
+	{
+		return conditions.getMissCount();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "VisibilityConditions@" + hashCode() + ": " + conditions;
+	}
+
+}
@@ -0,0 +1,69 @@
+package org.vedantatree.comps.securitymanager;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.vedantatree.comps.securitymanager.model.User;
+import org.vedantatree.utils.Utilities;
+
+
+/**
+ * Data against which visibility conditions of menu items are evaluated, i.e. the user, the domain and the application
+ * specific information.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class VisibilityContext
+{
+
+	private final User					user;
+
+	private final String				domain;
+
+	private final Map<Object, Object>	appSpecificInformation;
+
+	/**
+	 * It creates the context with current domain and application specific information of user
+	 */
+	public VisibilityContext( User user )
+	{
+		this( user, user == null ? null : user.getCurrentDomain(),
+				user == null ? null : user.getAppSpecificInformation() );
+	}
+
+	/**
+	 * @param user User to evaluate the conditions for
+	 * @param domain Domain to evaluate the conditions for, may be other than current domain of user
+	 * @param appSpecificInformation Application specific information, null if there is none
+	 */
+	public VisibilityContext( User user, String domain, Map<Object, Object> appSpecificInformation )
+	{
+		Utilities.assertNotNullArgument( user );
+		this.user = user;
+		this.domain = domain;
+		this.appSpecificInformation = appSpecificInformation != null ? appSpecificInformation
+				: Collections.emptyMap();
+	}
+
+	public User getUser()
+	{
+		return user;
+	}
+
+	public String getDomain()
+	{
+		return domain;
+	}
+
+	public Map<Object, Object> getAppSpecificInformation()
+	{
+		return appSpecificInformation;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "VisibilityContext@" + hashCode() + ": user[" + user.getUserId() + "] domain[" + domain + "]";
+	}
+
+}
@@ -12,6 +12,11 @@ public class ApplicationDomain
 	private Set<AppDomainEntity>	appDomainEntities;
 	private Object					appSpecificInformation;
 
+	/**
+	 * Ids of entities of domain, created when asked first time after the entities are set
+	 */
+	private volatile EntitlementSet	entityIds;
+
 	public Object getAppSpecificInformation()
 	{
 		return appSpecificInformation;
@@ -30,6 +35,21 @@ public class ApplicationDomain
 	public void setAppDomainEntities( Set<AppDomainEntity> appDomainEntities )
 	{
 		this.appDomainEntities = appDomainEntities;
+		this.entityIds = null;
+	}
+
+	/**
+	 * @return Ids of entities of domain
+	 */
+	public EntitlementSet getEntityIds()
+	{
+		EntitlementSet ids = entityIds;
+		if( ids == null )
+		{
+			ids = EntitlementSet.of( appDomainEntities ).intern();
+			entityIds = ids;
+		}
+		return ids;
 	}
 
 	public String getDescription()
@@ -0,0 +1,89 @@
+package org.vedantatree.comps.securitymanager.model;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+
+/**
+ * Immutable authorization state of a user for one domain. It holds the roles of domain, the roles and rights as bits,
+ * and the permission profile with visible menus and their URL index if user is bound to a menu catalog.
+ *
+ * User compiles a snapshot for each domain once, and switching the domain only replaces the current snapshot. So a
+ * request always sees the roles and menus of one domain, even if another request of same session switches the domain
+ * meanwhile.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class DomainSnapshot
+{
+
+	private final String			domain;
+
+	/**
+	 * Unmodifiable copy of the set of UserRole for the domain, null if user has no roles in it
+	 */
+	private final Set<UserRole>		roles;
+
+	private final RoleRightSet		roleRights;
+
+	/**
+	 * Profile for the roles of domain, null if user is not bound to menu catalog
+	 */
+	private final PermissionProfile	permissionProfile;
+
+	DomainSnapshot( String domain, Set<UserRole> roles, RoleRightSet roleRights, PermissionProfile permissionProfile )
+	{
+		this.domain = domain;
+		this.roles = roles == null ? null : Collections.unmodifiableSet( new HashSet<>( roles ) );
+		this.roleRights = roleRights;
+		this.permissionProfile = permissionProfile;
+	}
+
+	public String getDomain()
+	{
+		return domain;
+	}
+
+	/**
+	 * @return Set of UserRole for the domain, null if user has no roles in it. It is an unmodifiable copy of the roles
+	 *         at the time snapshot is compiled.
+	 */
+	public Set<UserRole> getRoles()
+	{
+		return roles;
+	}
+
+	public RoleRightSet getRoleRights()
+	{
+		return roleRights;
+	}
+
+	/**
+	 * @return Permission profile for the roles of domain, null if user is not bound to menu catalog
+	 */
+	public PermissionProfile getPermissionProfile()
+	{
+		return permissionProfile;
+	}
+
+	/**
+	 * @return Copy of this snapshot with the latest permission profile, this snapshot itself if profile is not replaced
+	 */
+	DomainSnapshot withLatestPermissionProfile()
+	{
+		if( permissionProfile == null || permissionProfile.getReplacement() == null )
+		{
+			return this;
+		}
+		return new DomainSnapshot( domain, roles, roleRights, permissionProfile.getLatest() );
+	}
+
+	@Override
+	public String toString()
+	{
+		return "DomainSnapshot@" + hashCode() + ": domain[" + domain + "] roleRights[" + roleRights + "] profile["
+				+ permissionProfile + "]";
+	}
+
+}
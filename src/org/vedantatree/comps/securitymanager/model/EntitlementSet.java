@@ -0,0 +1,312 @@
+package org.vedantatree.comps.securitymanager.model;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+
+/**
+ * Set of ids of {@link AppDomainEntity}, which a user is entitled to, kept as a sorted array of distinct primitive
+ * longs.
+ *
+ * <p>
+ * Membership is a binary search and intersection with another sorted set is a merge, so neither creates any object per
+ * id. A set of 100k ids takes 800 KB, instead of megabytes of boxed ids and entity objects. Sets are immutable and can
+ * be interned with {@link #intern()}, so users having the same entitlements share one array.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class EntitlementSet
+{
+
+	public static final EntitlementSet									EMPTY		= new EntitlementSet(
+			new long[0] );
+
+	/**
+	 * Interned sets. Sets are weakly referred, so these are removed when no user refers them any more.
+	 */
+	private static final Map<EntitlementSet, WeakReference<EntitlementSet>>	INTERNED	= new WeakHashMap<>();
+
+	/**
+	 * Sorted distinct ids
+	 */
+	private final long[]												ids;
+
+	private final int													hash;
+
+	private EntitlementSet( long[] ids )
+	{
+		this.ids = ids;
+		this.hash = Arrays.hashCode( ids );
+	}
+
+	/**
+	 * @param ids Ids of entities, in any order and may have duplicates. Array is not kept.
+	 * @return Set of ids
+	 */
+	public static EntitlementSet of( long... ids )
+	{
+		if( ids == null || ids.length == 0 )
+		{
+			return EMPTY;
+		}
+		long[] sortedIds = ids.clone();
+		Arrays.sort( sortedIds );
+		int size = 1;
+		for( int i = 1; i < sortedIds.length; i++ )
+		{
+			if( sortedIds[i] != sortedIds[size - 1] )
+			{
+				sortedIds[size++] = sortedIds[i];
+			}
+		}
+		return new EntitlementSet( size == sortedIds.length ? sortedIds : Arrays.copyOf( sortedIds, size ) );
+	}
+
+	/**
+	 * @param entities Entities, may be null
+	 * @return Set of ids of entities
+	 */
+	public static EntitlementSet of( Collection<AppDomainEntity> entities )
+	{
+		if( entities == null || entities.isEmpty() )
+		{
+			return EMPTY;
+		}
+		long[] ids = new long[entities.size()];
+		int i = 0;
+		for( AppDomainEntity entity : entities )
+		{
+			ids[i++] = entity.getId();
+		}
+		return of( ids );
+	}
+
+	/**
+	 * @param sortedIds Ids which are already sorted and distinct, array is kept as it is
+	 */
+	static EntitlementSet ofSorted( long[] sortedIds )
+	{
+		return sortedIds.length == 0 ? EMPTY : new EntitlementSet( sortedIds );
+	}
+
+	/**
+	 * @return Equal set which was interned first, this set if there is none
+	 */
+	public EntitlementSet intern()
+	{
+		if( ids.length == 0 )
+		{
+			return EMPTY;
+		}
+		synchronized( INTERNED )
+		{
+			WeakReference<EntitlementSet> reference = INTERNED.get( this );
+			EntitlementSet interned = reference == null ? null : reference.get();
+			if( interned == null )
+			{
+				INTERNED.put( this, new WeakReference<>( this ) );
+				interned = this;
+			}
+			return interned;
+		}
+	}
+
+	/**
+	 * @param id Id of entity
+	 * @return true if id is in the set
+	 */
+	public boolean contains( long id )
+	{
+		return Arrays.binarySearch( ids, id ) >= 0;
+	}
+
+	public int size()
+	{
+		return ids.length;
+	}
+
+	public boolean isEmpty()
+	{
+		return ids.length == 0;
+	}
+
+	/**
+	 * @return Copy of the sorted ids
+	 */
+	public long[] toArray()
+	{
+		return ids.clone();
+	}
+
+	/**
+	 * @return Sorted ids, array must not be modified
+	 */
+	long[] getIds()
+	{
+		return ids;
+	}
+
+	/**
+	 * It filters the ids, like ids of rows returned by a query, to the ids of this set. If ids are sorted, these are
+	 * merged with the set in one pass, otherwise every id is searched.
+	 *
+	 * @param candidateIds Ids to filter, these are not modified
+	 * @return Ids which are in the set, in the order of candidate ids and with their duplicates
+	 */
+	public long[] retain( long[] candidateIds )
+	{
+		long[] retained = new long[candidateIds.length];
+		int size = 0;
+		if( isSorted( candidateIds ) )
+		{
+			// search of every id starts from the position of previous id
+			int from = 0;
+			for( int i = 0; i < candidateIds.length && from < ids.length; i++ )
+			{
+				int index = Arrays.binarySearch( ids, from, ids.length, candidateIds[i] );
+				if( index >= 0 )
+				{
+					retained[size++] = candidateIds[i];
+					from = index;
+				}
+				else
+				{
+					from = -index - 1;
+				}
+			}
+		}
+		else
+		{
+			for( long id : candidateIds )
+			{
+				if( contains( id ) )
+				{
+					retained[size++] = id;
+				}
+			}
+		}
+		return size == retained.length ? retained : Arrays.copyOf( retained, size );
+	}
+
+	/**
+	 * @param other Other set
+	 * @return Ids which are in both sets
+	 */
+	public EntitlementSet intersect( EntitlementSet other )
+	{
+		if( other == this )
+		{
+			return this;
+		}
+		long[] otherIds = other.ids;
+		long[] common = new long[Math.min( ids.length, otherIds.length )];
+		int size = 0;
+		for( int i = 0, j = 0; i < ids.length && j < otherIds.length; )
+		{
+			if( ids[i] < otherIds[j] )
+			{
+				i++;
+			}
+			else if( ids[i] > otherIds[j] )
+			{
+				j++;
+			}
+			else
+			{
+				common[size++] = ids[i];
+				i++;
+				j++;
+			}
+		}
+		return ofSorted( size == common.length ? common : Arrays.copyOf( common, size ) );
+	}
+
+	/**
+	 * @param other Other set
+	 * @return Ids which are in any of the sets
+	 */
+	public EntitlementSet union( EntitlementSet other )
+	{
+		if( other == this || other.isEmpty() )
+		{
+			return this;
+		}
+		if( isEmpty() )
+		{
+			return other;
+		}
+		long[] otherIds = other.ids;
+		long[] all = new long[ids.length + otherIds.length];
+		int size = 0;
+		int i = 0;
+		int j = 0;
+		while( i < ids.length && j < otherIds.length )
+		{
+			if( ids[i] < otherIds[j] )
+			{
+				all[size++] = ids[i++];
+			}
+			else if( ids[i] > otherIds[j] )
+			{
+				all[size++] = otherIds[j++];
+			}
+			else
+			{
+				all[size++] = ids[i++];
+				j++;
+			}
+		}
+		while( i < ids.length )
+		{
+			all[size++] = ids[i++];
+		}
+		while( j < otherIds.length )
+		{
+			all[size++] = otherIds[j++];
+		}
+		return ofSorted( size == all.length ? all : Arrays.copyOf( all, size ) );
+	}
+
+	private static boolean isSorted( long[] values )
+	{
+		for( int i = 1; i < values.length; i++ )
+		{
+			if( values[i] < values[i - 1] )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return hash;
+	}
+
+	@Override
+	public boolean equals( Object obj )
+	{
+		if( this == obj )
+		{
+			return true;
+		}
+		if( !( obj instanceof EntitlementSet ) )
+		{
+			return false;
+		}
+		EntitlementSet other = (EntitlementSet) obj;
+		return hash == other.hash && Arrays.equals( ids, other.ids );
+	}
+
+	@Override
+	public String toString()
+	{
+		return "EntitlementSet@" + System.identityHashCode( this ) + ": size[" + ids.length + "]";
+	}
+
+}
@@ -0,0 +1,280 @@
+package org.vedantatree.comps.securitymanager.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Localized names of all menus and menu items of a menu catalog, kept in one table instead of a map per menu.
+ *
+ * <p>
+ * Table is built when catalog is frozen. Every language gets a small number and has one column, an array of names
+ * indexed by the entry number given to each menu and menu item having localized names. Same names are kept once. Menus
+ * and menu items refer to the table with their entry number and release their own maps, so
+ * {@link Menu#getDisplayName(Locale)} and {@link MenuItem#getDisplayName(Locale)} are resolved with two array reads.
+ * Languages are searched for a locale once and remembered, if the locale or its language is in the table. Locales are
+ * given by callers, so other locales are searched on every call, and at most {@link #MAXIMUM_CACHED_LOCALES} locales
+ * are remembered.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class LocalizedNameTable
+{
+
+	private static final int[]				NO_LANGUAGE				= new int[0];
+
+	/**
+	 * Maximum number of locales whose language numbers are remembered
+	 */
+	static final int						MAXIMUM_CACHED_LOCALES	= 256;
+
+	/**
+	 * Language keys as used in the name maps, like "en" or "en_US", by their number
+	 */
+	private final String[]					languages;
+
+	private final Map<String, Integer>		languageNumbers;
+
+	/**
+	 * Names by language number and then entry number, null where entry has no name for language
+	 */
+	private final String[][]				names;
+
+	private final int						entryCount;
+
+	/**
+	 * Language numbers to search for a locale, first for full locale and then for its language. It has only the
+	 * locales having some language in table, and is bounded by {@link #MAXIMUM_CACHED_LOCALES}.
+	 */
+	private final Map<Locale, int[]>		localeLanguages			= new ConcurrentHashMap<>();
+
+	private LocalizedNameTable( String[] languages, Map<String, Integer> languageNumbers, String[][] names,
+			int entryCount )
+	{
+		this.languages = languages;
+		this.languageNumbers = languageNumbers;
+		this.names = names;
+		this.entryCount = entryCount;
+	}
+
+	/**
+	 * It builds the table from the names of given menus and their menu items in hierarchy, and binds the menus and
+	 * menu items to it
+	 *
+	 * @param menus Frozen menus
+	 * @return Table of localized names
+	 */
+	static LocalizedNameTable build( Collection<Menu> menus )
+	{
+		List<Object> entries = new ArrayList<>();
+		List<Map<String, String>> entryNames = new ArrayList<>();
+		Map<Object, Boolean> visited = new IdentityHashMap<>();
+		for( Menu menu : menus )
+		{
+			addEntry( menu, menu.getLanguageVsNamesMap(), entries, entryNames );
+			for( MenuItem menuItem : menu.getMenuItems() )
+			{
+				addMenuItemEntries( menuItem, entries, entryNames, visited );
+			}
+		}
+
+		Map<String, Integer> languageNumbers = new HashMap<>();
+		List<String> languages = new ArrayList<>();
+		for( Map<String, String> languageVsNames : entryNames )
+		{
+			for( String language : languageVsNames.keySet() )
+			{
+				if( !languageNumbers.containsKey( language ) )
+				{
+					languageNumbers.put( language, languages.size() );
+					languages.add( language );
+				}
+			}
+		}
+
+		int entryCount = entries.size();
+		String[][] names = new String[languages.size()][entryCount];
+		Map<String, String> uniqueNames = new HashMap<>();
+		for( int entry = 0; entry < entryCount; entry++ )
+		{
+			for( Map.Entry<String, String> languageVsName : entryNames.get( entry ).entrySet() )
+			{
+				String name = languageVsName.getValue();
+				if( name != null )
+				{
+					String uniqueName = uniqueNames.putIfAbsent( name, name );
+					names[languageNumbers.get( languageVsName.getKey() )][entry] = uniqueName != null ? uniqueName
+							: name;
+				}
+			}
+		}
+
+		LocalizedNameTable table = new LocalizedNameTable( languages.toArray( new String[languages.size()] ),
+				languageNumbers, names, entryCount );
+		for( int entry = 0; entry < entryCount; entry++ )
+		{
+			Object menuOrItem = entries.get( entry );
+			if( menuOrItem instanceof Menu )
+			{
+				( (Menu) menuOrItem ).bindLocalizedNames( table, entry );
+			}
+			else
+			{
+				( (MenuItem) menuOrItem ).bindLocalizedNames( table, entry );
+			}
+		}
+		return table;
+	}
+
+	private static void addMenuItemEntries( MenuItem menuItem, List<Object> entries,
+			List<Map<String, String>> entryNames, Map<Object, Boolean> visited )
+	{
+		if( visited.put( menuItem, Boolean.TRUE ) != null )
+		{
+			return;
+		}
+		addEntry( menuItem, menuItem.getLanguageVsNamesMap(), entries, entryNames );
+		for( MenuItem subMenuItem : menuItem.getSubMenuItems() )
+		{
+			addMenuItemEntries( subMenuItem, entries, entryNames, visited );
+		}
+	}
+
+	private static void addEntry( Object menuOrItem, Map<String, String> languageVsNames, List<Object> entries,
+			List<Map<String, String>> entryNames )
+	{
+		if( languageVsNames != null && !languageVsNames.isEmpty() )
+		{
+			entries.add( menuOrItem );
+			entryNames.add( languageVsNames );
+		}
+	}
+
+	/**
+	 * @return Language keys of the table
+	 */
+	public List<String> getLanguages()
+	{
+		return Collections.unmodifiableList( Arrays.asList( languages ) );
+	}
+
+	/**
+	 * @return Number of menus and menu items having localized names
+	 */
+	public int getEntryCount()
+	{
+		return entryCount;
+	}
+
+	/**
+	 * @param entry Entry number of menu or menu item
+	 * @param locale Locale to search the name for, first with full locale like "en_US" and then with its language
+	 * @return Name for the locale, null if there is none
+	 */
+	public String getName( int entry, Locale locale )
+	{
+		if( locale == null || entry < 0 || entry >= entryCount )
+		{
+			return null;
+		}
+		int[] localeLanguageNumbers = localeLanguages.get( locale );
+		if( localeLanguageNumbers == null )
+		{
+			localeLanguageNumbers = resolveLanguages( locale );
+			if( localeLanguageNumbers == NO_LANGUAGE )
+			{
+				return null;
+			}
+			if( localeLanguages.size() < MAXIMUM_CACHED_LOCALES )
+			{
+				localeLanguages.put( locale, localeLanguageNumbers );
+			}
+		}
+		for( int language : localeLanguageNumbers )
+		{
+			String name = names[language][entry];
+			if( name != null )
+			{
+				return name;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param entry Entry number of menu or menu item
+	 * @param language Language key, as used in the name maps
+	 * @return Name for the language, null if there is none
+	 */
+	public String getName( int entry, String language )
+	{
+		Integer languageNumber = language == null ? null : languageNumbers.get( language );
+		if( languageNumber == null || entry < 0 || entry >= entryCount )
+		{
+			return null;
+		}
+		return names[languageNumber][entry];
+	}
+
+	/**
+	 * @return Map of language and name for the entry, created on every call
+	 */
+	Map<String, String> getNames( int entry )
+	{
+		Map<String, String> entryNames = new HashMap<>();
+		for( int language = 0; language < languages.length; language++ )
+		{
+			if( names[language][entry] != null )
+			{
+				entryNames.put( languages[language], names[language][entry] );
+			}
+		}
+		return Collections.unmodifiableMap( entryNames );
+	}
+
+	/**
+	 * @param languageVsNamesMap Names of a menu or menu item which is not in a table, may be null
+	 * @param locale Locale to search the name for, first with full locale and then with its language
+	 * @return Name for the locale, null if there is none
+	 */
+	static String getName( Map<String, String> languageVsNamesMap, Locale locale )
+	{
+		if( languageVsNamesMap == null || locale == null )
+		{
+			return null;
+		}
+		String name = languageVsNamesMap.get( locale.toString() );
+		return name != null ? name : languageVsNamesMap.get( locale.getLanguage() );
+	}
+
+	private int[] resolveLanguages( Locale locale )
+	{
+		Integer localeNumber = languageNumbers.get( locale.toString() );
+		Integer languageNumber = languageNumbers.get( locale.getLanguage() );
+		if( localeNumber == null && languageNumber == null )
+		{
+			return NO_LANGUAGE;
+		}
+		if( localeNumber == null || languageNumber == null || localeNumber.equals( languageNumber ) )
+		{
+			return new int[] { localeNumber != null ? localeNumber : languageNumber };
+		}
+		return new int[] { localeNumber, languageNumber };
+	}
+
+	@Override
+	public String toString()
+	{
+		return "LocalizedNameTable@" + hashCode() + ": languages[" + languages.length + "] entries[" + entryCount
+				+ "]";
+	}
+
+}
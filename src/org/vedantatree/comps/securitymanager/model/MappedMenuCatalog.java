@@ -0,0 +1,1419 @@
+package org.vedantatree.comps.securitymanager.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.vedantatree.utils.StringUtils;
+import org.vedantatree.utils.Utilities;
+import org.vedantatree.utils.exceptions.IErrorCodes;
+import org.vedantatree.utils.exceptions.SystemException;
+
+
+/**
+ * Read only menu catalog kept in a memory mapped file, for applications having too many menu items to keep these on
+ * heap.
+ *
+ * <p>
+ * File is written once from a frozen {@link MenuCatalog} and has a flat layout of fixed size int records for menus and
+ * menu items, a table of unique strings, localized names and the hash tables for menu and menu item urls. Nothing is
+ * read in heap while opening it, except the header. Menus and menu items are returned as flyweight views, which are
+ * {@link Menu} and {@link MenuItem} objects having only the number of their record and reading every property from
+ * mapped file when asked. Views are read only, any setter and clone throw exception, and these are created on every
+ * call so callers should not keep them for long. {@link #toMenuCatalog()} gives a frozen {@link MenuCatalog} over the
+ * mapped file, so that users can be bound to it and authorized against it like against a catalog on heap.
+ *
+ * <p>
+ * File is mapped read only, so the operating system shares its pages among all JVMs on a host mapping the same file.
+ * Writing a new file replaces the old one atomically, and the JVMs which have mapped the old one keep using it till they
+ * open the new one. File size is limited to 2 GB.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class MappedMenuCatalog
+{
+
+	private static Log			LOGGER				= LogFactory.getLog( MappedMenuCatalog.class );
+
+	private static final int	MAGIC				= 0x4D434D31;
+
+	/**
+	 * Version of the format. It must be incremented whenever format is changed.
+	 */
+	public static final int		FORMAT_VERSION		= 1;
+
+	private static final int	NULL_REFERENCE		= -1;
+
+	// ====== Header, position of each int
+	private static final int	H_MAGIC				= 0;
+	private static final int	H_FORMAT			= 1;
+	private static final int	H_VERSION_HIGH		= 2;
+	private static final int	H_VERSION_LOW		= 3;
+	private static final int	H_APPLICATION		= 4;
+	private static final int	H_STRING_COUNT		= 5;
+	private static final int	H_STRINGS			= 6;
+	private static final int	H_CHARS				= 7;
+	private static final int	H_MENU_COUNT		= 8;
+	private static final int	H_MENUS				= 9;
+	private static final int	H_ITEM_COUNT		= 10;
+	private static final int	H_ITEMS				= 11;
+	private static final int	H_LISTS				= 12;
+	private static final int	H_NAMES				= 13;
+	private static final int	H_MENU_SLOTS		= 14;
+	private static final int	H_MENU_TABLE		= 15;
+	private static final int	H_ITEM_SLOTS		= 16;
+	private static final int	H_ITEM_TABLE		= 17;
+	private static final int	H_ROLE_COUNT		= 18;
+	private static final int	H_ROLES				= 19;
+	private static final int	H_LENGTH			= 20;
+	private static final int	HEADER_INTS			= 21;
+
+	// ====== Menu record, position of each int
+	private static final int	M_HAS_ID			= 0;
+	private static final int	M_ID_HIGH			= 1;
+	private static final int	M_ID_LOW			= 2;
+	private static final int	M_INDEX				= 3;
+	private static final int	M_DISPLAY_NAME		= 4;
+	private static final int	M_URL				= 5;
+	private static final int	M_ENCRYPTED_URL		= 6;
+	private static final int	M_MODULE_NAME		= 7;
+	private static final int	M_PAGE_NAME			= 8;
+	private static final int	M_SHORT_CUT_KEY		= 9;
+	private static final int	M_HOT_KEY			= 10;
+	private static final int	M_NAMES				= 11;
+	private static final int	M_NAME_COUNT		= 12;
+	private static final int	M_ITEMS				= 13;
+	private static final int	M_ITEM_COUNT		= 14;
+	private static final int	M_LEFT_NAV_ITEMS	= 15;
+	private static final int	M_LEFT_NAV_COUNT	= 16;
+	private static final int	MENU_INTS			= 17;
+
+	// ====== Menu item record, position of each int
+	private static final int	I_HAS_ID			= 0;
+	private static final int	I_ID_HIGH			= 1;
+	private static final int	I_ID_LOW			= 2;
+	private static final int	I_INDEX				= 3;
+	private static final int	I_ACTION_TYPE		= 4;
+	private static final int	I_DISPLAY_NAME		= 5;
+	private static final int	I_URL				= 6;
+	private static final int	I_ENCRYPTED_URL		= 7;
+	private static final int	I_VISIBILITY		= 8;
+	private static final int	I_SHORT_CUT_KEY		= 9;
+	private static final int	I_HOT_KEY			= 10;
+	private static final int	I_NAMES				= 11;
+	private static final int	I_NAME_COUNT		= 12;
+	private static final int	I_SUB_ITEMS			= 13;
+	private static final int	I_SUB_ITEM_COUNT	= 14;
+	private static final int	I_PARENT			= 15;
+	private static final int	I_MENU				= 16;
+	private static final int	ITEM_INTS			= 17;
+
+	/**
+	 * Slot of menu url table: url, hash, menu
+	 */
+	private static final int	MENU_SLOT_INTS		= 3;
+
+	/**
+	 * Slot of menu item url table: menu, url, hash, menu item
+	 */
+	private static final int	ITEM_SLOT_INTS		= 4;
+
+	/**
+	 * Role entry: role key, start of menus in lists, number of menus
+	 */
+	private static final int	ROLE_INTS			= 3;
+
+	private final Path			file;
+
+	private final ByteBuffer	buffer;
+
+	private final String		applicationName;
+
+	private final long			catalogVersion;
+
+	private final int			stringsPosition;
+	private final int			charsPosition;
+	private final int			menuCount;
+	private final int			menusPosition;
+	private final int			itemCount;
+	private final int			itemsPosition;
+	private final int			listsPosition;
+	private final int			namesPosition;
+	private final int			menuSlots;
+	private final int			menuTablePosition;
+	private final int			itemSlots;
+	private final int			itemTablePosition;
+	private final int			roleCount;
+	private final int			rolesPosition;
+
+	private MappedMenuCatalog( Path file, ByteBuffer buffer ) throws IOException
+	{
+		this.file = file;
+		this.buffer = buffer;
+		if( buffer.capacity() < HEADER_INTS * 4 || header( H_MAGIC ) != MAGIC )
+		{
+			throw new IOException( "File is not a mapped menu catalog" );
+		}
+		if( header( H_FORMAT ) != FORMAT_VERSION )
+		{
+			throw new IOException( "Mapped menu catalog has different format. format[" + header( H_FORMAT ) + "]" );
+		}
+		if( header( H_LENGTH ) != buffer.capacity() )
+		{
+			throw new IOException( "Mapped menu catalog is truncated. length[" + buffer.capacity() + "] expected["
+					+ header( H_LENGTH ) + "]" );
+		}
+		catalogVersion = ( (long) header( H_VERSION_HIGH ) << 32 ) | ( header( H_VERSION_LOW ) & 0xFFFFFFFFL );
+		stringsPosition = header( H_STRINGS );
+		charsPosition = header( H_CHARS );
+		menuCount = header( H_MENU_COUNT );
+		menusPosition = header( H_MENUS );
+		itemCount = header( H_ITEM_COUNT );
+		itemsPosition = header( H_ITEMS );
+		listsPosition = header( H_LISTS );
+		namesPosition = header( H_NAMES );
+		menuSlots = header( H_MENU_SLOTS );
+		menuTablePosition = header( H_MENU_TABLE );
+		itemSlots = header( H_ITEM_SLOTS );
+		itemTablePosition = header( H_ITEM_TABLE );
+		roleCount = header( H_ROLE_COUNT );
+		rolesPosition = header( H_ROLES );
+		if( Integer.bitCount( menuSlots ) != 1 || Integer.bitCount( itemSlots ) != 1
+				|| rolesPosition + roleCount * ROLE_INTS * 4 != buffer.capacity() )
+		{
+			throw new IOException( "Mapped menu catalog is corrupt" );
+		}
+		applicationName = getString( header( H_APPLICATION ) );
+	}
+
+	/**
+	 * It maps the catalog file in memory
+	 *
+	 * @param file File written by {@link #write(MenuCatalog, long, Path)}
+	 * @return Mapped catalog
+	 */
+	public static MappedMenuCatalog open( Path file )
+	{
+		Utilities.assertNotNullArgument( file );
+		try( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) )
+		{
+			// mapping stays valid after closing the channel
+			MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+			MappedMenuCatalog menuCatalog = new MappedMenuCatalog( file, buffer );
+			LOGGER.info( "Menu catalog mapped. catalog[" + menuCatalog + "]" );
+			return menuCatalog;
+		}
+		catch( IOException e )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Problem while mapping menu catalog. file[" + file + "]", e );
+			LOGGER.error( se );
+			throw se;
+		}
+	}
+
+	/**
+	 * It writes the catalog in the format of mapped catalog. File is written to a temporary file first and then moved,
+	 * so that other JVMs never map a partially written file.
+	 *
+	 * @param menuCatalog Frozen catalog
+	 * @param catalogVersion Version of catalog given by security service, -1 if it is not tracked
+	 * @param file File to write
+	 */
+	public static void write( MenuCatalog menuCatalog, long catalogVersion, Path file )
+	{
+		Utilities.assertNotNullArgument( menuCatalog );
+		Utilities.assertNotNullArgument( file );
+		if( !menuCatalog.isFrozen() )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Only frozen catalog can be written as mapped catalog. catalog[" + menuCatalog + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+		try
+		{
+			ByteBuffer content = new Writer( menuCatalog, catalogVersion ).write();
+			Path absoluteFile = file.toAbsolutePath();
+			if( absoluteFile.getParent() != null )
+			{
+				Files.createDirectories( absoluteFile.getParent() );
+			}
+			Path temporaryFile = Files.createTempFile( absoluteFile.getParent(), file.getFileName().toString(),
+					".tmp" );
+			try( FileChannel channel = FileChannel.open( temporaryFile, StandardOpenOption.WRITE ) )
+			{
+				while( content.hasRemaining() )
+				{
+					channel.write( content );
+				}
+			}
+			Files.move( temporaryFile, absoluteFile, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE );
+			LOGGER.info( "Mapped menu catalog written. file[" + absoluteFile + "] bytes[" + content.capacity()
+					+ "] catalogVersion[" + catalogVersion + "]" );
+		}
+		catch( IOException e )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Problem while writing mapped menu catalog. file[" + file + "]", e );
+			LOGGER.error( se );
+			throw se;
+		}
+	}
+
+	public Path getFile()
+	{
+		return file;
+	}
+
+	public String getApplicationName()
+	{
+		return applicationName;
+	}
+
+	/**
+	 * @return Version of catalog given by security service while writing, -1 if it was not tracked
+	 */
+	public long getCatalogVersion()
+	{
+		return catalogVersion;
+	}
+
+	public int getMenuCount()
+	{
+		return menuCount;
+	}
+
+	public int getMenuItemCount()
+	{
+		return itemCount;
+	}
+
+	/**
+	 * @return Views of all menus, in the order of catalog
+	 */
+	public List<Menu> getMenus()
+	{
+		return new AbstractList<Menu>()
+		{
+
+			@Override
+			public Menu get( int index )
+			{
+				return getMenu( index );
+			}
+
+			@Override
+			public int size()
+			{
+				return menuCount;
+			}
+		};
+	}
+
+	/**
+	 * @param menuNumber Number of menu, from 0 to menu count - 1
+	 * @return View of the menu
+	 */
+	public Menu getMenu( int menuNumber )
+	{
+		if( menuNumber < 0 || menuNumber >= menuCount )
+		{
+			throw new IndexOutOfBoundsException( "menuNumber[" + menuNumber + "] menuCount[" + menuCount + "]" );
+		}
+		return new MappedMenu( this, menuNumber );
+	}
+
+	/**
+	 * @param roleName Name of role, case is ignored
+	 * @return Views of the menus of role, empty list if role has no menu
+	 */
+	public List<Menu> getMenusForRole( String roleName )
+	{
+		StringUtils.assertQualifiedArgument( roleName );
+		String roleKey = MenuCatalog.getRoleKey( roleName );
+		for( int role = 0; role < roleCount; role++ )
+		{
+			int position = rolesPosition + role * ROLE_INTS * 4;
+			if( stringEquals( buffer.getInt( position ), roleKey, 0, roleKey.length() ) )
+			{
+				final int start = buffer.getInt( position + 4 );
+				final int count = buffer.getInt( position + 8 );
+				return new AbstractList<Menu>()
+				{
+
+					@Override
+					public Menu get( int index )
+					{
+						checkIndex( index, count );
+						return getMenu( listElement( start + index ) );
+					}
+
+					@Override
+					public int size()
+					{
+						return count;
+					}
+				};
+			}
+		}
+		return Collections.emptyList();
+	}
+
+	/**
+	 * It creates a frozen {@link MenuCatalog} over this mapped catalog, which can be registered with security manager
+	 * and bound to users like any other catalog. Catalog keeps one view for each menu, the menus of each role and the
+	 * url index of menus, while menu items and localized names are still read from mapped file. Changes can not be
+	 * applied to it.
+	 *
+	 * @return Frozen catalog having the views of this mapped catalog as its menus
+	 */
+	public MenuCatalog toMenuCatalog()
+	{
+		List<Menu> menus = new ArrayList<>( getMenus() );
+		Map<String, Set<Menu>> roleToMenusMap = new HashMap<>( roleCount * 2 );
+		for( int role = 0; role < roleCount; role++ )
+		{
+			int position = rolesPosition + role * ROLE_INTS * 4;
+			int start = buffer.getInt( position + 4 );
+			int count = buffer.getInt( position + 8 );
+			Set<Menu> roleMenus = new HashSet<>( count * 2 );
+			for( int i = 0; i < count; i++ )
+			{
+				roleMenus.add( menus.get( listElement( start + i ) ) );
+			}
+			roleToMenusMap.put( getString( buffer.getInt( position ) ), roleMenus );
+		}
+		MenuCatalog menuCatalog = new MenuCatalog( applicationName );
+		menuCatalog.loadMapped( this, menus, roleToMenusMap );
+		return menuCatalog;
+	}
+
+	/**
+	 * @param menuURL Url of menu, leading and trailing white spaces are ignored
+	 * @return View of matching menu, null if there is none
+	 */
+	public Menu getMenuForURL( CharSequence menuURL )
+	{
+		Utilities.assertNotNullArgument( menuURL );
+		return getMenuForURL( menuURL, 0, menuURL.length() );
+	}
+
+	/**
+	 * @param sequence Sequence containing the url
+	 * @param start Start offset of url, inclusive
+	 * @param end End offset of url, exclusive
+	 * @return View of matching menu, null if there is none
+	 */
+	public Menu getMenuForURL( CharSequence sequence, int start, int end )
+	{
+		Utilities.assertNotNullArgument( sequence );
+		while( start < end && sequence.charAt( start ) <= ' ' )
+		{
+			start++;
+		}
+		while( end > start && sequence.charAt( end - 1 ) <= ' ' )
+		{
+			end--;
+		}
+		int hash = hash( sequence, start, end );
+		int slot = spread( hash ) & ( menuSlots - 1 );
+		int position;
+		int url;
+		while( ( url = buffer.getInt( position = menuTablePosition + slot * MENU_SLOT_INTS * 4 ) ) != NULL_REFERENCE )
+		{
+			if( buffer.getInt( position + 4 ) == hash && stringEquals( url, sequence, start, end ) )
+			{
+				return getMenu( buffer.getInt( position + 8 ) );
+			}
+			slot = ( slot + 1 ) & ( menuSlots - 1 );
+		}
+		return null;
+	}
+
+	MenuItem getMenuItemForURL( int menuNumber, CharSequence sequence, int start, int end )
+	{
+		while( start < end && sequence.charAt( start ) <= ' ' )
+		{
+			start++;
+		}
+		while( end > start && sequence.charAt( end - 1 ) <= ' ' )
+		{
+			end--;
+		}
+		int hash = hash( sequence, start, end );
+		int slot = spread( 31 * hash + menuNumber ) & ( itemSlots - 1 );
+		int position;
+		int url;
+		while( ( url = buffer.getInt( ( position = itemTablePosition + slot * ITEM_SLOT_INTS * 4 ) + 4 ) )
+				!= NULL_REFERENCE )
+		{
+			if( buffer.getInt( position ) == menuNumber && buffer.getInt( position + 8 ) == hash
+					&& stringEquals( url, sequence, start, end ) )
+			{
+				return getMenuItem( buffer.getInt( position + 12 ) );
+			}
+			slot = ( slot + 1 ) & ( itemSlots - 1 );
+		}
+		return null;
+	}
+
+	MenuItem getMenuItem( int itemNumber )
+	{
+		if( itemNumber < 0 || itemNumber >= itemCount )
+		{
+			throw new IndexOutOfBoundsException( "itemNumber[" + itemNumber + "] itemCount[" + itemCount + "]" );
+		}
+		return new MappedMenuItem( this, itemNumber );
+	}
+
+	int menuInt( int menuNumber, int field )
+	{
+		return buffer.getInt( menusPosition + ( menuNumber * MENU_INTS + field ) * 4 );
+	}
+
+	int itemInt( int itemNumber, int field )
+	{
+		return buffer.getInt( itemsPosition + ( itemNumber * ITEM_INTS + field ) * 4 );
+	}
+
+	int listElement( int index )
+	{
+		return buffer.getInt( listsPosition + index * 4 );
+	}
+
+	/**
+	 * @return Views of menu items whose numbers are kept in lists from given start
+	 */
+	List<MenuItem> getMenuItems( final int start, final int count )
+	{
+		if( count == 0 )
+		{
+			return Collections.emptyList();
+		}
+		return new AbstractList<MenuItem>()
+		{
+
+			@Override
+			public MenuItem get( int index )
+			{
+				checkIndex( index, count );
+				return getMenuItem( listElement( start + index ) );
+			}
+
+			@Override
+			public int size()
+			{
+				return count;
+			}
+		};
+	}
+
+	/**
+	 * @return Map of language and name, null if names were not set
+	 */
+	Map<String, String> getNames( int start, int count )
+	{
+		if( count < 0 )
+		{
+			return null;
+		}
+		Map<String, String> names = new HashMap<>( count * 2 );
+		for( int i = 0; i < count; i++ )
+		{
+			int position = namesPosition + ( start + i ) * 8;
+			names.put( getString( buffer.getInt( position ) ), getString( buffer.getInt( position + 4 ) ) );
+		}
+		return Collections.unmodifiableMap( names );
+	}
+
+	static Long toId( int hasId, int high, int low )
+	{
+		return hasId == 0 ? null : Long.valueOf( ( (long) high << 32 ) | ( low & 0xFFFFFFFFL ) );
+	}
+
+	String getString( int reference )
+	{
+		if( reference == NULL_REFERENCE )
+		{
+			return null;
+		}
+		int start = buffer.getInt( stringsPosition + reference * 4 );
+		int end = buffer.getInt( stringsPosition + reference * 4 + 4 );
+		char[] chars = new char[end - start];
+		for( int i = 0; i < chars.length; i++ )
+		{
+			chars[i] = buffer.getChar( charsPosition + ( start + i ) * 2 );
+		}
+		return new String( chars );
+	}
+
+	private boolean stringEquals( int reference, CharSequence sequence, int start, int end )
+	{
+		int stringStart = buffer.getInt( stringsPosition + reference * 4 );
+		int stringEnd = buffer.getInt( stringsPosition + reference * 4 + 4 );
+		if( stringEnd - stringStart != end - start )
+		{
+			return false;
+		}
+		int position = charsPosition + stringStart * 2;
+		for( int i = start; i < end; i++, position += 2 )
+		{
+			if( buffer.getChar( position ) != sequence.charAt( i ) )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int header( int field )
+	{
+		return buffer.getInt( field * 4 );
+	}
+
+	private static void checkIndex( int index, int size )
+	{
+		if( index < 0 || index >= size )
+		{
+			throw new IndexOutOfBoundsException( "index[" + index + "] size[" + size + "]" );
+		}
+	}
+
+	/**
+	 * @return Same hash as of String, so that hash of a String is not computed again
+	 */
+	private static int hash( CharSequence sequence, int start, int end )
+	{
+		if( sequence instanceof String && start == 0 && end == sequence.length() )
+		{
+			return sequence.hashCode();
+		}
+		int hash = 0;
+		for( int i = start; i < end; i++ )
+		{
+			hash = 31 * hash + sequence.charAt( i );
+		}
+		return hash;
+	}
+
+	private static int spread( int hash )
+	{
+		return hash ^ ( hash >>> 16 );
+	}
+
+	private static int tableSlots( int size )
+	{
+		return Integer.highestOneBit( Math.max( 2, size * 2 ) - 1 ) << 1;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "MappedMenuCatalog@" + hashCode() + ": application[" + applicationName + "] file[" + file
+				+ "] menus[" + menuCount + "] menuItems[" + itemCount + "] version[" + catalogVersion + "]";
+	}
+
+	/**
+	 * It lays out a frozen catalog in the format of mapped catalog
+	 */
+	private static final class Writer
+	{
+
+		private final MenuCatalog				menuCatalog;
+
+		private final long						catalogVersion;
+
+		private final Map<String, Integer>		strings		= new LinkedHashMap<>();
+
+		private final StringBuilder				chars		= new StringBuilder();
+
+		private final List<Integer>				stringEnds	= new ArrayList<>();
+
+		private final List<Menu>				menus;
+
+		private final Map<Menu, Integer>		menuNumbers	= new IdentityHashMap<>();
+
+		private final List<MenuItem>			items		= new ArrayList<>();
+
+		private final List<int[]>				itemOwners	= new ArrayList<>();
+
+		private final Map<MenuItem, Integer>	itemNumbers	= new IdentityHashMap<>();
+
+		private final IntList					lists		= new IntList();
+
+		private final IntList					names		= new IntList();
+
+		Writer( MenuCatalog menuCatalog, long catalogVersion )
+		{
+			this.menuCatalog = menuCatalog;
+			this.catalogVersion = catalogVersion;
+			this.menus = new ArrayList<>( menuCatalog.getMenus() );
+		}
+
+		ByteBuffer write()
+		{
+			int applicationName = getReference( menuCatalog.getApplicationName() );
+
+			// number all menus and items first, as records refer to each other
+			for( Menu menu : menus )
+			{
+				int menuNumber = menuNumbers.size();
+				menuNumbers.put( menu, menuNumber );
+				for( MenuItem menuItem : menu.getMenuItems() )
+				{
+					numberMenuItem( menuItem, -1, menuNumber );
+				}
+			}
+
+			IntList menuRecords = new IntList();
+			for( Menu menu : menus )
+			{
+				writeId( menuRecords, menu.getId() );
+				menuRecords.add( menu.getIndex() );
+				menuRecords.add( getReference( menu.getDisplayName() ) );
+				menuRecords.add( getReference( menu.getUrl() ) );
+				menuRecords.add( getReference( menu.getEncryptedURL() ) );
+				menuRecords.add( getReference( menu.getModuleName() ) );
+				menuRecords.add( getReference( menu.getPageName() ) );
+				menuRecords.add( getReference( menu.getShortCutKey() ) );
+				menuRecords.add( getReference( menu.getHotKey() ) );
+				writeNames( menuRecords, menu.getLanguageVsNamesMap() );
+				writeList( menuRecords, menu.getMenuItems() );
+				writeList( menuRecords, menu.getLeftNavigationMenuItems() );
+			}
+
+			IntList itemRecords = new IntList();
+			for( int i = 0; i < items.size(); i++ )
+			{
+				MenuItem menuItem = items.get( i );
+				writeId( itemRecords, menuItem.getId() );
+				itemRecords.add( menuItem.getIndex() );
+				itemRecords.add( menuItem.getActionType() );
+				itemRecords.add( getReference( menuItem.getDisplayName() ) );
+				itemRecords.add( getReference( menuItem.getUrl() ) );
+				itemRecords.add( getReference( menuItem.getEncryptedURL() ) );
+				itemRecords.add( getReference( menuItem.getVisibilityCondition() ) );
+				itemRecords.add( getReference( menuItem.getShortCutKey() ) );
+				itemRecords.add( getReference( menuItem.getHotKey() ) );
+				writeNames( itemRecords, menuItem.getLanguageVsNamesMap() );
+				writeList( itemRecords, menuItem.getSubMenuItems() );
+				itemRecords.add( itemOwners.get( i )[0] );
+				itemRecords.add( itemOwners.get( i )[1] );
+			}
+
+			URLIndex<Menu> menuIndex = menuCatalog.getURLIndex();
+			int menuSlots = tableSlots( menuIndex.size() );
+			int[] menuTable = newTable( menuSlots, MENU_SLOT_INTS );
+			for( int entry = 0; entry < menuIndex.size(); entry++ )
+			{
+				int hash = menuIndex.getHashes()[entry];
+				int slot = freeSlot( menuTable, MENU_SLOT_INTS, 0, spread( hash ) & ( menuSlots - 1 ) );
+				menuTable[slot] = getReference( getKey( menuIndex, entry ) );
+				menuTable[slot + 1] = hash;
+				menuTable[slot + 2] = menuNumbers.get( menuIndex.getValue( entry ) );
+			}
+
+			int itemURLCount = 0;
+			for( Menu menu : menus )
+			{
+				itemURLCount += getURLIndex( menu ).size();
+			}
+			int itemSlots = tableSlots( itemURLCount );
+			int[] itemTable = newTable( itemSlots, ITEM_SLOT_INTS );
+			for( Menu menu : menus )
+			{
+				int menuNumber = menuNumbers.get( menu );
+				URLIndex<MenuItem> itemIndex = getURLIndex( menu );
+				for( int entry = 0; entry < itemIndex.size(); entry++ )
+				{
+					int hash = itemIndex.getHashes()[entry];
+					int slot = freeSlot( itemTable, ITEM_SLOT_INTS, 1,
+							spread( 31 * hash + menuNumber ) & ( itemSlots - 1 ) );
+					itemTable[slot] = menuNumber;
+					itemTable[slot + 1] = getReference( getKey( itemIndex, entry ) );
+					itemTable[slot + 2] = hash;
+					itemTable[slot + 3] = itemNumbers.get( itemIndex.getValue( entry ) );
+				}
+			}
+
+			Map<String, Set<Menu>> roleToMenusMap = menuCatalog.getRoleToMenusMap();
+			IntList roles = new IntList();
+			for( Map.Entry<String, Set<Menu>> roleMenus : roleToMenusMap.entrySet() )
+			{
+				roles.add( getReference( roleMenus.getKey() ) );
+				roles.add( lists.size() );
+				roles.add( roleMenus.getValue().size() );
+				for( Menu menu : roleMenus.getValue() )
+				{
+					lists.add( menuNumbers.get( menu ) );
+				}
+			}
+
+			// sections, strings first as all others refer to these
+			int stringsPosition = HEADER_INTS * 4;
+			int charsPosition = stringsPosition + ( strings.size() + 1 ) * 4;
+			int menusPosition = charsPosition + align( chars.length() * 2 );
+			int itemsPosition = menusPosition + menuRecords.size() * 4;
+			int listsPosition = itemsPosition + itemRecords.size() * 4;
+			int namesPosition = listsPosition + lists.size() * 4;
+			int menuTablePosition = namesPosition + names.size() * 4;
+			int itemTablePosition = menuTablePosition + menuTable.length * 4;
+			int rolesPosition = itemTablePosition + itemTable.length * 4;
+			long length = rolesPosition + (long) roles.size() * 4;
+			if( length > Integer.MAX_VALUE )
+			{
+				SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+						"Catalog is too large to be mapped. bytes[" + length + "] catalog[" + menuCatalog + "]" );
+				LOGGER.error( se );
+				throw se;
+			}
+
+			ByteBuffer content = ByteBuffer.allocate( (int) length );
+			content.putInt( MAGIC );
+			content.putInt( FORMAT_VERSION );
+			content.putInt( (int) ( catalogVersion >>> 32 ) );
+			content.putInt( (int) catalogVersion );
+			content.putInt( applicationName );
+			content.putInt( strings.size() );
+			content.putInt( stringsPosition );
+			content.putInt( charsPosition );
+			content.putInt( menus.size() );
+			content.putInt( menusPosition );
+			content.putInt( items.size() );
+			content.putInt( itemsPosition );
+			content.putInt( listsPosition );
+			content.putInt( namesPosition );
+			content.putInt( menuSlots );
+			content.putInt( menuTablePosition );
+			content.putInt( itemSlots );
+			content.putInt( itemTablePosition );
+			content.putInt( roleToMenusMap.size() );
+			content.putInt( rolesPosition );
+			content.putInt( (int) length );
+
+			content.putInt( 0 );
+			for( int stringEnd : stringEnds )
+			{
+				content.putInt( stringEnd );
+			}
+			for( int i = 0; i < chars.length(); i++ )
+			{
+				content.putChar( chars.charAt( i ) );
+			}
+			content.position( menusPosition );
+			menuRecords.writeTo( content );
+			itemRecords.writeTo( content );
+			lists.writeTo( content );
+			names.writeTo( content );
+			for( int value : menuTable )
+			{
+				content.putInt( value );
+			}
+			for( int value : itemTable )
+			{
+				content.putInt( value );
+			}
+			roles.writeTo( content );
+			content.flip();
+			return content;
+		}
+
+		private void numberMenuItem( MenuItem menuItem, int parentNumber, int menuNumber )
+		{
+			if( itemNumbers.containsKey( menuItem ) )
+			{
+				return;
+			}
+			int itemNumber = items.size();
+			itemNumbers.put( menuItem, itemNumber );
+			items.add( menuItem );
+			itemOwners.add( new int[] { parentNumber, menuNumber } );
+			for( MenuItem subMenuItem : menuItem.getSubMenuItems() )
+			{
+				numberMenuItem( subMenuItem, itemNumber, menuNumber );
+			}
+		}
+
+		private void writeList( IntList record, Collection<MenuItem> menuItems )
+		{
+			record.add( lists.size() );
+			record.add( menuItems.size() );
+			for( MenuItem menuItem : menuItems )
+			{
+				lists.add( itemNumbers.get( menuItem ) );
+			}
+		}
+
+		private void writeNames( IntList record, Map<String, String> languageVsNamesMap )
+		{
+			record.add( names.size() / 2 );
+			record.add( languageVsNamesMap == null ? NULL_REFERENCE : languageVsNamesMap.size() );
+			if( languageVsNamesMap != null )
+			{
+				for( Map.Entry<String, String> name : languageVsNamesMap.entrySet() )
+				{
+					names.add( getReference( name.getKey() ) );
+					names.add( getReference( name.getValue() ) );
+				}
+			}
+		}
+
+		private static void writeId( IntList record, Long id )
+		{
+			record.add( id != null ? 1 : 0 );
+			record.add( id != null ? (int) ( id >>> 32 ) : 0 );
+			record.add( id != null ? id.intValue() : 0 );
+		}
+
+		private int getReference( String string )
+		{
+			if( string == null )
+			{
+				return NULL_REFERENCE;
+			}
+			Integer reference = strings.get( string );
+			if( reference == null )
+			{
+				reference = strings.size();
+				strings.put( string, reference );
+				chars.append( string );
+				stringEnds.add( chars.length() );
+			}
+			return reference;
+		}
+
+		private static URLIndex<MenuItem> getURLIndex( Menu menu )
+		{
+			URLIndex<MenuItem> urlIndex = menu.getURLIndex();
+			return urlIndex != null ? urlIndex : URLIndex.<MenuItem> empty();
+		}
+
+		private static String getKey( URLIndex<?> urlIndex, int entry )
+		{
+			int start = urlIndex.getOffsets()[entry];
+			return new String( urlIndex.getPool(), start, urlIndex.getOffsets()[entry + 1] - start );
+		}
+
+		private static int[] newTable( int slots, int slotInts )
+		{
+			int[] table = new int[slots * slotInts];
+			for( int i = 0; i < table.length; i++ )
+			{
+				table[i] = NULL_REFERENCE;
+			}
+			return table;
+		}
+
+		/**
+		 * @return Position of first int of first free slot from given slot
+		 */
+		private static int freeSlot( int[] table, int slotInts, int urlField, int slot )
+		{
+			int slots = table.length / slotInts;
+			while( table[slot * slotInts + urlField] != NULL_REFERENCE )
+			{
+				slot = ( slot + 1 ) & ( slots - 1 );
+			}
+			return slot * slotInts;
+		}
+
+		private static int align( int bytes )
+		{
+			return ( bytes + 3 ) & ~3;
+		}
+	}
+
+	/**
+	 * Growable list of int, to avoid boxing of large record sections
+	 */
+	private static final class IntList
+	{
+
+		private int[]	values	= new int[1024];
+
+		private int		size;
+
+		void add( int value )
+		{
+			if( size == values.length )
+			{
+				int[] newValues = new int[size * 2];
+				System.arraycopy( values, 0, newValues, 0, size );
+				values = newValues;
+			}
+			values[size++] = value;
+		}
+
+		int size()
+		{
+			return size;
+		}
+
+		void writeTo( ByteBuffer buffer )
+		{
+			buffer.asIntBuffer().put( values, 0, size );
+			buffer.position( buffer.position() + size * 4 );
+		}
+	}
+
+	/**
+	 * Flyweight view of a menu record
+	 */
+	private static final class MappedMenu extends Menu
+	{
+
+		private final MappedMenuCatalog	catalog;
+
+		private final int				number;
+
+		MappedMenu( MappedMenuCatalog catalog, int number )
+		{
+			super( catalog );
+			this.catalog = catalog;
+			this.number = number;
+		}
+
+		@Override
+		public Long getId()
+		{
+			return toId( catalog.menuInt( number, M_HAS_ID ), catalog.menuInt( number, M_ID_HIGH ),
+					catalog.menuInt( number, M_ID_LOW ) );
+		}
+
+		@Override
+		public int getIndex()
+		{
+			return catalog.menuInt( number, M_INDEX );
+		}
+
+		@Override
+		public String getDisplayName()
+		{
+			return catalog.getString( catalog.menuInt( number, M_DISPLAY_NAME ) );
+		}
+
+		@Override
+		public String getUrl()
+		{
+			return catalog.getString( catalog.menuInt( number, M_URL ) );
+		}
+
+		@Override
+		public String getEncryptedURL()
+		{
+			return catalog.getString( catalog.menuInt( number, M_ENCRYPTED_URL ) );
+		}
+
+		@Override
+		public String getModuleName()
+		{
+			return catalog.getString( catalog.menuInt( number, M_MODULE_NAME ) );
+		}
+
+		@Override
+		public String getPageName()
+		{
+			return catalog.getString( catalog.menuInt( number, M_PAGE_NAME ) );
+		}
+
+		@Override
+		public String getShortCutKey()
+		{
+			return catalog.getString( catalog.menuInt( number, M_SHORT_CUT_KEY ) );
+		}
+
+		@Override
+		public String getHotKey()
+		{
+			return catalog.getString( catalog.menuInt( number, M_HOT_KEY ) );
+		}
+
+		@Override
+		public Map<String, String> getLanguageVsNamesMap()
+		{
+			return catalog.getNames( catalog.menuInt( number, M_NAMES ), catalog.menuInt( number, M_NAME_COUNT ) );
+		}
+
+		@Override
+		public boolean isGlobalMenu()
+		{
+			String moduleName = getModuleName();
+			return moduleName != null && moduleName.trim().equalsIgnoreCase( GLOBAL_MODULE_MENU );
+		}
+
+		@Override
+		public List<MenuItem> getMenuItems()
+		{
+			return catalog.getMenuItems( catalog.menuInt( number, M_ITEMS ), catalog.menuInt( number, M_ITEM_COUNT ) );
+		}
+
+		@Override
+		public List<MenuItem> getLeftNavigationMenuItems()
+		{
+			return catalog.getMenuItems( catalog.menuInt( number, M_LEFT_NAV_ITEMS ),
+					catalog.menuInt( number, M_LEFT_NAV_COUNT ) );
+		}
+
+		@Override
+		public MenuItem getMenuItemForURL( String menuItemURL )
+		{
+			StringUtils.assertQualifiedArgument( menuItemURL );
+			return catalog.getMenuItemForURL( number, menuItemURL, 0, menuItemURL.length() );
+		}
+
+		@Override
+		public MenuItem getMenuItemForURL( CharSequence sequence, int start, int end )
+		{
+			Utilities.assertNotNullArgument( sequence );
+			return catalog.getMenuItemForURL( number, sequence, start, end );
+		}
+
+		@Override
+		public boolean isFrozen()
+		{
+			return true;
+		}
+
+		@Override
+		public boolean addMenuItem( MenuItem menuItem )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setDisplayName( String displayName )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setHotKey( String hotKey )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setId( Long id )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setIndex( int index )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setModuleName( String moduleName )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setPageName( String pageName )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setShortCutKey( String shortCutKey )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setUrl( String url )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setEncryptedURL( String encryptedURL )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setLanguageVsNamesMap( Map<String, String> languageVsNamesMap )
+		{
+			throw readOnly();
+		}
+
+		/**
+		 * Copy of a view would share only the record number and not the properties, so views can not be cloned
+		 */
+		@Override
+		public Object clone() throws CloneNotSupportedException
+		{
+			throw readOnly();
+		}
+
+		private SystemException readOnly()
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Menu of mapped catalog is read only. menu[" + this + "]" );
+			LOGGER.error( se );
+			return se;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * catalog.hashCode() + number;
+		}
+
+		@Override
+		public boolean equals( Object obj )
+		{
+			if( !( obj instanceof MappedMenu ) )
+			{
+				return false;
+			}
+			MappedMenu other = (MappedMenu) obj;
+			return catalog == other.catalog && number == other.number;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "MappedMenu@" + number + ": id[" + getId() + "] index[" + getIndex() + "] displayName["
+					+ getDisplayName() + "] url[" + getUrl() + "] pageName[" + getPageName() + "] moduleName["
+					+ getModuleName() + "]";
+		}
+	}
+
+	/**
+	 * Flyweight view of a menu item record
+	 */
+	private static final class MappedMenuItem extends MenuItem
+	{
+
+		private final MappedMenuCatalog	catalog;
+
+		private final int				number;
+
+		MappedMenuItem( MappedMenuCatalog catalog, int number )
+		{
+			super( catalog );
+			this.catalog = catalog;
+			this.number = number;
+		}
+
+		@Override
+		public Long getId()
+		{
+			return toId( catalog.itemInt( number, I_HAS_ID ), catalog.itemInt( number, I_ID_HIGH ),
+					catalog.itemInt( number, I_ID_LOW ) );
+		}
+
+		@Override
+		public int getIndex()
+		{
+			return catalog.itemInt( number, I_INDEX );
+		}
+
+		@Override
+		public byte getActionType()
+		{
+			return (byte) catalog.itemInt( number, I_ACTION_TYPE );
+		}
+
+		@Override
+		public String getDisplayName()
+		{
+			return catalog.getString( catalog.itemInt( number, I_DISPLAY_NAME ) );
+		}
+
+		@Override
+		public String getUrl()
+		{
+			return catalog.getString( catalog.itemInt( number, I_URL ) );
+		}
+
+		@Override
+		public String getEncryptedURL()
+		{
+			return catalog.getString( catalog.itemInt( number, I_ENCRYPTED_URL ) );
+		}
+
+		@Override
+		public String getVisibilityCondition()
+		{
+			return catalog.getString( catalog.itemInt( number, I_VISIBILITY ) );
+		}
+
+		@Override
+		public String getShortCutKey()
+		{
+			return catalog.getString( catalog.itemInt( number, I_SHORT_CUT_KEY ) );
+		}
+
+		@Override
+		public String getHotKey()
+		{
+			return catalog.getString( catalog.itemInt( number, I_HOT_KEY ) );
+		}
+
+		@Override
+		public Map<String, String> getLanguageVsNamesMap()
+		{
+			return catalog.getNames( catalog.itemInt( number, I_NAMES ), catalog.itemInt( number, I_NAME_COUNT ) );
+		}
+
+		@Override
+		public List<MenuItem> getSubMenuItems()
+		{
+			return catalog.getMenuItems( catalog.itemInt( number, I_SUB_ITEMS ),
+					catalog.itemInt( number, I_SUB_ITEM_COUNT ) );
+		}
+
+		@Override
+		public MenuItem getParentMenuItem()
+		{
+			int parent = catalog.itemInt( number, I_PARENT );
+			return parent < 0 ? null : catalog.getMenuItem( parent );
+		}
+
+		@Override
+		public Menu getMenu()
+		{
+			int menu = catalog.itemInt( number, I_MENU );
+			return menu < 0 ? null : catalog.getMenu( menu );
+		}
+
+		@Override
+		public boolean isFrozen()
+		{
+			return true;
+		}
+
+		@Override
+		public boolean addSubMenuItem( MenuItem subMenuItem )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setActionType( byte actionType )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setDisplayName( String displayName )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setHotKey( String hotKey )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setIndex( int index )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setShortCutKey( String shortCutKey )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setUrl( String url )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setId( Long id )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setVisibilityCondition( String visibilityCondition )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setLanguageVsNamesMap( Map<String, String> languageVsNamesMap )
+		{
+			throw readOnly();
+		}
+
+		@Override
+		public void setEncryptedURL( String encryptedURL )
+		{
+			throw readOnly();
+		}
+
+		/**
+		 * Copy of a view would share only the record number and not the properties, so views can not be cloned
+		 */
+		@Override
+		public Object clone() throws CloneNotSupportedException
+		{
+			throw readOnly();
+		}
+
+		private SystemException readOnly()
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Menu item of mapped catalog is read only. menuItem[" + this + "]" );
+			LOGGER.error( se );
+			return se;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return 31 * catalog.hashCode() + number;
+		}
+
+		@Override
+		public boolean equals( Object obj )
+		{
+			if( !( obj instanceof MappedMenuItem ) )
+			{
+				return false;
+			}
+			MappedMenuItem other = (MappedMenuItem) obj;
+			return catalog == other.catalog && number == other.number;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "MappedMenuItem@" + number + ": id[" + getId() + "] index[" + getIndex() + "] displayName["
+					+ getDisplayName() + "] url[" + getUrl() + "] actionType[" + getActionType() + "]";
+		}
+	}
+
+}
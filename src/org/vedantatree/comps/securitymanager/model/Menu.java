@@ -1,10 +1,12 @@
 package org.vedantatree.comps.securitymanager.model;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.TreeSet;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -17,7 +19,7 @@ import org.vedantatree.utils.exceptions.SystemException;
 /**
  * @author Mohit Gupta <mohit.gupta@vedantatree.com>
  */
-public class Menu implements Comparable<Menu>
+public class Menu implements Comparable<Menu>, Cloneable
 {
 
 	private static Log				LOGGER				= LogFactory.getLog( Menu.class );
@@ -50,6 +52,16 @@ public class Menu implements Comparable<Menu>
 	 */
 	private Map<String, String>		languageVsNamesMap;
 
+	/**
+	 * Table of localized names of catalog, once catalog is frozen. languageVsNamesMap is released then.
+	 */
+	private LocalizedNameTable		localizedNameTable;
+
+	/**
+	 * Entry of this menu in localizedNameTable
+	 */
+	private int						localizedNameEntry;
+
 	/**
 	 * It is the short cut key to operate the menu
 	 */
@@ -82,27 +94,58 @@ public class Menu implements Comparable<Menu>
 	private String					pageName;
 
 	/**
-	 * All the menu items for the Menu. It includes left navigation menu items also
+	 * All the menu items for the Menu. It includes left navigation menu items also. It is an immutable list ordered by
+	 * index, which is replaced instead of modified. It is null while menuItemsBuilder has menu items which are not
+	 * published yet.
 	 */
-	private Collection<MenuItem>	menuItems;
+	private volatile List<MenuItem>	menuItems;
 
 	/**
-	 * It is the map of children menuItem's url and menuItems. Point to consider, it contains all children menuItems in
-	 * the hierarchy. It is specially designed for making search fast for menu items. The menu Items are searched on
-	 * every request to security manager for any URL
+	 * Collects the menu items being added, in any order. It is guarded by the menu and is published as menuItems on
+	 * next read, sorting the items once, and is created again from menuItems if more menu items are added.
+	 */
+	private OrderedMenuItems.Builder	menuItemsBuilder;
+
+	/**
+	 * It is the map of children menuItem's url and menuItems, while menu items are being added. Point to consider, it
+	 * contains all children menuItems in the hierarchy. It is guarded by the menu and is never read by requests, rather
+	 * it is published as urlIndex and released, and created again from urlIndex if more menu items are added.
 	 */
 	private Map<String, MenuItem>	urlToMenuItemMap;
 
 	/**
-	 * Collection of Left navigation menu items only
+	 * Compact read only index of urls of all menu items in hierarchy. The menu Items are searched on every request to
+	 * security manager for any URL, so requests read it without any lock. It is null while urlToMenuItemMap has
+	 * changes which are not published yet. Once menu is frozen in a menu catalog, it is replaced instead of published.
+	 */
+	private volatile URLIndex<MenuItem>	urlIndex;
+
+	/**
+	 * True once menu is frozen in a menu catalog, then no more menu items can be added to it
+	 */
+	private volatile boolean			frozen;
+
+	/**
+	 * Left navigation menu items only. It is an immutable list ordered by index, published from
+	 * leftNavigationMenuItemsBuilder like menuItems.
 	 */
-	private Collection<MenuItem>	leftNavigationMenuItems;
+	private volatile List<MenuItem>	leftNavigationMenuItems;
+
+	private OrderedMenuItems.Builder	leftNavigationMenuItemsBuilder;
 
 	public Menu()
 	{
-		menuItems = new TreeSet<>();
-		leftNavigationMenuItems = new TreeSet<>();
-		urlToMenuItemMap = new HashMap<>();
+		menuItems = Collections.emptyList();
+		leftNavigationMenuItems = Collections.emptyList();
+		urlIndex = URLIndex.empty();
+	}
+
+	/**
+	 * Constructor for the read only views of a {@link MappedMenuCatalog}. State of view is kept in mapped file, so no
+	 * collection is created here and view overrides all the getters.
+	 */
+	Menu( MappedMenuCatalog menuCatalog )
+	{
 	}
 
 	public String getDisplayName()
@@ -125,14 +168,22 @@ public class Menu implements Comparable<Menu>
 		return index;
 	}
 
-	public Collection<MenuItem> getLeftNavigationMenuItems()
+	/**
+	 * @return Immutable list of left navigation menu items, ordered by index
+	 */
+	public List<MenuItem> getLeftNavigationMenuItems()
 	{
-		return leftNavigationMenuItems;
+		List<MenuItem> items = leftNavigationMenuItems;
+		return items != null ? items : publishLeftNavigationMenuItems();
 	}
 
-	public Collection<MenuItem> getMenuItems()
+	/**
+	 * @return Immutable list of top level menu items, ordered by index
+	 */
+	public List<MenuItem> getMenuItems()
 	{
-		return menuItems;
+		List<MenuItem> items = menuItems;
+		return items != null ? items : publishMenuItems();
 	}
 
 	public String getModuleName()
@@ -180,9 +231,10 @@ public class Menu implements Comparable<Menu>
 		this.index = index;
 	}
 
-	private void setMenuItems( Collection<MenuItem> menuItems )
+	private synchronized void setMenuItems( Collection<MenuItem> menuItems )
 	{
-		this.menuItems = menuItems;
+		this.menuItems = OrderedMenuItems.of( menuItems );
+		menuItemsBuilder = null;
 	}
 
 	public void setModuleName( String moduleName )
@@ -215,14 +267,54 @@ public class Menu implements Comparable<Menu>
 		this.encryptedURL = encryptedURL;
 	}
 
+	/**
+	 * @return Map of language and name. Once catalog is frozen, it is created from the localized name table of catalog
+	 *         on every call.
+	 */
 	public Map<String, String> getLanguageVsNamesMap()
 	{
+		LocalizedNameTable table = localizedNameTable;
+		if( table != null )
+		{
+			return table.getNames( localizedNameEntry );
+		}
 		return languageVsNamesMap;
 	}
 
 	public void setLanguageVsNamesMap( Map<String, String> languageVsNamesMap )
 	{
 		this.languageVsNamesMap = languageVsNamesMap;
+		this.localizedNameTable = null;
+	}
+
+	/**
+	 * @param locale Locale to get the name for
+	 * @return Localized name for the locale, or for the language of locale, display name if there is none
+	 */
+	public String getDisplayName( Locale locale )
+	{
+		LocalizedNameTable table = localizedNameTable;
+		String name = table != null ? table.getName( localizedNameEntry, locale )
+				: LocalizedNameTable.getName( getLanguageVsNamesMap(), locale );
+		return name != null ? name : getDisplayName();
+	}
+
+	/**
+	 * It makes this menu use the localized name table of catalog, and releases its own map
+	 */
+	void bindLocalizedNames( LocalizedNameTable table, int entry )
+	{
+		localizedNameEntry = entry;
+		localizedNameTable = table;
+		languageVsNamesMap = null;
+	}
+
+	/**
+	 * @return true if menu is frozen, then it is shared and must be cloned to change it
+	 */
+	public boolean isFrozen()
+	{
+		return frozen;
 	}
 
 	/**
@@ -247,15 +339,14 @@ public class Menu implements Comparable<Menu>
 	 */
 	public MenuItem getMenuItemForURL( String menuItemURL )
 	{
-		LOGGER.trace( "getMenuItemForURL: menuItemURL[" + menuItemURL + "]" );
+		if( LOGGER.isTraceEnabled() )
+		{
+			LOGGER.trace( "getMenuItemForURL: menuItemURL[" + menuItemURL + "]" );
+		}
 		StringUtils.assertQualifiedArgument( menuItemURL );
-		menuItemURL = menuItemURL.trim();
-
-		// urlToMenuItemMap contains all children menuItems even from Hierarchy
-		MenuItem matchedMenuItem = urlToMenuItemMap.get( menuItemURL );
-		LOGGER.debug( "returning menu[" + matchedMenuItem + "] for url[" + menuItemURL + "]" );
 
-		return matchedMenuItem;
+		// url index contains all children menuItems even from Hierarchy
+		return getURLIndex().get( menuItemURL );
 
 		// for( Iterator<MenuItem> iter = getMenuItems().iterator(); iter.hasNext(); )
 		// {
@@ -285,45 +376,220 @@ public class Menu implements Comparable<Menu>
 		// return matchedMenuItem;
 	}
 
-	// internal method called from clone only
-	private Collection<MenuItem> addChildrenToMenuItems( Collection<MenuItem> childMenuItems,
-			Collection<MenuItem> menuItems )
+	/**
+	 * It returns a menu item for url present in specified slice of given sequence, same as
+	 * {@link #getMenuItemForURL(String)}. Leading and trailing white spaces of url are ignored.
+	 * 
+	 * @param sequence Sequence containing the url
+	 * @param start Start offset of url, inclusive
+	 * @param end End offset of url, exclusive
+	 * @return Matching MenuItem if found, null otherwise
+	 */
+	public MenuItem getMenuItemForURL( CharSequence sequence, int start, int end )
+	{
+		Utilities.assertNotNullArgument( sequence );
+		return getURLIndex().get( sequence, start, end );
+	}
+
+	/**
+	 * It freezes the menu, like when it is added to a menu catalog or is shared by a cache. It publishes the url index
+	 * and the lists of menu items in hierarchy for the last time, and releases the url map and the builders. After
+	 * this, no more menu items can be added to this menu or its menu items, and its menu items can not be added to
+	 * other menus, so it can be shared as read only. Clone gives a copy which is not frozen.
+	 */
+	public synchronized void freeze()
 	{
-		Iterator<MenuItem> iterator = childMenuItems.iterator();
-		do
+		if( !frozen )
 		{
-			if( !iterator.hasNext() )
-				break;
-			MenuItem menuItemValue = iterator.next();
-			if( menuItemValue != null )
-				menuItems.add( menuItemValue );
-			if( menuItemValue.getSubMenuItems() != null && menuItemValue.getSubMenuItems().size() > 0 )
-				addChildrenToMenuItems( menuItemValue.getSubMenuItems(), menuItems );
-		} while( true );
+			publishURLIndex();
+			freezeMenuItems();
+			frozen = true;
+		}
+	}
+
+	private void freezeMenuItems()
+	{
+		for( MenuItem menuItem : getMenuItems() )
+		{
+			menuItem.freezeSubMenuItems();
+		}
+		getLeftNavigationMenuItems();
+	}
+
+	/**
+	 * It adds a top level menu item while loading a frozen menu, like from a catalog snapshot. Url index is not
+	 * updated, it is set later with {@link #setURLIndex(URLIndex)}.
+	 */
+	void addLoadedMenuItem( MenuItem menuItem )
+	{
+		menuItem.setMenu( this );
+		addToMenuItems( menuItem );
+	}
+
+	/**
+	 * It adds the menu item to the builders, which are created again from published lists if these were released.
+	 * Published lists are cleared, so that next read publishes these with all items added till then.
+	 */
+	private synchronized void addToMenuItems( MenuItem menuItem )
+	{
+		if( menuItemsBuilder == null )
+		{
+			menuItemsBuilder = new OrderedMenuItems.Builder( menuItems.size() + 1 ).addAll( menuItems );
+		}
+		menuItemsBuilder.add( menuItem );
+		menuItems = null;
+		if( menuItem.getActionType() == LEFT_NAV_ACTION )
+		{
+			if( leftNavigationMenuItemsBuilder == null )
+			{
+				leftNavigationMenuItemsBuilder = new OrderedMenuItems.Builder( leftNavigationMenuItems.size() + 1 )
+						.addAll( leftNavigationMenuItems );
+			}
+			leftNavigationMenuItemsBuilder.add( menuItem );
+			leftNavigationMenuItems = null;
+		}
+	}
+
+	private synchronized List<MenuItem> publishMenuItems()
+	{
+		if( menuItems == null )
+		{
+			menuItems = menuItemsBuilder.build();
+			menuItemsBuilder = null;
+		}
 		return menuItems;
 	}
 
+	private synchronized List<MenuItem> publishLeftNavigationMenuItems()
+	{
+		if( leftNavigationMenuItems == null )
+		{
+			leftNavigationMenuItems = leftNavigationMenuItemsBuilder.build();
+			leftNavigationMenuItemsBuilder = null;
+		}
+		return leftNavigationMenuItems;
+	}
+
+	/**
+	 * It sets the prebuilt url index of all menu items, and so freezes the menu
+	 */
+	synchronized void setURLIndex( URLIndex<MenuItem> urlIndex )
+	{
+		this.urlIndex = urlIndex;
+		this.urlToMenuItemMap = null;
+		freezeMenuItems();
+		frozen = true;
+	}
+
 	/**
-	 * It is used to add a menu item as left navigation item. Any item coming to this method is taken as left navigation
-	 * item. So we assume that caller will check the action type
+	 * @return Url index of all menu items in hierarchy. If menu items are added after it was published last time, it
+	 *         is published again first.
+	 */
+	URLIndex<MenuItem> getURLIndex()
+	{
+		URLIndex<MenuItem> index = urlIndex;
+		return index != null ? index : publishURLIndex();
+	}
+
+	/**
+	 * It builds the url index from the url map and publishes it to requests. Map is released, as index has the exact
+	 * size required for the urls whereas map has the spare capacity grown while adding.
+	 */
+	private synchronized URLIndex<MenuItem> publishURLIndex()
+	{
+		if( urlIndex == null )
+		{
+			urlIndex = new URLIndex<>( urlToMenuItemMap );
+			urlToMenuItemMap = null;
+		}
+		return urlIndex;
+	}
+
+	/**
+	 * It adds a menu item to this menu after it is frozen. Collections are copied and replaced, and url index is built
+	 * again, so that requests reading the menu meanwhile always see either old or new menu items.
 	 * 
-	 * @param leftNavigationMenuItem MenuItem to add as left navigation item
-	 * @return
+	 * @param parentMenuItem Parent item of this menu to add the item to, null to add it directly to menu
+	 * @param menuItem Menu item to add, with its sub menu items
 	 */
-	private Collection<MenuItem> addLeftNavigationMenuItems( MenuItem leftNavigationMenuItem )
+	void addMenuItemToFrozenMenu( MenuItem parentMenuItem, MenuItem menuItem )
 	{
-		if( leftNavigationMenuItem != null )
+		setMenuOfHierarchy( menuItem );
+		menuItem.freezeSubMenuItems();
+		if( parentMenuItem == null )
 		{
-			getLeftNavigationMenuItems().add( leftNavigationMenuItem );
-			getMenuItems().add( leftNavigationMenuItem );
-			return addChildrenToMenuItems( leftNavigationMenuItem.getSubMenuItems(), getMenuItems() );
+			if( menuItem.getActionType() == LEFT_NAV_ACTION )
+			{
+				leftNavigationMenuItems = OrderedMenuItems.with( getLeftNavigationMenuItems(), menuItem );
+			}
+			menuItems = OrderedMenuItems.with( getMenuItems(), menuItem );
 		}
 		else
 		{
-			throw new SystemException( 3, "MenuItem cannot be null" );
+			parentMenuItem.attachSubMenuItem( menuItem );
+		}
+		rebuildURLIndex();
+	}
+
+	/**
+	 * It removes a menu item, along with its sub menu items, from this menu after it is frozen. Collections are copied
+	 * and replaced like in {@link #addMenuItemToFrozenMenu(MenuItem, MenuItem)}.
+	 * 
+	 * @param menuItem Menu item of this menu
+	 */
+	void removeMenuItemFromFrozenMenu( MenuItem menuItem )
+	{
+		MenuItem parentMenuItem = menuItem.getParentMenuItem();
+		if( parentMenuItem == null )
+		{
+			leftNavigationMenuItems = OrderedMenuItems.without( getLeftNavigationMenuItems(), menuItem );
+			menuItems = OrderedMenuItems.without( getMenuItems(), menuItem );
+		}
+		else
+		{
+			parentMenuItem.detachSubMenuItem( menuItem );
+		}
+		rebuildURLIndex();
+	}
+
+	private void setMenuOfHierarchy( MenuItem menuItem )
+	{
+		menuItem.setMenu( this );
+		for( MenuItem subMenuItem : menuItem.getSubMenuItems() )
+		{
+			setMenuOfHierarchy( subMenuItem );
 		}
 	}
 
+	private void rebuildURLIndex()
+	{
+		Map<String, MenuItem> urlToMenuItems = new HashMap<>();
+		for( MenuItem menuItem : getMenuItems() )
+		{
+			addHierarchyToURLMap( menuItem, urlToMenuItems );
+		}
+		urlIndex = new URLIndex<>( urlToMenuItems );
+	}
+
+	private static void addHierarchyToURLMap( MenuItem menuItem, Map<String, MenuItem> urlToMenuItems )
+	{
+		urlToMenuItems.put( menuItem.getUrl().trim(), menuItem );
+		if( StringUtils.isQualifiedString( menuItem.getEncryptedURL() ) )
+		{
+			urlToMenuItems.put( menuItem.getEncryptedURL().trim(), menuItem );
+		}
+		for( MenuItem subMenuItem : menuItem.getSubMenuItems() )
+		{
+			addHierarchyToURLMap( subMenuItem, urlToMenuItems );
+		}
+	}
+
+	/**
+	 * It adds a top level menu item. Items are sorted by index when the menu items are read next time.
+	 * 
+	 * @param menuItem Menu item to add
+	 * @return false if menu item is already added to this menu, true otherwise
+	 */
 	public boolean addMenuItem( MenuItem menuItem )
 	{
 		Utilities.assertNotNullArgument( menuItem );
@@ -334,16 +600,15 @@ public class Menu implements Comparable<Menu>
 			LOGGER.error( se );
 			throw se;
 		}
-		boolean added = getMenuItems().add( menuItem );
-		if( added )
+		assertNotFrozen( menuItem );
+		menuItem.assertNotFrozen();
+		if( menuItem.getMenu() == this && menuItem.getParentMenuItem() == null )
 		{
-			if( menuItem.getActionType() == LEFT_NAV_ACTION )
-			{
-				getLeftNavigationMenuItems().add( menuItem );
-			}
-			setParentOf( menuItem );
+			return false;
 		}
-		return added;
+		addToMenuItems( menuItem );
+		setParentOf( menuItem );
+		return true;
 	}
 
 	void setParentOf( MenuItem menuItem )
@@ -352,57 +617,83 @@ public class Menu implements Comparable<Menu>
 		addToURLToMenuItemMap( menuItem );
 	}
 
-	private void addToURLToMenuItemMap( MenuItem menuItem )
+	/**
+	 * @throws SystemException If menu is frozen, as menu items can not be added to it then
+	 */
+	void assertNotFrozen( MenuItem menuItem )
 	{
-		urlToMenuItemMap.put( menuItem.getUrl().trim().intern(), menuItem );
-		if( StringUtils.isQualifiedString( menuItem.getEncryptedURL() ) )
+		if( frozen )
 		{
-			urlToMenuItemMap.put( menuItem.getEncryptedURL().trim().intern(), menuItem );
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Menu is frozen, menu items can not be added to it. menu[" + this
+							+ "] menuItem[" + menuItem + "]" );
+			LOGGER.error( se );
+			throw se;
 		}
 	}
 
-	private boolean addMenuItem( MenuItem menuItemToAdd, Collection<MenuItem> menuItems )
+	/**
+	 * It adds the urls of menu item to the url map, which is created again from published url index if it was released.
+	 * Published index is cleared, so that next request publishes the map with all items added till then.
+	 */
+	private synchronized void addToURLToMenuItemMap( MenuItem menuItem )
 	{
-		if( menuItemToAdd != null )
+		assertNotFrozen( menuItem );
+		if( urlToMenuItemMap == null )
 		{
-			for( MenuItem menuItem : menuItems )
-			{
-				MenuItem currentMenuItem = menuItem;
-				if( currentMenuItem.getUrl().trim().equalsIgnoreCase( menuItemToAdd.getUrl().trim() ) )
-					return false;
-			}
-
-			getMenuItems().add( menuItemToAdd );
-			return true;
+			urlToMenuItemMap = urlIndex.toMap();
 		}
-		else
+		urlToMenuItemMap.put( menuItem.getUrl().trim(), menuItem );
+		if( StringUtils.isQualifiedString( menuItem.getEncryptedURL() ) )
 		{
-			throw new SystemException( 3, "MenuItem cannot be null" );
+			urlToMenuItemMap.put( menuItem.getEncryptedURL().trim(), menuItem );
 		}
+		urlIndex = null;
 	}
 
+	/**
+	 * It creates a deep copy of menu, with copies of all its menu items in hierarchy. Copy is not frozen even if this
+	 * menu is, so menu items can be added to it. Every item is copied once, its parent and menu are set to the copies
+	 * and its urls are added to a url map while copying, which is published as url index of copied menu. Copies are
+	 * collected in the order of source lists, so copy takes time linear to number of items.
+	 */
 	@Override
 	public Object clone() throws CloneNotSupportedException
 	{
 		Menu clonedMenu = (Menu) super.clone();
-		Collection<MenuItem> menuItems = clonedMenu.getMenuItems();
-		if( menuItems != null && menuItems.size() > 0 )
+		// copy has its own names, as it is not part of the catalog
+		Map<String, String> names = getLanguageVsNamesMap();
+		clonedMenu.languageVsNamesMap = names != null ? new HashMap<>( names ) : null;
+		clonedMenu.localizedNameTable = null;
+		List<MenuItem> sourceMenuItems = getMenuItems();
+		List<MenuItem> sourceLeftNavigationMenuItems = getLeftNavigationMenuItems();
+
+		Map<MenuItem, MenuItem> copiedMenuItems = new IdentityHashMap<>();
+		Map<String, MenuItem> clonedURLToMenuItemMap = new HashMap<>();
+		OrderedMenuItems.Builder clonedMenuItems = new OrderedMenuItems.Builder( sourceMenuItems.size() );
+		for( MenuItem menuItem : sourceMenuItems )
 		{
-			MenuItem menuItem;
-			for( Iterator<MenuItem> iter = menuItems.iterator(); iter.hasNext(); clonedMenu
-					.addMenuItem( (MenuItem) menuItem.clone(), menuItems ) )
-				menuItem = iter.next();
-
+			clonedMenuItems.add( menuItem.copyHierarchy( null, clonedMenu, copiedMenuItems, clonedURLToMenuItemMap ) );
 		}
-		Collection<MenuItem> leftNavMenuItems = clonedMenu.getLeftNavigationMenuItems();
-		if( leftNavMenuItems != null && leftNavMenuItems.size() > 0 )
+		OrderedMenuItems.Builder clonedLeftNavigationMenuItems = new OrderedMenuItems.Builder(
+				sourceLeftNavigationMenuItems.size() );
+		for( MenuItem menuItem : sourceLeftNavigationMenuItems )
 		{
-			MenuItem menuItem;
-			for( Iterator<MenuItem> iter = leftNavMenuItems.iterator(); iter.hasNext(); clonedMenu
-					.addLeftNavigationMenuItems( (MenuItem) menuItem.clone() ) )
-				menuItem = iter.next();
-
+			MenuItem copiedMenuItem = copiedMenuItems.get( menuItem );
+			if( copiedMenuItem == null )
+			{
+				copiedMenuItem = menuItem.copyHierarchy( null, clonedMenu, copiedMenuItems, clonedURLToMenuItemMap );
+			}
+			clonedLeftNavigationMenuItems.add( copiedMenuItem );
 		}
+
+		clonedMenu.menuItems = clonedMenuItems.build();
+		clonedMenu.menuItemsBuilder = null;
+		clonedMenu.leftNavigationMenuItems = clonedLeftNavigationMenuItems.build();
+		clonedMenu.leftNavigationMenuItemsBuilder = null;
+		clonedMenu.urlToMenuItemMap = null;
+		clonedMenu.urlIndex = new URLIndex<>( clonedURLToMenuItemMap );
+		clonedMenu.frozen = false;
 		return clonedMenu;
 	}
 
@@ -0,0 +1,872 @@
+package org.vedantatree.comps.securitymanager.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.vedantatree.utils.StringUtils;
+import org.vedantatree.utils.Utilities;
+import org.vedantatree.utils.exceptions.IErrorCodes;
+import org.vedantatree.utils.exceptions.SystemException;
+
+
+/**
+ * Catalog of all menus of an application along with the mapping of roles and menus.
+ *
+ * <p>
+ * Catalog is built once per application. Menus and menu items are added to it while loading, and then catalog is
+ * frozen. After freezing, catalog and all of its menus are read only and are shared by all users of the application.
+ * Users do not build their own menu tree any more, rather these point to a {@link PermissionProfile} which is created
+ * by catalog for a role set and is interned, so all users with the same effective roles share the same profile.
+ *
+ * <p>
+ * Frozen catalog can still be changed with {@link #applyChanges(Collection)}. Changed menus are patched in place, and
+ * only the profiles of affected roles are replaced. Users holding a replaced profile switch to its replacement on their
+ * next request.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public class MenuCatalog
+{
+
+	private static Log								LOGGER	= LogFactory.getLog( MenuCatalog.class );
+
+	/**
+	 * Name of the application for which this catalog is built
+	 */
+	private final String							applicationName;
+
+	/**
+	 * All menus of the catalog, in the order of addition. Once catalog is frozen, it is replaced instead of modified.
+	 */
+	private volatile List<Menu>						menus;
+
+	/**
+	 * Mapping of menu url (plain as well as encrypted) and menu for all menus of catalog. It is used while loading, and
+	 * is replaced by urlIndex once catalog is frozen.
+	 */
+	private Map<String, Menu>						urlToMenuMap;
+
+	/**
+	 * Compact index of menu urls, built on freezing the catalog
+	 */
+	private volatile URLIndex<Menu>					urlIndex;
+
+	/**
+	 * Mapping of role name (lower case) and menus assigned to the role. Once catalog is frozen, it is replaced instead
+	 * of modified.
+	 */
+	private volatile Map<String, Set<Menu>>			roleToMenusMap;
+
+	/**
+	 * Interned profiles, keyed by role set fingerprint
+	 */
+	private final Map<String, PermissionProfile>	profiles;
+
+	/**
+	 * Dense ids of roles and rights, used by users of this catalog for role and right checks
+	 */
+	private final RoleRightRegistry					roleRightRegistry;
+
+	/**
+	 * Localized names of all menus and menu items, built when catalog is frozen. Menus and menu items added afterwards
+	 * keep their own names.
+	 */
+	private volatile LocalizedNameTable				localizedNameTable;
+
+	/**
+	 * Mapped catalog which the menus of this catalog are views of, null if menus are kept on heap
+	 */
+	private volatile MappedMenuCatalog				mappedMenuCatalog;
+
+	private volatile boolean						frozen;
+
+	/**
+	 * Version of catalog, incremented whenever changes are applied to frozen catalog
+	 */
+	private volatile long							version;
+
+	public MenuCatalog( String applicationName )
+	{
+		this.applicationName = applicationName;
+		menus = new ArrayList<>();
+		urlToMenuMap = new HashMap<>();
+		roleToMenusMap = new HashMap<>();
+		profiles = new ConcurrentHashMap<>();
+		roleRightRegistry = new RoleRightRegistry();
+	}
+
+	public String getApplicationName()
+	{
+		return applicationName;
+	}
+
+	public boolean isFrozen()
+	{
+		return frozen;
+	}
+
+	/**
+	 * @return Version of catalog, it is incremented whenever changes are applied to frozen catalog
+	 */
+	public long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * @return All menus of catalog
+	 */
+	public Collection<Menu> getMenus()
+	{
+		return Collections.unmodifiableList( menus );
+	}
+
+	/**
+	 * It adds the menu to catalog. If catalog already has a menu with same url, existing menu is kept and returned.
+	 *
+	 * @param menu Menu to add, with its menu items already added to it
+	 * @return Menu instance held by catalog for the url of given menu
+	 */
+	public Menu addMenu( Menu menu )
+	{
+		Utilities.assertNotNullArgument( menu );
+		assertNotFrozen();
+		if( !StringUtils.isQualifiedString( menu.getUrl() ) )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"URL of menu is found null, it must not be null. menu[" + menu + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+
+		Menu existingMenu = urlToMenuMap.get( menu.getUrl().trim() );
+		if( existingMenu != null )
+		{
+			return existingMenu;
+		}
+		menus.add( menu );
+		urlToMenuMap.put( menu.getUrl().trim().intern(), menu );
+		if( StringUtils.isQualifiedString( menu.getEncryptedURL() ) )
+		{
+			urlToMenuMap.put( menu.getEncryptedURL().trim().intern(), menu );
+		}
+		return menu;
+	}
+
+	/**
+	 * It assigns the menu to specified role. Menu is added to catalog if catalog does not have it already.
+	 *
+	 * @param roleName Name of the role, it is case insensitive
+	 * @param menu Menu to assign
+	 */
+	public void addRoleMenu( String roleName, Menu menu )
+	{
+		StringUtils.assertQualifiedArgument( roleName );
+		Menu catalogMenu = addMenu( menu );
+		roleRightRegistry.registerRole( roleName );
+		String roleKey = getRoleKey( roleName );
+		Set<Menu> roleMenus = roleToMenusMap.get( roleKey );
+		if( roleMenus == null )
+		{
+			roleMenus = new HashSet<>();
+			roleToMenusMap.put( roleKey, roleMenus );
+		}
+		roleMenus.add( catalogMenu );
+	}
+
+	/**
+	 * It adds all menus of given role to catalog and assigns these to role
+	 *
+	 * @param role Role with its menus
+	 */
+	public void addRole( UserRole role )
+	{
+		Utilities.assertNotNullArgument( role );
+		roleRightRegistry.registerRole( role.getName() );
+		Set<?> roleMenus = role.getMenus();
+		if( roleMenus == null )
+		{
+			return;
+		}
+		for( Object menu : roleMenus )
+		{
+			addRoleMenu( role.getName(), (Menu) menu );
+		}
+	}
+
+	/**
+	 * It registers the right, so that it gets its id along with the other rights of application. Rights are registered
+	 * even after catalog is frozen.
+	 *
+	 * @param right Right to register
+	 */
+	public void addRight( UserRight right )
+	{
+		Utilities.assertNotNullArgument( right );
+		roleRightRegistry.registerRight( right.getRight() );
+	}
+
+	/**
+	 * @return Registry of role and right ids of this catalog
+	 */
+	public RoleRightRegistry getRoleRightRegistry()
+	{
+		return roleRightRegistry;
+	}
+
+	/**
+	 * @return Table of localized names of menus and menu items, null if catalog is not frozen or is read from mapped
+	 *         catalog
+	 */
+	public LocalizedNameTable getLocalizedNameTable()
+	{
+		return localizedNameTable;
+	}
+
+	/**
+	 * It freezes the catalog. After this, no more menus or roles can be added and profiles can be retrieved. Menus and
+	 * role mapping are copied to the exact size required, as these are replaced instead of modified afterwards.
+	 */
+	public synchronized void freeze()
+	{
+		if( frozen )
+		{
+			return;
+		}
+		for( Menu menu : menus )
+		{
+			menu.freeze();
+		}
+		menus = new ArrayList<>( menus );
+		roleToMenusMap = copyRoleToMenusMap( roleToMenusMap );
+		urlIndex = new URLIndex<>( urlToMenuMap );
+		urlToMenuMap = null;
+		localizedNameTable = LocalizedNameTable.build( menus );
+		frozen = true;
+		LOGGER.info( "Menu catalog frozen. application[" + applicationName + "] menus[" + menus.size() + "] roles["
+				+ roleToMenusMap.size() + "]" );
+	}
+
+	/**
+	 * It sets the state of a frozen catalog loaded from a snapshot, with its prebuilt url index. Menus must be frozen
+	 * already.
+	 */
+	synchronized void loadFrozen( List<Menu> loadedMenus, Map<String, Set<Menu>> loadedRoleToMenusMap,
+			URLIndex<Menu> loadedURLIndex )
+	{
+		assertNotFrozen();
+		menus = loadedMenus;
+		roleToMenusMap = loadedRoleToMenusMap;
+		for( String roleKey : loadedRoleToMenusMap.keySet() )
+		{
+			roleRightRegistry.registerRole( roleKey );
+		}
+		urlIndex = loadedURLIndex;
+		urlToMenuMap = null;
+		localizedNameTable = LocalizedNameTable.build( menus );
+		frozen = true;
+		LOGGER.info( "Menu catalog loaded frozen. application[" + applicationName + "] menus[" + menus.size()
+				+ "] roles[" + roleToMenusMap.size() + "]" );
+	}
+
+	/**
+	 * It sets the state of a frozen catalog over a mapped catalog. Menus are the views of mapped catalog. Localized
+	 * name table is not built, as it would bring all the names on heap, so views read their names from mapped file.
+	 */
+	synchronized void loadMapped( MappedMenuCatalog loadedMappedCatalog, List<Menu> mappedMenus,
+			Map<String, Set<Menu>> mappedRoleToMenusMap )
+	{
+		assertNotFrozen();
+		Map<String, Menu> mappedURLToMenuMap = new HashMap<>( getCapacity( mappedMenus.size() * 2 ) );
+		for( Menu menu : mappedMenus )
+		{
+			putMenuURLs( menu, mappedURLToMenuMap );
+		}
+		menus = mappedMenus;
+		roleToMenusMap = mappedRoleToMenusMap;
+		for( String roleKey : mappedRoleToMenusMap.keySet() )
+		{
+			roleRightRegistry.registerRole( roleKey );
+		}
+		urlIndex = new URLIndex<>( mappedURLToMenuMap );
+		urlToMenuMap = null;
+		mappedMenuCatalog = loadedMappedCatalog;
+		frozen = true;
+		LOGGER.info( "Menu catalog loaded from mapped catalog. application[" + applicationName + "] menus["
+				+ menus.size() + "] roles[" + roleToMenusMap.size() + "] mappedCatalog[" + loadedMappedCatalog + "]" );
+	}
+
+	/**
+	 * @return Mapped catalog which the menus of this catalog are read from, null if menus are kept on heap
+	 */
+	public MappedMenuCatalog getMappedMenuCatalog()
+	{
+		return mappedMenuCatalog;
+	}
+
+	/**
+	 * @return Mapping of role key (lower case role name) and menus of role. It must not be modified.
+	 */
+	Map<String, Set<Menu>> getRoleToMenusMap()
+	{
+		return roleToMenusMap;
+	}
+
+	/**
+	 * @return Url index of frozen catalog, null if catalog is not frozen yet
+	 */
+	URLIndex<Menu> getURLIndex()
+	{
+		return urlIndex;
+	}
+
+	/**
+	 * @param menuURL url or encrypted url of menu
+	 * @return Menu from catalog for the specified url, null if none exists
+	 */
+	public Menu getMenuForURL( String menuURL )
+	{
+		Utilities.assertNotNullArgument( menuURL );
+		URLIndex<Menu> index = urlIndex;
+		return index != null ? index.get( menuURL ) : urlToMenuMap.get( menuURL.trim() );
+	}
+
+	/**
+	 * It returns the shared profile for the specified roles. Profile is created on first request for a role set, and
+	 * then same profile is returned for all subsequent requests for same role set.
+	 *
+	 * @param roles Collection of UserRole, null or empty collection means no role
+	 * @return Shared profile for the role set
+	 */
+	public PermissionProfile getPermissionProfile( Collection<?> roles )
+	{
+		if( !frozen )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Menu catalog is not frozen yet. Profiles can be retrieved only after freezing the catalog. application["
+							+ applicationName + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+		String fingerprint = getRoleFingerprint( roles );
+		PermissionProfile profile = profiles.get( fingerprint );
+		if( profile == null )
+		{
+			// created under catalog lock, so that a profile is never created from the state being changed
+			synchronized( this )
+			{
+				profile = profiles.get( fingerprint );
+				if( profile == null )
+				{
+					profile = createPermissionProfile( fingerprint );
+					profiles.put( fingerprint, profile );
+				}
+			}
+		}
+		return profile;
+	}
+
+	/**
+	 * @return Number of distinct profiles created so far
+	 */
+	public int getPermissionProfileCount()
+	{
+		return profiles.size();
+	}
+
+	/**
+	 * It applies the changes to this frozen catalog, in the given order.
+	 *
+	 * <p>
+	 * All changes are resolved and validated first, against staged copies of catalog data and of url maps of changed
+	 * menus, before anything shared is touched. So if any change is invalid, an exception is thrown and catalog is left
+	 * as it was. Then menu item changes are patched into the shared menu, which replaces its collections and url index,
+	 * so all profiles and users see the change immediately. Menu and role menu changes are applied to a copy of catalog
+	 * data, which is published at the end. Then only the profiles having any of the affected roles are created again, and old profiles
+	 * are marked as replaced. Profiles of other role sets, and so the users holding these, are not touched.
+	 *
+	 * @param changes Changes to apply
+	 * @return Number of profiles replaced
+	 */
+	public synchronized int applyChanges( Collection<MenuCatalogChange> changes )
+	{
+		Utilities.assertNotNullArgument( changes );
+		if( !frozen )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Changes can be applied only to frozen catalog, add these directly instead. application["
+							+ applicationName + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+		if( mappedMenuCatalog != null )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Changes can not be applied to catalog read from mapped catalog, load the mapped catalog again instead. "
+							+ "application[" + applicationName + "] mappedCatalog[" + mappedMenuCatalog + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+
+		List<Menu> newMenus = new ArrayList<>( menus );
+		Map<String, Menu> newURLToMenuMap = new HashMap<>();
+		for( Menu menu : newMenus )
+		{
+			putMenuURLs( menu, newURLToMenuMap );
+		}
+		Map<String, Set<Menu>> newRoleToMenusMap = new HashMap<>( roleToMenusMap );
+		Set<String> copiedRoleKeys = new HashSet<>();
+		Set<String> affectedRoleKeys = new HashSet<>();
+		List<Menu> addedMenus = new ArrayList<>();
+		List<String> addedRoleNames = new ArrayList<>();
+		// menu item changes are validated against staged url maps, and are applied once all changes are validated
+		Map<Menu, Map<String, MenuItem>> stagedURLMaps = new IdentityHashMap<>();
+		Map<MenuItem, MenuItem> stagedParents = new IdentityHashMap<>();
+		List<Runnable> menuItemEdits = new ArrayList<>();
+
+		for( MenuCatalogChange change : changes )
+		{
+			LOGGER.debug( "applying change. " + change );
+			switch( change.getType() )
+			{
+				case MenuCatalogChange.MENU_ADDED:
+				{
+					addMenuToFrozenCatalog( change.getMenu(), newMenus, newURLToMenuMap, addedMenus );
+					break;
+				}
+				case MenuCatalogChange.MENU_REMOVED:
+				{
+					Menu catalogMenu = newURLToMenuMap.get( change.getMenu().getUrl().trim() );
+					if( catalogMenu == null )
+					{
+						break;
+					}
+					newMenus.removeIf( menu -> menu == catalogMenu );
+					newURLToMenuMap.values().removeIf( menu -> menu == catalogMenu );
+					for( String roleKey : new ArrayList<>( newRoleToMenusMap.keySet() ) )
+					{
+						if( newRoleToMenusMap.get( roleKey ).contains( catalogMenu ) )
+						{
+							getRoleMenusToChange( roleKey, newRoleToMenusMap, copiedRoleKeys ).remove( catalogMenu );
+							affectedRoleKeys.add( roleKey );
+						}
+					}
+					break;
+				}
+				case MenuCatalogChange.ROLE_MENU_ADDED:
+				{
+					Menu catalogMenu = addMenuToFrozenCatalog( change.getMenu(), newMenus, newURLToMenuMap, addedMenus );
+					String roleKey = getRoleKey( change.getRoleName() );
+					getRoleMenusToChange( roleKey, newRoleToMenusMap, copiedRoleKeys ).add( catalogMenu );
+					addedRoleNames.add( change.getRoleName() );
+					affectedRoleKeys.add( roleKey );
+					break;
+				}
+				case MenuCatalogChange.ROLE_MENU_REMOVED:
+				{
+					Menu catalogMenu = newURLToMenuMap.get( change.getMenu().getUrl().trim() );
+					String roleKey = getRoleKey( change.getRoleName() );
+					Set<Menu> roleMenus = newRoleToMenusMap.get( roleKey );
+					// nothing to remove for an unknown role or menu, so no empty entry is created for the role
+					if( catalogMenu != null && roleMenus != null && roleMenus.contains( catalogMenu ) )
+					{
+						getRoleMenusToChange( roleKey, newRoleToMenusMap, copiedRoleKeys ).remove( catalogMenu );
+						affectedRoleKeys.add( roleKey );
+					}
+					break;
+				}
+				case MenuCatalogChange.MENU_ITEM_ADDED:
+				{
+					Menu catalogMenu = getMenuToChange( change, newURLToMenuMap );
+					Map<String, MenuItem> stagedURLMap = getStagedURLMap( catalogMenu, stagedURLMaps );
+					MenuItem menuItem = change.getMenuItem();
+					assertQualifiedURL( menuItem, change );
+					if( stagedURLMap.get( menuItem.getUrl().trim() ) != null )
+					{
+						LOGGER.debug( "menu item already exists, skipping it. menuItem[" + menuItem + "]" );
+						break;
+					}
+					MenuItem parentMenuItem = null;
+					if( change.getParentMenuItem() != null )
+					{
+						assertQualifiedURL( change.getParentMenuItem(), change );
+						parentMenuItem = stagedURLMap.get( change.getParentMenuItem().getUrl().trim() );
+						if( parentMenuItem == null )
+						{
+							SystemException se = new SystemException( IErrorCodes.ILLEGAL_ARGUMENT_ERROR,
+									"Parent menu item not found in menu. " + change );
+							LOGGER.error( se );
+							throw se;
+						}
+					}
+					putStagedHierarchy( menuItem, stagedURLMap, change );
+					stagedParents.put( menuItem, parentMenuItem );
+					MenuItem resolvedParentMenuItem = parentMenuItem;
+					menuItemEdits.add( () -> catalogMenu.addMenuItemToFrozenMenu( resolvedParentMenuItem, menuItem ) );
+					break;
+				}
+				case MenuCatalogChange.MENU_ITEM_REMOVED:
+				{
+					Menu catalogMenu = getMenuToChange( change, newURLToMenuMap );
+					Map<String, MenuItem> stagedURLMap = getStagedURLMap( catalogMenu, stagedURLMaps );
+					assertQualifiedURL( change.getMenuItem(), change );
+					MenuItem catalogMenuItem = stagedURLMap.get( change.getMenuItem().getUrl().trim() );
+					if( catalogMenuItem != null )
+					{
+						stagedURLMap.values().removeIf(
+								menuItem -> isInStagedHierarchy( menuItem, catalogMenuItem, stagedParents ) );
+						menuItemEdits.add( () -> catalogMenu.removeMenuItemFromFrozenMenu( catalogMenuItem ) );
+					}
+					break;
+				}
+				default:
+				{
+					SystemException se = new SystemException( IErrorCodes.ILLEGAL_ARGUMENT_ERROR,
+							"Unknown type of change. " + change );
+					LOGGER.error( se );
+					throw se;
+				}
+			}
+		}
+
+		// all changes are valid, now shared menus can be changed
+		for( Menu menu : addedMenus )
+		{
+			menu.freeze();
+		}
+		for( Runnable menuItemEdit : menuItemEdits )
+		{
+			menuItemEdit.run();
+		}
+		for( String roleName : addedRoleNames )
+		{
+			roleRightRegistry.registerRole( roleName );
+		}
+		menus = new ArrayList<>( newMenus );
+		roleToMenusMap = copyRoleToMenusMap( newRoleToMenusMap );
+		urlIndex = new URLIndex<>( newURLToMenuMap );
+
+		int replacedProfiles = 0;
+		for( PermissionProfile profile : profiles.values() )
+		{
+			if( hasAnyRole( profile.getFingerprint(), affectedRoleKeys ) )
+			{
+				PermissionProfile newProfile = createPermissionProfile( profile.getFingerprint() );
+				profiles.put( profile.getFingerprint(), newProfile );
+				profile.replaceWith( newProfile );
+				replacedProfiles++;
+			}
+		}
+		version++;
+		LOGGER.info( "Changes applied to menu catalog. application[" + applicationName + "] changes["
+				+ changes.size() + "] affectedRoles[" + affectedRoleKeys + "] replacedProfiles[" + replacedProfiles
+				+ "] version[" + version + "]" );
+		return replacedProfiles;
+	}
+
+	/**
+	 * It adds the menu to new catalog data. Menu is frozen later, once all changes are validated.
+	 */
+	private static Menu addMenuToFrozenCatalog( Menu menu, List<Menu> newMenus, Map<String, Menu> newURLToMenuMap,
+			List<Menu> addedMenus )
+	{
+		if( !StringUtils.isQualifiedString( menu.getUrl() ) )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"URL of menu is found null, it must not be null. menu[" + menu + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+		Menu existingMenu = newURLToMenuMap.get( menu.getUrl().trim() );
+		if( existingMenu != null )
+		{
+			return existingMenu;
+		}
+		addedMenus.add( menu );
+		newMenus.add( menu );
+		putMenuURLs( menu, newURLToMenuMap );
+		return menu;
+	}
+
+	/**
+	 * @return Url map of menu items of menu, as these will be after the changes staged so far in this batch
+	 */
+	private static Map<String, MenuItem> getStagedURLMap( Menu menu, Map<Menu, Map<String, MenuItem>> stagedURLMaps )
+	{
+		return stagedURLMaps.computeIfAbsent( menu, stagedMenu -> stagedMenu.getURLIndex().toMap() );
+	}
+
+	/**
+	 * It adds the urls of menu item and its sub menu items to staged url map, after validating these
+	 */
+	private static void putStagedHierarchy( MenuItem menuItem, Map<String, MenuItem> stagedURLMap,
+			MenuCatalogChange change )
+	{
+		assertQualifiedURL( menuItem, change );
+		stagedURLMap.put( menuItem.getUrl().trim(), menuItem );
+		if( StringUtils.isQualifiedString( menuItem.getEncryptedURL() ) )
+		{
+			stagedURLMap.put( menuItem.getEncryptedURL().trim(), menuItem );
+		}
+		for( MenuItem subMenuItem : menuItem.getSubMenuItems() )
+		{
+			putStagedHierarchy( subMenuItem, stagedURLMap, change );
+		}
+	}
+
+	/**
+	 * @return true if menu item is the given root item or is below it, considering the parents staged in this batch
+	 */
+	private static boolean isInStagedHierarchy( MenuItem menuItem, MenuItem rootMenuItem,
+			Map<MenuItem, MenuItem> stagedParents )
+	{
+		for( MenuItem item = menuItem; item != null; item = stagedParents.containsKey( item )
+				? stagedParents.get( item ) : item.getParentMenuItem() )
+		{
+			if( item == rootMenuItem )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void assertQualifiedURL( MenuItem menuItem, MenuCatalogChange change )
+	{
+		if( menuItem == null || !StringUtils.isQualifiedString( menuItem.getUrl() ) )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_ARGUMENT_ERROR,
+					"URL of menu item is found null, it must not be null. menuItem[" + menuItem + "] " + change );
+			LOGGER.error( se );
+			throw se;
+		}
+	}
+
+	private Menu getMenuToChange( MenuCatalogChange change, Map<String, Menu> newURLToMenuMap )
+	{
+		Menu catalogMenu = newURLToMenuMap.get( change.getMenu().getUrl().trim() );
+		if( catalogMenu == null )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_ARGUMENT_ERROR,
+					"Menu not found in catalog. application[" + applicationName + "] " + change );
+			LOGGER.error( se );
+			throw se;
+		}
+		return catalogMenu;
+	}
+
+	/**
+	 * @return Menus of role from the new mapping, copied first if not copied yet in this batch of changes
+	 */
+	private static Set<Menu> getRoleMenusToChange( String roleKey, Map<String, Set<Menu>> newRoleToMenusMap,
+			Set<String> copiedRoleKeys )
+	{
+		Set<Menu> roleMenus = newRoleToMenusMap.get( roleKey );
+		if( copiedRoleKeys.add( roleKey ) )
+		{
+			roleMenus = roleMenus == null ? new HashSet<>() : new HashSet<>( roleMenus );
+			newRoleToMenusMap.put( roleKey, roleMenus );
+		}
+		return roleMenus;
+	}
+
+	/**
+	 * @return Copy of role mapping, with map and sets of menus having the capacity for their size without spare
+	 */
+	private static Map<String, Set<Menu>> copyRoleToMenusMap( Map<String, Set<Menu>> roleToMenus )
+	{
+		Map<String, Set<Menu>> copiedRoleToMenus = new HashMap<>( getCapacity( roleToMenus.size() ) );
+		for( Map.Entry<String, Set<Menu>> roleMenus : roleToMenus.entrySet() )
+		{
+			Set<Menu> copiedRoleMenus = new HashSet<>( getCapacity( roleMenus.getValue().size() ) );
+			copiedRoleMenus.addAll( roleMenus.getValue() );
+			copiedRoleToMenus.put( roleMenus.getKey(), copiedRoleMenus );
+		}
+		return copiedRoleToMenus;
+	}
+
+	/**
+	 * @return Initial capacity of a hash map or set, with default load factor, to hold given number of elements
+	 */
+	private static int getCapacity( int size )
+	{
+		return (int) ( size / 0.75f ) + 1;
+	}
+
+	private static void putMenuURLs( Menu menu, Map<String, Menu> urlToMenus )
+	{
+		urlToMenus.put( menu.getUrl().trim().intern(), menu );
+		if( StringUtils.isQualifiedString( menu.getEncryptedURL() ) )
+		{
+			urlToMenus.put( menu.getEncryptedURL().trim().intern(), menu );
+		}
+	}
+
+	private static boolean hasAnyRole( String fingerprint, Set<String> roleKeys )
+	{
+		if( roleKeys.isEmpty() )
+		{
+			return false;
+		}
+		for( String roleKey : splitFingerprint( fingerprint ) )
+		{
+			if( roleKeys.contains( roleKey ) )
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	static String getRoleKey( String roleName )
+	{
+		return roleName.trim().toLowerCase( Locale.ENGLISH );
+	}
+
+	private PermissionProfile createPermissionProfile( String fingerprint )
+	{
+		Collection<Menu> profileMenus = new TreeSet<>();
+		Collection<Menu> profileGlobalMenus = new TreeSet<>();
+		Map<String, Menu> profileURLToMenuMap = new HashMap<>();
+
+		Set<Menu> visibleMenus = new HashSet<>();
+		for( String roleKey : splitFingerprint( fingerprint ) )
+		{
+			Set<Menu> roleMenus = roleToMenusMap.get( roleKey );
+			if( roleMenus != null )
+			{
+				visibleMenus.addAll( roleMenus );
+			}
+		}
+		// iterate in catalog order so that menus with same index keep the same order for all profiles
+		for( Menu menu : menus )
+		{
+			if( !visibleMenus.contains( menu ) )
+			{
+				continue;
+			}
+			if( menu.isGlobalMenu() )
+			{
+				profileGlobalMenus.add( menu );
+			}
+			else
+			{
+				profileMenus.add( menu );
+			}
+			profileURLToMenuMap.put( menu.getUrl().trim().intern(), menu );
+			if( StringUtils.isQualifiedString( menu.getEncryptedURL() ) )
+			{
+				profileURLToMenuMap.put( menu.getEncryptedURL().trim().intern(), menu );
+			}
+		}
+		LOGGER.debug( "created profile. fingerprint[" + fingerprint + "] menus[" + visibleMenus.size() + "]" );
+		return new PermissionProfile( fingerprint, this, profileMenus, profileGlobalMenus,
+				new URLIndex<>( profileURLToMenuMap ) );
+	}
+
+	private void assertNotFrozen()
+	{
+		if( frozen )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Menu catalog is frozen, it can not be modified. application[" + applicationName + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+	}
+
+	/**
+	 * It returns the fingerprint for a role set. Fingerprint is the sorted, lower case, comma separated list of unique
+	 * role names. So it is same for same roles irrespective of order or case of names. Comma and backslash in role
+	 * names are escaped with a backslash, so a role name containing comma can not be mistaken for two roles.
+	 *
+	 * @param roles Collection of UserRole
+	 * @return Fingerprint for the role set, empty string if there is no role
+	 */
+	public static String getRoleFingerprint( Collection<?> roles )
+	{
+		if( roles == null || roles.isEmpty() )
+		{
+			return "";
+		}
+		TreeSet<String> roleKeys = new TreeSet<>();
+		for( Object role : roles )
+		{
+			String roleName = role == null ? null : ( (UserRole) role ).getName();
+			if( StringUtils.isQualifiedString( roleName ) )
+			{
+				roleKeys.add( roleName.trim().toLowerCase( Locale.ENGLISH ) );
+			}
+		}
+		StringBuilder fingerprint = new StringBuilder();
+		for( String roleKey : roleKeys )
+		{
+			if( fingerprint.length() > 0 )
+			{
+				fingerprint.append( ',' );
+			}
+			for( int i = 0; i < roleKey.length(); i++ )
+			{
+				char ch = roleKey.charAt( i );
+				if( ch == ',' || ch == '\\' )
+				{
+					fingerprint.append( '\\' );
+				}
+				fingerprint.append( ch );
+			}
+		}
+		return fingerprint.toString();
+	}
+
+	/**
+	 * @return Role keys of fingerprint, with escaped commas and backslashes restored
+	 */
+	private static Collection<String> splitFingerprint( String fingerprint )
+	{
+		if( fingerprint.length() == 0 )
+		{
+			return Collections.emptyList();
+		}
+		List<String> roleKeys = new ArrayList<>();
+		StringBuilder roleKey = new StringBuilder();
+		for( int i = 0; i < fingerprint.length(); i++ )
+		{
+			char ch = fingerprint.charAt( i );
+			if( ch == '\\' && i + 1 < fingerprint.length() )
+			{
+				roleKey.append( fingerprint.charAt( ++i ) );
+			}
+			else if( ch == ',' )
+			{
+				roleKeys.add( roleKey.toString() );
+				roleKey.setLength( 0 );
+			}
+			else
+			{
+				roleKey.append( ch );
+			}
+		}
+		roleKeys.add( roleKey.toString() );
+		return roleKeys;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "MenuCatalog@" + hashCode() + ": application[" + applicationName + "] menus[" + menus.size()
+				+ "] profiles[" + profiles.size() + "] frozen[" + frozen + "]";
+	}
+
+}
@@ -0,0 +1,158 @@
+package org.vedantatree.comps.securitymanager.model;
+
+import org.vedantatree.utils.StringUtils;
+import org.vedantatree.utils.Utilities;
+
+
+/**
+ * A change in menus, menu items or role menu mapping of an application, which is applied to a frozen
+ * {@link MenuCatalog} without rebuilding it.
+ *
+ * Menus and menu items in a change are matched with the ones in catalog by their url, so change can be created with
+ * the objects freshly read from security service.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class MenuCatalogChange
+{
+
+	// ====== Change Types
+	public static final byte	MENU_ADDED			= 1;
+	public static final byte	MENU_REMOVED		= 2;
+	public static final byte	MENU_ITEM_ADDED		= 3;
+	public static final byte	MENU_ITEM_REMOVED	= 4;
+	public static final byte	ROLE_MENU_ADDED		= 5;
+	public static final byte	ROLE_MENU_REMOVED	= 6;
+
+	private final byte			type;
+
+	private final Menu			menu;
+
+	/**
+	 * Menu item added or removed, null for other changes
+	 */
+	private final MenuItem		menuItem;
+
+	/**
+	 * Parent of added menu item, null if item is added directly to the menu
+	 */
+	private final MenuItem		parentMenuItem;
+
+	/**
+	 * Role whose menus are changed, null for other changes
+	 */
+	private final String		roleName;
+
+	private MenuCatalogChange( byte type, Menu menu, MenuItem menuItem, MenuItem parentMenuItem, String roleName )
+	{
+		this.type = type;
+		this.menu = menu;
+		this.menuItem = menuItem;
+		this.parentMenuItem = parentMenuItem;
+		this.roleName = roleName;
+	}
+
+	/**
+	 * @param menu New menu with its menu items. It is not visible to any role until a role menu is added for it.
+	 */
+	public static MenuCatalogChange menuAdded( Menu menu )
+	{
+		Utilities.assertNotNullArgument( menu );
+		return new MenuCatalogChange( MENU_ADDED, menu, null, null, null );
+	}
+
+	/**
+	 * @param menu Menu to remove from catalog and from all roles
+	 */
+	public static MenuCatalogChange menuRemoved( Menu menu )
+	{
+		Utilities.assertNotNullArgument( menu );
+		return new MenuCatalogChange( MENU_REMOVED, menu, null, null, null );
+	}
+
+	/**
+	 * @param menu Menu to add the item to
+	 * @param parentMenuItem Parent item to add the item to, null to add it directly to the menu
+	 * @param menuItem New menu item, with its sub menu items
+	 */
+	public static MenuCatalogChange menuItemAdded( Menu menu, MenuItem parentMenuItem, MenuItem menuItem )
+	{
+		Utilities.assertNotNullArgument( menu );
+		Utilities.assertNotNullArgument( menuItem );
+		return new MenuCatalogChange( MENU_ITEM_ADDED, menu, menuItem, parentMenuItem, null );
+	}
+
+	/**
+	 * @param menu Menu to remove the item from
+	 * @param menuItem Menu item to remove, along with its sub menu items
+	 */
+	public static MenuCatalogChange menuItemRemoved( Menu menu, MenuItem menuItem )
+	{
+		Utilities.assertNotNullArgument( menu );
+		Utilities.assertNotNullArgument( menuItem );
+		return new MenuCatalogChange( MENU_ITEM_REMOVED, menu, menuItem, null, null );
+	}
+
+	/**
+	 * @param roleName Role to assign the menu to
+	 * @param menu Menu to assign, it is added to catalog if catalog does not have it
+	 */
+	public static MenuCatalogChange roleMenuAdded( String roleName, Menu menu )
+	{
+		StringUtils.assertQualifiedArgument( roleName );
+		Utilities.assertNotNullArgument( menu );
+		return new MenuCatalogChange( ROLE_MENU_ADDED, menu, null, null, roleName );
+	}
+
+	/**
+	 * @param roleName Role to remove the menu from
+	 * @param menu Menu to remove from role, it stays in catalog
+	 */
+	public static MenuCatalogChange roleMenuRemoved( String roleName, Menu menu )
+	{
+		StringUtils.assertQualifiedArgument( roleName );
+		Utilities.assertNotNullArgument( menu );
+		return new MenuCatalogChange( ROLE_MENU_REMOVED, menu, null, null, roleName );
+	}
+
+	public byte getType()
+	{
+		return type;
+	}
+
+	public Menu getMenu()
+	{
+		return menu;
+	}
+
+	public MenuItem getMenuItem()
+	{
+		return menuItem;
+	}
+
+	public MenuItem getParentMenuItem()
+	{
+		return parentMenuItem;
+	}
+
+	public String getRoleName()
+	{
+		return roleName;
+	}
+
+	/**
+	 * @return true if change modifies the items of an existing menu
+	 */
+	public boolean isMenuItemChange()
+	{
+		return type == MENU_ITEM_ADDED || type == MENU_ITEM_REMOVED;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "MenuCatalogChange@" + hashCode() + ": type[" + type + "] menu[" + menu + "] menuItem[" + menuItem
+				+ "] parentMenuItem[" + parentMenuItem + "] role[" + roleName + "]";
+	}
+
+}
@@ -0,0 +1,530 @@
+package org.vedantatree.comps.securitymanager.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.vedantatree.utils.Utilities;
+import org.vedantatree.utils.exceptions.IErrorCodes;
+import org.vedantatree.utils.exceptions.SystemException;
+
+
+/**
+ * Persistent snapshot of a frozen menu catalog, used to start a node without building the catalog from security
+ * service.
+ *
+ * <p>
+ * Snapshot is a single file having the menus, menu items, role menu mapping and the url indexes of catalog and of every
+ * menu, as these are built in memory. So loading it needs one sequential read, and no url is hashed again. All strings
+ * are kept once in a string table and are referred by number, so the strings of loaded catalog are also shared.
+ *
+ * <p>
+ * File starts with a magic number, format version and the version of catalog given by security service while writing.
+ * Snapshot is used only if this version is same as the current version of security service, and file ends with a CRC32
+ * checksum of all content. Any mismatch or problem in reading makes {@link #read(Path, long)} return null, so that
+ * caller can build the catalog from security service instead.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class MenuCatalogSnapshot
+{
+
+	private static Log			LOGGER			= LogFactory.getLog( MenuCatalogSnapshot.class );
+
+	private static final int	MAGIC			= 0x4D435331;
+
+	/**
+	 * Version of the format. It must be incremented whenever format is changed.
+	 */
+	public static final short	FORMAT_VERSION	= 1;
+
+	private static final int	NULL_REFERENCE	= -1;
+
+	private MenuCatalogSnapshot()
+	{
+	}
+
+	/**
+	 * It writes the snapshot of catalog. File is written to a temporary file first and then moved, so that readers
+	 * never see a partially written snapshot.
+	 *
+	 * @param menuCatalog Frozen catalog
+	 * @param catalogVersion Version of catalog given by security service
+	 * @param file File to write
+	 */
+	public static void write( MenuCatalog menuCatalog, long catalogVersion, Path file )
+	{
+		Utilities.assertNotNullArgument( menuCatalog );
+		Utilities.assertNotNullArgument( file );
+		if( !menuCatalog.isFrozen() )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Only frozen catalog can be written to snapshot. catalog[" + menuCatalog + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+		try
+		{
+			byte[] content = encode( menuCatalog, catalogVersion );
+			CRC32 checksum = new CRC32();
+			checksum.update( content, 0, content.length );
+
+			Path absoluteFile = file.toAbsolutePath();
+			if( absoluteFile.getParent() != null )
+			{
+				Files.createDirectories( absoluteFile.getParent() );
+			}
+			Path temporaryFile = Files.createTempFile( absoluteFile.getParent(), file.getFileName().toString(),
+					".tmp" );
+			try( OutputStream output = Files.newOutputStream( temporaryFile ) )
+			{
+				output.write( content );
+				output.write( ByteBuffer.allocate( 8 ).putLong( checksum.getValue() ).array() );
+			}
+			Files.move( temporaryFile, absoluteFile, StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE );
+			LOGGER.info( "Menu catalog snapshot written. file[" + absoluteFile + "] bytes[" + ( content.length + 8 )
+					+ "] catalogVersion[" + catalogVersion + "]" );
+		}
+		catch( IOException e )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Problem while writing menu catalog snapshot. file[" + file + "]", e );
+			LOGGER.error( se );
+			throw se;
+		}
+	}
+
+	/**
+	 * It reads the catalog from snapshot, if snapshot is of expected version
+	 *
+	 * @param file Snapshot file
+	 * @param expectedCatalogVersion Current version of catalog given by security service
+	 * @return Frozen catalog, or null if file does not exist, is stale, or could not be read
+	 */
+	public static MenuCatalog read( Path file, long expectedCatalogVersion )
+	{
+		Utilities.assertNotNullArgument( file );
+		if( !Files.isRegularFile( file ) )
+		{
+			LOGGER.info( "No menu catalog snapshot found. file[" + file + "]" );
+			return null;
+		}
+		try
+		{
+			byte[] bytes = Files.readAllBytes( file );
+			if( bytes.length < 8 )
+			{
+				throw new IOException( "Snapshot is truncated" );
+			}
+			CRC32 checksum = new CRC32();
+			checksum.update( bytes, 0, bytes.length - 8 );
+			ByteBuffer buffer = ByteBuffer.wrap( bytes );
+			if( buffer.getLong( bytes.length - 8 ) != checksum.getValue() )
+			{
+				throw new IOException( "Checksum does not match, snapshot is corrupt" );
+			}
+			buffer.limit( bytes.length - 8 );
+			if( buffer.getInt() != MAGIC )
+			{
+				throw new IOException( "File is not a menu catalog snapshot" );
+			}
+			short formatVersion = buffer.getShort();
+			if( formatVersion != FORMAT_VERSION )
+			{
+				LOGGER.info( "Menu catalog snapshot has different format, ignoring it. file[" + file + "] format["
+						+ formatVersion + "]" );
+				return null;
+			}
+			long catalogVersion = buffer.getLong();
+			if( catalogVersion != expectedCatalogVersion )
+			{
+				LOGGER.info( "Menu catalog snapshot is stale, ignoring it. file[" + file + "] version["
+						+ catalogVersion + "] expectedVersion[" + expectedCatalogVersion + "]" );
+				return null;
+			}
+			MenuCatalog menuCatalog = decode( buffer );
+			LOGGER.info( "Menu catalog loaded from snapshot. file[" + file + "] catalog[" + menuCatalog + "]" );
+			return menuCatalog;
+		}
+		catch( IOException | RuntimeException e )
+		{
+			LOGGER.warn( "Menu catalog snapshot could not be read, it will be ignored. file[" + file + "]", e );
+			return null;
+		}
+	}
+
+	/**
+	 * @return Content of snapshot without checksum
+	 */
+	private static byte[] encode( MenuCatalog menuCatalog, long catalogVersion ) throws IOException
+	{
+		StringTable strings = new StringTable();
+		ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream( 64 * 1024 );
+		DataOutputStream body = new DataOutputStream( bodyBytes );
+
+		body.writeInt( strings.getReference( menuCatalog.getApplicationName() ) );
+
+		List<Menu> menus = new ArrayList<>( menuCatalog.getMenus() );
+		Map<Menu, Integer> menuNumbers = new IdentityHashMap<>();
+		body.writeInt( menus.size() );
+		for( Menu menu : menus )
+		{
+			menuNumbers.put( menu, menuNumbers.size() );
+			writeMenu( body, menu, strings );
+		}
+
+		Map<String, Set<Menu>> roleToMenusMap = menuCatalog.getRoleToMenusMap();
+		body.writeInt( roleToMenusMap.size() );
+		for( Map.Entry<String, Set<Menu>> roleMenus : roleToMenusMap.entrySet() )
+		{
+			body.writeInt( strings.getReference( roleMenus.getKey() ) );
+			body.writeInt( roleMenus.getValue().size() );
+			for( Menu menu : roleMenus.getValue() )
+			{
+				body.writeInt( menuNumbers.get( menu ) );
+			}
+		}
+		writeURLIndex( body, menuCatalog.getURLIndex(), menuNumbers );
+		body.flush();
+
+		ByteArrayOutputStream contentBytes = new ByteArrayOutputStream( bodyBytes.size() + 64 * 1024 );
+		DataOutputStream content = new DataOutputStream( contentBytes );
+		content.writeInt( MAGIC );
+		content.writeShort( FORMAT_VERSION );
+		content.writeLong( catalogVersion );
+		strings.write( content );
+		bodyBytes.writeTo( content );
+		content.flush();
+		return contentBytes.toByteArray();
+	}
+
+	private static void writeMenu( DataOutputStream output, Menu menu, StringTable strings ) throws IOException
+	{
+		writeId( output, menu.getId() );
+		output.writeInt( menu.getIndex() );
+		output.writeInt( strings.getReference( menu.getDisplayName() ) );
+		output.writeInt( strings.getReference( menu.getUrl() ) );
+		output.writeInt( strings.getReference( menu.getEncryptedURL() ) );
+		output.writeInt( strings.getReference( menu.getModuleName() ) );
+		output.writeInt( strings.getReference( menu.getPageName() ) );
+		output.writeInt( strings.getReference( menu.getShortCutKey() ) );
+		output.writeInt( strings.getReference( menu.getHotKey() ) );
+		writeNames( output, menu.getLanguageVsNamesMap(), strings );
+
+		// items are written in pre order, every item with the number of its parent
+		List<MenuItem> menuItems = new ArrayList<>();
+		List<Integer> parentNumbers = new ArrayList<>();
+		for( MenuItem menuItem : menu.getMenuItems() )
+		{
+			if( menuItem.getParentMenuItem() == null )
+			{
+				collectMenuItems( menuItem, -1, menuItems, parentNumbers );
+			}
+		}
+		Map<MenuItem, Integer> menuItemNumbers = new IdentityHashMap<>();
+		output.writeInt( menuItems.size() );
+		for( int i = 0; i < menuItems.size(); i++ )
+		{
+			MenuItem menuItem = menuItems.get( i );
+			menuItemNumbers.put( menuItem, i );
+			output.writeInt( parentNumbers.get( i ) );
+			writeId( output, menuItem.getId() );
+			output.writeInt( menuItem.getIndex() );
+			output.writeByte( menuItem.getActionType() );
+			output.writeInt( strings.getReference( menuItem.getDisplayName() ) );
+			output.writeInt( strings.getReference( menuItem.getUrl() ) );
+			output.writeInt( strings.getReference( menuItem.getEncryptedURL() ) );
+			output.writeInt( strings.getReference( menuItem.getVisibilityCondition() ) );
+			output.writeInt( strings.getReference( menuItem.getShortCutKey() ) );
+			output.writeInt( strings.getReference( menuItem.getHotKey() ) );
+			writeNames( output, menuItem.getLanguageVsNamesMap(), strings );
+		}
+		writeURLIndex( output, menu.getURLIndex(), menuItemNumbers );
+	}
+
+	private static void collectMenuItems( MenuItem menuItem, int parentNumber, List<MenuItem> menuItems,
+			List<Integer> parentNumbers )
+	{
+		int number = menuItems.size();
+		menuItems.add( menuItem );
+		parentNumbers.add( parentNumber );
+		for( MenuItem subMenuItem : menuItem.getSubMenuItems() )
+		{
+			collectMenuItems( subMenuItem, number, menuItems, parentNumbers );
+		}
+	}
+
+	private static <T> void writeURLIndex( DataOutputStream output, URLIndex<T> urlIndex, Map<T, Integer> numbers )
+			throws IOException
+	{
+		if( urlIndex == null )
+		{
+			urlIndex = URLIndex.empty();
+		}
+		int size = urlIndex.size();
+		output.writeInt( size );
+		char[] pool = urlIndex.getPool();
+		output.writeInt( urlIndex.getOffsets()[size] );
+		for( int i = 0; i < urlIndex.getOffsets()[size]; i++ )
+		{
+			output.writeChar( pool[i] );
+		}
+		for( int i = 0; i <= size; i++ )
+		{
+			output.writeInt( urlIndex.getOffsets()[i] );
+		}
+		for( int i = 0; i < size; i++ )
+		{
+			output.writeInt( urlIndex.getHashes()[i] );
+			Integer number = numbers.get( urlIndex.getValue( i ) );
+			if( number == null )
+			{
+				throw new IOException( "Indexed value is not part of catalog. value[" + urlIndex.getValue( i ) + "]" );
+			}
+			output.writeInt( number );
+		}
+		int[] table = urlIndex.getTable();
+		output.writeInt( table.length );
+		for( int slot : table )
+		{
+			output.writeInt( slot );
+		}
+	}
+
+	private static void writeNames( DataOutputStream output, Map<String, String> names, StringTable strings )
+			throws IOException
+	{
+		output.writeInt( names == null ? NULL_REFERENCE : names.size() );
+		if( names != null )
+		{
+			for( Map.Entry<String, String> name : names.entrySet() )
+			{
+				output.writeInt( strings.getReference( name.getKey() ) );
+				output.writeInt( strings.getReference( name.getValue() ) );
+			}
+		}
+	}
+
+	private static void writeId( DataOutputStream output, Long id ) throws IOException
+	{
+		output.writeBoolean( id != null );
+		output.writeLong( id != null ? id : 0 );
+	}
+
+	private static MenuCatalog decode( ByteBuffer buffer ) throws IOException
+	{
+		String[] strings = readStrings( buffer );
+		MenuCatalog menuCatalog = new MenuCatalog( getString( strings, buffer.getInt() ) );
+
+		Menu[] menus = new Menu[buffer.getInt()];
+		for( int i = 0; i < menus.length; i++ )
+		{
+			menus[i] = readMenu( buffer, strings );
+		}
+
+		int roleCount = buffer.getInt();
+		Map<String, Set<Menu>> roleToMenusMap = new HashMap<>( roleCount * 2 );
+		for( int i = 0; i < roleCount; i++ )
+		{
+			String roleKey = getString( strings, buffer.getInt() );
+			int roleMenuCount = buffer.getInt();
+			Set<Menu> roleMenus = new HashSet<>( roleMenuCount * 2 );
+			for( int j = 0; j < roleMenuCount; j++ )
+			{
+				roleMenus.add( menus[buffer.getInt()] );
+			}
+			roleToMenusMap.put( roleKey, roleMenus );
+		}
+		URLIndex<Menu> urlIndex = readURLIndex( buffer, menus );
+		if( buffer.hasRemaining() )
+		{
+			throw new IOException( "Unexpected data at end of snapshot" );
+		}
+
+		List<Menu> menuList = new ArrayList<>( menus.length );
+		for( Menu menu : menus )
+		{
+			menuList.add( menu );
+		}
+		menuCatalog.loadFrozen( menuList, roleToMenusMap, urlIndex );
+		return menuCatalog;
+	}
+
+	private static Menu readMenu( ByteBuffer buffer, String[] strings ) throws IOException
+	{
+		Menu menu = new Menu();
+		menu.setId( readId( buffer ) );
+		menu.setIndex( buffer.getInt() );
+		menu.setDisplayName( getString( strings, buffer.getInt() ) );
+		menu.setUrl( getString( strings, buffer.getInt() ) );
+		menu.setEncryptedURL( getString( strings, buffer.getInt() ) );
+		menu.setModuleName( getString( strings, buffer.getInt() ) );
+		menu.setPageName( getString( strings, buffer.getInt() ) );
+		menu.setShortCutKey( getString( strings, buffer.getInt() ) );
+		menu.setHotKey( getString( strings, buffer.getInt() ) );
+		menu.setLanguageVsNamesMap( readNames( buffer, strings ) );
+
+		MenuItem[] menuItems = new MenuItem[buffer.getInt()];
+		for( int i = 0; i < menuItems.length; i++ )
+		{
+			int parentNumber = buffer.getInt();
+			MenuItem menuItem = new MenuItem();
+			menuItem.setId( readId( buffer ) );
+			menuItem.setIndex( buffer.getInt() );
+			menuItem.setActionType( buffer.get() );
+			menuItem.setDisplayName( getString( strings, buffer.getInt() ) );
+			menuItem.setUrl( getString( strings, buffer.getInt() ) );
+			menuItem.setEncryptedURL( getString( strings, buffer.getInt() ) );
+			menuItem.setVisibilityCondition( getString( strings, buffer.getInt() ) );
+			menuItem.setShortCutKey( getString( strings, buffer.getInt() ) );
+			menuItem.setHotKey( getString( strings, buffer.getInt() ) );
+			menuItem.setLanguageVsNamesMap( readNames( buffer, strings ) );
+			if( parentNumber < 0 )
+			{
+				menu.addLoadedMenuItem( menuItem );
+			}
+			else
+			{
+				menuItems[parentNumber].addLoadedSubMenuItem( menuItem );
+			}
+			menuItems[i] = menuItem;
+		}
+		menu.setURLIndex( readURLIndex( buffer, menuItems ) );
+		return menu;
+	}
+
+	private static <T> URLIndex<T> readURLIndex( ByteBuffer buffer, T[] values ) throws IOException
+	{
+		int size = buffer.getInt();
+		char[] pool = new char[buffer.getInt()];
+		buffer.asCharBuffer().get( pool );
+		buffer.position( buffer.position() + pool.length * 2 );
+		int[] offsets = new int[size + 1];
+		for( int i = 0; i <= size; i++ )
+		{
+			offsets[i] = buffer.getInt();
+		}
+		int[] hashes = new int[size];
+		Object[] indexValues = new Object[size];
+		for( int i = 0; i < size; i++ )
+		{
+			hashes[i] = buffer.getInt();
+			indexValues[i] = values[buffer.getInt()];
+		}
+		int[] table = new int[buffer.getInt()];
+		if( Integer.bitCount( table.length ) != 1 || table.length <= size )
+		{
+			throw new IOException( "Invalid url index table. size[" + size + "] tableSize[" + table.length + "]" );
+		}
+		buffer.asIntBuffer().get( table );
+		buffer.position( buffer.position() + table.length * 4 );
+		return new URLIndex<>( pool, offsets, hashes, indexValues, table, size );
+	}
+
+	private static Map<String, String> readNames( ByteBuffer buffer, String[] strings ) throws IOException
+	{
+		int size = buffer.getInt();
+		if( size < 0 )
+		{
+			return null;
+		}
+		Map<String, String> names = new HashMap<>( size * 2 );
+		for( int i = 0; i < size; i++ )
+		{
+			names.put( getString( strings, buffer.getInt() ), getString( strings, buffer.getInt() ) );
+		}
+		return names;
+	}
+
+	private static Long readId( ByteBuffer buffer )
+	{
+		boolean present = buffer.get() != 0;
+		long id = buffer.getLong();
+		return present ? id : null;
+	}
+
+	private static String[] readStrings( ByteBuffer buffer ) throws IOException
+	{
+		String[] strings = new String[buffer.getInt()];
+		for( int i = 0; i < strings.length; i++ )
+		{
+			int length = buffer.getInt();
+			if( length < 0 || length > buffer.remaining() )
+			{
+				throw new BufferUnderflowException();
+			}
+			strings[i] = new String( buffer.array(), buffer.arrayOffset() + buffer.position(), length,
+					StandardCharsets.UTF_8 );
+			buffer.position( buffer.position() + length );
+		}
+		return strings;
+	}
+
+	private static String getString( String[] strings, int reference ) throws IOException
+	{
+		if( reference == NULL_REFERENCE )
+		{
+			return null;
+		}
+		if( reference < 0 || reference >= strings.length )
+		{
+			throw new IOException( "Invalid string reference[" + reference + "]" );
+		}
+		return strings[reference];
+	}
+
+	/**
+	 * Table of unique strings, assigns a number to every string in the order these are added
+	 */
+	private static final class StringTable
+	{
+
+		private final Map<String, Integer>	references	= new LinkedHashMap<>();
+
+		int getReference( String string )
+		{
+			if( string == null )
+			{
+				return NULL_REFERENCE;
+			}
+			Integer reference = references.get( string );
+			if( reference == null )
+			{
+				reference = references.size();
+				references.put( string, reference );
+			}
+			return reference;
+		}
+
+		void write( DataOutputStream output ) throws IOException
+		{
+			output.writeInt( references.size() );
+			for( String string : references.keySet() )
+			{
+				byte[] bytes = string.getBytes( StandardCharsets.UTF_8 );
+				output.writeInt( bytes.length );
+				output.write( bytes );
+			}
+		}
+	}
+
+}
@@ -1,8 +1,11 @@
 package org.vedantatree.comps.securitymanager.model;
 
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
-import java.util.TreeSet;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -42,6 +45,16 @@ public class MenuItem implements Comparable<MenuItem>, Cloneable
 	 */
 	private Map<String, String>		languageVsNamesMap;
 
+	/**
+	 * Table of localized names of catalog, once catalog is frozen. languageVsNamesMap is released then.
+	 */
+	private LocalizedNameTable		localizedNameTable;
+
+	/**
+	 * Entry of this menu item in localizedNameTable
+	 */
+	private int						localizedNameEntry;
+
 	/**
 	 * Short Cut key for the Menu Item
 	 */
@@ -74,9 +87,21 @@ public class MenuItem implements Comparable<MenuItem>, Cloneable
 	private String					visibilityCondition;
 
 	/**
-	 * It consists the sub menu items
+	 * It consists the sub menu items. It is an immutable list ordered by index, which is replaced instead of modified.
+	 * It is null while subMenuItemsBuilder has sub menu items which are not published yet.
+	 */
+	private volatile List<MenuItem>	subMenuItems;
+
+	/**
+	 * Collects the sub menu items being added, in any order. It is guarded by the menu item and is published as
+	 * subMenuItems on next read, like the menu items of {@link Menu}.
 	 */
-	private Collection<MenuItem>	subMenuItems;
+	private OrderedMenuItems.Builder	subMenuItemsBuilder;
+
+	/**
+	 * True once menu item is frozen along with its menu or on its own, then it is shared and must not be changed
+	 */
+	private volatile boolean			frozen;
 
 	private MenuItem				parentMenuItem;
 
@@ -84,12 +109,20 @@ public class MenuItem implements Comparable<MenuItem>, Cloneable
 
 	public MenuItem()
 	{
-		subMenuItems = new TreeSet<>();
+		subMenuItems = Collections.emptyList();
+	}
+
+	/**
+	 * Constructor for the read only views of a {@link MappedMenuCatalog}. State of view is kept in mapped file, so no
+	 * collection is created here and view overrides all the getters.
+	 */
+	MenuItem( MappedMenuCatalog menuCatalog )
+	{
 	}
 
 	public MenuItem( int index, String displayName, String url, byte actionType )
 	{
-		subMenuItems = new TreeSet<>();
+		subMenuItems = Collections.emptyList();
 		this.index = index;
 		this.displayName = displayName;
 		this.url = url;
@@ -121,9 +154,13 @@ public class MenuItem implements Comparable<MenuItem>, Cloneable
 		return shortCutKey;
 	}
 
-	public Collection<MenuItem> getSubMenuItems()
+	/**
+	 * @return Immutable list of sub menu items, ordered by index
+	 */
+	public List<MenuItem> getSubMenuItems()
 	{
-		return subMenuItems;
+		List<MenuItem> items = subMenuItems;
+		return items != null ? items : publishSubMenuItems();
 	}
 
 	public String getUrl()
@@ -156,9 +193,10 @@ public class MenuItem implements Comparable<MenuItem>, Cloneable
 		this.shortCutKey = shortCutKey;
 	}
 
-	private void setSubMenuItems( Collection<MenuItem> subMenuItems )
+	private synchronized void setSubMenuItems( Collection<MenuItem> subMenuItems )
 	{
-		this.subMenuItems = subMenuItems;
+		this.subMenuItems = OrderedMenuItems.of( subMenuItems );
+		subMenuItemsBuilder = null;
 	}
 
 	public void setUrl( String url )
@@ -186,14 +224,46 @@ public class MenuItem implements Comparable<MenuItem>, Cloneable
 		this.visibilityCondition = visibilityCondition;
 	}
 
+	/**
+	 * @return Map of language and name. Once catalog is frozen, it is created from the localized name table of catalog
+	 *         on every call.
+	 */
 	public Map<String, String> getLanguageVsNamesMap()
 	{
+		LocalizedNameTable table = localizedNameTable;
+		if( table != null )
+		{
+			return table.getNames( localizedNameEntry );
+		}
 		return languageVsNamesMap;
 	}
 
 	public void setLanguageVsNamesMap( Map<String, String> languageVsNamesMap )
 	{
 		this.languageVsNamesMap = languageVsNamesMap;
+		this.localizedNameTable = null;
+	}
+
+	/**
+	 * @param locale Locale to get the name for
+	 * @return Localized name for the locale, or for the language of locale, display name if there is none
+	 */
+	public String getDisplayName( Locale locale )
+	{
+		LocalizedNameTable table = localizedNameTable;
+		String name = table != null ? table.getName( localizedNameEntry, locale )
+				: LocalizedNameTable.getName( getLanguageVsNamesMap(), locale );
+		return name != null ? name : getDisplayName();
+	}
+
+	/**
+	 * It makes this menu item use the localized name table of catalog, and releases its own map
+	 */
+	void bindLocalizedNames( LocalizedNameTable table, int entry )
+	{
+		localizedNameEntry = entry;
+		localizedNameTable = table;
+		languageVsNamesMap = null;
 	}
 
 	public String getEncryptedURL()
@@ -248,6 +318,12 @@ public class MenuItem implements Comparable<MenuItem>, Cloneable
 		this.menu = menu;
 	}
 
+	/**
+	 * It adds a sub menu item. Items are sorted by index when the sub menu items are read next time.
+	 * 
+	 * @param subMenuItem Menu item to add
+	 * @return false if menu item is already added to this menu item, true otherwise
+	 */
 	public boolean addSubMenuItem( MenuItem subMenuItem )
 	{
 		Utilities.assertNotNullArgument( subMenuItem );
@@ -258,19 +334,166 @@ public class MenuItem implements Comparable<MenuItem>, Cloneable
 			LOGGER.error( se );
 			throw se;
 		}
-		boolean added = getSubMenuItems().add( subMenuItem );
-		if( added )
+		assertNotFrozen();
+		subMenuItem.assertNotFrozen();
+		getMenu().assertNotFrozen( subMenuItem );
+		if( subMenuItem.getParentMenuItem() == this )
 		{
-			subMenuItem.setParentMenuItem( this );
-			getMenu().setParentOf( subMenuItem );
+			return false;
 		}
-		return added;
+		addToSubMenuItems( subMenuItem );
+		subMenuItem.setParentMenuItem( this );
+		getMenu().setParentOf( subMenuItem );
+		return true;
 	}
 
+	/**
+	 * It adds a sub menu item while loading a frozen menu, like from a catalog snapshot
+	 */
+	void addLoadedSubMenuItem( MenuItem subMenuItem )
+	{
+		addToSubMenuItems( subMenuItem );
+		subMenuItem.setParentMenuItem( this );
+		subMenuItem.setMenu( menu );
+	}
+
+	/**
+	 * It adds the sub menu item to the builder, which is created again from published list if it was released
+	 */
+	private synchronized void addToSubMenuItems( MenuItem subMenuItem )
+	{
+		if( subMenuItemsBuilder == null )
+		{
+			subMenuItemsBuilder = new OrderedMenuItems.Builder( subMenuItems.size() + 1 ).addAll( subMenuItems );
+		}
+		subMenuItemsBuilder.add( subMenuItem );
+		subMenuItems = null;
+	}
+
+	private synchronized List<MenuItem> publishSubMenuItems()
+	{
+		if( subMenuItems == null )
+		{
+			subMenuItems = subMenuItemsBuilder.build();
+			subMenuItemsBuilder = null;
+		}
+		return subMenuItems;
+	}
+
+	/**
+	 * It adds a sub menu item after menu is frozen, by replacing the collection of sub menu items
+	 */
+	void attachSubMenuItem( MenuItem subMenuItem )
+	{
+		subMenuItem.setParentMenuItem( this );
+		subMenuItems = OrderedMenuItems.with( getSubMenuItems(), subMenuItem );
+	}
+
+	/**
+	 * It removes a sub menu item after menu is frozen, by replacing the collection of sub menu items
+	 */
+	void detachSubMenuItem( MenuItem subMenuItem )
+	{
+		subMenuItems = OrderedMenuItems.without( getSubMenuItems(), subMenuItem );
+	}
+
+	/**
+	 * It freezes the menu item with its sub menu items in hierarchy, like these are frozen along with their menu. After
+	 * this, no sub menu item can be added to it and it can not be added to any menu, so it can be shared as read only.
+	 * Clone gives a copy which is not frozen.
+	 */
+	public void freeze()
+	{
+		freezeSubMenuItems();
+	}
+
+	/**
+	 * @return true if menu item is frozen, then it is shared and must be cloned to change it
+	 */
+	public boolean isFrozen()
+	{
+		return frozen;
+	}
+
+	/**
+	 * @throws SystemException If menu item is frozen, as it is shared then
+	 */
+	void assertNotFrozen()
+	{
+		if( isFrozen() )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Menu item is frozen, its clone must be used to change it. menuItem[" + this + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+	}
+
+	/**
+	 * It publishes the lists of sub menu items in hierarchy for the last time and marks these frozen, when menu is
+	 * frozen
+	 */
+	void freezeSubMenuItems()
+	{
+		for( MenuItem subMenuItem : getSubMenuItems() )
+		{
+			subMenuItem.freezeSubMenuItems();
+		}
+		frozen = true;
+	}
+
+	/**
+	 * It creates a deep copy of menu item, with copies of all its sub menu items in hierarchy. Parent and menu of copy
+	 * are same as of this item, whereas sub menu items of copy refer to their copied parents.
+	 */
 	@Override
 	public Object clone() throws CloneNotSupportedException
 	{
-		return super.clone();
+		return copyHierarchy( parentMenuItem, menu, null, null );
+	}
+
+	/**
+	 * It copies this menu item and its sub menu items in one pass
+	 * 
+	 * @param copiedParentMenuItem Parent to set in copy
+	 * @param copiedMenu Menu to set in copy and in copies of sub menu items
+	 * @param copiedMenuItems Map to put the original and copied menu items in, null if not required
+	 * @param urlToMenuItemMap Map to put the urls of copied menu items in, null if not required
+	 * @return Copy of this menu item
+	 */
+	MenuItem copyHierarchy( MenuItem copiedParentMenuItem, Menu copiedMenu, Map<MenuItem, MenuItem> copiedMenuItems,
+			Map<String, MenuItem> urlToMenuItemMap ) throws CloneNotSupportedException
+	{
+		MenuItem copiedMenuItem = (MenuItem) super.clone();
+		copiedMenuItem.parentMenuItem = copiedParentMenuItem;
+		copiedMenuItem.menu = copiedMenu;
+		// copy has its own names, as it is not part of the catalog
+		Map<String, String> names = getLanguageVsNamesMap();
+		copiedMenuItem.languageVsNamesMap = names != null ? new HashMap<>( names ) : null;
+		copiedMenuItem.localizedNameTable = null;
+		if( copiedMenuItems != null )
+		{
+			copiedMenuItems.put( this, copiedMenuItem );
+		}
+		if( urlToMenuItemMap != null )
+		{
+			urlToMenuItemMap.put( getUrl().trim(), copiedMenuItem );
+			if( StringUtils.isQualifiedString( getEncryptedURL() ) )
+			{
+				urlToMenuItemMap.put( getEncryptedURL().trim(), copiedMenuItem );
+			}
+		}
+		List<MenuItem> sourceSubMenuItems = getSubMenuItems();
+		OrderedMenuItems.Builder copiedSubMenuItems = new OrderedMenuItems.Builder( sourceSubMenuItems.size() );
+		for( MenuItem subMenuItem : sourceSubMenuItems )
+		{
+			copiedSubMenuItems.add( subMenuItem.copyHierarchy( copiedMenuItem, copiedMenu, copiedMenuItems,
+					urlToMenuItemMap ) );
+		}
+		copiedMenuItem.subMenuItems = copiedSubMenuItems.build();
+		copiedMenuItem.subMenuItemsBuilder = null;
+		copiedMenuItem.frozen = false;
+		return copiedMenuItem;
 	}
 
 	@Override
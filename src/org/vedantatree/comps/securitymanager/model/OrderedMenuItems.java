@@ -0,0 +1,105 @@
+package org.vedantatree.comps.securitymanager.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+
+/**
+ * Immutable lists of menu items ordered by index, used for the children of menus and menu items.
+ *
+ * <p>
+ * Lists are backed by an array, so these can be iterated and accessed by position without any tree node. Items are
+ * collected in a builder while menus are built and are sorted once while building the list. Items having same index
+ * keep the order in which these were added.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+final class OrderedMenuItems
+{
+
+	private static final Comparator<MenuItem>	INDEX_ORDER	= Comparator.comparingInt( MenuItem::getIndex );
+
+	private OrderedMenuItems()
+	{
+	}
+
+	/**
+	 * @param menuItems Menu items in any order
+	 * @return Immutable list of menu items ordered by index
+	 */
+	static List<MenuItem> of( Collection<MenuItem> menuItems )
+	{
+		return new Builder( menuItems.size() ).addAll( menuItems ).build();
+	}
+
+	/**
+	 * @return Immutable list of given menu items and the new menu item, ordered by index
+	 */
+	static List<MenuItem> with( Collection<MenuItem> menuItems, MenuItem menuItemToAdd )
+	{
+		return new Builder( menuItems.size() + 1 ).addAll( menuItems ).add( menuItemToAdd ).build();
+	}
+
+	/**
+	 * @return Immutable list of given menu items without the specified item. Items are matched by identity, as menu
+	 *         items having same properties can exist at different places in hierarchy.
+	 */
+	static List<MenuItem> without( Collection<MenuItem> menuItems, MenuItem menuItemToRemove )
+	{
+		Builder builder = new Builder( menuItems.size() );
+		for( MenuItem menuItem : menuItems )
+		{
+			if( menuItem != menuItemToRemove )
+			{
+				builder.add( menuItem );
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Collects the menu items in any order and sorts these once while building the list
+	 */
+	static final class Builder
+	{
+
+		private final ArrayList<MenuItem>	menuItems;
+
+		Builder( int expectedSize )
+		{
+			menuItems = new ArrayList<>( expectedSize );
+		}
+
+		Builder add( MenuItem menuItem )
+		{
+			menuItems.add( menuItem );
+			return this;
+		}
+
+		Builder addAll( Collection<MenuItem> menuItemsToAdd )
+		{
+			menuItems.addAll( menuItemsToAdd );
+			return this;
+		}
+
+		/**
+		 * @return Immutable list of collected menu items, ordered by index
+		 */
+		List<MenuItem> build()
+		{
+			if( menuItems.isEmpty() )
+			{
+				return Collections.emptyList();
+			}
+			MenuItem[] orderedMenuItems = menuItems.toArray( new MenuItem[menuItems.size()] );
+			// stable sort, so items with same index stay in the order of adding
+			Arrays.sort( orderedMenuItems, INDEX_ORDER );
+			return Collections.unmodifiableList( Arrays.asList( orderedMenuItems ) );
+		}
+	}
+
+}
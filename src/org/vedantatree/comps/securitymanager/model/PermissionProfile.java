@@ -0,0 +1,141 @@
+package org.vedantatree.comps.securitymanager.model;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.vedantatree.utils.Utilities;
+
+
+/**
+ * Object of this class represents the menus visible for a particular combination of roles.
+ *
+ * <p>
+ * Profiles are created and interned by {@link MenuCatalog}, so every user having the same effective roles shares the
+ * same profile object and hence the same menu graph. Users only keep a reference to the profile, which means session
+ * memory grows with the number of distinct role combinations and not with the number of users.
+ *
+ * <p>
+ * Profile and the menus referred by it are read only. Nobody should modify the collections or menus returned from here.
+ * When the menus of its roles change, catalog creates a new profile and marks this one as replaced.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class PermissionProfile
+{
+
+	/**
+	 * Fingerprint of the role set, it is the identity of the profile within its catalog
+	 */
+	private final String			fingerprint;
+
+	/**
+	 * Catalog which has created this profile
+	 */
+	private final MenuCatalog		menuCatalog;
+
+	/**
+	 * Top navigation menus visible for the role set
+	 */
+	private final Collection<Menu>	menus;
+
+	/**
+	 * Global menus visible for the role set
+	 */
+	private final Collection<Menu>	globalMenus;
+
+	/**
+	 * Mapping of menu url (plain as well as encrypted) and menu, for menus visible for the role set
+	 */
+	private final URLIndex<Menu>	urlIndex;
+
+	/**
+	 * Profile which replaces this one after the change of catalog, null if this profile is current
+	 */
+	private volatile PermissionProfile	replacement;
+
+	PermissionProfile( String fingerprint, MenuCatalog menuCatalog, Collection<Menu> menus,
+			Collection<Menu> globalMenus, URLIndex<Menu> urlIndex )
+	{
+		this.fingerprint = fingerprint;
+		this.menuCatalog = menuCatalog;
+		this.menus = Collections.unmodifiableCollection( menus );
+		this.globalMenus = Collections.unmodifiableCollection( globalMenus );
+		this.urlIndex = urlIndex;
+	}
+
+	public String getFingerprint()
+	{
+		return fingerprint;
+	}
+
+	public MenuCatalog getMenuCatalog()
+	{
+		return menuCatalog;
+	}
+
+	public Collection<Menu> getTopNavigationMenus()
+	{
+		return menus;
+	}
+
+	public Collection<Menu> getGlobalMenus()
+	{
+		return globalMenus;
+	}
+
+	/**
+	 * @param menuURL url or encrypted url of the menu
+	 * @return Menu for the given url if it is visible for this profile, null otherwise
+	 */
+	public Menu getMenuForURL( String menuURL )
+	{
+		Utilities.assertNotNullArgument( menuURL );
+		return urlIndex.get( menuURL );
+	}
+
+	/**
+	 * @param sequence Sequence containing the url or encrypted url of menu
+	 * @param start Start offset of url, inclusive
+	 * @param end End offset of url, exclusive
+	 * @return Menu for the given url if it is visible for this profile, null otherwise
+	 */
+	public Menu getMenuForURL( CharSequence sequence, int start, int end )
+	{
+		Utilities.assertNotNullArgument( sequence );
+		return urlIndex.get( sequence, start, end );
+	}
+
+	/**
+	 * @return Profile which replaces this one after the change of catalog, null if this profile is current
+	 */
+	public PermissionProfile getReplacement()
+	{
+		return replacement;
+	}
+
+	/**
+	 * @return Latest profile for the role set of this profile, this profile itself if it is not replaced
+	 */
+	public PermissionProfile getLatest()
+	{
+		PermissionProfile latest = this;
+		while( latest.replacement != null )
+		{
+			latest = latest.replacement;
+		}
+		return latest;
+	}
+
+	void replaceWith( PermissionProfile newProfile )
+	{
+		this.replacement = newProfile;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "PermissionProfile@" + hashCode() + ": fingerprint[" + fingerprint + "] menus[" + menus.size()
+				+ "] globalMenus[" + globalMenus.size() + "]";
+	}
+
+}
@@ -0,0 +1,235 @@
+package org.vedantatree.comps.securitymanager.model;
+
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.vedantatree.utils.StringUtils;
+import org.vedantatree.utils.exceptions.IErrorCodes;
+import org.vedantatree.utils.exceptions.SystemException;
+
+
+/**
+ * Registry which assigns dense integer ids to the names of roles and rights. These ids are used as bit positions in
+ * {@link RoleRightSet}, so that role and right checks for a user are simple bit tests.
+ *
+ * Role names are case insensitive, like these are compared everywhere else. Right names are case sensitive, as
+ * {@link UserRight#equals(Object)} is. Ids are never reused or removed, and new names can be registered at any time,
+ * like for a role assigned to a user after the catalog is loaded. Registry is thread safe.
+ *
+ * Every menu catalog has its own registry, so callers like page tags can resolve the ids of the roles and rights they
+ * check once from the registry of catalog and then test the bits for every user bound to it. Users which are not bound
+ * to any catalog get a new registry for every compiled snapshot having roles or rights, so that ids registered for
+ * such users are released along with the user, rather than being kept in a registry shared by the whole process. The
+ * snapshots without any role or right share {@link #EMPTY}.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class RoleRightRegistry
+{
+
+	private static Log						LOGGER		= LogFactory.getLog( RoleRightRegistry.class );
+
+	/**
+	 * Registry without any role or right, shared by the users which are not bound to any catalog and have no roles or
+	 * rights. Nothing can be registered in it.
+	 */
+	public static final RoleRightRegistry	EMPTY		= new RoleRightRegistry( false );
+
+	private final NameIds					roleIds		= new NameIds( true );
+	private final NameIds					rightIds	= new NameIds( false );
+
+	private final boolean					modifiable;
+
+	/**
+	 * Set without any role or right, returned for every user having none of these
+	 */
+	private final RoleRightSet				emptySet	= new RoleRightSet( this, RoleRightSet.EMPTY_BITS,
+			RoleRightSet.EMPTY_BITS );
+
+	public RoleRightRegistry()
+	{
+		this( true );
+	}
+
+	private RoleRightRegistry( boolean modifiable )
+	{
+		this.modifiable = modifiable;
+	}
+
+	/**
+	 * @param roleName Name of the role
+	 * @return Id of the role, it is assigned if role is not registered yet
+	 */
+	public int registerRole( String roleName )
+	{
+		StringUtils.assertQualifiedArgument( roleName );
+		assertModifiable( roleName );
+		return roleIds.register( roleName );
+	}
+
+	/**
+	 * @param roleName Name of the role, case insensitive
+	 * @return Id of the role, -1 if role is not registered
+	 */
+	public int getRoleId( String roleName )
+	{
+		return roleIds.getId( roleName );
+	}
+
+	/**
+	 * @param rightName Name of the right
+	 * @return Id of the right, it is assigned if right is not registered yet
+	 */
+	public int registerRight( String rightName )
+	{
+		StringUtils.assertQualifiedArgument( rightName );
+		assertModifiable( rightName );
+		return rightIds.register( rightName );
+	}
+
+	/**
+	 * @param rightName Name of the right
+	 * @return Id of the right, -1 if right is not registered
+	 */
+	public int getRightId( String rightName )
+	{
+		return rightIds.getId( rightName );
+	}
+
+	public int getRoleCount()
+	{
+		return roleIds.size();
+	}
+
+	public int getRightCount()
+	{
+		return rightIds.size();
+	}
+
+	/**
+	 * It creates the set of roles and rights of a user, registering all of these if not registered yet.
+	 *
+	 * @param roles Collection of UserRole, may be null
+	 * @param rights Rights of user, may be null. Values are either UserRight, or keys are the names of rights.
+	 * @return Set of roles and rights
+	 */
+	public RoleRightSet createRoleRightSet( Collection<?> roles, Map<?, ?> rights )
+	{
+		long[] roleBits = RoleRightSet.EMPTY_BITS;
+		if( roles != null )
+		{
+			for( Object roleObject : roles )
+			{
+				UserRole role = (UserRole) roleObject;
+				if( role != null && StringUtils.isQualifiedString( role.getName() ) )
+				{
+					roleBits = RoleRightSet.setBit( roleBits, registerRole( role.getName() ) );
+				}
+			}
+		}
+		long[] rightBits = RoleRightSet.EMPTY_BITS;
+		if( rights != null )
+		{
+			for( Map.Entry<?, ?> rightEntry : rights.entrySet() )
+			{
+				String rightName = getRightName( rightEntry );
+				if( StringUtils.isQualifiedString( rightName ) )
+				{
+					rightBits = RoleRightSet.setBit( rightBits, registerRight( rightName ) );
+				}
+			}
+		}
+		if( roleBits == RoleRightSet.EMPTY_BITS && rightBits == RoleRightSet.EMPTY_BITS )
+		{
+			return emptySet;
+		}
+		return new RoleRightSet( this, roleBits, rightBits );
+	}
+
+	private void assertModifiable( String name )
+	{
+		if( !modifiable )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Nothing can be registered in the empty registry. name[" + name + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+	}
+
+	private static String getRightName( Map.Entry<?, ?> rightEntry )
+	{
+		if( rightEntry.getValue() instanceof UserRight )
+		{
+			return ( (UserRight) rightEntry.getValue() ).getRight();
+		}
+		return rightEntry.getKey() instanceof String ? (String) rightEntry.getKey() : null;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "RoleRightRegistry@" + hashCode() + ": roles[" + roleIds.size() + "] rights[" + rightIds.size() + "]";
+	}
+
+	/**
+	 * Dense ids for a kind of names
+	 */
+	private static final class NameIds
+	{
+
+		/**
+		 * Ids keyed by name. For case insensitive names, it contains the lower case name and also every spelling
+		 * registered, so that lookup with registered spelling does not need to convert the case.
+		 */
+		private final Map<String, Integer>	ids		= new ConcurrentHashMap<>();
+		private final AtomicInteger			nextId	= new AtomicInteger();
+		private final boolean				ignoreCase;
+
+		NameIds( boolean ignoreCase )
+		{
+			this.ignoreCase = ignoreCase;
+		}
+
+		int register( String name )
+		{
+			Integer id = ids.get( name );
+			if( id != null )
+			{
+				return id;
+			}
+			String key = ignoreCase ? name.toLowerCase( Locale.ENGLISH ) : name;
+			id = ids.computeIfAbsent( key, newKey -> nextId.getAndIncrement() );
+			if( ignoreCase )
+			{
+				ids.putIfAbsent( name, id );
+			}
+			return id;
+		}
+
+		int getId( String name )
+		{
+			if( name == null )
+			{
+				return -1;
+			}
+			Integer id = ids.get( name );
+			if( id == null && ignoreCase )
+			{
+				id = ids.get( name.toLowerCase( Locale.ENGLISH ) );
+			}
+			return id == null ? -1 : id;
+		}
+
+		int size()
+		{
+			return nextId.get();
+		}
+	}
+
+}
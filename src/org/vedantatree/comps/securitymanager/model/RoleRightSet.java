@@ -0,0 +1,115 @@
+package org.vedantatree.comps.securitymanager.model;
+
+import java.util.Arrays;
+
+
+/**
+ * Immutable set of roles and rights of a user for a domain. Roles and rights are stored as bits, at the positions of
+ * their ids in {@link RoleRightRegistry}, so every check is a bit test.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class RoleRightSet
+{
+
+	static final long[]				EMPTY_BITS	= new long[0];
+
+	private final RoleRightRegistry	registry;
+	private final long[]			roleBits;
+	private final long[]			rightBits;
+
+	RoleRightSet( RoleRightRegistry registry, long[] roleBits, long[] rightBits )
+	{
+		this.registry = registry;
+		this.roleBits = roleBits;
+		this.rightBits = rightBits;
+	}
+
+	/**
+	 * @return Registry whose ids are used by this set
+	 */
+	public RoleRightRegistry getRegistry()
+	{
+		return registry;
+	}
+
+	/**
+	 * @param roleName Name of the role, case insensitive
+	 * @return true if set contains the role
+	 */
+	public boolean hasRole( String roleName )
+	{
+		return hasRole( registry.getRoleId( roleName ) );
+	}
+
+	/**
+	 * @param roleId Id of the role in registry
+	 * @return true if set contains the role
+	 */
+	public boolean hasRole( int roleId )
+	{
+		return isSet( roleBits, roleId );
+	}
+
+	/**
+	 * @param rightName Name of the right
+	 * @return true if set contains the right
+	 */
+	public boolean hasRight( String rightName )
+	{
+		return hasRight( registry.getRightId( rightName ) );
+	}
+
+	/**
+	 * @param rightId Id of the right in registry
+	 * @return true if set contains the right
+	 */
+	public boolean hasRight( int rightId )
+	{
+		return isSet( rightBits, rightId );
+	}
+
+	public int getRoleCount()
+	{
+		return countBits( roleBits );
+	}
+
+	public int getRightCount()
+	{
+		return countBits( rightBits );
+	}
+
+	private static boolean isSet( long[] bits, int id )
+	{
+		int word = id >>> 6;
+		return id >= 0 && word < bits.length && ( bits[word] & ( 1L << id ) ) != 0;
+	}
+
+	static long[] setBit( long[] bits, int id )
+	{
+		int word = id >>> 6;
+		if( word >= bits.length )
+		{
+			bits = Arrays.copyOf( bits, word + 1 );
+		}
+		bits[word] |= 1L << id;
+		return bits;
+	}
+
+	private static int countBits( long[] bits )
+	{
+		int count = 0;
+		for( long word : bits )
+		{
+			count += Long.bitCount( word );
+		}
+		return count;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "RoleRightSet@" + hashCode() + ": roles[" + getRoleCount() + "] rights[" + getRightCount() + "]";
+	}
+
+}
@@ -0,0 +1,272 @@
+package org.vedantatree.comps.securitymanager.model;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.vedantatree.utils.Utilities;
+
+
+/**
+ * Read only index of urls, used to search menus and menu items for a url.
+ *
+ * <p>
+ * It is built once from the url map, once the menus are loaded, and is not modified afterwards. All urls are kept in a
+ * single character pool and entries are addressed by integer offsets, so there is no String or map entry object per
+ * url. Search is done with open addressing over an int table, comparing the characters of pool with the given
+ * sequence. Given sequence is searched without trimming, rather leading and trailing white spaces are skipped by
+ * offsets, so search does not create any garbage.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public final class URLIndex<T>
+{
+
+	private static final URLIndex<?>	EMPTY	= new URLIndex<>( Collections.emptyMap() );
+
+	/**
+	 * Characters of all urls, one after another
+	 */
+	private final char[]				pool;
+
+	/**
+	 * Start offset of each url in pool, with one extra element for end of last url
+	 */
+	private final int[]					offsets;
+
+	/**
+	 * Hash of each url
+	 */
+	private final int[]					hashes;
+
+	/**
+	 * Value of each url
+	 */
+	private final Object[]				values;
+
+	/**
+	 * Hash table, each slot contains the entry number plus one, 0 for an empty slot
+	 */
+	private final int[]					table;
+
+	/**
+	 * Number of urls in index
+	 */
+	private final int					size;
+
+	/**
+	 * @param urlToValueMap Map of url and values to index. Urls are trimmed before indexing. Values must not be null.
+	 */
+	public URLIndex( Map<String, T> urlToValueMap )
+	{
+		Utilities.assertNotNullArgument( urlToValueMap );
+		int size = urlToValueMap.size();
+		int poolSize = 0;
+		for( String url : urlToValueMap.keySet() )
+		{
+			poolSize += url.trim().length();
+		}
+
+		pool = new char[poolSize];
+		offsets = new int[size + 1];
+		hashes = new int[size];
+		values = new Object[size];
+		int tableSize = Integer.highestOneBit( Math.max( 2, size * 2 ) - 1 ) << 1;
+		table = new int[tableSize];
+
+		int entry = 0;
+		int offset = 0;
+		for( Map.Entry<String, T> urlToValue : urlToValueMap.entrySet() )
+		{
+			Utilities.assertNotNullArgument( urlToValue.getValue() );
+			String url = urlToValue.getKey().trim();
+			if( get( url, 0, url.length() ) != null )
+			{
+				// same url after trimming, first one wins as in a map
+				continue;
+			}
+			url.getChars( 0, url.length(), pool, offset );
+			offsets[entry] = offset;
+			offset += url.length();
+			offsets[entry + 1] = offset;
+			hashes[entry] = url.hashCode();
+			values[entry] = urlToValue.getValue();
+
+			int slot = spread( hashes[entry] ) & ( table.length - 1 );
+			while( table[slot] != 0 )
+			{
+				slot = ( slot + 1 ) & ( table.length - 1 );
+			}
+			table[slot] = ++entry;
+		}
+		this.size = entry;
+	}
+
+	/**
+	 * It creates the index from the arrays of an index built earlier, like one read from a catalog snapshot, without
+	 * hashing the urls again. Arrays are used as it is.
+	 */
+	URLIndex( char[] pool, int[] offsets, int[] hashes, Object[] values, int[] table, int size )
+	{
+		this.pool = pool;
+		this.offsets = offsets;
+		this.hashes = hashes;
+		this.values = values;
+		this.table = table;
+		this.size = size;
+	}
+
+	char[] getPool()
+	{
+		return pool;
+	}
+
+	int[] getOffsets()
+	{
+		return offsets;
+	}
+
+	int[] getHashes()
+	{
+		return hashes;
+	}
+
+	/**
+	 * @param entry Number of entry
+	 * @return Value of the entry
+	 */
+	@SuppressWarnings( "unchecked" )
+	T getValue( int entry )
+	{
+		return (T) values[entry];
+	}
+
+	int[] getTable()
+	{
+		return table;
+	}
+
+	/**
+	 * @return New map of all urls and values of index, to add more urls to it and build a new index
+	 */
+	Map<String, T> toMap()
+	{
+		Map<String, T> urlToValueMap = new HashMap<>( Math.max( 16, size * 2 ) );
+		for( int entry = 0; entry < size; entry++ )
+		{
+			urlToValueMap.put( new String( pool, offsets[entry], offsets[entry + 1] - offsets[entry] ), getValue( entry ) );
+		}
+		return urlToValueMap;
+	}
+
+	/**
+	 * @return An empty index
+	 */
+	@SuppressWarnings( "unchecked" )
+	public static <T> URLIndex<T> empty()
+	{
+		return (URLIndex<T>) EMPTY;
+	}
+
+	/**
+	 * @param url Url to search, leading and trailing white spaces are ignored
+	 * @return Value for the url, null if url is not indexed
+	 */
+	public T get( CharSequence url )
+	{
+		Utilities.assertNotNullArgument( url );
+		return get( url, 0, url.length() );
+	}
+
+	/**
+	 * @param sequence Sequence containing the url
+	 * @param start Start offset of url, inclusive
+	 * @param end End offset of url, exclusive
+	 * @return Value for the url, null if url is not indexed
+	 */
+	@SuppressWarnings( "unchecked" )
+	public T get( CharSequence sequence, int start, int end )
+	{
+		while( start < end && sequence.charAt( start ) <= ' ' )
+		{
+			start++;
+		}
+		while( end > start && sequence.charAt( end - 1 ) <= ' ' )
+		{
+			end--;
+		}
+		int length = end - start;
+		int hash;
+		if( sequence instanceof String && length == sequence.length() )
+		{
+			// hash of string is cached by string itself
+			hash = sequence.hashCode();
+		}
+		else
+		{
+			hash = 0;
+			for( int i = start; i < end; i++ )
+			{
+				hash = 31 * hash + sequence.charAt( i );
+			}
+		}
+
+		int slot = spread( hash ) & ( table.length - 1 );
+		int entry;
+		while( ( entry = table[slot] ) != 0 )
+		{
+			entry--;
+			if( hashes[entry] == hash && offsets[entry + 1] - offsets[entry] == length
+					&& matches( offsets[entry], sequence, start, end ) )
+			{
+				return (T) values[entry];
+			}
+			slot = ( slot + 1 ) & ( table.length - 1 );
+		}
+		return null;
+	}
+
+	/**
+	 * @return Number of urls in index
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	private boolean matches( int poolOffset, CharSequence sequence, int start, int end )
+	{
+		if( sequence instanceof String )
+		{
+			String string = (String) sequence;
+			for( int i = start; i < end; i++ )
+			{
+				if( pool[poolOffset++] != string.charAt( i ) )
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+		for( int i = start; i < end; i++ )
+		{
+			if( pool[poolOffset++] != sequence.charAt( i ) )
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int spread( int hash )
+	{
+		return hash ^ ( hash >>> 16 );
+	}
+
+	@Override
+	public String toString()
+	{
+		return "URLIndex@" + hashCode() + ": size[" + size() + "] poolSize[" + pool.length + "]";
+	}
+
+}
@@ -1,8 +1,12 @@
 package org.vedantatree.comps.securitymanager.model;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
@@ -18,9 +22,16 @@ import org.vedantatree.utils.exceptions.SystemException;
 /**
  * Data structure of user object. This represents the User in Security Manager System.
  * 
+ * <p>
+ * Menus of user are served from the shared permission profile if user is bound to a {@link MenuCatalog}, otherwise
+ * from the own menus added with {@link #addMenu(Menu)}. In both cases {@link #getMenus()} and
+ * {@link #getGlobalMenus()} return unmodifiable collections, as these are shared by users or by requests. Earlier these
+ * were modifiable sets. Menus must now be changed with {@link #addMenu(Menu)} and {@link #setGlobalMenus(Collection)},
+ * or in the catalog.
+ * 
  * @author Mohit Gupta [mohit.gupta@vedantatree.com]
  */
-public class User
+public class User implements Cloneable
 {
 
 	private static Log				LOGGER				= LogFactory.getLog( User.class );
@@ -90,21 +101,22 @@ public class User
 	private String					description;
 
 	/**
-	 * Available menus for user, which may contains menu items also
+	 * Own menus of user, global menus and url index of these, published together for requests of the session which
+	 * read these without any lock. It is null while menusBuilder has changes which are not published yet.
 	 */
-	private Collection<Menu>		menus;
+	private volatile OwnMenus		ownMenus			= OwnMenus.EMPTY;
 
 	/**
-	 * Global menus for user. Every application has some global menus, which are shown irrespective of page opened.
-	 * These are shown generally in top header.
+	 * Own menus of user while these are being added. It is guarded by the user, and is released once the menus are
+	 * published to ownMenus.
 	 */
-	private Collection<Menu>		globalMenus;
+	private OwnMenusBuilder			menusBuilder;
 
 	/**
-	 * Data structure to maintain the mapping of menu url and menu object. It is used to speed up the searching of menus
-	 * for a object for given url.
+	 * Shared catalog of menus for the application of user. If it is set, menus of user are not built for every user,
+	 * rather these are taken from the shared permission profile for current roles of user.
 	 */
-	private HashMap<String, Menu>	urlToMenuMap;
+	private MenuCatalog				menuCatalog;
 
 	/**
 	 * User preferences. These are not in use right now, however can help a lot
@@ -114,15 +126,37 @@ public class User
 	private String					entity;
 
 	// TODO need to review the use of this
-	private Set						dataEntities;
+	private Set<?>					dataEntities;
 
 	/**
 	 * map of domain and set of UserRole
 	 */
 	// TODO need to review the use of domains
-	private Map<String, UserRole>	domainRoles;											// ACL acl etc;
+	private Map<String, Set<UserRole>>	domainRoles;										// ACL acl etc;
 	private Map						rights;
-	private String					currentDomain		= "default";
+
+
+	/**
+	 * Compiled snapshots of domains of user along with the snapshot of current domain. It is replaced as a whole under
+	 * the lock of user, never modified, so requests read it without locking and never see a half switched domain.
+	 */
+	private volatile DomainState	domainState;
+
+	/**
+	 * Distinct sql conditions of rights of user, sorted. It is collected when asked first time after the rights are set.
+	 */
+	private volatile List<String>	sqlConditions;
+
+	/**
+	 * Ids of entities assigned directly to user, keyed by name of domain. Null if none is assigned.
+	 */
+	private Map<String, EntitlementSet>				assignedEntitlements;
+
+	/**
+	 * Ids of all entities of user, keyed by name of domain, i.e. the assigned ones and the ones of data entities. It is
+	 * created when asked first time after these change, and is replaced, never modified.
+	 */
+	private volatile Map<String, EntitlementSet>	entitlements;
 
 	/**
 	 * The following properties are required for password change feature
@@ -146,10 +180,10 @@ public class User
 
 	public User()
 	{
-		currentDomain = "default";
-		menus = new TreeSet<>();
-		globalMenus = new TreeSet<>();
-		urlToMenuMap = new HashMap<>();
+		DomainSnapshot defaultSnapshot = compileDomainSnapshot( "default" );
+		domainState = new DomainState( Collections.singletonMap( defaultSnapshot.getDomain(), defaultSnapshot ),
+				defaultSnapshot );
+		// menu collections are created lazily, as users bound to a menu catalog never need these
 		initialized = false;
 	}
 
@@ -166,6 +200,16 @@ public class User
 		}
 	}
 
+	public boolean isInitialized()
+	{
+		return initialized;
+	}
+
+	void setInitialized( boolean initialized )
+	{
+		this.initialized = initialized;
+	}
+
 	public Set getApplicationGroups()
 	{
 		return dataEntities;
@@ -173,7 +217,7 @@ public class User
 
 	public String getCurrentDomain()
 	{
-		return currentDomain;
+		return domainState.current.getDomain();
 	}
 
 	public String getEntity()
@@ -206,9 +250,17 @@ public class User
 		return firstName;
 	}
 
+	/**
+	 * @return Global menus of user, an unmodifiable collection
+	 */
 	public Collection<Menu> getGlobalMenus()
 	{
-		return globalMenus;
+		PermissionProfile permissionProfile = getPermissionProfile();
+		if( permissionProfile != null )
+		{
+			return permissionProfile.getGlobalMenus();
+		}
+		return getOwnMenus().globalMenus;
 	}
 
 	public String getLastName()
@@ -248,7 +300,7 @@ public class User
 
 	public Collection<Menu> getTopNavigationMenus()
 	{
-		return menus;
+		return getMenus();
 	}
 
 	public String getURL()
@@ -261,14 +313,118 @@ public class User
 		return userId;
 	}
 
-	private void setApplicationGroups( Set applicationGroups )
+	void setApplicationGroups( Set<?> applicationGroups )
 	{
 		this.dataEntities = applicationGroups;
+		this.entitlements = null;
+	}
+
+	/**
+	 * It assigns the ids of entities, which user is entitled to, without creating entity objects. These are in addition
+	 * to the data entities of user.
+	 * 
+	 * @param entitlements Ids of entities keyed by name of domain, null to remove all
+	 */
+	public void setEntitlements( Map<String, EntitlementSet> entitlements )
+	{
+		Map<String, EntitlementSet> assigned = null;
+		if( entitlements != null && !entitlements.isEmpty() )
+		{
+			assigned = new HashMap<>();
+			for( Map.Entry<String, EntitlementSet> entry : entitlements.entrySet() )
+			{
+				Utilities.assertNotNullArgument( entry.getKey() );
+				Utilities.assertNotNullArgument( entry.getValue() );
+				assigned.put( entry.getKey(), entry.getValue().intern() );
+			}
+			assigned = Collections.unmodifiableMap( assigned );
+		}
+		this.assignedEntitlements = assigned;
+		this.entitlements = null;
+	}
+
+	/**
+	 * @return Ids of entities assigned directly to user, keyed by name of domain. Null if none is assigned.
+	 */
+	Map<String, EntitlementSet> getAssignedEntitlements()
+	{
+		return assignedEntitlements;
+	}
+
+	/**
+	 * It returns the ids of entities of a domain, which user is entitled to. These are the ids assigned with
+	 * {@link #setEntitlements(Map)} and the ids of data entities of user which belong to the domain. Users having same
+	 * entitlements share the same set.
+	 * 
+	 * @param domain Name of the domain
+	 * @return Ids of entities, empty set if there is none
+	 */
+	public EntitlementSet getEntitlements( String domain )
+	{
+		Utilities.assertNotNullArgument( domain );
+		Map<String, EntitlementSet> domainEntitlements = entitlements;
+		if( domainEntitlements == null )
+		{
+			domainEntitlements = compileEntitlements();
+			entitlements = domainEntitlements;
+		}
+		EntitlementSet entitlementSet = domainEntitlements.get( domain );
+		return entitlementSet != null ? entitlementSet : EntitlementSet.EMPTY;
 	}
 
-	public void setCurrentDomain( String currentDomain )
+	/**
+	 * @param domain Name of the domain
+	 * @param entityId Id of the entity
+	 * @return true if user is entitled to the entity of domain
+	 */
+	public boolean isEntitled( String domain, long entityId )
 	{
-		this.currentDomain = currentDomain;
+		return getEntitlements( domain ).contains( entityId );
+	}
+
+	/**
+	 * It collects the ids of data entities by their domain, and merges these with the assigned ids. Data entities
+	 * without a domain, or which are not AppDomainEntity, are not considered.
+	 */
+	private Map<String, EntitlementSet> compileEntitlements()
+	{
+		Map<String, EntitlementSet> domainEntitlements = assignedEntitlements != null
+				? new HashMap<>( assignedEntitlements ) : new HashMap<String, EntitlementSet>();
+		if( dataEntities != null && !dataEntities.isEmpty() )
+		{
+			Map<String, List<AppDomainEntity>> domainEntities = new HashMap<>();
+			for( Object dataEntity : dataEntities )
+			{
+				if( dataEntity instanceof AppDomainEntity
+						&& ( (AppDomainEntity) dataEntity ).getApplicationDomain() != null
+						&& ( (AppDomainEntity) dataEntity ).getApplicationDomain().getName() != null )
+				{
+					AppDomainEntity entity = (AppDomainEntity) dataEntity;
+					domainEntities.computeIfAbsent( entity.getApplicationDomain().getName(), k -> new ArrayList<>() )
+							.add( entity );
+				}
+			}
+			for( Map.Entry<String, List<AppDomainEntity>> entry : domainEntities.entrySet() )
+			{
+				EntitlementSet entitlementSet = EntitlementSet.of( entry.getValue() );
+				EntitlementSet assigned = domainEntitlements.get( entry.getKey() );
+				domainEntitlements.put( entry.getKey(),
+						( assigned != null ? assigned.union( entitlementSet ) : entitlementSet ).intern() );
+			}
+		}
+		return domainEntitlements;
+	}
+
+	/**
+	 * It switches the current domain of user. Snapshot of domain is compiled only on first switch to a domain, later
+	 * switches only replace the current snapshot.
+	 * 
+	 * @param currentDomain Domain to switch to
+	 */
+	public synchronized void setCurrentDomain( String currentDomain )
+	{
+		DomainSnapshot snapshot = getDomainSnapshot( currentDomain );
+		domainState = new DomainState( domainState.snapshots, snapshot );
 	}
 
 	public void setEntity( String entity )
@@ -286,9 +442,26 @@ public class User
 		this.displayName = displayName;
 	}
 
-	private void setDomains( HashMap domains )
+	/**
+	 * It is used by persistence layer to populate the roles of user
+	 * 
+	 * @param domains Map of domain name and set of UserRole for the domain
+	 */
+	@SuppressWarnings( "unchecked" )
+	private void setDomains( Map domains )
+	{
+		restoreDomains( domains );
+	}
+
+	/**
+	 * It sets the roles of user while restoring the user, like from {@link UserCodec}
+	 * 
+	 * @param domains Map of domain name and set of UserRole for the domain
+	 */
+	void restoreDomains( Map<String, Set<UserRole>> domains )
 	{
 		this.domainRoles = domains;
+		compileDomainSnapshots();
 	}
 
 	public void setEmail( String email )
@@ -301,9 +474,18 @@ public class User
 		this.firstName = firstName;
 	}
 
-	public void setGlobalMenus( Collection<Menu> globalMenus )
+	/**
+	 * It replaces the global menus of user. Menus are copied, and are indexed for url search along with other menus.
+	 */
+	public synchronized void setGlobalMenus( Collection<Menu> globalMenus )
 	{
-		this.globalMenus = globalMenus;
+		OwnMenusBuilder builder = getMenusBuilder();
+		builder.globalMenus.clear();
+		if( globalMenus != null )
+		{
+			builder.globalMenus.addAll( globalMenus );
+		}
+		ownMenus = null;
 	}
 
 	public void setLastName( String lastName )
@@ -311,7 +493,11 @@ public class User
 		this.lastName = lastName;
 	}
 
-	public boolean addMenu( Menu menu )
+	/**
+	 * It adds the menu to own menus of user. Requests of the session, which may be running meanwhile, keep reading the
+	 * menus published last time, and next request publishes all the menus added till then.
+	 */
+	public synchronized boolean addMenu( Menu menu )
 	{
 		Utilities.assertNotNullArgument( menu );
 		if( !StringUtils.isQualifiedString( menu.getUrl() ) )
@@ -321,24 +507,113 @@ public class User
 			LOGGER.error( se );
 			throw se;
 		}
-		boolean added = false;
+		if( menuCatalog != null )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"User is bound to a menu catalog, menus can not be added to it directly. user[" + this + "] menu["
+							+ menu + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+		OwnMenusBuilder builder = getMenusBuilder();
 		if( menu.isGlobalMenu() )
 		{
-			added = globalMenus.add( menu );
+			builder.globalMenus.add( menu );
 		}
 		else
 		{
-			added = menus.add( menu );
+			builder.menus.add( menu );
 		}
-		if( added )
+		ownMenus = null;
+		return true;
+	}
+
+	/**
+	 * @return Builder of own menus, created from the menus published last time if it was released
+	 */
+	private OwnMenusBuilder getMenusBuilder()
+	{
+		if( menusBuilder == null )
 		{
-			urlToMenuMap.put( menu.getUrl().trim().intern(), menu );
-			if( StringUtils.isQualifiedString( menu.getEncryptedURL() ) )
-			{
-				urlToMenuMap.put( menu.getEncryptedURL().trim().intern(), menu );
-			}
+			menusBuilder = new OwnMenusBuilder( ownMenus );
 		}
-		return true;
+		return menusBuilder;
+	}
+
+	/**
+	 * @return Own menus of user, published first if menus are added after these were published last time
+	 */
+	private OwnMenus getOwnMenus()
+	{
+		OwnMenus menus = ownMenus;
+		return menus != null ? menus : publishMenus();
+	}
+
+	/**
+	 * It builds the read only own menus from builder and publishes these to requests. Builder is released, as it is
+	 * not required till more menus are added.
+	 */
+	private synchronized OwnMenus publishMenus()
+	{
+		if( ownMenus == null )
+		{
+			ownMenus = menusBuilder.build();
+			menusBuilder = null;
+		}
+		return ownMenus;
+	}
+
+	/**
+	 * It binds the user to shared menu catalog of application. After binding, menus of user are served from the shared
+	 * permission profile for roles of current domain, and menus can not be added to user directly.
+	 * 
+	 * @param menuCatalog Frozen menu catalog of the application
+	 */
+	public synchronized void bindMenuCatalog( MenuCatalog menuCatalog )
+	{
+		Utilities.assertNotNullArgument( menuCatalog );
+		if( !getOwnMenus().isEmpty() )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"User already has own menus, it can not be bound to a menu catalog. user[" + this + "]" );
+			LOGGER.error( se );
+			throw se;
+		}
+		this.menuCatalog = menuCatalog;
+		compileDomainSnapshots();
+	}
+
+	/**
+	 * It removes all own menus and the binding with menu catalog, so that menus can be populated again
+	 */
+	synchronized void clearMenus()
+	{
+		menusBuilder = null;
+		ownMenus = OwnMenus.EMPTY;
+		if( menuCatalog != null )
+		{
+			menuCatalog = null;
+			compileDomainSnapshots();
+		}
+	}
+
+	public MenuCatalog getMenuCatalog()
+	{
+		return menuCatalog;
+	}
+
+	/**
+	 * @return Shared permission profile for roles of current domain, null if user is not bound to a menu catalog
+	 */
+	public PermissionProfile getPermissionProfile()
+	{
+		DomainSnapshot snapshot = domainState.current;
+		PermissionProfile permissionProfile = snapshot.getPermissionProfile();
+		if( permissionProfile != null && permissionProfile.getReplacement() != null )
+		{
+			permissionProfile = refreshDomainSnapshot( snapshot ).getPermissionProfile();
+		}
+		return permissionProfile;
 	}
 
 	public void setMiddleName( String middleName )
@@ -389,41 +664,247 @@ public class User
 	public void setRights( Map rights )
 	{
 		this.rights = rights;
+		this.sqlConditions = null;
+		compileDomainSnapshots();
 	}
 
-	private boolean isInRole( String roleName )
+	/**
+	 * It returns the sql conditions of rights of user, i.e. the row level filters. Same conditions of different rights
+	 * are returned once, and conditions are sorted, so users having same conditions get equal lists.
+	 * 
+	 * @return Distinct sql conditions, empty list if no right of user has any
+	 */
+	public List<String> getSqlConditions()
 	{
-		if( domainRoles == null || domainRoles.size() == 0 )
-			return false;
-		for( Iterator roleIter = getRolesForCurrentDomain().iterator(); roleIter.hasNext(); )
+		List<String> conditions = sqlConditions;
+		if( conditions == null )
 		{
-			UserRole userRoles = (UserRole) roleIter.next();
-			if( userRoles.getName().equalsIgnoreCase( roleName ) )
-				return true;
+			Set<String> distinctConditions = new TreeSet<>();
+			if( rights != null )
+			{
+				for( Object right : rights.values() )
+				{
+					if( right instanceof UserRight
+							&& StringUtils.isQualifiedString( ( (UserRight) right ).getSqlCondition() ) )
+					{
+						distinctConditions.add( ( (UserRight) right ).getSqlCondition().trim() );
+					}
+				}
+			}
+			conditions = distinctConditions.isEmpty() ? Collections.<String> emptyList()
+					: Collections.unmodifiableList( new ArrayList<>( distinctConditions ) );
+			sqlConditions = conditions;
 		}
-		return false;
+		return conditions;
+	}
+
+	private boolean isInRole( String roleName )
+	{
+		return hasRole( roleName );
+	}
+
+	/**
+	 * @param roleName Name of the role, case insensitive
+	 * @return true if user has the role in current domain
+	 */
+	public boolean hasRole( String roleName )
+	{
+		return domainState.current.getRoleRights().hasRole( roleName );
+	}
+
+	/**
+	 * @param roleId Id of the role in the registry of menu catalog of user, resolved once with
+	 *            {@link RoleRightRegistry#getRoleId(String)}
+	 * @return true if user has the role in current domain
+	 */
+	public boolean hasRole( int roleId )
+	{
+		return domainState.current.getRoleRights().hasRole( roleId );
+	}
+
+	/**
+	 * @param domain Domain to check the role in
+	 * @param roleName Name of the role, case insensitive
+	 * @return true if user has the role in specified domain
+	 */
+	public boolean hasRole( String domain, String roleName )
+	{
+		return getRoleRights( domain ).hasRole( roleName );
+	}
+
+	/**
+	 * @param rightName Name of the right
+	 * @return true if user has the right
+	 */
+	public boolean hasRight( String rightName )
+	{
+		return domainState.current.getRoleRights().hasRight( rightName );
 	}
 
 	/**
-	 * @return The set of roles for current domain
+	 * @param rightId Id of the right in the registry of menu catalog of user, resolved once with
+	 *            {@link RoleRightRegistry#getRightId(String)}
+	 * @return true if user has the right
+	 */
+	public boolean hasRight( int rightId )
+	{
+		return domainState.current.getRoleRights().hasRight( rightId );
+	}
+
+	/**
+	 * @return Roles and rights of user for current domain as bits
+	 */
+	public RoleRightSet getRoleRights()
+	{
+		return domainState.current.getRoleRights();
+	}
+
+	/**
+	 * It returns the roles and rights of user for a domain as bits. These are computed once per domain, with the
+	 * registry of menu catalog of user, or with a registry of its own if user is not bound to any catalog.
+	 * 
+	 * @param domain Domain for which roles are required
+	 * @return Roles and rights of user for the domain
+	 */
+	public RoleRightSet getRoleRights( String domain )
+	{
+		return getDomainSnapshot( domain ).getRoleRights();
+	}
+
+	/**
+	 * @return The set of roles for current domain, an unmodifiable copy
 	 */
 	public Set getRolesForCurrentDomain()
 	{
-		if( domainRoles == null )
-		{
-			return null;
-		}
-		return (Set) domainRoles.get( currentDomain );
+		return domainState.current.getRoles();
 	}
 
 	/**
 	 * @param domain Domain for which user want to retrieve the roles
-	 * @return Roles for the specified domain
+	 * @return Roles for the specified domain, an unmodifiable copy
 	 */
 	public Set getRolesForDomain( String domain )
+	{
+		return getDomainSnapshot( domain ).getRoles();
+	}
+
+	/**
+	 * @return Snapshot of current domain
+	 */
+	public DomainSnapshot getCurrentDomainSnapshot()
+	{
+		DomainSnapshot snapshot = domainState.current;
+		PermissionProfile permissionProfile = snapshot.getPermissionProfile();
+		if( permissionProfile != null && permissionProfile.getReplacement() != null )
+		{
+			snapshot = refreshDomainSnapshot( snapshot );
+		}
+		return snapshot;
+	}
+
+	/**
+	 * @param domain Name of the domain
+	 * @return Compiled snapshot of the domain. If user has no roles in the domain, a snapshot without roles is compiled
+	 *         on first request and kept like others.
+	 */
+	public DomainSnapshot getDomainSnapshot( String domain )
 	{
 		Utilities.assertNotNullArgument( domain );
-		return domainRoles != null ? (Set) domainRoles.get( domain ) : null;
+		DomainSnapshot snapshot = domainState.snapshots.get( domain );
+		if( snapshot == null )
+		{
+			return addDomainSnapshot( domain );
+		}
+		PermissionProfile permissionProfile = snapshot.getPermissionProfile();
+		if( permissionProfile != null && permissionProfile.getReplacement() != null )
+		{
+			snapshot = refreshDomainSnapshot( snapshot );
+		}
+		return snapshot;
+	}
+
+	/**
+	 * It replaces the snapshot, whose profile is replaced after change in menu catalog, with a snapshot having the
+	 * latest profile. Roles and rights are not compiled again, as these do not change with catalog.
+	 * 
+	 * @param snapshot Snapshot with replaced profile
+	 * @return New snapshot
+	 */
+	private synchronized DomainSnapshot refreshDomainSnapshot( DomainSnapshot snapshot )
+	{
+		DomainSnapshot refreshedSnapshot = snapshot.withLatestPermissionProfile();
+		DomainState state = domainState;
+		Map<String, DomainSnapshot> snapshots = state.snapshots;
+		if( snapshots.get( snapshot.getDomain() ) == snapshot )
+		{
+			snapshots = new HashMap<>( snapshots );
+			snapshots.put( snapshot.getDomain(), refreshedSnapshot );
+		}
+		domainState = new DomainState( snapshots, state.current == snapshot ? refreshedSnapshot : state.current );
+		LOGGER.debug( "refreshed domain snapshot after catalog change. user[" + this + "] snapshot["
+				+ refreshedSnapshot + "]" );
+		return refreshedSnapshot;
+	}
+
+	/**
+	 * It compiles the snapshots of all domains of user again, and switches to the new snapshot of current domain. It
+	 * is called whenever the roles, rights or menu catalog of user change. If the roles or rights are changed directly
+	 * in the maps of user, {@link #setRights(Map)} should be called again, which compiles the roles also.
+	 */
+	private synchronized void compileDomainSnapshots()
+	{
+		String currentDomain = getCurrentDomain();
+		Map<String, DomainSnapshot> snapshots = new HashMap<>();
+		if( domainRoles != null )
+		{
+			for( String domain : domainRoles.keySet() )
+			{
+				snapshots.put( domain, compileDomainSnapshot( domain ) );
+			}
+		}
+		if( !snapshots.containsKey( currentDomain ) )
+		{
+			snapshots.put( currentDomain, compileDomainSnapshot( currentDomain ) );
+		}
+		domainState = new DomainState( snapshots, snapshots.get( currentDomain ) );
+	}
+
+	/**
+	 * It compiles and keeps the snapshot of a domain in which user has no roles, on first request for the domain
+	 */
+	private synchronized DomainSnapshot addDomainSnapshot( String domain )
+	{
+		DomainState state = domainState;
+		DomainSnapshot snapshot = state.snapshots.get( domain );
+		if( snapshot == null )
+		{
+			snapshot = compileDomainSnapshot( domain );
+			Map<String, DomainSnapshot> snapshots = new HashMap<>( state.snapshots );
+			snapshots.put( domain, snapshot );
+			domainState = new DomainState( snapshots, state.current );
+		}
+		return snapshot;
+	}
+
+	private DomainSnapshot compileDomainSnapshot( String domain )
+	{
+		Set<UserRole> roles = domainRoles != null ? domainRoles.get( domain ) : null;
+		// registry of a user without catalog is private to the snapshot, so it does not grow with other users
+		RoleRightRegistry registry;
+		if( menuCatalog != null )
+		{
+			registry = menuCatalog.getRoleRightRegistry();
+		}
+		else if( ( roles == null || roles.isEmpty() ) && ( rights == null || rights.isEmpty() ) )
+		{
+			registry = RoleRightRegistry.EMPTY;
+		}
+		else
+		{
+			registry = new RoleRightRegistry();
+		}
+		PermissionProfile permissionProfile = menuCatalog != null ? menuCatalog.getPermissionProfile( roles ) : null;
+		return new DomainSnapshot( domain, roles, registry.createRoleRightSet( roles, rights ), permissionProfile );
 	}
 
 	public Collection<MenuItem> getLeftNavigationMenuItems( Menu menu )
@@ -431,9 +912,17 @@ public class User
 		return menu.getLeftNavigationMenuItems();
 	}
 
+	/**
+	 * @return Top navigation menus of user, an unmodifiable collection
+	 */
 	public Collection<Menu> getMenus()
 	{
-		return menus;
+		PermissionProfile permissionProfile = getPermissionProfile();
+		if( permissionProfile != null )
+		{
+			return permissionProfile.getTopNavigationMenus();
+		}
+		return getOwnMenus().menus;
 	}
 
 	public MenuItem getMenuItemForURL( Menu menu, String URL )
@@ -443,15 +932,18 @@ public class User
 
 	public Menu getMenuForURL( String menuURL )
 	{
-		LOGGER.trace( "getMenuForURL: menuURL[" + menuURL + "]" );
+		if( LOGGER.isTraceEnabled() )
+		{
+			LOGGER.trace( "getMenuForURL: menuURL[" + menuURL + "]" );
+		}
 
 		Utilities.assertNotNullArgument( menuURL );
-		if( menus == null || menus.size() == 0 )
+		PermissionProfile permissionProfile = getPermissionProfile();
+		if( permissionProfile != null )
 		{
-			LOGGER.debug( "Returning null as menus found null." );
-			return null;
+			return permissionProfile.getMenuForURL( menuURL );
 		}
-		return urlToMenuMap.get( menuURL.trim() );
+		return getOwnMenus().urlIndex.get( menuURL );
 		// for( Iterator<Menu> iter = getMergedMenus().iterator(); iter.hasNext(); )
 		// {
 		// Menu menu = (Menu) iter.next();
@@ -525,10 +1017,195 @@ public class User
 		this.isTempPwdSet = isTempPwdSet;
 	}
 
+	/**
+	 * It creates a copy of user for another session. Copy shares the immutable data, like compiled domain snapshots,
+	 * entitlements and menus of catalog. It has its own menu collections, preferences, application specific
+	 * information, and its own maps and sets of domain roles, rights and data entities, so that adding or removing
+	 * entries in one session does not affect the other. Role, right and data entity objects inside these are shared,
+	 * and must be treated as read only.
+	 */
+	@Override
+	public Object clone() throws CloneNotSupportedException
+	{
+		OwnMenus menus = getOwnMenus();
+		User clonedUser = (User) super.clone();
+		// published menus are never modified, so copy starts with these and gets its own builder if menus are added
+		clonedUser.ownMenus = menus;
+		clonedUser.menusBuilder = null;
+		if( appSpecificInformation != null )
+		{
+			clonedUser.appSpecificInformation = new HashMap<>( appSpecificInformation );
+		}
+		clonedUser.domainRoles = copyDomainRoles( domainRoles );
+		clonedUser.rights = copyMap( rights );
+		clonedUser.dataEntities = dataEntities != null ? new LinkedHashSet<>( dataEntities ) : null;
+		if( preferences != null )
+		{
+			UserPreferences clonedPreferences = new UserPreferences();
+			clonedPreferences.setLocale( preferences.getLocale() );
+			clonedPreferences.setStyleSheet( preferences.getStyleSheet() );
+			clonedPreferences.setTiles( preferences.getTiles() );
+			clonedUser.preferences = clonedPreferences;
+		}
+		// snapshots hold the roles of this user, so copy compiles its own from the copied roles
+		clonedUser.compileDomainSnapshots();
+		return clonedUser;
+	}
+
+	/**
+	 * @return Copy of map of domain and set of UserRole, with copies of the sets. Null if map is null.
+	 */
+	private static Map<String, Set<UserRole>> copyDomainRoles( Map<String, Set<UserRole>> domainRoles )
+	{
+		if( domainRoles == null )
+		{
+			return null;
+		}
+		Map<String, Set<UserRole>> copiedDomainRoles = new LinkedHashMap<>();
+		for( Map.Entry<String, Set<UserRole>> domain : domainRoles.entrySet() )
+		{
+			copiedDomainRoles.put( domain.getKey(), domain.getValue() != null ? new LinkedHashSet<>( domain.getValue() )
+					: null );
+		}
+		return copiedDomainRoles;
+	}
+
+	/**
+	 * @return Copy of map, with copies of the sets and maps kept as values. Null if map is null.
+	 */
+	@SuppressWarnings( { "rawtypes", "unchecked" } )
+	private static Map copyMap( Map map )
+	{
+		if( map == null )
+		{
+			return null;
+		}
+		Map copiedMap = new LinkedHashMap( map );
+		for( Object entry : copiedMap.entrySet() )
+		{
+			Map.Entry copiedEntry = (Map.Entry) entry;
+			if( copiedEntry.getValue() instanceof Set )
+			{
+				copiedEntry.setValue( new LinkedHashSet( (Set) copiedEntry.getValue() ) );
+			}
+			else if( copiedEntry.getValue() instanceof Map )
+			{
+				copiedEntry.setValue( new LinkedHashMap( (Map) copiedEntry.getValue() ) );
+			}
+		}
+		return copiedMap;
+	}
+
+	/**
+	 * Own menus of user, which are published together and are never modified after
+	 */
+	private static final class OwnMenus
+	{
+
+		static final OwnMenus			EMPTY	= new OwnMenus( Collections.<Menu> emptySet(),
+				Collections.<Menu> emptySet(), URLIndex.<Menu> empty() );
+
+		/**
+		 * Available menus for user, which may contains menu items also
+		 */
+		final Collection<Menu>			menus;
+
+		/**
+		 * Global menus for user. Every application has some global menus, which are shown irrespective of page
+		 * opened. These are shown generally in top header.
+		 */
+		final Collection<Menu>			globalMenus;
+
+		/**
+		 * Index of menu urls, plain as well as encrypted, to search the menu for a url
+		 */
+		final URLIndex<Menu>			urlIndex;
+
+		OwnMenus( Collection<Menu> menus, Collection<Menu> globalMenus, URLIndex<Menu> urlIndex )
+		{
+			this.menus = menus;
+			this.globalMenus = globalMenus;
+			this.urlIndex = urlIndex;
+		}
+
+		boolean isEmpty()
+		{
+			return menus.isEmpty() && globalMenus.isEmpty();
+		}
+	}
+
+	/**
+	 * Sorted own menus of user while these are being added
+	 */
+	private static final class OwnMenusBuilder
+	{
+
+		final Collection<Menu>	menus		= new TreeSet<>();
+
+		final Collection<Menu>	globalMenus	= new TreeSet<>();
+
+		OwnMenusBuilder( OwnMenus publishedMenus )
+		{
+			menus.addAll( publishedMenus.menus );
+			globalMenus.addAll( publishedMenus.globalMenus );
+		}
+
+		/**
+		 * It builds the own menus with collections copied to the exact size required, and url index of all menus
+		 */
+		OwnMenus build()
+		{
+			if( menus.isEmpty() && globalMenus.isEmpty() )
+			{
+				return OwnMenus.EMPTY;
+			}
+			Map<String, Menu> urlToMenuMap = new HashMap<>();
+			putMenuURLs( menus, urlToMenuMap );
+			putMenuURLs( globalMenus, urlToMenuMap );
+			return new OwnMenus( toReadOnlyList( menus ), toReadOnlyList( globalMenus ),
+					new URLIndex<>( urlToMenuMap ) );
+		}
+
+		private static Collection<Menu> toReadOnlyList( Collection<Menu> sortedMenus )
+		{
+			return sortedMenus.isEmpty() ? Collections.<Menu> emptyList()
+					: Collections.unmodifiableList( new ArrayList<>( sortedMenus ) );
+		}
+
+		private static void putMenuURLs( Collection<Menu> sortedMenus, Map<String, Menu> urlToMenuMap )
+		{
+			for( Menu menu : sortedMenus )
+			{
+				urlToMenuMap.put( menu.getUrl().trim(), menu );
+				if( StringUtils.isQualifiedString( menu.getEncryptedURL() ) )
+				{
+					urlToMenuMap.put( menu.getEncryptedURL().trim(), menu );
+				}
+			}
+		}
+	}
+
 	@Override
 	public String toString()
 	{
 		return "User@" + hashCode() + ": id[" + userId + "] id[" + userId + "] name[" + firstName + " " + lastName
 				+ "]";
 	}
+
+	/**
+	 * Snapshots of domains and the snapshot of current domain, published together
+	 */
+	private static final class DomainState
+	{
+
+		private final Map<String, DomainSnapshot>	snapshots;
+		private final DomainSnapshot				current;
+
+		DomainState( Map<String, DomainSnapshot> snapshots, DomainSnapshot current )
+		{
+			this.snapshots = snapshots;
+			this.current = current;
+		}
+	}
+
 }
@@ -0,0 +1,1063 @@
+package org.vedantatree.comps.securitymanager.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectStreamClass;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.vedantatree.utils.Utilities;
+import org.vedantatree.utils.exceptions.IErrorCodes;
+import org.vedantatree.utils.exceptions.SystemException;
+
+
+/**
+ * Compact binary encoder and decoder of User, used to replicate the sessions.
+ *
+ * <p>
+ * A user bound to a menu catalog is encoded with the application name of catalog only, and menus are taken from the
+ * catalog of same application while decoding. So a typical user takes a few hundred bytes instead of the whole menu
+ * graph. A user with its own menus is encoded with its menu tree, without the back references of items.
+ *
+ * <p>
+ * Format starts with a magic number, format version and kind of data. Then comes a bit mask of the fields present,
+ * and the fields in the order of their bits. Full encoding has all fields. Delta encoding, created by
+ * {@link #encodeDelta(User, User)}, has only the fields which differ from previous state of user, and is applied on a
+ * copy of previous state with {@link #applyDelta(User, byte[])}. If only profile fields are changed, like name or
+ * password expiry, delta takes a few bytes.
+ *
+ * <p>
+ * Values of application specific information, rights and data entities can be strings, numbers, booleans, rights,
+ * domain entities or other Serializable objects. Serializable objects are encoded with java serialization, so
+ * these should be avoided for compact payloads. While decoding, these may only be made of the wrappers of primitives,
+ * strings, big numbers, dates, enums, common collections and maps, and classes of this package. Any other class is
+ * rejected, so a tampered payload can not instantiate arbitrary classes of the class path.
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public class UserCodec
+{
+
+	private static Log								LOGGER				= LogFactory.getLog( UserCodec.class );
+
+	private static final short						MAGIC				= 0x5553;
+
+	/**
+	 * Version of the format. It must be incremented whenever format is changed, and decoder must keep reading the
+	 * older versions. Version 2 has added the entitlements field.
+	 */
+	public static final byte						FORMAT_VERSION		= 2;
+
+	private static final byte						KIND_FULL			= 0;
+	private static final byte						KIND_DELTA			= 1;
+
+	// ====== Fields, bit positions in mask
+	private static final int						USER_ID				= 0;
+	private static final int						PASSWORD			= 1;
+	private static final int						DISPLAY_NAME		= 2;
+	private static final int						TITLE				= 3;
+	private static final int						FIRST_NAME			= 4;
+	private static final int						MIDDLE_NAME			= 5;
+	private static final int						LAST_NAME			= 6;
+	private static final int						EMAIL				= 7;
+	private static final int						PHONE				= 8;
+	private static final int						PHONE_CELL			= 9;
+	private static final int						URL					= 10;
+	private static final int						DESCRIPTION			= 11;
+	private static final int						ENTITY				= 12;
+	private static final int						STATUS_FLAGS		= 13;
+	private static final int						PREFERENCES			= 14;
+	private static final int						CURRENT_DOMAIN		= 15;
+	private static final int						AUTHORIZATION		= 16;
+	private static final int						APP_SPECIFIC_INFO	= 17;
+	private static final int						ENTITLEMENTS		= 18;
+	private static final int						FIELD_COUNT			= 19;
+
+	private static final int						ALL_FIELDS			= ( 1 << FIELD_COUNT ) - 1;
+
+	// ====== Status flags
+	private static final int						INITIALIZED			= 1;
+	private static final int						PASSWORD_EXPIRED	= 2;
+	private static final int						ACCOUNT_LOCKED		= 4;
+	private static final int						TEMP_PASSWORD_SET	= 8;
+
+	// ====== Value types
+	private static final byte						TYPE_NULL			= 0;
+	private static final byte						TYPE_STRING			= 1;
+	private static final byte						TYPE_INTEGER		= 2;
+	private static final byte						TYPE_LONG			= 3;
+	private static final byte						TYPE_BOOLEAN		= 4;
+	private static final byte						TYPE_USER_RIGHT		= 5;
+	private static final byte						TYPE_DOMAIN_ENTITY	= 6;
+	private static final byte						TYPE_SERIALIZED		= 7;
+
+	/**
+	 * Resolver of menu catalog by application name, used while decoding the users bound to catalog
+	 */
+	private final Function<String, MenuCatalog>		menuCatalogResolver;
+
+	/**
+	 * @param menuCatalogResolver Resolver of menu catalog by application name, like getMenuCatalog of security
+	 *            manager
+	 */
+	public UserCodec( Function<String, MenuCatalog> menuCatalogResolver )
+	{
+		Utilities.assertNotNullArgument( menuCatalogResolver );
+		this.menuCatalogResolver = menuCatalogResolver;
+	}
+
+	/**
+	 * @param user User to encode
+	 * @return Full encoding of user
+	 */
+	public byte[] encode( User user )
+	{
+		Utilities.assertNotNullArgument( user );
+		return encode( user, KIND_FULL, ALL_FIELDS );
+	}
+
+	/**
+	 * @param bytes Full encoding of user
+	 * @return Decoded user
+	 */
+	public User decode( byte[] bytes )
+	{
+		Utilities.assertNotNullArgument( bytes );
+		User user = new User();
+		decode( user, bytes, KIND_FULL );
+		return user;
+	}
+
+	/**
+	 * It encodes only the fields of user which are changed since the previous state.
+	 *
+	 * @param previousUser Previous state of user, as replicated last time
+	 * @param user Current state of user
+	 * @return Delta encoding
+	 */
+	public byte[] encodeDelta( User previousUser, User user )
+	{
+		Utilities.assertNotNullArgument( previousUser );
+		Utilities.assertNotNullArgument( user );
+		int mask = 0;
+		for( int field = 0; field < FIELD_COUNT; field++ )
+		{
+			if( isChanged( field, previousUser, user ) )
+			{
+				mask |= 1 << field;
+			}
+		}
+		return encode( user, KIND_DELTA, mask );
+	}
+
+	/**
+	 * It applies the delta on previous state of user
+	 *
+	 * @param user Previous state of user, it is modified to current state
+	 * @param bytes Delta encoding
+	 */
+	public void applyDelta( User user, byte[] bytes )
+	{
+		Utilities.assertNotNullArgument( user );
+		Utilities.assertNotNullArgument( bytes );
+		decode( user, bytes, KIND_DELTA );
+	}
+
+	private byte[] encode( User user, byte kind, int mask )
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream( 256 );
+		DataOutputStream output = new DataOutputStream( bytes );
+		try
+		{
+			output.writeShort( MAGIC );
+			output.writeByte( FORMAT_VERSION );
+			output.writeByte( kind );
+			writeVarInt( output, mask );
+			for( int field = 0; field < FIELD_COUNT; field++ )
+			{
+				if( ( mask & ( 1 << field ) ) != 0 )
+				{
+					writeField( output, field, user );
+				}
+			}
+			output.flush();
+		}
+		catch( IOException e )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_STATE_ERROR,
+					"Problem while encoding user. user[" + user + "]", e );
+			LOGGER.error( se );
+			throw se;
+		}
+		return bytes.toByteArray();
+	}
+
+	private void decode( User user, byte[] bytes, byte expectedKind )
+	{
+		DataInputStream input = new DataInputStream( new ByteArrayInputStream( bytes ) );
+		try
+		{
+			if( input.readShort() != MAGIC )
+			{
+				throw new IOException( "Data is not an encoded user" );
+			}
+			byte version = input.readByte();
+			if( version > FORMAT_VERSION )
+			{
+				throw new IOException( "Unsupported format version. version[" + version + "] supported["
+						+ FORMAT_VERSION + "]" );
+			}
+			byte kind = input.readByte();
+			if( kind != expectedKind )
+			{
+				throw new IOException( "Unexpected kind of data. kind[" + kind + "] expected[" + expectedKind + "]" );
+			}
+			int mask = readVarInt( input );
+			for( int field = 0; field < FIELD_COUNT; field++ )
+			{
+				if( ( mask & ( 1 << field ) ) != 0 )
+				{
+					readField( input, field, user );
+				}
+			}
+		}
+		catch( IOException | ClassNotFoundException e )
+		{
+			SystemException se = new SystemException( IErrorCodes.ILLEGAL_ARGUMENT_ERROR,
+					"Problem while decoding user. " + e.getMessage(), e );
+			LOGGER.error( se );
+			throw se;
+		}
+	}
+
+	private boolean isChanged( int field, User previousUser, User user )
+	{
+		switch( field )
+		{
+			case USER_ID:
+				return !Objects.equals( previousUser.getUserId(), user.getUserId() );
+			case PASSWORD:
+				return !Objects.equals( previousUser.getPassword(), user.getPassword() );
+			case DISPLAY_NAME:
+				return !Objects.equals( previousUser.getDisplayName(), user.getDisplayName() );
+			case TITLE:
+				return !Objects.equals( previousUser.getTitle(), user.getTitle() );
+			case FIRST_NAME:
+				return !Objects.equals( previousUser.getFirstName(), user.getFirstName() );
+			case MIDDLE_NAME:
+				return !Objects.equals( previousUser.getMiddleName(), user.getMiddleName() );
+			case LAST_NAME:
+				return !Objects.equals( previousUser.getLastName(), user.getLastName() );
+			case EMAIL:
+				return !Objects.equals( previousUser.getEmail(), user.getEmail() );
+			case PHONE:
+				return !Objects.equals( previousUser.getPhone(), user.getPhone() );
+			case PHONE_CELL:
+				return !Objects.equals( previousUser.getPhoneCell(), user.getPhoneCell() );
+			case URL:
+				return !Objects.equals( previousUser.getURL(), user.getURL() );
+			case DESCRIPTION:
+				return !Objects.equals( previousUser.getDescription(), user.getDescription() );
+			case ENTITY:
+				return !Objects.equals( previousUser.getEntity(), user.getEntity() );
+			case STATUS_FLAGS:
+				return getStatusFlags( previousUser ) != getStatusFlags( user );
+			case CURRENT_DOMAIN:
+				return !Objects.equals( previousUser.getCurrentDomain(), user.getCurrentDomain() );
+			case ENTITLEMENTS:
+				return !Objects.equals( previousUser.getAssignedEntitlements(), user.getAssignedEntitlements() );
+			default:
+				// structured fields are compared by their encoding
+				return !Arrays.equals( encode( previousUser, KIND_DELTA, 1 << field ),
+						encode( user, KIND_DELTA, 1 << field ) );
+		}
+	}
+
+	private void writeField( DataOutputStream output, int field, User user ) throws IOException
+	{
+		switch( field )
+		{
+			case USER_ID:
+				writeString( output, user.getUserId() );
+				break;
+			case PASSWORD:
+				writeString( output, user.getPassword() );
+				break;
+			case DISPLAY_NAME:
+				writeString( output, user.getDisplayName() );
+				break;
+			case TITLE:
+				writeString( output, user.getTitle() );
+				break;
+			case FIRST_NAME:
+				writeString( output, user.getFirstName() );
+				break;
+			case MIDDLE_NAME:
+				writeString( output, user.getMiddleName() );
+				break;
+			case LAST_NAME:
+				writeString( output, user.getLastName() );
+				break;
+			case EMAIL:
+				writeString( output, user.getEmail() );
+				break;
+			case PHONE:
+				writeString( output, user.getPhone() );
+				break;
+			case PHONE_CELL:
+				writeString( output, user.getPhoneCell() );
+				break;
+			case URL:
+				writeString( output, user.getURL() );
+				break;
+			case DESCRIPTION:
+				writeString( output, user.getDescription() );
+				break;
+			case ENTITY:
+				writeString( output, user.getEntity() );
+				break;
+			case STATUS_FLAGS:
+				output.writeByte( getStatusFlags( user ) );
+				break;
+			case PREFERENCES:
+				writePreferences( output, user.getPreferences() );
+				break;
+			case CURRENT_DOMAIN:
+				writeString( output, user.getCurrentDomain() );
+				break;
+			case AUTHORIZATION:
+				writeAuthorization( output, user );
+				break;
+			case APP_SPECIFIC_INFO:
+				writeMap( output, user.getAppSpecificInformation() );
+				break;
+			case ENTITLEMENTS:
+				writeEntitlements( output, user.getAssignedEntitlements() );
+				break;
+			default:
+				throw new IOException( "Unknown field[" + field + "]" );
+		}
+	}
+
+	private void readField( DataInputStream input, int field, User user ) throws IOException, ClassNotFoundException
+	{
+		switch( field )
+		{
+			case USER_ID:
+				user.setUserId( readString( input ) );
+				break;
+			case PASSWORD:
+				user.setPassword( readString( input ) );
+				break;
+			case DISPLAY_NAME:
+				user.setDisplayName( readString( input ) );
+				break;
+			case TITLE:
+				user.setTitle( readString( input ) );
+				break;
+			case FIRST_NAME:
+				user.setFirstName( readString( input ) );
+				break;
+			case MIDDLE_NAME:
+				user.setMiddleName( readString( input ) );
+				break;
+			case LAST_NAME:
+				user.setLastName( readString( input ) );
+				break;
+			case EMAIL:
+				user.setEmail( readString( input ) );
+				break;
+			case PHONE:
+				user.setPhone( readString( input ) );
+				break;
+			case PHONE_CELL:
+				user.setPhoneCell( readString( input ) );
+				break;
+			case URL:
+				user.setURL( readString( input ) );
+				break;
+			case DESCRIPTION:
+				user.setDescription( readString( input ) );
+				break;
+			case ENTITY:
+				user.setEntity( readString( input ) );
+				break;
+			case STATUS_FLAGS:
+				int flags = input.readByte();
+				user.setInitialized( ( flags & INITIALIZED ) != 0 );
+				user.setPasswordExpired( ( flags & PASSWORD_EXPIRED ) != 0 );
+				user.setUserAccLocked( ( flags & ACCOUNT_LOCKED ) != 0 );
+				user.setTempPwdSet( ( flags & TEMP_PASSWORD_SET ) != 0 );
+				break;
+			case PREFERENCES:
+				user.setPreferences( readPreferences( input ) );
+				break;
+			case CURRENT_DOMAIN:
+				String currentDomain = readString( input );
+				if( currentDomain == null )
+				{
+					throw new IOException( "Current domain of user is missing" );
+				}
+				user.setCurrentDomain( currentDomain );
+				break;
+			case AUTHORIZATION:
+				readAuthorization( input, user );
+				break;
+			case APP_SPECIFIC_INFO:
+				user.setAppSpecificInformation( readMap( input ) );
+				break;
+			case ENTITLEMENTS:
+				user.setEntitlements( readEntitlements( input ) );
+				break;
+			default:
+				throw new IOException( "Unknown field[" + field + "]" );
+		}
+	}
+
+	private static int getStatusFlags( User user )
+	{
+		return ( user.isInitialized() ? INITIALIZED : 0 ) | ( user.isPasswordExpired() ? PASSWORD_EXPIRED : 0 )
+				| ( user.isUserAccLocked() ? ACCOUNT_LOCKED : 0 ) | ( user.isTempPwdSet() ? TEMP_PASSWORD_SET : 0 );
+	}
+
+	private static void writePreferences( DataOutputStream output, UserPreferences preferences ) throws IOException
+	{
+		output.writeBoolean( preferences != null );
+		if( preferences != null )
+		{
+			writeString( output, preferences.getTiles() );
+			writeString( output, preferences.getStyleSheet() );
+			writeString( output, preferences.getLocale() );
+		}
+	}
+
+	private static UserPreferences readPreferences( DataInputStream input ) throws IOException
+	{
+		if( !input.readBoolean() )
+		{
+			return null;
+		}
+		UserPreferences preferences = new UserPreferences();
+		preferences.setTiles( readString( input ) );
+		preferences.setStyleSheet( readString( input ) );
+		preferences.setLocale( readString( input ) );
+		return preferences;
+	}
+
+	/**
+	 * It writes roles of all domains, rights, data entities and menus. Menus are written as application name of
+	 * catalog if user is bound to one, otherwise the own menus of user are written.
+	 */
+	private static void writeAuthorization( DataOutputStream output, User user ) throws IOException
+	{
+		Map<?, ?> domains = user.getDomains();
+		writeVarInt( output, domains == null ? 0 : domains.size() + 1 );
+		if( domains != null )
+		{
+			for( Map.Entry<?, ?> domain : domains.entrySet() )
+			{
+				writeString( output, (String) domain.getKey() );
+				Collection<?> roles = (Collection<?>) domain.getValue();
+				writeVarInt( output, roles == null ? 0 : roles.size() + 1 );
+				if( roles != null )
+				{
+					for( Object roleObject : roles )
+					{
+						UserRole role = (UserRole) roleObject;
+						writeVarInt( output, role.getId() );
+						writeString( output, role.getName() );
+						writeString( output, role.getDescription() );
+					}
+				}
+			}
+		}
+		writeMap( output, user.getRights() );
+		writeCollection( output, user.getApplicationGroups() );
+
+		MenuCatalog menuCatalog = user.getMenuCatalog();
+		writeString( output, menuCatalog == null ? null : menuCatalog.getApplicationName() );
+		if( menuCatalog == null )
+		{
+			List<Menu> ownMenus = new ArrayList<>( user.getMenus() );
+			ownMenus.addAll( user.getGlobalMenus() );
+			writeVarInt( output, ownMenus.size() );
+			for( Menu menu : ownMenus )
+			{
+				writeMenu( output, menu );
+			}
+		}
+	}
+
+	private void readAuthorization( DataInputStream input, User user ) throws IOException, ClassNotFoundException
+	{
+		int domainCount = readVarInt( input ) - 1;
+		Map<String, Set<UserRole>> domains = null;
+		if( domainCount >= 0 )
+		{
+			domains = new HashMap<>();
+			for( int i = 0; i < domainCount; i++ )
+			{
+				String domain = readString( input );
+				int roleCount = readVarInt( input ) - 1;
+				Set<UserRole> roles = null;
+				if( roleCount >= 0 )
+				{
+					roles = new HashSet<>();
+					for( int j = 0; j < roleCount; j++ )
+					{
+						UserRole role = new UserRole();
+						role.setId( readVarInt( input ) );
+						role.setName( readString( input ) );
+						role.setDescription( readString( input ) );
+						roles.add( role );
+					}
+				}
+				domains.put( domain, roles );
+			}
+		}
+		Map<Object, Object> rights = readMap( input );
+		List<Object> dataEntities = readCollection( input );
+
+		user.clearMenus();
+		user.restoreDomains( domains );
+		user.setRights( rights );
+		user.setApplicationGroups( dataEntities == null ? null : new HashSet<>( dataEntities ) );
+
+		String applicationName = readString( input );
+		if( applicationName != null )
+		{
+			MenuCatalog menuCatalog = menuCatalogResolver.apply( applicationName );
+			if( menuCatalog == null )
+			{
+				throw new IOException( "No menu catalog found for application of user. application["
+						+ applicationName + "]" );
+			}
+			user.bindMenuCatalog( menuCatalog );
+		}
+		else
+		{
+			int menuCount = readVarInt( input );
+			for( int i = 0; i < menuCount; i++ )
+			{
+				user.addMenu( readMenu( input ) );
+			}
+		}
+	}
+
+	/**
+	 * It writes the assigned entitlements. Ids of every domain are sorted, so these are written as differences from the
+	 * previous id, which take one or two bytes for dense ids.
+	 */
+	private static void writeEntitlements( DataOutputStream output, Map<String, EntitlementSet> entitlements )
+			throws IOException
+	{
+		writeVarInt( output, entitlements == null ? 0 : entitlements.size() + 1 );
+		if( entitlements != null )
+		{
+			for( Map.Entry<String, EntitlementSet> entry : entitlements.entrySet() )
+			{
+				writeString( output, entry.getKey() );
+				long[] ids = entry.getValue().getIds();
+				writeVarInt( output, ids.length );
+				long previousId = 0;
+				for( long id : ids )
+				{
+					writeVarLong( output, id - previousId );
+					previousId = id;
+				}
+			}
+		}
+	}
+
+	private static Map<String, EntitlementSet> readEntitlements( DataInputStream input ) throws IOException
+	{
+		int domainCount = readVarInt( input ) - 1;
+		if( domainCount < 0 )
+		{
+			return null;
+		}
+		Map<String, EntitlementSet> entitlements = new HashMap<>();
+		for( int i = 0; i < domainCount; i++ )
+		{
+			String domain = readString( input );
+			long[] ids = new long[checkCount( input, readVarInt( input ), 1 )];
+			long previousId = 0;
+			for( int j = 0; j < ids.length; j++ )
+			{
+				ids[j] = previousId + readVarLong( input );
+				previousId = ids[j];
+			}
+			entitlements.put( domain, EntitlementSet.ofSorted( ids ) );
+		}
+		return entitlements;
+	}
+
+	private static void writeMenu( DataOutputStream output, Menu menu ) throws IOException
+	{
+		writeId( output, menu.getId() );
+		writeVarInt( output, menu.getIndex() );
+		writeString( output, menu.getDisplayName() );
+		writeString( output, menu.getUrl() );
+		writeString( output, menu.getEncryptedURL() );
+		writeString( output, menu.getModuleName() );
+		writeString( output, menu.getPageName() );
+		writeString( output, menu.getShortCutKey() );
+		writeString( output, menu.getHotKey() );
+		writeMap( output, menu.getLanguageVsNamesMap() );
+		List<MenuItem> topMenuItems = new ArrayList<>();
+		for( MenuItem menuItem : menu.getMenuItems() )
+		{
+			if( menuItem.getParentMenuItem() == null )
+			{
+				topMenuItems.add( menuItem );
+			}
+		}
+		writeMenuItems( output, topMenuItems );
+	}
+
+	private static Menu readMenu( DataInputStream input ) throws IOException, ClassNotFoundException
+	{
+		Menu menu = new Menu();
+		menu.setId( readId( input ) );
+		menu.setIndex( readVarInt( input ) );
+		menu.setDisplayName( readString( input ) );
+		menu.setUrl( readString( input ) );
+		menu.setEncryptedURL( readString( input ) );
+		menu.setModuleName( readString( input ) );
+		menu.setPageName( readString( input ) );
+		menu.setShortCutKey( readString( input ) );
+		menu.setHotKey( readString( input ) );
+		menu.setLanguageVsNamesMap( readMap( input ) );
+		int menuItemCount = readVarInt( input );
+		for( int i = 0; i < menuItemCount; i++ )
+		{
+			menu.addMenuItem( readMenuItem( input, menu, null ) );
+		}
+		return menu;
+	}
+
+	private static void writeMenuItems( DataOutputStream output, Collection<MenuItem> menuItems ) throws IOException
+	{
+		writeVarInt( output, menuItems.size() );
+		for( MenuItem menuItem : menuItems )
+		{
+			writeId( output, menuItem.getId() );
+			writeVarInt( output, menuItem.getIndex() );
+			writeString( output, menuItem.getDisplayName() );
+			writeString( output, menuItem.getUrl() );
+			writeString( output, menuItem.getEncryptedURL() );
+			output.writeByte( menuItem.getActionType() );
+			writeString( output, menuItem.getVisibilityCondition() );
+			writeString( output, menuItem.getShortCutKey() );
+			writeString( output, menuItem.getHotKey() );
+			writeMap( output, menuItem.getLanguageVsNamesMap() );
+			writeMenuItems( output, menuItem.getSubMenuItems() );
+		}
+	}
+
+	/**
+	 * It reads a menu item along with its sub items. Sub items are added after the item is added to its parent, as
+	 * adding a sub item needs the menu of item.
+	 */
+	private static MenuItem readMenuItem( DataInputStream input, Menu menu, MenuItem parentMenuItem )
+			throws IOException, ClassNotFoundException
+	{
+		MenuItem menuItem = new MenuItem();
+		menuItem.setId( readId( input ) );
+		menuItem.setIndex( readVarInt( input ) );
+		menuItem.setDisplayName( readString( input ) );
+		menuItem.setUrl( readString( input ) );
+		menuItem.setEncryptedURL( readString( input ) );
+		menuItem.setActionType( input.readByte() );
+		menuItem.setVisibilityCondition( readString( input ) );
+		menuItem.setShortCutKey( readString( input ) );
+		menuItem.setHotKey( readString( input ) );
+		menuItem.setLanguageVsNamesMap( readMap( input ) );
+		if( parentMenuItem == null )
+		{
+			menu.addMenuItem( menuItem );
+		}
+		else
+		{
+			parentMenuItem.addSubMenuItem( menuItem );
+		}
+		int subMenuItemCount = readVarInt( input );
+		for( int i = 0; i < subMenuItemCount; i++ )
+		{
+			readMenuItem( input, menu, menuItem );
+		}
+		return menuItem;
+	}
+
+	private static void writeMap( DataOutputStream output, Map<?, ?> map ) throws IOException
+	{
+		writeVarInt( output, map == null ? 0 : map.size() + 1 );
+		if( map != null )
+		{
+			for( Map.Entry<?, ?> entry : map.entrySet() )
+			{
+				writeValue( output, entry.getKey() );
+				writeValue( output, entry.getValue() );
+			}
+		}
+	}
+
+	/**
+	 * @return Map of decoded keys and values. Types of keys and values are not checked, caller knows these from the
+	 *         field being read.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private static <K, V> Map<K, V> readMap( DataInputStream input ) throws IOException, ClassNotFoundException
+	{
+		int size = readVarInt( input ) - 1;
+		if( size < 0 )
+		{
+			return null;
+		}
+		Map<Object, Object> map = new HashMap<>();
+		for( int i = 0; i < size; i++ )
+		{
+			map.put( readValue( input ), readValue( input ) );
+		}
+		return (Map<K, V>) map;
+	}
+
+	private static void writeCollection( DataOutputStream output, Collection<?> collection ) throws IOException
+	{
+		writeVarInt( output, collection == null ? 0 : collection.size() + 1 );
+		if( collection != null )
+		{
+			for( Object value : collection )
+			{
+				writeValue( output, value );
+			}
+		}
+	}
+
+	private static List<Object> readCollection( DataInputStream input ) throws IOException, ClassNotFoundException
+	{
+		int size = readVarInt( input ) - 1;
+		if( size < 0 )
+		{
+			return null;
+		}
+		List<Object> values = new ArrayList<>( checkCount( input, size, 1 ) );
+		for( int i = 0; i < size; i++ )
+		{
+			values.add( readValue( input ) );
+		}
+		return values;
+	}
+
+	private static void writeValue( DataOutputStream output, Object value ) throws IOException
+	{
+		if( value == null )
+		{
+			output.writeByte( TYPE_NULL );
+		}
+		else if( value instanceof String )
+		{
+			output.writeByte( TYPE_STRING );
+			writeString( output, (String) value );
+		}
+		else if( value instanceof Integer )
+		{
+			output.writeByte( TYPE_INTEGER );
+			writeVarInt( output, (Integer) value );
+		}
+		else if( value instanceof Long )
+		{
+			output.writeByte( TYPE_LONG );
+			writeVarLong( output, (Long) value );
+		}
+		else if( value instanceof Boolean )
+		{
+			output.writeByte( TYPE_BOOLEAN );
+			output.writeBoolean( (Boolean) value );
+		}
+		else if( value instanceof UserRight )
+		{
+			UserRight right = (UserRight) value;
+			output.writeByte( TYPE_USER_RIGHT );
+			writeString( output, right.getRight() );
+			writeString( output, right.getJstlCondition() );
+			writeString( output, right.getSqlCondition() );
+		}
+		else if( value instanceof AppDomainEntity )
+		{
+			AppDomainEntity domainEntity = (AppDomainEntity) value;
+			output.writeByte( TYPE_DOMAIN_ENTITY );
+			writeVarLong( output, domainEntity.getId() );
+			writeString( output, domainEntity.getName() );
+			writeString( output, domainEntity.getDescription() );
+			ApplicationDomain domain = domainEntity.getApplicationDomain();
+			output.writeBoolean( domain != null );
+			if( domain != null )
+			{
+				// domain is written without its entities, to avoid writing the whole graph for every entity
+				writeVarLong( output, domain.getId() );
+				writeString( output, domain.getName() );
+				writeString( output, domain.getDescription() );
+			}
+		}
+		else if( value instanceof Serializable )
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try( ObjectOutputStream objectOutput = new ObjectOutputStream( bytes ) )
+			{
+				objectOutput.writeObject( value );
+			}
+			output.writeByte( TYPE_SERIALIZED );
+			writeVarInt( output, bytes.size() );
+			bytes.writeTo( output );
+		}
+		else
+		{
+			throw new IOException( "Value can not be encoded, it is not serializable. value[" + value + "] type["
+					+ value.getClass().getName() + "]" );
+		}
+	}
+
+	private static Object readValue( DataInputStream input ) throws IOException, ClassNotFoundException
+	{
+		byte type = input.readByte();
+		switch( type )
+		{
+			case TYPE_NULL:
+				return null;
+			case TYPE_STRING:
+				return readString( input );
+			case TYPE_INTEGER:
+				return readVarInt( input );
+			case TYPE_LONG:
+				return readVarLong( input );
+			case TYPE_BOOLEAN:
+				return input.readBoolean();
+			case TYPE_USER_RIGHT:
+			{
+				UserRight right = new UserRight();
+				right.setRight( readString( input ) );
+				right.setJstlCondition( readString( input ) );
+				right.setSqlCondition( readString( input ) );
+				return right;
+			}
+			case TYPE_DOMAIN_ENTITY:
+			{
+				AppDomainEntity domainEntity = new AppDomainEntity();
+				domainEntity.setId( readVarLong( input ) );
+				domainEntity.setName( readString( input ) );
+				domainEntity.setDescription( readString( input ) );
+				if( input.readBoolean() )
+				{
+					ApplicationDomain domain = new ApplicationDomain();
+					domain.setId( readVarLong( input ) );
+					domain.setName( readString( input ) );
+					domain.setDescription( readString( input ) );
+					domainEntity.setApplicationDomain( domain );
+				}
+				return domainEntity;
+			}
+			case TYPE_SERIALIZED:
+			{
+				byte[] bytes = new byte[checkCount( input, readVarInt( input ), 1 )];
+				input.readFully( bytes );
+				try( ObjectInputStream objectInput = new ValueObjectInputStream( new ByteArrayInputStream( bytes ) ) )
+				{
+					return objectInput.readObject();
+				}
+			}
+			default:
+				throw new IOException( "Unknown type of value[" + type + "]" );
+		}
+	}
+
+	private static void writeId( DataOutputStream output, Long id ) throws IOException
+	{
+		output.writeBoolean( id != null );
+		if( id != null )
+		{
+			writeVarLong( output, id );
+		}
+	}
+
+	private static Long readId( DataInputStream input ) throws IOException
+	{
+		return input.readBoolean() ? readVarLong( input ) : null;
+	}
+
+	/**
+	 * It writes the length plus one, zero for null, followed by UTF-8 bytes
+	 */
+	private static void writeString( DataOutputStream output, String value ) throws IOException
+	{
+		if( value == null )
+		{
+			writeVarInt( output, 0 );
+			return;
+		}
+		byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+		writeVarInt( output, bytes.length + 1 );
+		output.write( bytes );
+	}
+
+	private static String readString( DataInputStream input ) throws IOException
+	{
+		int length = readVarInt( input ) - 1;
+		if( length == -1 )
+		{
+			return null;
+		}
+		byte[] bytes = new byte[checkCount( input, length, 1 )];
+		input.readFully( bytes );
+		return new String( bytes, StandardCharsets.UTF_8 );
+	}
+
+	/**
+	 * It validates a decoded count of elements against the remaining input, before an array is allocated for these.
+	 * So corrupt data fails with a decode error instead of allocating a huge or negative sized array.
+	 *
+	 * @param count Decoded count
+	 * @param minimumElementSize Minimum number of bytes taken by an element in input
+	 * @return Count, if it is valid
+	 * @throws IOException If count is negative or remaining input is too short for it
+	 */
+	private static int checkCount( DataInputStream input, int count, int minimumElementSize ) throws IOException
+	{
+		int remaining = input.available();
+		if( count < 0 || (long) count * minimumElementSize > remaining )
+		{
+			throw new IOException( "Invalid count, data is corrupt or truncated. count[" + count + "] remaining["
+					+ remaining + "]" );
+		}
+		return count;
+	}
+
+	/**
+	 * It writes the value in 7 bit groups, zig zag encoded so that small negative values are also small
+	 */
+	private static void writeVarInt( DataOutputStream output, int value ) throws IOException
+	{
+		writeVarLong( output, value );
+	}
+
+	private static int readVarInt( DataInputStream input ) throws IOException
+	{
+		return (int) readVarLong( input );
+	}
+
+	private static void writeVarLong( DataOutputStream output, long value ) throws IOException
+	{
+		long zigZag = ( value << 1 ) ^ ( value >> 63 );
+		while( ( zigZag & ~0x7FL ) != 0 )
+		{
+			output.writeByte( (int) ( ( zigZag & 0x7F ) | 0x80 ) );
+			zigZag >>>= 7;
+		}
+		output.writeByte( (int) zigZag );
+	}
+
+	private static long readVarLong( DataInputStream input ) throws IOException
+	{
+		long zigZag = 0;
+		for( int shift = 0; shift < 64; shift += 7 )
+		{
+			byte b = input.readByte();
+			zigZag |= (long) ( b & 0x7F ) << shift;
+			if( ( b & 0x80 ) == 0 )
+			{
+				return ( zigZag >>> 1 ) ^ -( zigZag & 1 );
+			}
+		}
+		throw new IOException( "Malformed variable length number" );
+	}
+
+	/**
+	 * Object input stream for the Serializable values, which resolves only the classes expected in values of a user
+	 */
+	private static final class ValueObjectInputStream extends ObjectInputStream
+	{
+
+		private static final Set<String>	ALLOWED_CLASSES	= new HashSet<>( Arrays.asList( "java.lang.String",
+				"java.lang.Boolean", "java.lang.Character", "java.lang.Number", "java.lang.Byte", "java.lang.Short",
+				"java.lang.Integer", "java.lang.Long", "java.lang.Float", "java.lang.Double", "java.lang.Enum",
+				"java.math.BigInteger", "java.math.BigDecimal", "java.util.Date", "java.util.Locale", "java.sql.Date",
+				"java.sql.Timestamp", "java.util.ArrayList", "java.util.LinkedList", "java.util.HashMap",
+				"java.util.LinkedHashMap", "java.util.TreeMap", "java.util.HashSet", "java.util.LinkedHashSet",
+				"java.util.TreeSet", "java.util.Arrays$ArrayList", "java.util.Collections$EmptyList",
+				"java.util.Collections$EmptySet", "java.util.Collections$EmptyMap", "java.util.Collections$SingletonList",
+				"java.util.Collections$SingletonSet", "java.util.Collections$SingletonMap",
+				"java.util.Collections$UnmodifiableCollection", "java.util.Collections$UnmodifiableList",
+				"java.util.Collections$UnmodifiableRandomAccessList", "java.util.Collections$UnmodifiableSet",
+				"java.util.Collections$UnmodifiableMap" ) );
+
+		private static final String			MODEL_PACKAGE	= UserCodec.class.getPackage().getName() + ".";
+
+		ValueObjectInputStream( InputStream input ) throws IOException
+		{
+			super( input );
+		}
+
+		@Override
+		protected Class<?> resolveClass( ObjectStreamClass description ) throws IOException, ClassNotFoundException
+		{
+			String name = description.getName();
+			if( !isAllowed( name ) )
+			{
+				throw new InvalidClassException( name, "Class is not allowed in values of user" );
+			}
+			return super.resolveClass( description );
+		}
+
+		@Override
+		protected Class<?> resolveProxyClass( String[] interfaces ) throws IOException, ClassNotFoundException
+		{
+			throw new InvalidClassException( Arrays.toString( interfaces ), "Proxy is not allowed in values of user" );
+		}
+
+		private static boolean isAllowed( String name )
+		{
+			int dimensions = 0;
+			while( dimensions < name.length() && name.charAt( dimensions ) == '[' )
+			{
+				dimensions++;
+			}
+			if( dimensions > 0 )
+			{
+				// array of primitives has a single type code after the brackets, array of objects has 'L<class>;'
+				String componentName = name.substring( dimensions );
+				if( componentName.length() == 1 )
+				{
+					return true;
+				}
+				if( componentName.length() < 3 || componentName.charAt( 0 ) != 'L' || !componentName.endsWith( ";" ) )
+				{
+					return false;
+				}
+				name = componentName.substring( 1, componentName.length() - 1 );
+			}
+			return ALLOWED_CLASSES.contains( name )
+					|| ( name.startsWith( MODEL_PACKAGE ) && name.indexOf( '.', MODEL_PACKAGE.length() ) < 0 );
+		}
+
+	}
+
+}
@@ -0,0 +1,167 @@
+package org.vedantatree.comps.securitymanager.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+
+/**
+ * Tests for {@link Menu#clone()}, on menus with thousands of nested menu items
+ *
+ * @author Mohit Gupta <mohit.gupta@vedantatree.com>
+ */
+public class MenuCloneTest extends TestCase
+{
+
+	private static final int	TOP_ITEMS		= 40;
+	private static final int	CHILDREN		= 10;
+	private static final int	GRAND_CHILDREN	= 10;
+
+	/**
+	 * Indexes repeat, so that ordering of menu items with duplicate index is covered too
+	 */
+	private static final int	INDEX_MODULO	= 7;
+
+	public void testCloneOfMenuBeingBuilt() throws CloneNotSupportedException
+	{
+		assertCopy( buildMenu() );
+	}
+
+	public void testCloneOfFrozenMenu() throws CloneNotSupportedException
+	{
+		Menu menu = buildMenu();
+		menu.freeze();
+		assertCopy( menu );
+	}
+
+	private void assertCopy( Menu menu ) throws CloneNotSupportedException
+	{
+		int itemCount = countItems( menu.getMenuItems() );
+		assertEquals( TOP_ITEMS * ( 1 + CHILDREN * ( 1 + GRAND_CHILDREN ) ), itemCount );
+
+		Menu copiedMenu = (Menu) menu.clone();
+		assertNotSame( menu, copiedMenu );
+		assertEquals( menu.getUrl(), copiedMenu.getUrl() );
+
+		Map<MenuItem, MenuItem> copiedItems = new IdentityHashMap<>();
+		assertSameHierarchy( menu.getMenuItems(), copiedMenu.getMenuItems(), null, copiedMenu, copiedItems );
+		assertEquals( itemCount, copiedItems.size() );
+
+		// left navigation items of copy are the copied items of its hierarchy, in same order
+		assertEquals( menu.getLeftNavigationMenuItems().size(), copiedMenu.getLeftNavigationMenuItems().size() );
+		Iterator<MenuItem> copiedLeftNavigationItems = copiedMenu.getLeftNavigationMenuItems().iterator();
+		for( MenuItem menuItem : menu.getLeftNavigationMenuItems() )
+		{
+			assertSame( copiedItems.get( menuItem ), copiedLeftNavigationItems.next() );
+		}
+
+		for( Map.Entry<MenuItem, MenuItem> copiedItem : copiedItems.entrySet() )
+		{
+			MenuItem menuItem = copiedItem.getKey();
+			assertSame( copiedItem.getValue(), copiedMenu.getMenuItemForURL( menuItem.getUrl() ) );
+			assertSame( copiedItem.getValue(), copiedMenu.getMenuItemForURL( menuItem.getEncryptedURL() ) );
+			assertSame( menuItem, menu.getMenuItemForURL( menuItem.getUrl() ) );
+		}
+
+		assertCopyChangesDoNotAffectOriginal( menu, copiedMenu, itemCount );
+	}
+
+	private void assertSameHierarchy( Collection<MenuItem> menuItems, Collection<MenuItem> copiedMenuItems,
+			MenuItem copiedParentMenuItem, Menu copiedMenu, Map<MenuItem, MenuItem> copiedItems )
+	{
+		assertEquals( menuItems.size(), copiedMenuItems.size() );
+		Iterator<MenuItem> copies = copiedMenuItems.iterator();
+		for( MenuItem menuItem : menuItems )
+		{
+			MenuItem copiedMenuItem = copies.next();
+			assertNotSame( menuItem, copiedMenuItem );
+			assertNull( "item is copied twice", copiedItems.put( menuItem, copiedMenuItem ) );
+			assertEquals( menuItem.getUrl(), copiedMenuItem.getUrl() );
+			assertEquals( menuItem.getEncryptedURL(), copiedMenuItem.getEncryptedURL() );
+			assertEquals( menuItem.getIndex(), copiedMenuItem.getIndex() );
+			assertEquals( menuItem.getDisplayName(), copiedMenuItem.getDisplayName() );
+			assertEquals( menuItem.getActionType(), copiedMenuItem.getActionType() );
+			assertSame( copiedParentMenuItem, copiedMenuItem.getParentMenuItem() );
+			assertSame( copiedMenu, copiedMenuItem.getMenu() );
+			assertSameHierarchy( menuItem.getSubMenuItems(), copiedMenuItem.getSubMenuItems(), copiedMenuItem,
+					copiedMenu, copiedItems );
+		}
+	}
+
+	private void assertCopyChangesDoNotAffectOriginal( Menu menu, Menu copiedMenu, int itemCount )
+	{
+		List<MenuItem> menuItems = new ArrayList<>( menu.getMenuItems() );
+		MenuItem firstMenuItem = menuItems.get( 0 );
+		int subMenuItemCount = firstMenuItem.getSubMenuItems().size();
+
+		copiedMenu.addMenuItem( createMenuItem( "added-top.do", 0, Menu.LEFT_NAV_ACTION ) );
+		MenuItem copiedFirstMenuItem = copiedMenu.getMenuItemForURL( firstMenuItem.getUrl() );
+		copiedFirstMenuItem.addSubMenuItem( createMenuItem( "added-sub.do", 1, Menu.PAGE_ACTION ) );
+		copiedFirstMenuItem.setDisplayName( "changed" );
+
+		assertNotNull( copiedMenu.getMenuItemForURL( "added-top.do" ) );
+		assertNotNull( copiedMenu.getMenuItemForURL( "added-sub.do" ) );
+		assertEquals( itemCount + 2, countItems( copiedMenu.getMenuItems() ) );
+
+		assertNull( menu.getMenuItemForURL( "added-top.do" ) );
+		assertNull( menu.getMenuItemForURL( "added-sub.do" ) );
+		assertEquals( itemCount, countItems( menu.getMenuItems() ) );
+		assertEquals( menuItems, new ArrayList<>( menu.getMenuItems() ) );
+		assertEquals( subMenuItemCount, firstMenuItem.getSubMenuItems().size() );
+		assertEquals( "item-0", firstMenuItem.getDisplayName() );
+	}
+
+	private static Menu buildMenu()
+	{
+		Menu menu = new Menu();
+		menu.setUrl( "menu.do" );
+		menu.setEncryptedURL( "e-menu.do" );
+		menu.setIndex( 1 );
+		int number = 0;
+		for( int i = 0; i < TOP_ITEMS; i++ )
+		{
+			MenuItem menuItem = createMenuItem( number++, i % 3 == 0 ? Menu.LEFT_NAV_ACTION : Menu.PAGE_ACTION );
+			menu.addMenuItem( menuItem );
+			for( int j = 0; j < CHILDREN; j++ )
+			{
+				MenuItem child = createMenuItem( number++, Menu.PAGE_ACTION );
+				menuItem.addSubMenuItem( child );
+				for( int k = 0; k < GRAND_CHILDREN; k++ )
+				{
+					child.addSubMenuItem( createMenuItem( number++, Menu.LIST_ACTION ) );
+				}
+			}
+		}
+		return menu;
+	}
+
+	private static MenuItem createMenuItem( int number, byte actionType )
+	{
+		MenuItem menuItem = createMenuItem( "item.do?item-id=" + number, number % INDEX_MODULO, actionType );
+		menuItem.setDisplayName( "item-" + number );
+		return menuItem;
+	}
+
+	private static MenuItem createMenuItem( String url, int index, byte actionType )
+	{
+		MenuItem menuItem = new MenuItem( index, url, url, actionType );
+		menuItem.setEncryptedURL( "e-" + url );
+		return menuItem;
+	}
+
+	private static int countItems( Collection<MenuItem> menuItems )
+	{
+		int count = menuItems.size();
+		for( MenuItem menuItem : menuItems )
+		{
+			count += countItems( menuItem.getSubMenuItems() );
+		}
+		return count;
+	}
+
+}